@@ -0,0 +1,102 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.core.metrics.Summary;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency of a single {@code observe()} call while another thread scrapes the same metric in a
+ * tight loop.
+ *
+ * <p>Each group runs 4 observer threads and 1 scraper thread on the same data point. The
+ * interesting numbers are the p0.99 and p0.999 percentiles of the {@code *Observe} benchmarks,
+ * because scrapes must not cause latency spikes for the threads recording observations.
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ConcurrentScrapeBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConcurrentScrapeBenchmark {
+
+  @State(Scope.Group)
+  public static class PrometheusHistogram {
+
+    final Histogram histogram;
+
+    public PrometheusHistogram() {
+      histogram = Histogram.builder().name("test").help("help").build();
+    }
+  }
+
+  @State(Scope.Group)
+  public static class PrometheusSummary {
+
+    final Summary summary;
+
+    public PrometheusSummary() {
+      summary =
+          Summary.builder()
+              .name("test")
+              .help("help")
+              .quantile(0.5, 0.01)
+              .quantile(0.95, 0.005)
+              .quantile(0.99, 0.001)
+              .build();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class NextRandomNumber {
+
+    final RandomNumbers randomNumbers = new RandomNumbers();
+    int pos = 0;
+
+    double next() {
+      double result = randomNumbers.randomNumbers[pos];
+      pos = (pos + 1) % randomNumbers.randomNumbers.length;
+      return result;
+    }
+  }
+
+  @Benchmark
+  @Group("histogram")
+  @GroupThreads(4)
+  public Histogram histogramObserve(NextRandomNumber random, PrometheusHistogram histogram) {
+    histogram.histogram.observe(random.next());
+    return histogram.histogram;
+  }
+
+  @Benchmark
+  @Group("histogram")
+  @GroupThreads(1)
+  public HistogramSnapshot histogramScrape(PrometheusHistogram histogram) {
+    return histogram.histogram.collect();
+  }
+
+  @Benchmark
+  @Group("summary")
+  @GroupThreads(4)
+  public Summary summaryObserve(NextRandomNumber random, PrometheusSummary summary) {
+    summary.summary.observe(random.next());
+    return summary.summary;
+  }
+
+  @Benchmark
+  @Group("summary")
+  @GroupThreads(1)
+  public SummarySnapshot summaryScrape(PrometheusSummary summary) {
+    return summary.summary.collect();
+  }
+}
@@ -0,0 +1,51 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.benchmarks.CompressionBenchmark.Exchange;
+import io.prometheus.metrics.exporter.common.PrometheusScrapeHandler;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time per scrape of the {@link CompressionBenchmark} registry with {@code gzip} (default level)
+ * vs. {@code zstd} Content-Encoding. The response size is printed during setup.
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ContentEncodingBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentEncodingBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Handler {
+
+    @Param({"gzip", "zstd"})
+    public String encoding;
+
+    PrometheusScrapeHandler handler;
+
+    @Setup
+    public void setUp(CompressionBenchmark.Registry registry) throws IOException {
+      handler = new PrometheusScrapeHandler(registry.registry);
+      Exchange exchange = new Exchange(encoding);
+      handler.handleRequest(exchange);
+      System.out.printf("%nResponse size: %d bytes%n", exchange.responseBytes.count);
+    }
+  }
+
+  @Benchmark
+  public long scrape(Handler handler) throws IOException {
+    Exchange exchange = new Exchange(handler.encoding);
+    handler.handler.handleRequest(exchange);
+    return exchange.responseBytes.count;
+  }
+}
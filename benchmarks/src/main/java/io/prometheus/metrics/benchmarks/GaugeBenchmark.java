@@ -0,0 +1,91 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.datapoints.GaugeDataPoint;
+import io.prometheus.metrics.core.metrics.Gauge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * A gauge counting in-flight requests: 16 threads call {@code inc()} and {@code dec()} on the same
+ * data point.
+ *
+ * <ul>
+ *   <li>{@code prometheusIncDec}: Default gauge, the value is a single atomic variable.
+ *   <li>{@code prometheusAdditiveIncDec}: Gauge built with {@code additive()}, the value is kept in
+ *       striped adders.
+ *   <li>{@code simpleclientIncDec}: Gauge from the {@code simpleclient} library for comparison.
+ * </ul>
+ *
+ * The difference depends on the number of CPU cores. With a single core there is no contention, so
+ * the additive gauge has no advantage.
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar GaugeBenchmark
+ * </pre>
+ */
+public class GaugeBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class PrometheusGauge {
+
+    final GaugeDataPoint dataPoint;
+    final GaugeDataPoint additiveDataPoint;
+
+    public PrometheusGauge() {
+      Gauge gauge = Gauge.builder().name("in_flight").help("help").labelNames("path").build();
+      dataPoint = gauge.labelValues("/");
+
+      Gauge additive =
+          Gauge.builder().name("in_flight").help("help").labelNames("path").additive().build();
+      additiveDataPoint = additive.labelValues("/");
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SimpleclientGauge {
+
+    final io.prometheus.client.Gauge.Child dataPoint;
+
+    public SimpleclientGauge() {
+      io.prometheus.client.Gauge gauge =
+          io.prometheus.client.Gauge.build()
+              .name("in_flight")
+              .help("help")
+              .labelNames("path")
+              .create();
+      dataPoint = gauge.labels("/");
+    }
+  }
+
+  @Benchmark
+  @Threads(16)
+  public GaugeDataPoint prometheusIncDec(PrometheusGauge gauge) {
+    for (int i = 0; i < 10 * 1024; i++) {
+      gauge.dataPoint.inc();
+      gauge.dataPoint.dec();
+    }
+    return gauge.dataPoint;
+  }
+
+  @Benchmark
+  @Threads(16)
+  public GaugeDataPoint prometheusAdditiveIncDec(PrometheusGauge gauge) {
+    for (int i = 0; i < 10 * 1024; i++) {
+      gauge.additiveDataPoint.inc();
+      gauge.additiveDataPoint.dec();
+    }
+    return gauge.additiveDataPoint;
+  }
+
+  @Benchmark
+  @Threads(16)
+  public io.prometheus.client.Gauge.Child simpleclientIncDec(SimpleclientGauge gauge) {
+    for (int i = 0; i < 10 * 1024; i++) {
+      gauge.dataPoint.inc();
+      gauge.dataPoint.dec();
+    }
+    return gauge.dataPoint;
+  }
+}
@@ -34,6 +34,13 @@ import org.openjdk.jmh.annotations.Threads;
  * <p>Compared to OpenTelemetry histograms the Prometheus Java client histograms perform more than 3
  * times better (OpenTelemetry has 1908 ops / sec for classic histograms, while Prometheus has 6451
  * ops / sec).
+ *
+ * <p>The {@code prometheusClassic} and {@code prometheusNative} benchmarks are also available with
+ * 1, 16, and 64 threads, to show how throughput scales when more threads update the same histogram.
+ * Run them on a machine with enough cores, otherwise they only measure scheduling.
+ *
+ * <p>{@code prometheusClassicLabelValues} looks up the data point by its label values for each
+ * observation. Run it with {@code -prof gc} to see the allocation per lookup.
  */
 public class HistogramBenchmark {
 
@@ -41,9 +48,17 @@ public class HistogramBenchmark {
   public static class PrometheusClassicHistogram {
 
     final Histogram noLabels;
+    final Histogram requests;
 
     public PrometheusClassicHistogram() {
       noLabels = Histogram.builder().name("test").help("help").classicOnly().build();
+      requests =
+          Histogram.builder()
+              .name("requests")
+              .help("help")
+              .labelNames("method", "route", "status")
+              .classicOnly()
+              .build();
     }
   }
 
@@ -153,6 +168,19 @@ public class HistogramBenchmark {
     return histogram.noLabels;
   }
 
+  @Benchmark
+  @Threads(4)
+  public Histogram prometheusClassicLabelValues(
+      RandomNumbers randomNumbers, PrometheusClassicHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram
+          .requests
+          .labelValues("GET", CounterBenchmark.ROUTES[i & 3], "200")
+          .observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.requests;
+  }
+
   @Benchmark
   @Threads(1)
   public Histogram prometheusClassicSingleThread(
@@ -163,6 +191,26 @@ public class HistogramBenchmark {
     return histogram.noLabels;
   }
 
+  @Benchmark
+  @Threads(16)
+  public Histogram prometheusClassic16Threads(
+      RandomNumbers randomNumbers, PrometheusClassicHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.noLabels;
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Histogram prometheusClassic64Threads(
+      RandomNumbers randomNumbers, PrometheusClassicHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.noLabels;
+  }
+
   @Benchmark
   @Threads(4)
   public Histogram prometheusClassicPerThread(
@@ -183,6 +231,36 @@ public class HistogramBenchmark {
     return histogram.noLabels;
   }
 
+  @Benchmark
+  @Threads(1)
+  public Histogram prometheusNativeSingleThread(
+      RandomNumbers randomNumbers, PrometheusNativeHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.noLabels;
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Histogram prometheusNative16Threads(
+      RandomNumbers randomNumbers, PrometheusNativeHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.noLabels;
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Histogram prometheusNative64Threads(
+      RandomNumbers randomNumbers, PrometheusNativeHistogram histogram) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      histogram.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return histogram.noLabels;
+  }
+
   @Benchmark
   @Threads(4)
   public io.prometheus.client.Histogram simpleclient(
@@ -0,0 +1,78 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Heap memory used per histogram data point.
+ *
+ * <p>Each benchmark creates a histogram with 1000 label values, records 10k observations per data
+ * point, and measures the retained size of the histogram with <a
+ * href="https://github.com/openjdk/jol">JOL</a>. The interesting number is the {@code
+ * bytesPerDataPoint} secondary result, the time is just the time it takes to fill the histogram.
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar HistogramMemoryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+// JOL needs magicFieldOffset to read field offsets of JDK classes on recent Java versions.
+@Fork(value = 1, jvmArgsAppend = "-Djol.magicFieldOffset=true")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class HistogramMemoryBenchmark {
+
+  private static final int NUMBER_OF_DATA_POINTS = 1000;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Footprint {
+
+    public long bytesPerDataPoint;
+  }
+
+  @Benchmark
+  public Histogram prometheusClassic(RandomNumbers randomNumbers, Footprint footprint) {
+    return fill(Histogram.builder().classicOnly(), randomNumbers, footprint);
+  }
+
+  @Benchmark
+  public Histogram prometheusNative(RandomNumbers randomNumbers, Footprint footprint) {
+    return fill(Histogram.builder().nativeOnly(), randomNumbers, footprint);
+  }
+
+  @Benchmark
+  public Histogram prometheusClassicAndNative(RandomNumbers randomNumbers, Footprint footprint) {
+    return fill(Histogram.builder(), randomNumbers, footprint);
+  }
+
+  private static Histogram fill(
+      Histogram.Builder builder, RandomNumbers randomNumbers, Footprint footprint) {
+    Histogram histogram = builder.name("test").help("help").labelNames("id").build();
+    long emptySize = GraphLayout.parseInstance(histogram).totalSize();
+    for (int i = 0; i < NUMBER_OF_DATA_POINTS; i++) {
+      DistributionDataPoint dataPoint = histogram.labelValues(Integer.toString(i));
+      for (double value : randomNumbers.randomNumbers) {
+        dataPoint.observe(value);
+      }
+    }
+    // Scraping compacts the observations into the accumulated state.
+    histogram.collect();
+    footprint.bytesPerDataPoint =
+        (GraphLayout.parseInstance(histogram).totalSize() - emptySize) / NUMBER_OF_DATA_POINTS;
+    return histogram;
+  }
+}
@@ -1,6 +1,7 @@
 package io.prometheus.metrics.benchmarks;
 
 import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.expositionformats.EncoderCache;
 import io.prometheus.metrics.expositionformats.OpenMetricsTextFormatWriter;
 import io.prometheus.metrics.expositionformats.PrometheusTextFormatWriter;
 import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
@@ -19,6 +20,10 @@ import org.openjdk.jmh.annotations.Warmup;
 /**
  * Benchmarks for writing a classic histogram (10 label combinations × 12 buckets) to text formats.
  * Output goes to /dev/null to isolate pure formatting CPU cost with zero IO overhead.
+ *
+ * <p>The snapshot is the same for each write, so the {@code *WriteToNull} benchmarks take the names
+ * and labels from the writer's {@link EncoderCache}. The {@code *WriteToNullWithoutCache}
+ * benchmarks use writers with the cache disabled.
  */
 @Fork(3)
 @Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
@@ -54,6 +59,10 @@ public class HistogramTextFormatBenchmark {
       OpenMetricsTextFormatWriter.create();
   private static final PrometheusTextFormatWriter PROMETHEUS_TEXT_FORMAT_WRITER =
       PrometheusTextFormatWriter.create();
+  private static final OpenMetricsTextFormatWriter OPEN_METRICS_TEXT_FORMAT_WRITER_WITHOUT_CACHE =
+      OpenMetricsTextFormatWriter.builder().setEncoderCacheSize(0).build();
+  private static final PrometheusTextFormatWriter PROMETHEUS_TEXT_FORMAT_WRITER_WITHOUT_CACHE =
+      PrometheusTextFormatWriter.builder().setEncoderCacheSize(0).build();
 
   @Benchmark
   public OutputStream openMetricsWriteToNull() throws IOException {
@@ -68,4 +77,20 @@ public class HistogramTextFormatBenchmark {
     PROMETHEUS_TEXT_FORMAT_WRITER.write(nullOutputStream, SNAPSHOTS, EscapingScheme.ALLOW_UTF8);
     return nullOutputStream;
   }
+
+  @Benchmark
+  public OutputStream openMetricsWriteToNullWithoutCache() throws IOException {
+    OutputStream nullOutputStream = TextFormatUtilBenchmark.NullOutputStream.INSTANCE;
+    OPEN_METRICS_TEXT_FORMAT_WRITER_WITHOUT_CACHE.write(
+        nullOutputStream, SNAPSHOTS, EscapingScheme.ALLOW_UTF8);
+    return nullOutputStream;
+  }
+
+  @Benchmark
+  public OutputStream prometheusWriteToNullWithoutCache() throws IOException {
+    OutputStream nullOutputStream = TextFormatUtilBenchmark.NullOutputStream.INSTANCE;
+    PROMETHEUS_TEXT_FORMAT_WRITER_WITHOUT_CACHE.write(
+        nullOutputStream, SNAPSHOTS, EscapingScheme.ALLOW_UTF8);
+    return nullOutputStream;
+  }
 }
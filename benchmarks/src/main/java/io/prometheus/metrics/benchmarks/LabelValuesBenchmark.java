@@ -0,0 +1,127 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.CurriedLabelValues;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of looking up a data point by its label values, for metrics with 3 and 5 labels.
+ *
+ * <ul>
+ *   <li>{@code flatMap}: A {@code ConcurrentHashMap<List<String>, CounterDataPoint>}, which is how
+ *       data points used to be stored.
+ *   <li>{@code labelValues}: {@code counter.labelValues(...)} with all label values.
+ *   <li>{@code curried}: {@code counter.curry(service).labelValues(...)} with the first label value
+ *       fixed in a view that is created once.
+ * </ul>
+ *
+ * Each operation looks up 1024 data points, spread over 4 routes. Run with the GC profiler to see
+ * the allocation per lookup:
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar LabelValuesBenchmark -prof gc
+ * </pre>
+ */
+public class LabelValuesBenchmark {
+
+  private static final String[] ROUTES = {"/", "/api/users", "/api/orders", "/health"};
+
+  @State(Scope.Benchmark)
+  public static class Metrics {
+
+    final Counter threeLabels;
+    final Counter fiveLabels;
+    final CurriedLabelValues<CounterDataPoint> threeLabelsCurried;
+    final CurriedLabelValues<CounterDataPoint> fiveLabelsCurried;
+    final ConcurrentHashMap<List<String>, CounterDataPoint> threeLabelsFlatMap =
+        new ConcurrentHashMap<>();
+    final ConcurrentHashMap<List<String>, CounterDataPoint> fiveLabelsFlatMap =
+        new ConcurrentHashMap<>();
+
+    public Metrics() {
+      threeLabels =
+          Counter.builder()
+              .name("requests")
+              .help("help")
+              .labelNames("service", "route", "status")
+              .build();
+      fiveLabels =
+          Counter.builder()
+              .name("requests")
+              .help("help")
+              .labelNames("service", "method", "route", "status", "region")
+              .build();
+      threeLabelsCurried = threeLabels.curry("checkout");
+      fiveLabelsCurried = fiveLabels.curry("checkout");
+      for (String route : ROUTES) {
+        threeLabelsFlatMap.put(
+            Arrays.asList("checkout", route, "200"),
+            threeLabels.labelValues("checkout", route, "200"));
+        fiveLabelsFlatMap.put(
+            Arrays.asList("checkout", "GET", route, "200", "eu-west-1"),
+            fiveLabels.labelValues("checkout", "GET", route, "200", "eu-west-1"));
+      }
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void flatMap3Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(
+          metrics.threeLabelsFlatMap.get(Arrays.asList("checkout", ROUTES[i & 3], "200")));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void labelValues3Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(metrics.threeLabels.labelValues("checkout", ROUTES[i & 3], "200"));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void curried3Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(metrics.threeLabelsCurried.labelValues(ROUTES[i & 3], "200"));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void flatMap5Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(
+          metrics.fiveLabelsFlatMap.get(
+              Arrays.asList("checkout", "GET", ROUTES[i & 3], "200", "eu-west-1")));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void labelValues5Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(
+          metrics.fiveLabels.labelValues("checkout", "GET", ROUTES[i & 3], "200", "eu-west-1"));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void curried5Labels(Metrics metrics, Blackhole blackhole) {
+    for (int i = 0; i < 1024; i++) {
+      blackhole.consume(
+          metrics.fiveLabelsCurried.labelValues("GET", ROUTES[i & 3], "200", "eu-west-1"));
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput of native histogram observations for values in different ranges.
+ *
+ * <p>Finding the native bucket index is on the hot path of every native histogram observation. The
+ * cost of the index calculation should not depend on the magnitude of the value:
+ *
+ * <ul>
+ *   <li>{@code subnormal}: values smaller than {@link Double#MIN_NORMAL}.
+ *   <li>{@code latency}: typical latencies between 100 microseconds and 10 seconds.
+ *   <li>{@code huge}: values close to {@link Double#MAX_VALUE}.
+ * </ul>
+ *
+ * <p>The histograms use a zero threshold of 0 so that subnormal values are not counted in the zero
+ * bucket, and an unlimited number of buckets so that the schema is never reduced.
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar NativeBucketIndexBenchmark
+ * </pre>
+ */
+public class NativeBucketIndexBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class NativeHistogram {
+
+    @Param({"subnormal", "latency", "huge"})
+    public String range;
+
+    @Param({"0", "5", "8"})
+    public int schema;
+
+    final double[] values = new double[10 * 1024];
+    Histogram noLabels;
+
+    @Setup
+    public void setup() {
+      Random rand = new Random(0);
+      for (int i = 0; i < values.length; i++) {
+        switch (range) {
+          case "subnormal":
+            values[i] = Double.MIN_VALUE * (1 + rand.nextInt(Integer.MAX_VALUE));
+            break;
+          case "latency":
+            values[i] = Math.pow(10, -4 + 5 * rand.nextDouble());
+            break;
+          case "huge":
+            values[i] = Double.MAX_VALUE * rand.nextDouble();
+            break;
+          default:
+            throw new IllegalArgumentException(range + ": unknown range");
+        }
+      }
+      noLabels =
+          Histogram.builder()
+              .name("test")
+              .help("help")
+              .nativeOnly()
+              .nativeInitialSchema(schema)
+              .nativeMinZeroThreshold(0)
+              .nativeMaxZeroThreshold(0)
+              .nativeMaxNumberOfBuckets(0)
+              .build();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Histogram observe(NativeHistogram histogram) {
+    for (double value : histogram.values) {
+      histogram.noLabels.observe(value);
+    }
+    return histogram.noLabels;
+  }
+}
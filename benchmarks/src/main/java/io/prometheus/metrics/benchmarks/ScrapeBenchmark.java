@@ -0,0 +1,61 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Collecting a registry with 100k labelled series: A counter and a gauge with 50k data points each.
+ *
+ * <p>Run with the GC profiler to see the allocation per scrape ({@code gc.alloc.rate.norm}):
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar ScrapeBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScrapeBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Registry {
+
+    final PrometheusRegistry registry = new PrometheusRegistry();
+
+    public Registry() {
+      Counter counter =
+          Counter.builder()
+              .name("requests_total")
+              .help("help")
+              .labelNames("tenant", "route", "status")
+              .constLabels(Labels.of("region", "eu-west-1"))
+              .register(registry);
+      Gauge gauge =
+          Gauge.builder()
+              .name("queue_size")
+              .help("help")
+              .labelNames("tenant", "queue")
+              .register(registry);
+      for (int tenant = 0; tenant < 500; tenant++) {
+        for (int i = 0; i < 100; i++) {
+          counter.labelValues("tenant-" + tenant, "/api/" + i, i % 10 == 0 ? "500" : "200").inc();
+          gauge.labelValues("tenant-" + tenant, "queue-" + i).set(i);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public MetricSnapshots scrape(Registry registry) {
+    return registry.registry.scrape();
+  }
+}
@@ -0,0 +1,185 @@
+package io.prometheus.metrics.benchmarks;
+
+import io.prometheus.metrics.core.metrics.Summary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput of summaries with quantiles.
+ *
+ * <p>The simpleclient (i.e. client_java version 0.16.0 and older) summary uses a CKMS
+ * implementation with a linked list of sample objects. The current summary stores the samples in
+ * primitive arrays. Both use the same quantiles and the same error bounds, so the difference is
+ * mostly the data structure. The relative error summary uses a mergeable sketch that inserts each
+ * observation into one age bucket only. Run with the GC profiler to compare allocation rates:
+ *
+ * <pre>
+ * java -jar ./benchmarks/target/benchmarks.jar SummaryBenchmark -prof gc
+ * </pre>
+ *
+ * The interesting secondary result is {@code gc.alloc.rate.norm}, the number of bytes allocated per
+ * benchmark operation.
+ */
+public class SummaryBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class PrometheusSummary {
+
+    final Summary noLabels;
+
+    public PrometheusSummary() {
+      noLabels =
+          Summary.builder()
+              .name("test")
+              .help("help")
+              .quantile(0.5, 0.05)
+              .quantile(0.95, 0.01)
+              .quantile(0.99, 0.005)
+              .build();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class PrometheusRelativeErrorSummary {
+
+    final Summary noLabels;
+
+    public PrometheusRelativeErrorSummary() {
+      noLabels =
+          Summary.builder()
+              .name("test")
+              .help("help")
+              .quantile(0.5)
+              .quantile(0.95)
+              .quantile(0.99)
+              .relativeError(0.01)
+              .build();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class PrometheusSummaryWithoutQuantiles {
+
+    final Summary noLabels;
+
+    public PrometheusSummaryWithoutQuantiles() {
+      noLabels = Summary.builder().name("test").help("help").build();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SimpleclientSummary {
+
+    final io.prometheus.client.Summary noLabels;
+
+    public SimpleclientSummary() {
+      noLabels =
+          io.prometheus.client.Summary.build()
+              .name("test")
+              .help("help")
+              .quantile(0.5, 0.05)
+              .quantile(0.95, 0.01)
+              .quantile(0.99, 0.005)
+              .create();
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Summary prometheus(RandomNumbers randomNumbers, PrometheusSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Summary prometheusSingleThread(RandomNumbers randomNumbers, PrometheusSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Summary prometheusRelativeError(
+      RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Summary prometheusRelativeErrorSingleThread(
+      RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Summary prometheus16Threads(RandomNumbers randomNumbers, PrometheusSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Summary prometheusRelativeError16Threads(
+      RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Summary prometheusRelativeError64Threads(
+      RandomNumbers randomNumbers, PrometheusRelativeErrorSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Summary prometheusWithoutQuantiles(
+      RandomNumbers randomNumbers, PrometheusSummaryWithoutQuantiles summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public io.prometheus.client.Summary simpleclient(
+      RandomNumbers randomNumbers, SimpleclientSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public io.prometheus.client.Summary simpleclientSingleThread(
+      RandomNumbers randomNumbers, SimpleclientSummary summary) {
+    for (int i = 0; i < randomNumbers.randomNumbers.length; i++) {
+      summary.noLabels.observe(randomNumbers.randomNumbers[i]);
+    }
+    return summary.noLabels;
+  }
+}
@@ -15,8 +15,11 @@ import io.prometheus.metrics.model.snapshots.Unit;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 
 /**
@@ -29,6 +32,10 @@ import org.openjdk.jmh.annotations.State;
  * TextFormatUtilBenchmark.prometheusWriteToByteArray   thrpt   25  768419.214 ± 22785.134  ops/s
  * TextFormatUtilBenchmark.prometheusWriteToNull        thrpt   25  796486.637 ± 11456.297  ops/s
  * </pre>
+ *
+ * The {@code *WriteToByteArray} benchmarks also report the output size as {@code :bytes} in bytes
+ * per second. Run with {@code -prof gc} to see the allocations per scrape ({@code
+ * gc.alloc.rate.norm}).
  */
 public class TextFormatUtilBenchmark {
 
@@ -76,13 +83,28 @@ public class TextFormatUtilBenchmark {
     }
   }
 
+  /** Reports the number of bytes written as {@code bytes}, in bytes per second. */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class BytesCounter {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
   @Benchmark
-  public OutputStream openMetricsWriteToByteArray(WriterState writerState) throws IOException {
+  public OutputStream openMetricsWriteToByteArray(WriterState writerState, BytesCounter counter)
+      throws IOException {
     // avoid growing the array
     ByteArrayOutputStream byteArrayOutputStream = writerState.byteArrayOutputStream;
     byteArrayOutputStream.reset();
     OPEN_METRICS_TEXT_FORMAT_WRITER.write(
         byteArrayOutputStream, SNAPSHOTS, EscapingScheme.ALLOW_UTF8);
+    counter.bytes += byteArrayOutputStream.size();
     return byteArrayOutputStream;
   }
 
@@ -94,12 +116,14 @@ public class TextFormatUtilBenchmark {
   }
 
   @Benchmark
-  public OutputStream prometheusWriteToByteArray(WriterState writerState) throws IOException {
+  public OutputStream prometheusWriteToByteArray(WriterState writerState, BytesCounter counter)
+      throws IOException {
     // avoid growing the array
     ByteArrayOutputStream byteArrayOutputStream = writerState.byteArrayOutputStream;
     byteArrayOutputStream.reset();
     PROMETHEUS_TEXT_FORMAT_WRITER.write(
         byteArrayOutputStream, SNAPSHOTS, EscapingScheme.ALLOW_UTF8);
+    counter.bytes += byteArrayOutputStream.size();
     return byteArrayOutputStream;
   }
 
@@ -9,13 +9,43 @@ public class ExporterHttpServerProperties {
 
   private static final String PORT = "port";
   private static final String PREFER_UNCOMPRESSED_RESPONSE = "prefer_uncompressed_response";
+  private static final String COALESCE_CONCURRENT_SCRAPES = "coalesce_concurrent_scrapes";
+  private static final String SCRAPE_CACHE_MAX_AGE = "scrape_cache_max_age_milliseconds";
+  private static final String USE_VIRTUAL_THREADS = "use_virtual_threads";
+  private static final String COMPRESSION_LEVEL = "compression_level";
+  private static final String COMPRESSION_MIN_SIZE = "compression_min_size_bytes";
+  private static final String BUFFER_COMPRESSED_RESPONSE = "buffer_compressed_response";
+  private static final String BUFFER_UNCOMPRESSED_RESPONSE = "buffer_uncompressed_response";
   private static final String PREFIX = "io.prometheus.exporter.http_server";
   @Nullable private final Integer port;
   private final boolean preferUncompressedResponse;
+  private final boolean coalesceConcurrentScrapes;
+  private final int scrapeCacheMaxAgeMilliseconds;
+  private final boolean useVirtualThreads;
+  private final int compressionLevel;
+  private final int compressionMinSizeBytes;
+  private final boolean bufferCompressedResponse;
+  private final boolean bufferUncompressedResponse;
 
-  private ExporterHttpServerProperties(@Nullable Integer port, boolean preferUncompressedResponse) {
+  private ExporterHttpServerProperties(
+      @Nullable Integer port,
+      boolean preferUncompressedResponse,
+      boolean coalesceConcurrentScrapes,
+      int scrapeCacheMaxAgeMilliseconds,
+      boolean useVirtualThreads,
+      int compressionLevel,
+      int compressionMinSizeBytes,
+      boolean bufferCompressedResponse,
+      boolean bufferUncompressedResponse) {
     this.port = port;
     this.preferUncompressedResponse = preferUncompressedResponse;
+    this.coalesceConcurrentScrapes = coalesceConcurrentScrapes;
+    this.scrapeCacheMaxAgeMilliseconds = scrapeCacheMaxAgeMilliseconds;
+    this.useVirtualThreads = useVirtualThreads;
+    this.compressionLevel = compressionLevel;
+    this.compressionMinSizeBytes = compressionMinSizeBytes;
+    this.bufferCompressedResponse = bufferCompressedResponse;
+    this.bufferUncompressedResponse = bufferUncompressedResponse;
   }
 
   @Nullable
@@ -27,6 +57,74 @@ public class ExporterHttpServerProperties {
     return preferUncompressedResponse;
   }
 
+  /**
+   * If {@code true}, concurrent scrapes with the same path, query string, response format, and
+   * compression share a single collection, and all of them get the same response. Default is {@code
+   * false}.
+   */
+  public boolean isCoalesceConcurrentScrapes() {
+    return coalesceConcurrentScrapes;
+  }
+
+  /**
+   * How long an encoded response may be re-used for subsequent scrapes with the same path, query
+   * string, response format, and compression. Default is {@code 0}, which means responses are not
+   * re-used. A value greater than {@code 0} implies {@link #isCoalesceConcurrentScrapes()}.
+   */
+  public int getScrapeCacheMaxAgeMilliseconds() {
+    return scrapeCacheMaxAgeMilliseconds;
+  }
+
+  /**
+   * If {@code true} and the JVM supports virtual threads (Java 21+), the HTTPServer handles each
+   * request in a new virtual thread instead of using a pool of up to 10 platform threads. Ignored
+   * on older JVMs and if an {@code ExecutorService} is configured explicitly. Default is {@code
+   * false}.
+   */
+  public boolean isUseVirtualThreads() {
+    return useVirtualThreads;
+  }
+
+  /**
+   * The gzip compression level, from {@code 1} (fastest) to {@code 9} (smallest response), or
+   * {@code 0} for no compression. Default is {@code -1}, which is the default level of {@code
+   * java.util.zip.Deflater}, currently {@code 6}.
+   */
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  /**
+   * Responses smaller than this are sent uncompressed, even if the client accepts gzip. Default is
+   * {@code 0}. A value greater than {@code 0} implies {@link #isBufferCompressedResponse()},
+   * because the size must be known before compressing.
+   */
+  public int getCompressionMinSizeBytes() {
+    return compressionMinSizeBytes;
+  }
+
+  /**
+   * If {@code true}, compressed responses are compressed into a buffer and sent with a {@code
+   * Content-Length} header. If {@code false}, the compressed response is streamed to the client
+   * with chunked transfer encoding, one metric family at a time, so that the scrape does not need
+   * to hold the entire response in memory. Default is {@code false}.
+   *
+   * <p>When streaming, the first metric family is collected before the response headers are sent,
+   * so that a failing registry still results in an HTTP 500 response. If a collector fails later,
+   * the HTTP 200 response is truncated.
+   */
+  public boolean isBufferCompressedResponse() {
+    return bufferCompressedResponse || compressionMinSizeBytes > 0;
+  }
+
+  /**
+   * Like {@link #isBufferCompressedResponse()}, but for uncompressed responses. Default is {@code
+   * true}, i.e. uncompressed responses are sent with a {@code Content-Length} header.
+   */
+  public boolean isBufferUncompressedResponse() {
+    return bufferUncompressedResponse;
+  }
+
   /**
    * Note that this will remove entries from {@code propertySource}. This is because we want to know
    * if there are unused properties remaining after all properties have been loaded.
@@ -36,11 +134,40 @@ public class ExporterHttpServerProperties {
     Integer port = Util.loadInteger(PREFIX, PORT, propertySource);
     Util.assertValue(port, t -> t > 0, "Expecting value > 0.", PREFIX, PORT);
 
+    Integer scrapeCacheMaxAge = Util.loadInteger(PREFIX, SCRAPE_CACHE_MAX_AGE, propertySource);
+    Util.assertValue(
+        scrapeCacheMaxAge, t -> t >= 0, "Expecting value >= 0.", PREFIX, SCRAPE_CACHE_MAX_AGE);
+    Integer compressionLevel = Util.loadInteger(PREFIX, COMPRESSION_LEVEL, propertySource);
+    Util.assertValue(
+        compressionLevel,
+        t -> t >= -1 && t <= 9,
+        "Expecting number between -1 and 9.",
+        PREFIX,
+        COMPRESSION_LEVEL);
+    Integer compressionMinSize = Util.loadInteger(PREFIX, COMPRESSION_MIN_SIZE, propertySource);
+    Util.assertValue(
+        compressionMinSize, t -> t >= 0, "Expecting value >= 0.", PREFIX, COMPRESSION_MIN_SIZE);
+
     Boolean preferUncompressedResponse =
         Util.loadBoolean(PREFIX, PREFER_UNCOMPRESSED_RESPONSE, propertySource);
+    Boolean coalesceConcurrentScrapes =
+        Util.loadBoolean(PREFIX, COALESCE_CONCURRENT_SCRAPES, propertySource);
+    Boolean useVirtualThreads = Util.loadBoolean(PREFIX, USE_VIRTUAL_THREADS, propertySource);
+    Boolean bufferCompressedResponse =
+        Util.loadBoolean(PREFIX, BUFFER_COMPRESSED_RESPONSE, propertySource);
+    Boolean bufferUncompressedResponse =
+        Util.loadBoolean(PREFIX, BUFFER_UNCOMPRESSED_RESPONSE, propertySource);
 
     return new ExporterHttpServerProperties(
-        port, preferUncompressedResponse != null && preferUncompressedResponse);
+        port,
+        preferUncompressedResponse != null && preferUncompressedResponse,
+        coalesceConcurrentScrapes != null && coalesceConcurrentScrapes,
+        scrapeCacheMaxAge != null ? scrapeCacheMaxAge : 0,
+        useVirtualThreads != null && useVirtualThreads,
+        compressionLevel != null ? compressionLevel : -1,
+        compressionMinSize != null ? compressionMinSize : 0,
+        bufferCompressedResponse != null && bufferCompressedResponse,
+        bufferUncompressedResponse == null || bufferUncompressedResponse);
   }
 
   public static Builder builder() {
@@ -51,6 +178,13 @@ public class ExporterHttpServerProperties {
 
     @Nullable private Integer port;
     private boolean preferUncompressedResponse = false;
+    private boolean coalesceConcurrentScrapes = false;
+    private int scrapeCacheMaxAgeMilliseconds = 0;
+    private boolean useVirtualThreads = false;
+    private int compressionLevel = -1;
+    private int compressionMinSizeBytes = 0;
+    private boolean bufferCompressedResponse = false;
+    private boolean bufferUncompressedResponse = true;
 
     private Builder() {}
 
@@ -64,8 +198,71 @@ public class ExporterHttpServerProperties {
       return this;
     }
 
+    /** See {@link #isCoalesceConcurrentScrapes()}. */
+    public Builder coalesceConcurrentScrapes(boolean coalesceConcurrentScrapes) {
+      this.coalesceConcurrentScrapes = coalesceConcurrentScrapes;
+      return this;
+    }
+
+    /** See {@link #getScrapeCacheMaxAgeMilliseconds()}. */
+    public Builder scrapeCacheMaxAgeMilliseconds(int scrapeCacheMaxAgeMilliseconds) {
+      if (scrapeCacheMaxAgeMilliseconds < 0) {
+        throw new IllegalArgumentException(
+            scrapeCacheMaxAgeMilliseconds + ": Expecting scrapeCacheMaxAgeMilliseconds >= 0");
+      }
+      this.scrapeCacheMaxAgeMilliseconds = scrapeCacheMaxAgeMilliseconds;
+      return this;
+    }
+
+    /** See {@link #isUseVirtualThreads()}. */
+    public Builder useVirtualThreads(boolean useVirtualThreads) {
+      this.useVirtualThreads = useVirtualThreads;
+      return this;
+    }
+
+    /** See {@link #getCompressionLevel()}. */
+    public Builder compressionLevel(int compressionLevel) {
+      if (compressionLevel < -1 || compressionLevel > 9) {
+        throw new IllegalArgumentException(
+            compressionLevel + ": Expecting -1 <= compressionLevel <= 9");
+      }
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
+    /** See {@link #getCompressionMinSizeBytes()}. */
+    public Builder compressionMinSizeBytes(int compressionMinSizeBytes) {
+      if (compressionMinSizeBytes < 0) {
+        throw new IllegalArgumentException(
+            compressionMinSizeBytes + ": Expecting compressionMinSizeBytes >= 0");
+      }
+      this.compressionMinSizeBytes = compressionMinSizeBytes;
+      return this;
+    }
+
+    /** See {@link #isBufferCompressedResponse()}. */
+    public Builder bufferCompressedResponse(boolean bufferCompressedResponse) {
+      this.bufferCompressedResponse = bufferCompressedResponse;
+      return this;
+    }
+
+    /** See {@link #isBufferUncompressedResponse()}. */
+    public Builder bufferUncompressedResponse(boolean bufferUncompressedResponse) {
+      this.bufferUncompressedResponse = bufferUncompressedResponse;
+      return this;
+    }
+
     public ExporterHttpServerProperties build() {
-      return new ExporterHttpServerProperties(port, preferUncompressedResponse);
+      return new ExporterHttpServerProperties(
+          port,
+          preferUncompressedResponse,
+          coalesceConcurrentScrapes,
+          scrapeCacheMaxAgeMilliseconds,
+          useVirtualThreads,
+          compressionLevel,
+          compressionMinSizeBytes,
+          bufferCompressedResponse,
+          bufferUncompressedResponse);
     }
   }
 }
@@ -1,6 +1,7 @@
 package io.prometheus.metrics.config;
 
 import io.prometheus.metrics.annotations.StableApi;
+import java.time.Duration;
 import javax.annotation.Nullable;
 
 /** Properties starting with io.prometheus.exporter */
@@ -11,19 +12,27 @@ public class ExporterProperties {
   // milliseconds is the default - we only provide a boolean flag to avoid a breaking change
   private static final String PROMETHEUS_TIMESTAMPS_IN_MS = "prometheus_timestamps_in_ms";
   private static final String EXEMPLARS_ON_ALL_METRIC_TYPES = "exemplars_on_all_metric_types";
+  private static final String PARALLEL_COLLECTION_THREADS = "parallel_collection_threads";
+  private static final String COLLECTOR_TIMEOUT = "collector_timeout_seconds";
   private static final String PREFIX = "io.prometheus.exporter";
 
   @Nullable private final Boolean includeCreatedTimestamps;
   @Nullable private final Boolean prometheusTimestampsInMs;
   @Nullable private final Boolean exemplarsOnAllMetricTypes;
+  @Nullable private final Integer parallelCollectionThreads;
+  @Nullable private final Duration collectorTimeout;
 
   private ExporterProperties(
       @Nullable Boolean includeCreatedTimestamps,
       @Nullable Boolean prometheusTimestampsInMs,
-      @Nullable Boolean exemplarsOnAllMetricTypes) {
+      @Nullable Boolean exemplarsOnAllMetricTypes,
+      @Nullable Integer parallelCollectionThreads,
+      @Nullable Duration collectorTimeout) {
     this.includeCreatedTimestamps = includeCreatedTimestamps;
     this.prometheusTimestampsInMs = prometheusTimestampsInMs;
     this.exemplarsOnAllMetricTypes = exemplarsOnAllMetricTypes;
+    this.parallelCollectionThreads = parallelCollectionThreads;
+    this.collectorTimeout = collectorTimeout;
   }
 
   /** Include the {@code _created} timestamps in text format? Default is {@code false}. */
@@ -44,6 +53,26 @@ public class ExporterProperties {
     return exemplarsOnAllMetricTypes != null && exemplarsOnAllMetricTypes;
   }
 
+  /**
+   * Number of threads for calling collectors in parallel during a scrape. Default is {@code 0},
+   * which means collectors are called one after the other on the thread handling the scrape
+   * request.
+   */
+  public int getParallelCollectionThreads() {
+    return parallelCollectionThreads != null ? parallelCollectionThreads : 0;
+  }
+
+  /**
+   * Maximum time to wait for collectors when they are called in parallel. Collectors that take
+   * longer are cancelled, and their metric families are missing from the response. The number of
+   * omitted collectors is available from {@code PrometheusRegistry.getCollectorTimeouts()}. Default
+   * is {@code null}, which means no timeout.
+   */
+  @Nullable
+  public Duration getCollectorTimeout() {
+    return collectorTimeout;
+  }
+
   /**
    * Note that this will remove entries from {@code propertySource}. This is because we want to know
    * if there are unused properties remaining after all properties have been loaded.
@@ -55,8 +84,22 @@ public class ExporterProperties {
     Boolean timestampsInMs = Util.loadBoolean(PREFIX, PROMETHEUS_TIMESTAMPS_IN_MS, propertySource);
     Boolean exemplarsOnAllMetricTypes =
         Util.loadBoolean(PREFIX, EXEMPLARS_ON_ALL_METRIC_TYPES, propertySource);
+    Integer parallelCollectionThreads =
+        Util.loadInteger(PREFIX, PARALLEL_COLLECTION_THREADS, propertySource);
+    Util.assertValue(
+        parallelCollectionThreads,
+        n -> n >= 0,
+        "Expecting value >= 0.",
+        PREFIX,
+        PARALLEL_COLLECTION_THREADS);
+    Duration collectorTimeout =
+        Util.loadOptionalDuration(PREFIX, COLLECTOR_TIMEOUT, propertySource);
     return new ExporterProperties(
-        includeCreatedTimestamps, timestampsInMs, exemplarsOnAllMetricTypes);
+        includeCreatedTimestamps,
+        timestampsInMs,
+        exemplarsOnAllMetricTypes,
+        parallelCollectionThreads,
+        collectorTimeout);
   }
 
   public static Builder builder() {
@@ -68,6 +111,8 @@ public class ExporterProperties {
     @Nullable private Boolean includeCreatedTimestamps;
     @Nullable private Boolean exemplarsOnAllMetricTypes;
     boolean prometheusTimestampsInMs;
+    @Nullable private Integer parallelCollectionThreads;
+    @Nullable private Duration collectorTimeout;
 
     private Builder() {}
 
@@ -89,9 +134,29 @@ public class ExporterProperties {
       return this;
     }
 
+    /** See {@link #getParallelCollectionThreads()}. */
+    public Builder parallelCollectionThreads(int parallelCollectionThreads) {
+      if (parallelCollectionThreads < 0) {
+        throw new IllegalArgumentException(
+            parallelCollectionThreads + ": Expecting parallelCollectionThreads >= 0");
+      }
+      this.parallelCollectionThreads = parallelCollectionThreads;
+      return this;
+    }
+
+    /** See {@link #getCollectorTimeout()}. */
+    public Builder collectorTimeout(Duration collectorTimeout) {
+      this.collectorTimeout = collectorTimeout;
+      return this;
+    }
+
     public ExporterProperties build() {
       return new ExporterProperties(
-          includeCreatedTimestamps, prometheusTimestampsInMs, exemplarsOnAllMetricTypes);
+          includeCreatedTimestamps,
+          prometheusTimestampsInMs,
+          exemplarsOnAllMetricTypes,
+          parallelCollectionThreads,
+          collectorTimeout);
     }
   }
 }
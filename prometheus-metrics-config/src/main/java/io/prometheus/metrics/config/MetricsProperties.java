@@ -29,6 +29,13 @@ public class MetricsProperties {
   private static final String SUMMARY_QUANTILE_ERRORS = "summary_quantile_errors";
   private static final String SUMMARY_MAX_AGE_SECONDS = "summary_max_age_seconds";
   private static final String SUMMARY_NUMBER_OF_AGE_BUCKETS = "summary_number_of_age_buckets";
+  private static final String SUMMARY_QUANTILE_SKETCH =
+      "summary_quantile_sketch"; // "ckms" or "relative_error"
+  private static final String SUMMARY_RELATIVE_ERROR = "summary_relative_error";
+  private static final String SUMMARY_MAX_NUMBER_OF_BUCKETS = "summary_max_number_of_buckets";
+  private static final String MAX_LABEL_COMBINATIONS = "max_label_combinations";
+  private static final String IDLE_TIMEOUT_SECONDS = "idle_timeout_seconds";
+  private static final String TRACK_CHANGES = "track_changes";
 
   /**
    * All known property suffixes that can be configured for metrics.
@@ -48,7 +55,13 @@ public class MetricsProperties {
     SUMMARY_QUANTILES,
     SUMMARY_QUANTILE_ERRORS,
     SUMMARY_MAX_AGE_SECONDS,
-    SUMMARY_NUMBER_OF_AGE_BUCKETS
+    SUMMARY_NUMBER_OF_AGE_BUCKETS,
+    SUMMARY_QUANTILE_SKETCH,
+    SUMMARY_RELATIVE_ERROR,
+    SUMMARY_MAX_NUMBER_OF_BUCKETS,
+    MAX_LABEL_COMBINATIONS,
+    IDLE_TIMEOUT_SECONDS,
+    TRACK_CHANGES
   };
 
   @Nullable private final Boolean exemplarsEnabled;
@@ -64,6 +77,12 @@ public class MetricsProperties {
   @Nullable private final List<Double> summaryQuantileErrors;
   @Nullable private final Long summaryMaxAgeSeconds;
   @Nullable private final Integer summaryNumberOfAgeBuckets;
+  @Nullable private final String summaryQuantileSketch;
+  @Nullable private final Double summaryRelativeError;
+  @Nullable private final Integer summaryMaxNumberOfBuckets;
+  @Nullable private final Integer maxLabelCombinations;
+  @Nullable private final Long idleTimeoutSeconds;
+  @Nullable private final Boolean trackChanges;
 
   public MetricsProperties(
       @Nullable Boolean exemplarsEnabled,
@@ -93,6 +112,12 @@ public class MetricsProperties {
         summaryQuantileErrors,
         summaryMaxAgeSeconds,
         summaryNumberOfAgeBuckets,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
         "");
   }
 
@@ -110,6 +135,12 @@ public class MetricsProperties {
       @Nullable List<Double> summaryQuantileErrors,
       @Nullable Long summaryMaxAgeSeconds,
       @Nullable Integer summaryNumberOfAgeBuckets,
+      @Nullable String summaryQuantileSketch,
+      @Nullable Double summaryRelativeError,
+      @Nullable Integer summaryMaxNumberOfBuckets,
+      @Nullable Integer maxLabelCombinations,
+      @Nullable Long idleTimeoutSeconds,
+      @Nullable Boolean trackChanges,
       String configPropertyPrefix) {
     this.exemplarsEnabled = exemplarsEnabled;
     this.histogramNativeOnly = isHistogramNativeOnly(histogramClassicOnly, histogramNativeOnly);
@@ -131,6 +162,12 @@ public class MetricsProperties {
             : unmodifiableList(new ArrayList<>(summaryQuantileErrors));
     this.summaryMaxAgeSeconds = summaryMaxAgeSeconds;
     this.summaryNumberOfAgeBuckets = summaryNumberOfAgeBuckets;
+    this.summaryQuantileSketch = summaryQuantileSketch;
+    this.summaryRelativeError = summaryRelativeError;
+    this.summaryMaxNumberOfBuckets = summaryMaxNumberOfBuckets;
+    this.maxLabelCombinations = maxLabelCombinations;
+    this.idleTimeoutSeconds = idleTimeoutSeconds;
+    this.trackChanges = trackChanges;
     validate(configPropertyPrefix);
   }
 
@@ -197,6 +234,33 @@ public class MetricsProperties {
         "Expecting value > 0.",
         prefix,
         SUMMARY_NUMBER_OF_AGE_BUCKETS);
+    Util.assertValue(
+        summaryRelativeError,
+        e -> e > 0 && e < 1,
+        "Expecting 0.0 < relative error < 1.0.",
+        prefix,
+        SUMMARY_RELATIVE_ERROR);
+    Util.assertValue(
+        summaryMaxNumberOfBuckets,
+        n -> n > 0,
+        "Expecting value > 0.",
+        prefix,
+        SUMMARY_MAX_NUMBER_OF_BUCKETS);
+    Util.assertValue(
+        maxLabelCombinations, n -> n > 0, "Expecting value > 0.", prefix, MAX_LABEL_COMBINATIONS);
+    Util.assertValue(
+        idleTimeoutSeconds, t -> t > 0, "Expecting value > 0.", prefix, IDLE_TIMEOUT_SECONDS);
+
+    if (summaryQuantileSketch != null
+        && !summaryQuantileSketch.equals("ckms")
+        && !summaryQuantileSketch.equals("relative_error")) {
+      String fullKey =
+          prefix.isEmpty() ? SUMMARY_QUANTILE_SKETCH : prefix + "." + SUMMARY_QUANTILE_SKETCH;
+      throw new PrometheusPropertiesException(
+          Util.invalidValueMessage(fullKey, "Expecting 'ckms' or 'relative_error'.")
+              + " Found: "
+              + summaryQuantileSketch);
+    }
 
     if (Boolean.TRUE.equals(histogramNativeOnly) && Boolean.TRUE.equals(histogramClassicOnly)) {
       throw new PrometheusPropertiesException(
@@ -355,6 +419,58 @@ public class MetricsProperties {
     return summaryNumberOfAgeBuckets;
   }
 
+  /**
+   * The algorithm for computing summary quantiles, {@code "ckms"} or {@code "relative_error"}. See
+   * {@code Summary.Builder.relativeError()}
+   */
+  @Nullable
+  public String getSummaryQuantileSketch() {
+    return summaryQuantileSketch;
+  }
+
+  /** See {@code Summary.Builder.relativeError()} */
+  @Nullable
+  public Double getSummaryRelativeError() {
+    return summaryRelativeError;
+  }
+
+  /** See {@code Summary.Builder.maxNumberOfBuckets()} */
+  @Nullable
+  public Integer getSummaryMaxNumberOfBuckets() {
+    return summaryMaxNumberOfBuckets;
+  }
+
+  /**
+   * Maximum number of label value combinations (data points) of a metric. Data points for
+   * additional label value combinations are not created. Instead, the observations are recorded in
+   * a single overflow data point with the label {@code otel.metric.overflow="true"}. Applies to all
+   * metric types with labels. Default is unlimited. See {@code
+   * Counter.Builder.maxLabelCombinations()}
+   */
+  @Nullable
+  public Integer getMaxLabelCombinations() {
+    return maxLabelCombinations;
+  }
+
+  /**
+   * Data points that have not been updated for this number of seconds are removed. Applies to all
+   * metric types with labels. Default is no timeout. See {@code Counter.Builder.idleTimeout()}
+   */
+  @Nullable
+  public Long getIdleTimeoutSeconds() {
+    return idleTimeoutSeconds;
+  }
+
+  /**
+   * Record which data points were updated since a given scrape generation, so that exporters can
+   * collect only the changed data points. Applies to all metric types. Default is {@code false}.
+   * See {@code Counter.Builder.trackChanges()}
+   */
+  @Nullable
+  public Boolean getTrackChanges() {
+    return trackChanges;
+  }
+
   /**
    * Note that this will remove entries from {@code propertySource}. This is because we want to know
    * if there are unused properties remaining after all properties have been loaded.
@@ -375,6 +491,12 @@ public class MetricsProperties {
         Util.loadDoubleList(prefix, SUMMARY_QUANTILE_ERRORS, propertySource),
         Util.loadLong(prefix, SUMMARY_MAX_AGE_SECONDS, propertySource),
         Util.loadInteger(prefix, SUMMARY_NUMBER_OF_AGE_BUCKETS, propertySource),
+        Util.loadString(prefix, SUMMARY_QUANTILE_SKETCH, propertySource),
+        Util.loadDouble(prefix, SUMMARY_RELATIVE_ERROR, propertySource),
+        Util.loadInteger(prefix, SUMMARY_MAX_NUMBER_OF_BUCKETS, propertySource),
+        Util.loadInteger(prefix, MAX_LABEL_COMBINATIONS, propertySource),
+        Util.loadLong(prefix, IDLE_TIMEOUT_SECONDS, propertySource),
+        Util.loadBoolean(prefix, TRACK_CHANGES, propertySource),
         prefix);
   }
 
@@ -396,6 +518,12 @@ public class MetricsProperties {
     @Nullable private List<Double> summaryQuantileErrors;
     @Nullable private Long summaryMaxAgeSeconds;
     @Nullable private Integer summaryNumberOfAgeBuckets;
+    @Nullable private String summaryQuantileSketch;
+    @Nullable private Double summaryRelativeError;
+    @Nullable private Integer summaryMaxNumberOfBuckets;
+    @Nullable private Integer maxLabelCombinations;
+    @Nullable private Long idleTimeoutSeconds;
+    @Nullable private Boolean trackChanges;
 
     private Builder() {}
 
@@ -413,7 +541,14 @@ public class MetricsProperties {
           summaryQuantiles,
           summaryQuantileErrors,
           summaryMaxAgeSeconds,
-          summaryNumberOfAgeBuckets);
+          summaryNumberOfAgeBuckets,
+          summaryQuantileSketch,
+          summaryRelativeError,
+          summaryMaxNumberOfBuckets,
+          maxLabelCombinations,
+          idleTimeoutSeconds,
+          trackChanges,
+          "");
     }
 
     /** See {@link MetricsProperties#getExemplarsEnabled()} */
@@ -497,5 +632,41 @@ public class MetricsProperties {
       this.summaryNumberOfAgeBuckets = summaryNumberOfAgeBuckets;
       return this;
     }
+
+    /** See {@link MetricsProperties#getSummaryQuantileSketch()} */
+    public Builder summaryQuantileSketch(@Nullable String summaryQuantileSketch) {
+      this.summaryQuantileSketch = summaryQuantileSketch;
+      return this;
+    }
+
+    /** See {@link MetricsProperties#getSummaryRelativeError()} */
+    public Builder summaryRelativeError(@Nullable Double summaryRelativeError) {
+      this.summaryRelativeError = summaryRelativeError;
+      return this;
+    }
+
+    /** See {@link MetricsProperties#getSummaryMaxNumberOfBuckets()} */
+    public Builder summaryMaxNumberOfBuckets(@Nullable Integer summaryMaxNumberOfBuckets) {
+      this.summaryMaxNumberOfBuckets = summaryMaxNumberOfBuckets;
+      return this;
+    }
+
+    /** See {@link MetricsProperties#getMaxLabelCombinations()} */
+    public Builder maxLabelCombinations(@Nullable Integer maxLabelCombinations) {
+      this.maxLabelCombinations = maxLabelCombinations;
+      return this;
+    }
+
+    /** See {@link MetricsProperties#getIdleTimeoutSeconds()} */
+    public Builder idleTimeoutSeconds(@Nullable Long idleTimeoutSeconds) {
+      this.idleTimeoutSeconds = idleTimeoutSeconds;
+      return this;
+    }
+
+    /** See {@link MetricsProperties#getTrackChanges()} */
+    public Builder trackChanges(@Nullable Boolean trackChanges) {
+      this.trackChanges = trackChanges;
+      return this;
+    }
   }
 }
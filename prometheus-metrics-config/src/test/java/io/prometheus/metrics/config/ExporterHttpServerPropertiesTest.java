@@ -33,6 +33,119 @@ class ExporterHttpServerPropertiesTest {
         });
   }
 
+  @Test
+  void scrapeCache() {
+    ExporterHttpServerProperties properties =
+        load(
+            Map.of(
+                "io.prometheus.exporter.http_server.coalesce_concurrent_scrapes", "true",
+                "io.prometheus.exporter.http_server.scrape_cache_max_age_milliseconds", "500"));
+    assertThat(properties.isCoalesceConcurrentScrapes()).isTrue();
+    assertThat(properties.getScrapeCacheMaxAgeMilliseconds()).isEqualTo(500);
+
+    properties = ExporterHttpServerProperties.builder().build();
+    assertThat(properties.isCoalesceConcurrentScrapes()).isFalse();
+    assertThat(properties.getScrapeCacheMaxAgeMilliseconds()).isZero();
+
+    properties =
+        ExporterHttpServerProperties.builder()
+            .coalesceConcurrentScrapes(true)
+            .scrapeCacheMaxAgeMilliseconds(100)
+            .build();
+    assertThat(properties.isCoalesceConcurrentScrapes()).isTrue();
+    assertThat(properties.getScrapeCacheMaxAgeMilliseconds()).isEqualTo(100);
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(
+            () ->
+                load(
+                    Map.of(
+                        "io.prometheus.exporter.http_server.scrape_cache_max_age_milliseconds",
+                        "-1")))
+        .withMessage(
+            "io.prometheus.exporter.http_server.scrape_cache_max_age_milliseconds: "
+                + "Expecting value >= 0. Found: -1");
+  }
+
+  @Test
+  void useVirtualThreads() {
+    assertThat(ExporterHttpServerProperties.builder().build().isUseVirtualThreads()).isFalse();
+    assertThat(
+            ExporterHttpServerProperties.builder()
+                .useVirtualThreads(true)
+                .build()
+                .isUseVirtualThreads())
+        .isTrue();
+    assertThat(
+            load(Map.of("io.prometheus.exporter.http_server.use_virtual_threads", "true"))
+                .isUseVirtualThreads())
+        .isTrue();
+  }
+
+  @Test
+  void compression() {
+    ExporterHttpServerProperties properties = ExporterHttpServerProperties.builder().build();
+    assertThat(properties.getCompressionLevel()).isEqualTo(-1);
+    assertThat(properties.getCompressionMinSizeBytes()).isZero();
+    assertThat(properties.isBufferCompressedResponse()).isFalse();
+    assertThat(properties.isBufferUncompressedResponse()).isTrue();
+
+    properties =
+        load(
+            Map.of(
+                "io.prometheus.exporter.http_server.compression_level", "1",
+                "io.prometheus.exporter.http_server.compression_min_size_bytes", "1024"));
+    assertThat(properties.getCompressionLevel()).isOne();
+    assertThat(properties.getCompressionMinSizeBytes()).isEqualTo(1024);
+    assertThat(properties.isBufferCompressedResponse()).isTrue();
+
+    properties = ExporterHttpServerProperties.builder().bufferCompressedResponse(true).build();
+    assertThat(properties.isBufferCompressedResponse()).isTrue();
+
+    properties = ExporterHttpServerProperties.builder().bufferUncompressedResponse(false).build();
+    assertThat(properties.isBufferUncompressedResponse()).isFalse();
+    assertThat(
+            load(Map.of("io.prometheus.exporter.http_server.buffer_uncompressed_response", "false"))
+                .isBufferUncompressedResponse())
+        .isFalse();
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(
+            () -> load(Map.of("io.prometheus.exporter.http_server.compression_level", "10")))
+        .withMessage(
+            "io.prometheus.exporter.http_server.compression_level: "
+                + "Expecting number between -1 and 9. Found: 10");
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(
+            () -> load(Map.of("io.prometheus.exporter.http_server.compression_level", "-2")))
+        .withMessage(
+            "io.prometheus.exporter.http_server.compression_level: "
+                + "Expecting number between -1 and 9. Found: -2");
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(
+            () ->
+                load(Map.of("io.prometheus.exporter.http_server.compression_min_size_bytes", "-1")))
+        .withMessage(
+            "io.prometheus.exporter.http_server.compression_min_size_bytes: "
+                + "Expecting value >= 0. Found: -1");
+  }
+
+  @Test
+  void builderRejectsInvalidValues() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> ExporterHttpServerProperties.builder().scrapeCacheMaxAgeMilliseconds(-1))
+        .withMessage("-1: Expecting scrapeCacheMaxAgeMilliseconds >= 0");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> ExporterHttpServerProperties.builder().compressionLevel(-2))
+        .withMessage("-2: Expecting -1 <= compressionLevel <= 9");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> ExporterHttpServerProperties.builder().compressionLevel(10))
+        .withMessage("10: Expecting -1 <= compressionLevel <= 9");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> ExporterHttpServerProperties.builder().compressionMinSizeBytes(-1))
+        .withMessage("-1: Expecting compressionMinSizeBytes >= 0");
+  }
+
   private static ExporterHttpServerProperties load(Map<String, String> map) {
     Map<Object, Object> regularProperties = new HashMap<>(map);
     PropertySource propertySource = new PropertySource(regularProperties);
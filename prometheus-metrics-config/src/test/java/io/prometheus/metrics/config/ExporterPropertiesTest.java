@@ -3,6 +3,7 @@ package io.prometheus.metrics.config;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
@@ -84,4 +85,39 @@ class ExporterPropertiesTest {
         .withMessage(
             "io.prometheus.exporter.prometheus_timestamps_in_ms: Expecting 'true' or 'false'.");
   }
+
+  @Test
+  void parallelCollection() {
+    ExporterProperties properties =
+        load(
+            new HashMap<>(
+                Map.of(
+                    "io.prometheus.exporter.parallel_collection_threads", "4",
+                    "io.prometheus.exporter.collector_timeout_seconds", "5")));
+    assertThat(properties.getParallelCollectionThreads()).isEqualTo(4);
+    assertThat(properties.getCollectorTimeout()).isEqualTo(Duration.ofSeconds(5));
+
+    properties =
+        ExporterProperties.builder()
+            .parallelCollectionThreads(2)
+            .collectorTimeout(Duration.ofMillis(500))
+            .build();
+    assertThat(properties.getParallelCollectionThreads()).isEqualTo(2);
+    assertThat(properties.getCollectorTimeout()).isEqualTo(Duration.ofMillis(500));
+
+    properties = ExporterProperties.builder().build();
+    assertThat(properties.getParallelCollectionThreads()).isZero();
+    assertThat(properties.getCollectorTimeout()).isNull();
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(
+            () ->
+                load(
+                    new HashMap<>(
+                        Map.of("io.prometheus.exporter.parallel_collection_threads", "-1"))))
+        .withMessage(
+            "io.prometheus.exporter.parallel_collection_threads: Expecting value >= 0. Found: -1");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> ExporterProperties.builder().parallelCollectionThreads(-1));
+  }
 }
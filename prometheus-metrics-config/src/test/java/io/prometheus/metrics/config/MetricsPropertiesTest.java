@@ -3,6 +3,8 @@ package io.prometheus.metrics.config;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 class MetricsPropertiesTest {
@@ -153,4 +155,83 @@ class MetricsPropertiesTest {
             ".histogram_native_min_zero_threshold cannot be greater than"
                 + " .histogram_native_max_zero_threshold");
   }
+
+  @Test
+  void quantileSketchBuilder() {
+    MetricsProperties properties =
+        MetricsProperties.builder()
+            .summaryQuantileSketch("relative_error")
+            .summaryRelativeError(0.02)
+            .summaryMaxNumberOfBuckets(256)
+            .build();
+    assertThat(properties.getSummaryQuantileSketch()).isEqualTo("relative_error");
+    assertThat(properties.getSummaryRelativeError()).isEqualTo(0.02);
+    assertThat(properties.getSummaryMaxNumberOfBuckets()).isEqualTo(256);
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(() -> MetricsProperties.builder().summaryQuantileSketch("tdigest").build())
+        .withMessage(
+            "summary_quantile_sketch: Expecting 'ckms' or 'relative_error'. Found: tdigest");
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(() -> MetricsProperties.builder().summaryRelativeError(1.0).build())
+        .withMessage("summary_relative_error: Expecting 0.0 < relative error < 1.0. Found: 1.0");
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(() -> MetricsProperties.builder().summaryMaxNumberOfBuckets(0).build())
+        .withMessage("summary_max_number_of_buckets: Expecting value > 0. Found: 0");
+  }
+
+  @Test
+  void maxLabelCombinations() {
+    assertThat(MetricsProperties.builder().build().getMaxLabelCombinations()).isNull();
+    assertThat(
+            MetricsProperties.builder()
+                .maxLabelCombinations(1000)
+                .build()
+                .getMaxLabelCombinations())
+        .isEqualTo(1000);
+
+    Map<Object, Object> properties = new HashMap<>();
+    properties.put("io.prometheus.metrics.max_label_combinations", "500");
+    assertThat(
+            MetricsProperties.load("io.prometheus.metrics", new PropertySource(properties))
+                .getMaxLabelCombinations())
+        .isEqualTo(500);
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(() -> MetricsProperties.builder().maxLabelCombinations(0).build())
+        .withMessage("max_label_combinations: Expecting value > 0. Found: 0");
+  }
+
+  @Test
+  void idleTimeoutSeconds() {
+    assertThat(MetricsProperties.builder().build().getIdleTimeoutSeconds()).isNull();
+    assertThat(MetricsProperties.builder().idleTimeoutSeconds(300L).build().getIdleTimeoutSeconds())
+        .isEqualTo(300);
+
+    Map<Object, Object> properties = new HashMap<>();
+    properties.put("io.prometheus.metrics.idle_timeout_seconds", "600");
+    assertThat(
+            MetricsProperties.load("io.prometheus.metrics", new PropertySource(properties))
+                .getIdleTimeoutSeconds())
+        .isEqualTo(600);
+
+    assertThatExceptionOfType(PrometheusPropertiesException.class)
+        .isThrownBy(() -> MetricsProperties.builder().idleTimeoutSeconds(0L).build())
+        .withMessage("idle_timeout_seconds: Expecting value > 0. Found: 0");
+  }
+
+  @Test
+  void trackChanges() {
+    assertThat(MetricsProperties.builder().build().getTrackChanges()).isNull();
+    assertThat(MetricsProperties.builder().trackChanges(true).build().getTrackChanges()).isTrue();
+
+    Map<Object, Object> properties = new HashMap<>();
+    properties.put("io.prometheus.metrics.track_changes", "true");
+    assertThat(
+            MetricsProperties.load("io.prometheus.metrics", new PropertySource(properties))
+                .getTrackChanges())
+        .isTrue();
+  }
 }
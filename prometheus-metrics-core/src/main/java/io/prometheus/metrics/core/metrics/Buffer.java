@@ -1,146 +1,297 @@
 package io.prometheus.metrics.core.metrics;
 
-import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.IntToLongFunction;
 import java.util.function.Supplier;
 
 /**
  * Metrics support concurrent write and scrape operations.
  *
- * <p>This is implemented by switching to a Buffer when the scrape starts, and applying the values
- * from the buffer after the scrape ends.
+ * <p>This is implemented by double buffering: The data point maintains two halves of observation
+ * counts, a <i>hot</i> half and a <i>cold</i> half. Observations are always recorded in the hot
+ * half. When the scrape starts, the hot and cold halves are swapped, and the scrape waits until all
+ * in-flight observations in the previously hot half are complete. The now cold half can then be
+ * read and reset without interfering with new observations.
+ *
+ * <p>Observers never take a lock and never allocate. Only the scraping thread (or an observer that
+ * needs to restructure the data point, like scaling down a native histogram) waits for in-flight
+ * observations.
+ *
+ * <p>This is the same approach as the hot / cold counts in client_golang's histogram.
  */
 class Buffer {
 
-  private static final long bufferActiveBit = 1L << 63;
-  // Tracking observation counts requires an AtomicLong for coordination between recording and
-  // collecting. AtomicLong does much worse under contention than the LongAdder instances used
-  // elsewhere to hold aggregated state. To improve, we stripe the AtomicLong into N instances,
-  // where N is the number of available processors. Each record operation chooses the appropriate
-  // instance to use based on the modulo of its thread id and N. This is a more naive / simple
-  // implementation compared to the striping used under the hood in java.util.concurrent classes
-  // like LongAdder - contention and hot spots can still occur if recording thread ids happen to
-  // resolve to the same index. Further improvement is possible.
-  private final AtomicLong[] stripedObservationCounts;
-  private double[] observationBuffer = new double[0];
-  private int bufferPos = 0;
-  private boolean reset = false;
-
-  ReentrantLock appendLock = new ReentrantLock();
-  ReentrantLock runLock = new ReentrantLock();
-  Condition bufferFilled = appendLock.newCondition();
-
-  Buffer() {
-    stripedObservationCounts = new AtomicLong[Runtime.getRuntime().availableProcessors()];
-    for (int i = 0; i < stripedObservationCounts.length; i++) {
-      stripedObservationCounts[i] = new AtomicLong(0);
-    }
+  private static final long hotIndexBit = 1L << 63;
+
+  // Default upper bound for the number of stripes. Like in LongAdder, there is no point in having
+  // more stripes than processors, because at most that many threads can increment concurrently.
+  static final int defaultMaxStripes =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+  // Per-thread probe used to select a stripe, shared by all buffers. This is the equivalent of
+  // the threadLocalRandomProbe used by LongAdder, which is not accessible to us. A thread that
+  // collides with another thread on a stripe moves on to a different stripe by advancing its probe.
+  private static final ThreadLocal<int[]> threadProbe =
+      ThreadLocal.withInitial(() -> new int[] {initialProbe(Thread.currentThread().getId())});
+
+  // Tracking observation counts requires an atomic counter for coordination between recording and
+  // collecting. Like LongAdder, we start with a single stripe and add stripes when observers
+  // contend: A failed CAS moves the observing thread to another stripe, and if that one is
+  // contended as well the number of stripes is doubled, up to maxStripes. Stripes are padded to
+  // avoid false sharing between stripes sitting next to each other in memory.
+  //
+  // The sign bit of each stripe is the index of the hot half, the remaining bits are the number of
+  // observations started on that stripe since the last swap.
+  private volatile Stripe[] stripedObservationCounts = new Stripe[] {new Stripe(0)};
+
+  // Spin lock guarding the creation of new stripes. swap() holds it while flipping the hot index,
+  // so that new stripes are always initialized with the current hot index.
+  private final AtomicBoolean stripesBusy = new AtomicBoolean(false);
+
+  // Returns the number of completed observations for the half with the given index.
+  // The data point must reset this to zero when the cold half is drained.
+  private final IntToLongFunction completedObservations;
+
+  private final int maxStripes;
+  private final ReentrantLock runLock = new ReentrantLock();
+  private int hotIndex = 0; // guarded by runLock
+
+  Buffer(IntToLongFunction completedObservations) {
+    this(completedObservations, defaultMaxStripes);
+  }
+
+  // VisibleForTesting
+  Buffer(IntToLongFunction completedObservations, int maxStripes) {
+    this.completedObservations = completedObservations;
+    this.maxStripes = maxStripes;
   }
 
-  boolean append(double value) {
-    int index = stripeIndex(Thread.currentThread().getId(), stripedObservationCounts.length);
-    AtomicLong observationCountForThread = stripedObservationCounts[index];
-    long count = observationCountForThread.incrementAndGet();
-    if ((count & bufferActiveBit) == 0) {
-      return false; // sign bit not set -> buffer not active.
+  /**
+   * Called by the observer before recording an observation.
+   *
+   * @return the index of the hot half (0 or 1). The observation must be recorded in that half, and
+   *     its completion must be reflected in {@code completedObservations} as the last step.
+   */
+  int startObservation() {
+    Stripe[] stripes = stripedObservationCounts;
+    Stripe stripe;
+    if (stripes.length == 1) {
+      // Fast path for the uncontended case, no need to look up the thread's probe.
+      stripe = stripes[0];
     } else {
-      doAppend(value);
-      return true;
+      stripe = stripes[threadProbe.get()[0] & (stripes.length - 1)];
+    }
+    long count = stripe.value;
+    if (!stripe.compareAndSet(count, count + 1)) {
+      count = incrementContended(stripes);
+    } else {
+      count++;
+    }
+    return (int) (count >>> 63);
+  }
+
+  /**
+   * Called when incrementing a stripe failed because of contention. Moves the current thread to
+   * another stripe, and adds stripes if contention persists.
+   *
+   * @return the new value of the stripe that was incremented.
+   */
+  private long incrementContended(Stripe[] stripes) {
+    int[] probe = threadProbe.get();
+    boolean collided = false;
+    while (true) {
+      probe[0] = advanceProbe(probe[0]);
+      if (collided) {
+        stripes = grow(stripes);
+        collided = false;
+      } else {
+        stripes = stripedObservationCounts;
+      }
+      Stripe stripe = stripes[probe[0] & (stripes.length - 1)];
+      long count = stripe.value;
+      if (stripe.compareAndSet(count, count + 1)) {
+        return count + 1;
+      }
+      collided = true;
     }
   }
 
-  static int stripeIndex(long threadId, int stripeCount) {
-    return (int) Math.floorMod(threadId, stripeCount);
+  /**
+   * Double the number of stripes, unless there are {@code maxStripes} already, or another thread is
+   * already doing that.
+   */
+  // VisibleForTesting
+  void grow() {
+    grow(stripedObservationCounts);
   }
 
-  private void doAppend(double amount) {
-    appendLock.lock();
-    try {
-      if (bufferPos >= observationBuffer.length) {
-        observationBuffer = Arrays.copyOf(observationBuffer, observationBuffer.length + 128);
+  /**
+   * See {@link #grow()}.
+   *
+   * @param stripes the stripes when the caller decided to grow.
+   * @return the current stripes.
+   */
+  private Stripe[] grow(Stripe[] stripes) {
+    if (stripes.length < maxStripes && stripesBusy.compareAndSet(false, true)) {
+      try {
+        // The stripes only grow, so if the length didn't change no other thread added stripes.
+        if (stripes.length == stripedObservationCounts.length) {
+          stripes = stripedObservationCounts;
+          // Holding stripesBusy, so the hot index of the existing stripes does not change.
+          long hotIndexValue = stripes[0].value & hotIndexBit;
+          Stripe[] newStripes = Arrays.copyOf(stripes, stripes.length * 2);
+          for (int i = stripes.length; i < newStripes.length; i++) {
+            newStripes[i] = new Stripe(hotIndexValue);
+          }
+          stripedObservationCounts = newStripes;
+        }
+      } finally {
+        stripesBusy.set(false);
       }
-      observationBuffer[bufferPos] = amount;
-      bufferPos++;
-
-      bufferFilled.signalAll();
-    } finally {
-      appendLock.unlock();
     }
+    return stripedObservationCounts;
   }
 
-  /** Must be called by the runnable in the run() method. */
-  void reset() {
-    reset = true;
+  /**
+   * The current number of stripes. Data points may use this to decide how many stripes they need
+   * for their own counters, as the number of stripes reflects how contended this buffer is.
+   */
+  int numberOfStripes() {
+    return stripedObservationCounts.length;
   }
 
-  @SuppressWarnings("ThreadPriorityCheck")
-  <T extends DataPointSnapshot> T run(
-      Function<Long, Boolean> complete,
-      Supplier<T> createResult,
-      Consumer<Double> observeFunction) {
-    double[] buffer;
-    int bufferSize;
-    T result;
+  /**
+   * The current thread's probe. Data points may use this to pick a stripe for their own counters,
+   * so that threads that don't collide in this buffer don't collide in the data point either.
+   */
+  static int probe() {
+    return threadProbe.get()[0];
+  }
+
+  /**
+   * Move the current thread to a different stripe after a collision, see {@link #probe()}.
+   *
+   * @return the new probe.
+   */
+  static int nextProbe() {
+    int[] probe = threadProbe.get();
+    probe[0] = advanceProbe(probe[0]);
+    return probe[0];
+  }
+
+  static int initialProbe(long threadId) {
+    // Spread the thread ids with the murmur3 finalizer, so that consecutive thread ids
+    // don't end up on neighboring stripes. The probe must not be zero for advanceProbe().
+    long h = threadId;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    int probe = (int) h;
+    return probe == 0 ? 1 : probe;
+  }
 
+  static int advanceProbe(int probe) {
+    // xorshift, same as ThreadLocalRandom.advanceProbe()
+    probe ^= probe << 13;
+    probe ^= probe >>> 17;
+    probe ^= probe << 5;
+    return probe;
+  }
+
+  /**
+   * Run {@code action} exclusively, i.e. at most one thread at a time runs an action for this
+   * buffer. The action may call {@link #swap()} any number of times.
+   */
+  <T> T run(Supplier<T> action) {
     runLock.lock();
     try {
-      // Signal that the buffer is active.
-      long expectedCount = 0L;
-      for (AtomicLong observationCount : stripedObservationCounts) {
-        expectedCount += observationCount.getAndAdd(bufferActiveBit);
-      }
+      return action.get();
+    } finally {
+      runLock.unlock();
+    }
+  }
 
-      while (!complete.apply(expectedCount)) {
-        // Wait until all in-flight threads have added their observations to the histogram /
-        // summary.
-        // we can't use a condition here, because the other thread doesn't have a lock as it's on
-        // the fast path.
-        Thread.yield();
+  /**
+   * Swap the hot and the cold half. Must be called by the action in the {@link #run(Supplier)}
+   * method.
+   *
+   * <p>When this returns, all observations that were recorded in the previously hot half are
+   * complete, so that half can safely be read and reset. New observations go to the other half.
+   *
+   * @return the index of the previously hot half, which is now the cold half.
+   */
+  @SuppressWarnings("ThreadPriorityCheck")
+  int swap() {
+    if (!runLock.isHeldByCurrentThread()) {
+      throw new IllegalStateException("swap() must be called within run().");
+    }
+    final int coldIndex = hotIndex;
+    hotIndex = 1 - hotIndex;
+    long newStripeValue = hotIndex == 0 ? 0L : hotIndexBit;
+    long expectedCount = 0;
+    while (!stripesBusy.compareAndSet(false, true)) {
+      // An observer is adding stripes. This is rare and quick.
+      Thread.yield();
+    }
+    try {
+      for (Stripe observationCount : stripedObservationCounts) {
+        expectedCount += observationCount.getAndSet(newStripeValue) & ~hotIndexBit;
       }
-      result = createResult.get();
+    } finally {
+      stripesBusy.set(false);
+    }
+    while (completedObservations.applyAsLong(coldIndex) < expectedCount) {
+      // Wait until all in-flight threads have added their observations to the cold half.
+      // We can't use a condition here, because the other thread doesn't have a lock as it's on
+      // the fast path.
+      Thread.yield();
+    }
+    return coldIndex;
+  }
 
-      // Signal that the buffer is inactive.
-      long expectedBufferSize = 0;
-      if (reset) {
-        for (AtomicLong observationCount : stripedObservationCounts) {
-          expectedBufferSize += observationCount.getAndSet(0) & ~bufferActiveBit;
-        }
-        reset = false;
-      } else {
-        for (AtomicLong observationCount : stripedObservationCounts) {
-          expectedBufferSize += observationCount.addAndGet(bufferActiveBit);
-        }
-      }
-      expectedBufferSize -= expectedCount;
+  // Padding to avoid false sharing, similar to what @Contended does in the JDK.
+  // The padding fields are never used, they are just there to occupy memory.
+  abstract static class StripeLeftPadding {
+    long p01;
+    long p02;
+    long p03;
+    long p04;
+    long p05;
+    long p06;
+    long p07;
+  }
 
-      appendLock.lock();
-      try {
-        while (bufferPos < expectedBufferSize) {
-          // Wait until all in-flight threads have added their observations to the buffer.
-          bufferFilled.await();
-        }
-      } finally {
-        appendLock.unlock();
-      }
+  abstract static class StripeValue extends StripeLeftPadding {
+    volatile long value;
+  }
 
-      buffer = observationBuffer;
-      bufferSize = bufferPos;
-      observationBuffer = new double[0];
-      bufferPos = 0;
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
-    } finally {
-      runLock.unlock();
+  static final class Stripe extends StripeValue {
+    private static final AtomicLongFieldUpdater<StripeValue> updater =
+        AtomicLongFieldUpdater.newUpdater(StripeValue.class, "value");
+
+    long p11;
+    long p12;
+    long p13;
+    long p14;
+    long p15;
+    long p16;
+    long p17;
+
+    Stripe(long initialValue) {
+      value = initialValue;
+    }
+
+    boolean compareAndSet(long expect, long update) {
+      return updater.compareAndSet(this, expect, update);
     }
 
-    for (int i = 0; i < bufferSize; i++) {
-      observeFunction.accept(buffer[i]);
+    long getAndSet(long newValue) {
+      return updater.getAndSet(this, newValue);
     }
-    return result;
   }
 }
@@ -21,32 +21,32 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.List;
 
 // CHECKSTYLE:OFF: checkstyle
 
 /**
  * Algorithm solving the "Targeted Quantile Problem" as described in "Effective Computation of
  * Biased Quantiles over Data Streams" by Cormode, Korn, Muthukrishnan, and Srivastava.
+ *
+ * <p>The samples are stored in parallel primitive arrays rather than a list of sample objects, so
+ * inserting and compressing doesn't allocate once the arrays have grown to their working size.
  */
-final class CKMSQuantiles {
-
-  @SuppressWarnings("ReferenceEquality")
-  private static boolean sameObject(Object left, Object right) {
-    return left == right;
-  }
+final class CKMSQuantiles implements QuantileSketch {
 
   final Quantile[] quantiles;
 
   /** Total number of observations (not including those that are still in the buffer). */
   int n = 0;
 
-  /** List of sampled observations, ordered by Sample.value. */
-  @SuppressWarnings("JdkObsolete")
-  final LinkedList<Sample> samples = new LinkedList<>();
+  // Sampled observations, ordered by value. Sample i is (values[i], g[i], delta[i]).
+  // See Sample for the meaning of g and delta.
+  private double[] values = new double[0];
+  private int[] g = new int[0];
+  private int[] delta = new int[0];
+  private int size = 0;
 
   /**
    * Compress is called every compressInterval inserts. Note that the buffer is flushed whenever
@@ -66,6 +66,9 @@ final class CKMSQuantiles {
 
   private int bufferPos = 0;
 
+  /** The delta of each value in the batch passed to insertBatch(). */
+  private int[] batchDelta = new int[compressInterval];
+
   public CKMSQuantiles(Quantile... quantiles) {
     if (quantiles.length == 0) {
       throw new IllegalArgumentException("quantiles cannot be empty");
@@ -74,6 +77,7 @@ final class CKMSQuantiles {
   }
 
   /** Add an observed value */
+  @Override
   public void insert(double value) {
     buffer[bufferPos++] = value;
 
@@ -98,74 +102,92 @@ final class CKMSQuantiles {
     if (toIndex == 0) {
       return;
     }
-    ListIterator<Sample> iterator = samples.listIterator();
+    if (batchDelta.length < toIndex) {
+      batchDelta = new int[toIndex];
+    }
+    // First pass: Calculate the delta of each new sample. The delta depends on the rank of the new
+    // sample and on n, so we need to walk from left to right.
     int i = 0; // position in buffer
+    int j = 0; // position in samples
     int r = 0; // sum of g's left of the current sample
-    while (iterator.hasNext() && i < toIndex) {
-      Sample item = iterator.next();
+    while (j < size && i < toIndex) {
       while (i < toIndex) {
-        if (sortedBuffer[i] > item.value) {
+        if (sortedBuffer[i] > values[j]) {
           break;
         }
-        insertBefore(iterator, sortedBuffer[i], r);
-        r++; // new item with g=1 was inserted before, so increment r
+        // new sample is inserted before sample j
+        batchDelta[i] = f(r) - 1;
+        r++; // new item with g=1 is inserted before, so increment r
         i++;
         n++;
       }
-      r += item.g;
+      r += g[j];
+      j++;
     }
     while (i < toIndex) {
-      samples.add(new Sample(sortedBuffer[i], 0));
+      // new sample is appended
+      batchDelta[i] = 0;
       i++;
       n++;
     }
+    // Second pass: Merge the new samples into the arrays, starting from the right so that we can
+    // merge in place.
+    ensureCapacity(size + toIndex);
+    i = toIndex - 1;
+    j = size - 1;
+    for (int pos = size + toIndex - 1; i >= 0; pos--) {
+      if (j >= 0 && values[j] >= sortedBuffer[i]) {
+        values[pos] = values[j];
+        g[pos] = g[j];
+        delta[pos] = delta[j];
+        j--;
+      } else {
+        values[pos] = sortedBuffer[i];
+        g[pos] = 1;
+        delta[pos] = batchDelta[i];
+        i--;
+      }
+    }
+    size += toIndex;
   }
 
-  private void insertBefore(ListIterator<Sample> iterator, double value, int r) {
-    if (!iterator.hasPrevious()) {
-      samples.addFirst(new Sample(value, 0));
-    } else {
-      iterator.previous();
-      iterator.add(new Sample(value, f(r) - 1));
-      iterator.next();
+  private void ensureCapacity(int capacity) {
+    if (values.length < capacity) {
+      int newCapacity = Math.max(capacity, 2 * values.length);
+      values = Arrays.copyOf(values, newCapacity);
+      g = Arrays.copyOf(g, newCapacity);
+      delta = Arrays.copyOf(delta, newCapacity);
     }
   }
 
   /** Get the estimated value at the specified quantile. */
+  @Override
   public double get(double q) {
     flush();
 
-    if (samples.isEmpty()) {
+    if (size == 0) {
       return Double.NaN;
     }
 
     if (q == 0.0) {
-      return samples.getFirst().value;
+      return values[0];
     }
 
     if (q == 1.0) {
-      return samples.getLast().value;
+      return values[size - 1];
     }
 
     int r = 0; // sum of g's left of the current sample
     int desiredRank = (int) Math.ceil(q * n);
     int upperBound = desiredRank + f(desiredRank) / 2;
 
-    ListIterator<Sample> iterator = samples.listIterator();
-    while (iterator.hasNext()) {
-      Sample sample = iterator.next();
-      if (r + sample.g + sample.delta > upperBound) {
-        iterator.previous(); // roll back the item.next() above
-        if (iterator.hasPrevious()) {
-          Sample result = iterator.previous();
-          return result.value;
-        } else {
-          return sample.value;
-        }
+    for (int i = 0; i < size; i++) {
+      if (r + g[i] + delta[i] > upperBound) {
+        return i > 0 ? values[i - 1] : values[i];
       }
-      r += sample.g;
+      r += g[i];
     }
-    return samples.getLast().value;
+    return values[size - 1];
   }
 
   /** Error function, as in definition 5 of the paper. */
@@ -194,30 +216,42 @@ final class CKMSQuantiles {
 
   /** Merge pairs of consecutive samples if this doesn't violate the error function. */
   void compress() {
-    if (samples.size() < 3) {
+    if (size < 3) {
       return;
     }
-    Iterator<Sample> descendingIterator = samples.descendingIterator();
-    int r = n; // n is equal to the sum of the g's of all samples
-
-    Sample right;
-    Sample left = descendingIterator.next();
-    r -= left.g;
-
-    while (descendingIterator.hasNext()) {
-      right = left;
-      left = descendingIterator.next();
-      r = r - left.g;
-      if (sameObject(left, samples.getFirst())) {
-        // The min sample must never be merged.
-        break;
-      }
-      if (left.g + right.g + right.delta < f(r)) {
-        right.g += left.g;
-        descendingIterator.remove();
-        left = right;
+    // Walk from right to left, moving the samples that survive to the right end of the arrays.
+    // w is the index of the leftmost survivor so far, i.e. the right neighbor of the current one.
+    int w = size - 1;
+    int r = n - g[w]; // n is equal to the sum of the g's of all samples
+    // The min sample at index 0 must never be merged.
+    for (int left = size - 2; left > 0; left--) {
+      r -= g[left];
+      if (g[left] + g[w] + delta[w] < f(r)) {
+        g[w] += g[left];
+      } else {
+        w--;
+        values[w] = values[left];
+        g[w] = g[left];
+        delta[w] = delta[left];
       }
     }
+    w--;
+    values[w] = values[0];
+    g[w] = g[0];
+    delta[w] = delta[0];
+    size -= w;
+    System.arraycopy(values, w, values, 0, size);
+    System.arraycopy(g, w, g, 0, size);
+    System.arraycopy(delta, w, delta, 0, size);
+  }
+
+  /** Copy of the current samples. This is for testing and debugging only. */
+  List<Sample> samples() {
+    List<Sample> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new Sample(values[i], g[i], delta[i]));
+    }
+    return result;
   }
 
   static class Sample {
@@ -229,7 +263,7 @@ final class CKMSQuantiles {
      * Difference between the lowest possible rank of this sample and its predecessor. This always
      * starts with 1, but will be updated when compress() merges Samples.
      */
-    int g = 1;
+    final int g;
 
     /**
      * Difference between the greatest possible rank of this sample and the lowest possible rank of
@@ -237,8 +271,9 @@ final class CKMSQuantiles {
      */
     final int delta;
 
-    Sample(double value, int delta) {
+    Sample(double value, int g, int delta) {
       this.value = value;
+      this.g = g;
       this.delta = delta;
     }
 
@@ -112,9 +112,9 @@ public class Counter extends StatefulMetric<CounterDataPoint, Counter.DataPoint>
   protected DataPoint newDataPoint() {
     if (exemplarSamplerConfig != null) {
       return new DataPoint(
-          new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier));
+          this, new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier));
     } else {
-      return new DataPoint(null);
+      return new DataPoint(this, null);
     }
   }
 
@@ -125,7 +125,7 @@ public class Counter extends StatefulMetric<CounterDataPoint, Counter.DataPoint>
     return name;
   }
 
-  static class DataPoint implements CounterDataPoint {
+  static class DataPoint extends TrackedDataPoint implements CounterDataPoint {
 
     private final DoubleAdder doubleValue = new DoubleAdder();
     // LongAdder is 20% faster than DoubleAdder. So let's use the LongAdder for long observations,
@@ -137,7 +137,8 @@ public class Counter extends StatefulMetric<CounterDataPoint, Counter.DataPoint>
     @Nullable
     private final ExemplarSampler exemplarSampler; // null if exemplarSamplerConfig is null
 
-    private DataPoint(@Nullable ExemplarSampler exemplarSampler) {
+    private DataPoint(Counter counter, @Nullable ExemplarSampler exemplarSampler) {
+      super(counter);
       this.exemplarSampler = exemplarSampler;
     }
 
@@ -189,6 +190,7 @@ public class Counter extends StatefulMetric<CounterDataPoint, Counter.DataPoint>
             "Negative increment " + amount + " is illegal for Counter metrics.");
       }
       longValue.add(amount);
+      touch();
     }
 
     private void validateAndAdd(double amount) {
@@ -197,6 +199,7 @@ public class Counter extends StatefulMetric<CounterDataPoint, Counter.DataPoint>
             "Negative increment " + amount + " is illegal for Counter metrics.");
       }
       doubleValue.add(amount);
+      touch();
     }
 
     private CounterSnapshot.CounterDataPointSnapshot collect(Labels labels) {
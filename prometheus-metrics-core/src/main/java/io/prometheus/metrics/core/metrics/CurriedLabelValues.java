@@ -0,0 +1,105 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.core.datapoints.DataPoint;
+import java.util.Arrays;
+
+/**
+ * View of a {@link StatefulMetric} where the values of the first label names are fixed, see {@link
+ * StatefulMetric#curry(String...)}.
+ *
+ * <p>Example: A library that is used by multiple services creates a counter with the label names
+ * {@code service}, {@code method}, and {@code status}. Each service gets a view with its {@code
+ * service} label value:
+ *
+ * <pre>{@code
+ * CurriedLabelValues<CounterDataPoint> checkoutRequests = requests.curry("checkout");
+ *
+ * // same as requests.labelValues("checkout", "GET", "200").inc();
+ * checkoutRequests.labelValues("GET", "200").inc();
+ * }</pre>
+ *
+ * The view keeps its own index of the data points by the remaining label values, so looking up a
+ * data point only hashes and compares the remaining label values. The index does not keep data
+ * points alive: If data points are removed from the metric, e.g. with {@link
+ * StatefulMetric#remove(String...)} or {@link StatefulMetric#clear()}, the index is discarded and
+ * rebuilt on demand.
+ */
+public final class CurriedLabelValues<D extends DataPoint> {
+
+  private final StatefulMetric<D, ?> metric;
+  private final String[] prefix;
+  private final LabelValuesMap<D> dataPoints = new LabelValuesMap<>();
+  private volatile int removals;
+
+  CurriedLabelValues(StatefulMetric<D, ?> metric, String[] prefix) {
+    this.metric = metric;
+    this.prefix = prefix;
+    this.removals = metric.getRemovals();
+  }
+
+  /**
+   * Get the data point for the remaining label values, as in {@link
+   * StatefulMetric#labelValues(String...)}.
+   */
+  public D labelValues(String... labelValues) {
+    evictIfRemoved();
+    D dataPoint = dataPoints.get(labelValues);
+    return dataPoint != null ? dataPoint : resolve(labelValues);
+  }
+
+  /** Same as {@link #labelValues(String...)} for a single remaining label value. */
+  public D labelValues(String labelValue) {
+    evictIfRemoved();
+    D dataPoint = dataPoints.get(labelValue);
+    return dataPoint != null ? dataPoint : resolve(new String[] {labelValue});
+  }
+
+  /** Same as {@link #labelValues(String...)} for two remaining label values. */
+  public D labelValues(String labelValue1, String labelValue2) {
+    evictIfRemoved();
+    D dataPoint = dataPoints.get(labelValue1, labelValue2);
+    return dataPoint != null ? dataPoint : resolve(new String[] {labelValue1, labelValue2});
+  }
+
+  /** Same as {@link #labelValues(String...)} for three remaining label values. */
+  public D labelValues(String labelValue1, String labelValue2, String labelValue3) {
+    evictIfRemoved();
+    D dataPoint = dataPoints.get(labelValue1, labelValue2, labelValue3);
+    return dataPoint != null
+        ? dataPoint
+        : resolve(new String[] {labelValue1, labelValue2, labelValue3});
+  }
+
+  /** Same as {@link #labelValues(String...)} for four remaining label values. */
+  public D labelValues(
+      String labelValue1, String labelValue2, String labelValue3, String labelValue4) {
+    evictIfRemoved();
+    D dataPoint = dataPoints.get(labelValue1, labelValue2, labelValue3, labelValue4);
+    return dataPoint != null
+        ? dataPoint
+        : resolve(new String[] {labelValue1, labelValue2, labelValue3, labelValue4});
+  }
+
+  private D resolve(String[] labelValues) {
+    return dataPoints.computeIfAbsent(
+        labelValues,
+        l -> {
+          String[] all = Arrays.copyOf(prefix, prefix.length + l.length);
+          System.arraycopy(l, 0, all, prefix.length, l.length);
+          return metric.labelValues(all);
+        });
+  }
+
+  /**
+   * If data points were removed from the metric, the index may contain data points that are no
+   * longer part of the metric. Discard it in that case.
+   */
+  private void evictIfRemoved() {
+    int current = metric.getRemovals();
+    if (current != removals) {
+      // Read the counter before clearing, so that removals during clear() are detected next time.
+      removals = current;
+      dataPoints.clear();
+    }
+  }
+}
@@ -14,6 +14,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
@@ -46,9 +48,11 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
 
   @Nullable private final ExemplarSamplerConfig exemplarSamplerConfig;
   @Nullable private final Supplier<Labels> exemplarLabelsSupplier;
+  private final boolean additive;
 
   private Gauge(Builder builder, PrometheusProperties prometheusProperties) {
     super(builder);
+    additive = builder.additive;
     MetricsProperties[] properties = getMetricProperties(builder, prometheusProperties);
     boolean exemplarsEnabled =
         getConfigProperty(properties, MetricsProperties::getExemplarsEnabled);
@@ -112,29 +116,56 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
 
   @Override
   protected DataPoint newDataPoint() {
-    if (exemplarSamplerConfig != null) {
-      return new DataPoint(
-          new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier));
-    } else {
-      return new DataPoint(null);
-    }
+    ExemplarSampler exemplarSampler =
+        exemplarSamplerConfig != null
+            ? new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier)
+            : null;
+    return additive
+        ? new AdditiveDataPoint(this, exemplarSampler)
+        : new AtomicDataPoint(this, exemplarSampler);
   }
 
-  static class DataPoint implements GaugeDataPoint {
+  abstract static class DataPoint extends TrackedDataPoint implements GaugeDataPoint {
 
     @Nullable
-    private final ExemplarSampler exemplarSampler; // null if exemplarSamplerConfig is null
+    protected final ExemplarSampler exemplarSampler; // null if exemplarSamplerConfig is null
 
-    private DataPoint(@Nullable ExemplarSampler exemplarSampler) {
+    private DataPoint(Gauge gauge, @Nullable ExemplarSampler exemplarSampler) {
+      super(gauge);
       this.exemplarSampler = exemplarSampler;
     }
 
+    private GaugeSnapshot.GaugeDataPointSnapshot collect(Labels labels) {
+      // Read the exemplar first. Otherwise, there is a race condition where you might
+      // see an Exemplar for a value that's not represented in getValue() yet.
+      // If there are multiple Exemplars (by default it's just one), use the oldest
+      // so that we don't violate min age.
+      Exemplar oldest = null;
+      if (exemplarSampler != null) {
+        for (Exemplar exemplar : exemplarSampler.collect()) {
+          if (oldest == null || exemplar.getTimestampMillis() < oldest.getTimestampMillis()) {
+            oldest = exemplar;
+          }
+        }
+      }
+      return new GaugeSnapshot.GaugeDataPointSnapshot(get(), labels, oldest);
+    }
+  }
+
+  /** The value is a single atomic long holding the bits of a double. */
+  private static final class AtomicDataPoint extends DataPoint {
+
     private final AtomicLong value = new AtomicLong(Double.doubleToRawLongBits(0));
 
+    private AtomicDataPoint(Gauge gauge, @Nullable ExemplarSampler exemplarSampler) {
+      super(gauge, exemplarSampler);
+    }
+
     @Override
     public void inc(double amount) {
       long next =
           value.updateAndGet(l -> Double.doubleToRawLongBits(Double.longBitsToDouble(l) + amount));
+      touch();
       if (exemplarSampler != null) {
         exemplarSampler.observe(Double.longBitsToDouble(next));
       }
@@ -144,6 +175,7 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
     public void incWithExemplar(double amount, Labels labels) {
       long next =
           value.updateAndGet(l -> Double.doubleToRawLongBits(Double.longBitsToDouble(l) + amount));
+      touch();
       if (exemplarSampler != null) {
         exemplarSampler.observeWithExemplar(Double.longBitsToDouble(next), labels);
       }
@@ -152,6 +184,7 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
     @Override
     public void set(double value) {
       this.value.set(Double.doubleToRawLongBits(value));
+      touch();
       if (exemplarSampler != null) {
         exemplarSampler.observe(value);
       }
@@ -165,25 +198,91 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
     @Override
     public void setWithExemplar(double value, Labels labels) {
       this.value.set(Double.doubleToRawLongBits(value));
+      touch();
       if (exemplarSampler != null) {
         exemplarSampler.observeWithExemplar(value, labels);
       }
     }
+  }
 
-    private GaugeSnapshot.GaugeDataPointSnapshot collect(Labels labels) {
-      // Read the exemplar first. Otherwise, there is a race condition where you might
-      // see an Exemplar for a value that's not represented in getValue() yet.
-      // If there are multiple Exemplars (by default it's just one), use the oldest
-      // so that we don't violate min age.
-      Exemplar oldest = null;
+  /**
+   * The value is the base value of the current epoch plus striped adders, see {@link
+   * Builder#additive()}.
+   */
+  private static final class AdditiveDataPoint extends DataPoint {
+
+    private volatile Epoch epoch = new Epoch(0);
+
+    private AdditiveDataPoint(Gauge gauge, @Nullable ExemplarSampler exemplarSampler) {
+      super(gauge, exemplarSampler);
+    }
+
+    @Override
+    public void inc(double amount) {
+      // No automatic exemplar sampling, because that would need the current value.
+      epoch.add(amount);
+      touch();
+    }
+
+    @Override
+    public void incWithExemplar(double amount, Labels labels) {
+      Epoch current = epoch;
+      current.add(amount);
+      touch();
       if (exemplarSampler != null) {
-        for (Exemplar exemplar : exemplarSampler.collect()) {
-          if (oldest == null || exemplar.getTimestampMillis() < oldest.getTimestampMillis()) {
-            oldest = exemplar;
-          }
-        }
+        exemplarSampler.observeWithExemplar(current.get(), labels);
+      }
+    }
+
+    @Override
+    public void set(double value) {
+      // Increments that are still running on the previous epoch are lost. That is correct,
+      // because they happen concurrently with set(), so they can be ordered before set().
+      epoch = new Epoch(value);
+      touch();
+      if (exemplarSampler != null) {
+        exemplarSampler.observe(value);
+      }
+    }
+
+    @Override
+    public double get() {
+      return epoch.get();
+    }
+
+    @Override
+    public void setWithExemplar(double value, Labels labels) {
+      epoch = new Epoch(value);
+      touch();
+      if (exemplarSampler != null) {
+        exemplarSampler.observeWithExemplar(value, labels);
       }
-      return new GaugeSnapshot.GaugeDataPointSnapshot(get(), labels, oldest);
+    }
+  }
+
+  /** Value set with the last call to {@code set()}, plus all increments since then. */
+  private static final class Epoch {
+
+    private final double base;
+    // LongAdder is faster than DoubleAdder, and most gauges are incremented by whole numbers.
+    private final LongAdder longDelta = new LongAdder();
+    private final DoubleAdder doubleDelta = new DoubleAdder();
+
+    private Epoch(double base) {
+      this.base = base;
+    }
+
+    private void add(double amount) {
+      long longAmount = (long) amount;
+      if (longAmount == amount) {
+        longDelta.add(longAmount);
+      } else {
+        doubleDelta.add(amount);
+      }
+    }
+
+    private double get() {
+      return base + longDelta.sum() + doubleDelta.sum();
     }
   }
 
@@ -197,10 +296,33 @@ public class Gauge extends StatefulMetric<GaugeDataPoint, Gauge.DataPoint>
 
   public static class Builder extends StatefulMetric.Builder<Builder, Gauge> {
 
+    private boolean additive = false;
+
     private Builder(PrometheusProperties config) {
       super(Collections.emptyList(), config);
     }
 
+    /**
+     * Optimize the gauge for {@code inc()} and {@code dec()}, like a gauge counting in-flight
+     * requests that is incremented and decremented by many threads concurrently.
+     *
+     * <p>By default, the value of a gauge is a single atomic variable, which becomes a point of
+     * contention if many threads update it at the same time. An additive gauge uses striped adders
+     * like a {@link Counter} instead, so concurrent updates don't contend. The trade-offs are:
+     *
+     * <ul>
+     *   <li>{@code get()} and scraping are slower, because they need to sum up the stripes.
+     *   <li>{@code set()} is slower and allocates, because it starts a new set of adders.
+     *   <li>{@code inc()} and {@code dec()} don't sample exemplars automatically, because the
+     *       exemplar value is the current value of the gauge. Exemplars can still be added
+     *       explicitly with {@code incWithExemplar()} and {@code decWithExemplar()}.
+     * </ul>
+     */
+    public Builder additive() {
+      this.additive = true;
+      return this;
+    }
+
     @Override
     public Gauge build() {
       return new Gauge(this, properties);
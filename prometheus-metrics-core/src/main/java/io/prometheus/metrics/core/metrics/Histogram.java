@@ -13,17 +13,14 @@ import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
 import io.prometheus.metrics.model.snapshots.Exemplars;
 import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
 import io.prometheus.metrics.model.snapshots.Labels;
-import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.DoubleAdder;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
@@ -71,7 +68,16 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
   private static final int CLASSIC_HISTOGRAM = Integer.MIN_VALUE;
 
   // NATIVE_BOUNDS is used to look up the native bucket index depending on the current schema.
-  private static final double[][] NATIVE_BOUNDS;
+  // The bounds are fractions in [0.5, 1). As they all have the same exponent, we store the mantissa
+  // bits, which can be compared as long values.
+  private static final long[][] NATIVE_BOUNDS;
+
+  // For each schema, this maps the top (schema + 1) bits of a mantissa to the index of the first
+  // bound that is greater than or equal to the smallest mantissa with these top bits. The bounds
+  // are further apart than the mantissa ranges, so the index is off by at most one.
+  private static final int[][] NATIVE_BOUNDS_LOOKUP;
+
+  private static final long MANTISSA_MASK = 0x000fffffffffffffL;
 
   @Nullable private final ExemplarSamplerConfig exemplarSamplerConfig;
   @Nullable private final Supplier<Labels> exemplarLabelsSupplier;
@@ -196,44 +202,52 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
     getNoLabels().observeWithExemplar(amount, labels);
   }
 
-  public class DataPoint implements DistributionDataPoint {
-    private final LongAdder[] classicBuckets;
-    private final ConcurrentHashMap<Integer, LongAdder> nativeBucketsForPositiveValues =
-        new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, LongAdder> nativeBucketsForNegativeValues =
-        new ConcurrentHashMap<>();
-    private final LongAdder nativeZeroCount = new LongAdder();
-    private final LongAdder count = new LongAdder();
-    private final DoubleAdder sum = new DoubleAdder();
-    private volatile int nativeSchema =
-        nativeInitialSchema; // integer in [-4, 8] or CLASSIC_HISTOGRAM
-    private volatile double nativeZeroThreshold = Histogram.this.nativeMinZeroThreshold;
-    private volatile long createdTimeMillis = System.currentTimeMillis();
-    private final Buffer buffer = new Buffer();
+  public class DataPoint extends TrackedDataPoint implements DistributionDataPoint {
+    // Observations are recorded in the hot half of the counts, see Buffer.
+    private final Counts[] counts;
+    private final Buffer buffer;
+    // The following fields hold the accumulated state of all observations drained from the cold
+    // half. They are only accessed by the action in buffer.run().
+    private final long[] classicBuckets;
+    private final NativeBucketList nativeBucketsForPositiveValues = new NativeBucketList();
+    private final NativeBucketList nativeBucketsForNegativeValues = new NativeBucketList();
+    private long nativeZeroCount = 0;
+    private long count = 0;
+    private double sum = 0;
+    private int nativeSchema = nativeInitialSchema; // integer in [-4, 8] or CLASSIC_HISTOGRAM
+    private double nativeZeroThreshold = Histogram.this.nativeMinZeroThreshold;
+    private long createdTimeMillis = System.currentTimeMillis();
+    // Number of accumulated native buckets. Observers use this without lock to check whether
+    // nativeMaxBuckets might be exceeded.
+    private volatile int numberOfNativeBuckets = 0;
     private volatile boolean resetDurationExpired = false;
     @Nullable private final ExemplarSampler exemplarSampler;
 
     private DataPoint() {
+      super(Histogram.this);
       if (exemplarSamplerConfig != null) {
         exemplarSampler = new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier);
       } else {
         exemplarSampler = null;
       }
-      classicBuckets = new LongAdder[classicUpperBounds.length];
-      for (int i = 0; i < classicUpperBounds.length; i++) {
-        classicBuckets[i] = new LongAdder();
-      }
+      classicBuckets = new long[classicUpperBounds.length];
+      counts =
+          new Counts[] {
+            new Counts(nativeSchema, nativeZeroThreshold),
+            new Counts(nativeSchema, nativeZeroThreshold)
+          };
+      buffer = new Buffer(i -> counts[i].count.sum());
       maybeScheduleNextReset();
     }
 
     @Override
     public double getSum() {
-      return sum.sum();
+      return buffer.run(() -> sum + counts[0].sum.sum() + counts[1].sum.sum());
     }
 
     @Override
     public long getCount() {
-      return count.sum();
+      return buffer.run(() -> count + counts[0].count.sum() + counts[1].count.sum());
     }
 
     @Override
@@ -242,9 +256,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         // See https://github.com/prometheus/client_golang/issues/1275 on ignoring NaN observations.
         return;
       }
-      if (!buffer.append(value)) {
-        doObserve(value, false);
-      }
+      doObserve(value);
       if (exemplarSampler != null) {
         exemplarSampler.observe(value);
       }
@@ -256,63 +268,35 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
         // See https://github.com/prometheus/client_golang/issues/1275 on ignoring NaN observations.
         return;
       }
-      if (!buffer.append(value)) {
-        doObserve(value, false);
-      }
+      doObserve(value);
       if (exemplarSampler != null) {
         exemplarSampler.observeWithExemplar(value, labels);
       }
     }
 
-    private void doObserve(double value, boolean fromBuffer) {
-      // classicUpperBounds is an empty array if this is a native histogram only.
-      for (int i = 0; i < classicUpperBounds.length; ++i) {
-        // The last bucket is +Inf, so we always increment.
-        if (value <= classicUpperBounds[i]) {
-          classicBuckets[i].add(1);
-          break;
-        }
-      }
-      boolean nativeBucketCreated = false;
-      if (Histogram.this.nativeInitialSchema != CLASSIC_HISTOGRAM) {
-        if (value > nativeZeroThreshold) {
-          nativeBucketCreated = addToNativeBucket(value, nativeBucketsForPositiveValues);
-        } else if (value < -nativeZeroThreshold) {
-          nativeBucketCreated = addToNativeBucket(-value, nativeBucketsForNegativeValues);
-        } else {
-          nativeZeroCount.add(1);
-        }
-      }
-      sum.add(value);
-      count
-          .increment(); // must be the last step, because count is used to signal that the operation
-      // is complete.
-      if (!fromBuffer) {
-        // maybeResetOrScaleDown will switch to the buffer,
-        // which won't work if we are currently still processing observations from the buffer.
-        // The reason is that before switching to the buffer we wait for all pending observations to
-        // be counted.
-        // If we do this while still applying observations from the buffer, the pending observations
-        // from
-        // the buffer will never be counted, and the buffer.run() method will wait forever.
-        maybeResetOrScaleDown(value, nativeBucketCreated);
+    private void doObserve(double value) {
+      Counts hot = counts[buffer.startObservation()];
+      boolean nativeBucketCreated = hot.observe(value);
+      if (nativeBucketCreated || resetDurationExpired) {
+        maybeResetOrScaleDown(value, hot, nativeBucketCreated);
       }
+      touch();
     }
 
     private HistogramSnapshot.HistogramDataPointSnapshot collect(Labels labels) {
       Exemplars exemplars = exemplarSampler != null ? exemplarSampler.collect() : Exemplars.EMPTY;
       return buffer.run(
-          expectedCount -> count.sum() == expectedCount,
           () -> {
+            drain(buffer.swap());
             if (classicUpperBounds.length == 0) {
               // native only
               return new HistogramSnapshot.HistogramDataPointSnapshot(
                   nativeSchema,
-                  nativeZeroCount.sum(),
+                  nativeZeroCount,
                   nativeZeroThreshold,
-                  toBucketList(nativeBucketsForPositiveValues),
-                  toBucketList(nativeBucketsForNegativeValues),
-                  sum.sum(),
+                  nativeBucketsForPositiveValues.toNativeHistogramBuckets(),
+                  nativeBucketsForNegativeValues.toNativeHistogramBuckets(),
+                  sum,
                   labels,
                   exemplars,
                   createdTimeMillis);
@@ -320,7 +304,7 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
               // classic only
               return new HistogramSnapshot.HistogramDataPointSnapshot(
                   ClassicHistogramBuckets.of(classicUpperBounds, classicBuckets),
-                  sum.sum(),
+                  sum,
                   labels,
                   exemplars,
                   createdTimeMillis);
@@ -329,96 +313,79 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
               return new HistogramSnapshot.HistogramDataPointSnapshot(
                   ClassicHistogramBuckets.of(classicUpperBounds, classicBuckets),
                   nativeSchema,
-                  nativeZeroCount.sum(),
+                  nativeZeroCount,
                   nativeZeroThreshold,
-                  toBucketList(nativeBucketsForPositiveValues),
-                  toBucketList(nativeBucketsForNegativeValues),
-                  sum.sum(),
+                  nativeBucketsForPositiveValues.toNativeHistogramBuckets(),
+                  nativeBucketsForNegativeValues.toNativeHistogramBuckets(),
+                  sum,
                   labels,
                   exemplars,
                   createdTimeMillis);
             }
-          },
-          v -> doObserve(v, true));
+          });
     }
 
-    private boolean addToNativeBucket(double value, ConcurrentHashMap<Integer, LongAdder> buckets) {
-      boolean newBucketCreated = false;
-      int bucketIndex;
-      if (Double.isInfinite(value)) {
-        bucketIndex = findBucketIndex(Double.MAX_VALUE) + 1;
-      } else {
-        bucketIndex = findBucketIndex(value);
-      }
-      LongAdder bucketCount = buckets.get(bucketIndex);
-      if (bucketCount == null) {
-        LongAdder newBucketCount = new LongAdder();
-        LongAdder existingBucketCount = buckets.putIfAbsent(bucketIndex, newBucketCount);
-        if (existingBucketCount == null) {
-          newBucketCreated = true;
-          bucketCount = newBucketCount;
+    /**
+     * Add the observations from the cold half to the accumulated state and reset the cold half.
+     *
+     * <p>drain is called by the action in buffer.run() with the index returned by buffer.swap().
+     */
+    private void drain(int coldIndex) {
+      Counts cold = counts[coldIndex];
+      for (int i = 0; i < classicBuckets.length; i++) {
+        classicBuckets[i] += cold.classicBuckets[i].sumThenReset();
+      }
+      if (Histogram.this.nativeInitialSchema != CLASSIC_HISTOGRAM) {
+        nativeZeroCount += cold.nativeZeroCount.sumThenReset();
+        drainNativeBuckets(
+            cold, cold.nativeBucketsForPositiveValues, nativeBucketsForPositiveValues);
+        drainNativeBuckets(
+            cold, cold.nativeBucketsForNegativeValues, nativeBucketsForNegativeValues);
+        if (cold.nativeSchema != nativeSchema || cold.nativeZeroThreshold != nativeZeroThreshold) {
+          resetCounts(cold);
         } else {
-          bucketCount = existingBucketCount;
+          cold.nativeBucketsForPositiveValues.maybeResize(
+              nativeBucketsForPositiveValues, buffer.numberOfStripes());
+          cold.nativeBucketsForNegativeValues.maybeResize(
+              nativeBucketsForNegativeValues, buffer.numberOfStripes());
         }
+        numberOfNativeBuckets =
+            nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
       }
-      bucketCount.increment();
-      return newBucketCreated;
+      sum += cold.sum.sumThenReset();
+      // count must be reset last, because count is used to signal that observations are complete.
+      count += cold.count.sumThenReset();
     }
 
-    private int findBucketIndex(double value) {
-      // Preconditions:
-      // Double.isNan(value) is false;
-      // Double.isInfinite(value) is false;
-      // value > 0
-      // ---
-      // The following is a naive implementation of C's frexp() function.
-      // Performance can be improved by using the internal Bit representation of floating point
-      // numbers.
-      // More info on the Bit representation of floating point numbers:
-      // https://stackoverflow.com/questions/8341395/what-is-a-subnormal-floating-point-number
-      // Result: value == frac * 2^exp where frac in [0.5, 1).
-      double frac = value;
-      int exp = 0;
-      while (frac < 0.5) {
-        frac *= 2.0;
-        exp--;
-      }
-      while (frac >= 1.0) {
-        frac /= 2.0;
-        exp++;
-      }
-      // end of frexp()
-
-      if (nativeSchema >= 1) {
-        return findIndex(NATIVE_BOUNDS[nativeSchema - 1], frac)
-            + (exp - 1) * NATIVE_BOUNDS[nativeSchema - 1].length;
-      } else {
-        int bucketIndex = exp;
-        if (frac == 0.5) {
-          bucketIndex--;
-        }
-        int offset = (1 << -nativeSchema) - 1;
-        bucketIndex = (bucketIndex + offset) >> -nativeSchema;
-        return bucketIndex;
-      }
+    private void drainNativeBuckets(
+        Counts cold, NativeBucketCounts coldBuckets, NativeBucketList buckets) {
+      coldBuckets.drain(
+          (bucketIndex, bucketCount) -> {
+            // The cold half may still use the schema and zero threshold from before the last
+            // scale down, so we might need to map its buckets to the current schema.
+            for (int schema = cold.nativeSchema; schema > nativeSchema; schema--) {
+              bucketIndex = (bucketIndex > 0 ? bucketIndex + 1 : bucketIndex) / 2;
+            }
+            if (cold.nativeZeroThreshold < nativeZeroThreshold
+                && nativeBucketIndexToUpperBound(nativeSchema, bucketIndex)
+                    <= nativeZeroThreshold) {
+              nativeZeroCount += bucketCount;
+            } else {
+              buckets.add(bucketIndex, bucketCount);
+            }
+          });
     }
 
-    private int findIndex(double[] bounds, double frac) {
-      // The following is the equivalent of golang's sort.SearchFloat64s(bounds, frac)
-      // See https://pkg.go.dev/sort#SearchFloat64s
-      int first = 0;
-      int last = bounds.length - 1;
-      while (first <= last) {
-        int mid = (first + last) / 2;
-        if (bounds[mid] == frac) {
-          return mid;
-        } else if (bounds[mid] < frac) {
-          first = mid + 1;
-        } else {
-          last = mid - 1;
-        }
-      }
-      return last + 1;
+    /**
+     * Discard the native buckets of a drained cold half and switch it to the current schema and
+     * zero threshold.
+     */
+    private void resetCounts(Counts cold) {
+      cold.reset(nativeSchema, nativeZeroThreshold);
+      cold.nativeBucketsForPositiveValues.maybeResize(
+          nativeBucketsForPositiveValues, buffer.numberOfStripes());
+      cold.nativeBucketsForNegativeValues.maybeResize(
+          nativeBucketsForNegativeValues, buffer.numberOfStripes());
     }
 
     /**
@@ -431,84 +398,79 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
      *       scale down
      * </ul>
      */
-    private void maybeResetOrScaleDown(double value, boolean nativeBucketCreated) {
-      AtomicBoolean wasReset = new AtomicBoolean(false);
-      if (resetDurationExpired && nativeSchema < nativeInitialSchema) {
+    private void maybeResetOrScaleDown(double value, Counts hot, boolean nativeBucketCreated) {
+      boolean wasReset = false;
+      if (resetDurationExpired && hot.nativeSchema < nativeInitialSchema) {
         // If nativeSchema < initialNativeSchema the histogram has been scaled down.
         // So if resetDurationExpired we will reset it to restore the original native schema.
-        buffer.run(
-            expectedCount -> count.sum() == expectedCount,
-            () -> {
-              if (maybeReset()) {
-                wasReset.set(true);
-              }
-              return null;
-            },
-            v -> doObserve(v, true));
+        wasReset = buffer.run(this::maybeReset);
       } else if (nativeBucketCreated) {
         // If a new bucket was created we need to check if nativeMaxBuckets is exceeded
         // and scale down if so.
-        maybeScaleDown(wasReset);
+        wasReset = maybeScaleDown(hot);
       }
-      if (wasReset.get()) {
+      if (wasReset) {
         // We just discarded the newly observed value. Observe it again.
-        if (!buffer.append(value)) {
-          doObserve(value, true);
-        }
+        counts[buffer.startObservation()].observe(value);
       }
     }
 
-    private void maybeScaleDown(AtomicBoolean wasReset) {
-      if (nativeMaxBuckets == 0 || nativeSchema == -4) {
-        return;
+    private boolean maybeScaleDown(Counts hot) {
+      if (nativeMaxBuckets == 0 || hot.nativeSchema == -4) {
+        return false;
       }
-      int numberOfBuckets =
-          nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
-      if (numberOfBuckets <= nativeMaxBuckets) {
-        return;
+      // The buckets of the hot half and the accumulated buckets overlap, so this is an upper bound
+      // for the actual number of buckets.
+      if (hot.numberOfNativeBuckets() + numberOfNativeBuckets <= nativeMaxBuckets) {
+        return false;
       }
-      buffer.run(
-          expectedCount -> count.sum() == expectedCount,
+      return buffer.run(
           () -> {
-            // Now we are in the synchronized block while new observations go into the buffer.
+            int coldIndex = buffer.swap();
+            drain(coldIndex);
+            // Now all observations until the swap are in the accumulated state.
             // Check again if we need to limit the bucket size, because another thread might
             // have limited it in the meantime.
-            int numBuckets =
-                nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
-            if (numBuckets <= nativeMaxBuckets || nativeSchema == -4) {
-              return null;
+            if (numberOfNativeBuckets <= nativeMaxBuckets || nativeSchema == -4) {
+              return false;
             }
             if (maybeReset()) {
-              wasReset.set(true);
-              return null;
+              return true;
             }
-            if (maybeWidenZeroBucket()) {
-              return null;
+            if (!maybeWidenZeroBucket()) {
+              doubleBucketWidth();
             }
-            doubleBucketWidth();
-            return null;
-          },
-          v -> doObserve(v, true));
+            numberOfNativeBuckets =
+                nativeBucketsForPositiveValues.size() + nativeBucketsForNegativeValues.size();
+            // The cold half is empty, so it can use the new schema and zero threshold right away.
+            // Then we swap again so that the observations recorded with the old schema and zero
+            // threshold in the meantime are merged into the accumulated state.
+            resetCounts(counts[coldIndex]);
+            drain(buffer.swap());
+            return false;
+          });
     }
 
-    // maybeReset is called in the synchronized block while new observations go into the buffer.
+    // maybeReset is called by the action in buffer.run().
     private boolean maybeReset() {
       if (!resetDurationExpired) {
         return false;
       }
       resetDurationExpired = false;
-      buffer.reset();
       nativeBucketsForPositiveValues.clear();
       nativeBucketsForNegativeValues.clear();
-      nativeZeroCount.reset();
-      count.reset();
-      sum.reset();
-      for (LongAdder classicBucket : classicBuckets) {
-        classicBucket.reset();
-      }
+      nativeZeroCount = 0;
+      count = 0;
+      sum = 0;
+      Arrays.fill(classicBuckets, 0);
       nativeZeroThreshold = nativeMinZeroThreshold;
       nativeSchema = Histogram.this.nativeInitialSchema;
+      numberOfNativeBuckets = 0;
       createdTimeMillis = System.currentTimeMillis();
+      // Discard the observations in both halves. We cannot merge them, because they might have been
+      // recorded with a smaller schema than the initial schema.
+      discard(counts[buffer.swap()]);
+      discard(counts[buffer.swap()]);
       if (exemplarSampler != null) {
         exemplarSampler.reset();
       }
@@ -516,8 +478,15 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
       return true;
     }
 
-    // maybeWidenZeroBucket is called in the synchronized block while new observations go into the
-    // buffer.
+    // Discard all observations of a cold half without draining them. This is called by
+    // maybeReset().
+    private void discard(Counts cold) {
+      cold.nativeBucketsForPositiveValues.drain((bucketIndex, bucketCount) -> {});
+      cold.nativeBucketsForNegativeValues.drain((bucketIndex, bucketCount) -> {});
+      resetCounts(cold);
+    }
+
+    // maybeWidenZeroBucket is called by the action in buffer.run().
     private boolean maybeWidenZeroBucket() {
       if (nativeZeroThreshold >= nativeMaxZeroThreshold) {
         return false;
@@ -540,11 +509,8 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
       return true;
     }
 
-    private void mergeWithZeroBucket(int index, Map<Integer, LongAdder> buckets) {
-      LongAdder count = buckets.remove(index);
-      if (count != null) {
-        nativeZeroCount.add(count.sum());
-      }
+    private void mergeWithZeroBucket(int index, NativeBucketList buckets) {
+      nativeZeroCount += buckets.remove(index);
     }
 
     private double nativeBucketIndexToUpperBound(int schema, int index) {
@@ -584,60 +550,156 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
       return factor * Math.pow(2, index * Math.pow(2, -schema));
     }
 
-    private int findSmallestIndex(Map<Integer, LongAdder> nativeBuckets) {
-      int result = Integer.MAX_VALUE;
-      for (int key : nativeBuckets.keySet()) {
-        if (key < result) {
-          result = key;
-        }
-      }
-      return result;
+    private int findSmallestIndex(NativeBucketList nativeBuckets) {
+      return nativeBuckets.isEmpty() ? Integer.MAX_VALUE : nativeBuckets.minIndex();
     }
 
-    // doubleBucketWidth is called in the synchronized block while new observations go into the
-    // buffer.
+    // doubleBucketWidth is called by the action in buffer.run().
     @SuppressWarnings("NonAtomicVolatileUpdate")
     private void doubleBucketWidth() {
-      doubleBucketWidth(nativeBucketsForPositiveValues);
-      doubleBucketWidth(nativeBucketsForNegativeValues);
+      nativeBucketsForPositiveValues.doubleBucketWidth();
+      nativeBucketsForNegativeValues.doubleBucketWidth();
       nativeSchema--;
     }
 
-    private void doubleBucketWidth(Map<Integer, LongAdder> buckets) {
-      int[] keys = new int[buckets.size()];
-      long[] values = new long[keys.length];
-      int i = 0;
-      for (Map.Entry<Integer, LongAdder> entry : buckets.entrySet()) {
-        keys[i] = entry.getKey();
-        values[i] = entry.getValue().sum();
-        i++;
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void maybeScheduleNextReset() {
+      if (nativeResetDurationSeconds > 0) {
+        Scheduler.schedule(
+            () -> resetDurationExpired = true, nativeResetDurationSeconds, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * One half of the double buffered observations of a {@link DataPoint}, see {@link Buffer}.
+   *
+   * <p>The native schema and zero threshold are only modified while this half is cold. The swap in
+   * {@link Buffer} makes the new values visible to observers.
+   */
+  private class Counts {
+    private final LongAdder[] classicBuckets;
+    private final NativeBucketCounts nativeBucketsForPositiveValues = new NativeBucketCounts();
+    private final NativeBucketCounts nativeBucketsForNegativeValues = new NativeBucketCounts();
+    private final LongAdder nativeZeroCount = new LongAdder();
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private int nativeSchema; // integer in [-4, 8] or CLASSIC_HISTOGRAM
+    private double nativeZeroThreshold;
+
+    private Counts(int nativeSchema, double nativeZeroThreshold) {
+      this.nativeSchema = nativeSchema;
+      this.nativeZeroThreshold = nativeZeroThreshold;
+      classicBuckets = new LongAdder[classicUpperBounds.length];
+      for (int i = 0; i < classicUpperBounds.length; i++) {
+        classicBuckets[i] = new LongAdder();
+      }
+    }
+
+    /** Returns {@code true} if a new native bucket was created. */
+    private boolean observe(double value) {
+      // classicUpperBounds is an empty array if this is a native histogram only.
+      for (int i = 0; i < classicUpperBounds.length; ++i) {
+        // The last bucket is +Inf, so we always increment.
+        if (value <= classicUpperBounds[i]) {
+          classicBuckets[i].add(1);
+          break;
+        }
+      }
+      boolean nativeBucketCreated = false;
+      if (Histogram.this.nativeInitialSchema != CLASSIC_HISTOGRAM) {
+        if (value > nativeZeroThreshold) {
+          nativeBucketCreated = addToNativeBucket(value, nativeBucketsForPositiveValues);
+        } else if (value < -nativeZeroThreshold) {
+          nativeBucketCreated = addToNativeBucket(-value, nativeBucketsForNegativeValues);
+        } else {
+          nativeZeroCount.add(1);
+        }
       }
-      buckets.clear();
-      for (i = 0; i < keys.length; i++) {
-        int index = (keys[i] > 0 ? keys[i] + 1 : keys[i]) / 2;
-        LongAdder count = buckets.computeIfAbsent(index, k -> new LongAdder());
-        count.add(values[i]);
+      sum.add(value);
+      // count must be the last step, because count is used to signal that the observation is
+      // complete.
+      count.increment();
+      return nativeBucketCreated;
+    }
+
+    private boolean addToNativeBucket(double value, NativeBucketCounts buckets) {
+      int bucketIndex;
+      if (Double.isInfinite(value)) {
+        bucketIndex = findBucketIndex(nativeSchema, Double.MAX_VALUE) + 1;
+      } else {
+        bucketIndex = findBucketIndex(nativeSchema, value);
       }
+      return buckets.increment(bucketIndex);
     }
 
-    private NativeHistogramBuckets toBucketList(ConcurrentHashMap<Integer, LongAdder> map) {
-      int[] bucketIndexes = new int[map.size()];
-      long[] counts = new long[map.size()];
-      int i = 0;
-      for (Map.Entry<Integer, LongAdder> entry : map.entrySet()) {
-        bucketIndexes[i] = entry.getKey();
-        counts[i] = entry.getValue().sum();
-        i++;
+    private int numberOfNativeBuckets() {
+      return nativeBucketsForPositiveValues.numberOfBuckets()
+          + nativeBucketsForNegativeValues.numberOfBuckets();
+    }
+
+    /**
+     * Discard all observations and switch to the given schema and zero threshold. The native
+     * buckets must have been drained.
+     */
+    private void reset(int nativeSchema, double nativeZeroThreshold) {
+      for (LongAdder classicBucket : classicBuckets) {
+        classicBucket.reset();
       }
-      return NativeHistogramBuckets.of(bucketIndexes, counts);
+      nativeBucketsForPositiveValues.reset();
+      nativeBucketsForNegativeValues.reset();
+      nativeZeroCount.reset();
+      sum.reset();
+      this.nativeSchema = nativeSchema;
+      this.nativeZeroThreshold = nativeZeroThreshold;
+      // count must be reset last, because count is used to signal that observations are complete.
+      count.reset();
     }
+  }
 
-    @SuppressWarnings("FutureReturnValueIgnored")
-    private void maybeScheduleNextReset() {
-      if (nativeResetDurationSeconds > 0) {
-        Scheduler.schedule(
-            () -> resetDurationExpired = true, nativeResetDurationSeconds, TimeUnit.SECONDS);
+  private static int findBucketIndex(int schema, double value) {
+    // Preconditions:
+    // Double.isNan(value) is false;
+    // Double.isInfinite(value) is false;
+    // value > 0
+    // ---
+    // The following is C's frexp() function, using the bit representation of IEEE 754 doubles.
+    // More info on the Bit representation of floating point numbers:
+    // https://stackoverflow.com/questions/8341395/what-is-a-subnormal-floating-point-number
+    // Result: value == frac * 2^exp where frac in [0.5, 1), and mantissa are the bits of frac
+    // after the implicit leading 1.
+    long bits = Double.doubleToRawLongBits(value);
+    int exp = (int) (bits >>> 52); // value > 0, so the sign bit is 0
+    long mantissa = bits & MANTISSA_MASK;
+    if (exp == 0) {
+      // subnormal: value == mantissa * 2^-1074, shift the mantissa so that the leading 1 is
+      // the implicit bit.
+      int shift = Long.numberOfLeadingZeros(mantissa) - 11;
+      mantissa = (mantissa << shift) & MANTISSA_MASK;
+      exp = -1021 - shift;
+    } else {
+      exp -= 1022;
+    }
+    // end of frexp()
+
+    if (schema >= 1) {
+      long[] bounds = NATIVE_BOUNDS[schema - 1];
+      // The following is the equivalent of golang's sort.SearchFloat64s(bounds, frac)
+      // See https://pkg.go.dev/sort#SearchFloat64s
+      int index = NATIVE_BOUNDS_LOOKUP[schema - 1][(int) (mantissa >>> (51 - schema))];
+      if (index < bounds.length && mantissa > bounds[index]) {
+        index++;
       }
+      return index + ((exp - 1) << schema);
+    } else {
+      int bucketIndex = exp;
+      if (mantissa == 0) {
+        // frac == 0.5
+        bucketIndex--;
+      }
+      int offset = (1 << -schema) - 1;
+      bucketIndex = (bucketIndex + offset) >> -schema;
+      return bucketIndex;
     }
   }
 
@@ -672,21 +734,38 @@ public class Histogram extends StatefulMetric<DistributionDataPoint, Histogram.D
 
   static {
     // See bounds in client_golang's histogram implementation.
-    NATIVE_BOUNDS = new double[8][];
+    double[][] nativeBounds = new double[8][];
+    NATIVE_BOUNDS = new long[8][];
+    NATIVE_BOUNDS_LOOKUP = new int[8][];
     for (int schema = 1; schema <= 8; schema++) {
-      NATIVE_BOUNDS[schema - 1] = new double[1 << schema];
-      NATIVE_BOUNDS[schema - 1][0] = 0.5;
+      nativeBounds[schema - 1] = new double[1 << schema];
+      nativeBounds[schema - 1][0] = 0.5;
       // https://github.com/open-telemetry/opentelemetry-proto/blob/main/opentelemetry/proto/metrics/v1/metrics.proto#L501
       double base = Math.pow(2, Math.pow(2, -schema));
-      for (int i = 1; i < NATIVE_BOUNDS[schema - 1].length; i++) {
+      for (int i = 1; i < nativeBounds[schema - 1].length; i++) {
         if (i % 2 == 0 && schema > 1) {
           // Use previously calculated value for increased precision, see comment in client_golang's
           // implementation.
-          NATIVE_BOUNDS[schema - 1][i] = NATIVE_BOUNDS[schema - 2][i / 2];
+          nativeBounds[schema - 1][i] = nativeBounds[schema - 2][i / 2];
         } else {
-          NATIVE_BOUNDS[schema - 1][i] = NATIVE_BOUNDS[schema - 1][i - 1] * base;
+          nativeBounds[schema - 1][i] = nativeBounds[schema - 1][i - 1] * base;
+        }
+      }
+      long[] bounds = new long[nativeBounds[schema - 1].length];
+      for (int i = 0; i < bounds.length; i++) {
+        bounds[i] = Double.doubleToRawLongBits(nativeBounds[schema - 1][i]) & MANTISSA_MASK;
+      }
+      int[] lookup = new int[1 << (schema + 1)];
+      int index = 0;
+      for (int i = 0; i < lookup.length; i++) {
+        long smallestMantissa = (long) i << (51 - schema);
+        while (index < bounds.length && bounds[index] < smallestMantissa) {
+          index++;
         }
+        lookup[i] = index;
       }
+      NATIVE_BOUNDS[schema - 1] = bounds;
+      NATIVE_BOUNDS_LOOKUP[schema - 1] = lookup;
     }
   }
 
@@ -0,0 +1,74 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Self-metric for the limit on label value combinations, see {@link
+ * Counter.Builder#maxLabelCombinations(int)}.
+ *
+ * <p>Counts the overflow lookups, i.e. how often a new label value combination was recorded in the
+ * overflow data point because the metric had reached its limit:
+ *
+ * <pre>
+ * # TYPE prometheus_metrics_label_combination_overflow_lookups counter
+ * prometheus_metrics_label_combination_overflow_lookups_total{metric="http_requests"} 17.0
+ * </pre>
+ *
+ * This is not the number of distinct label value combinations that were dropped: A label value
+ * combination that is used repeatedly after the limit was reached is counted each time. Keep a
+ * reference to the data point if you want to avoid the lookup.
+ *
+ * <p>The counts are kept per metric instance and summed up by metric name. They are removed when
+ * the metric is garbage collected. Metrics that never reached their limit are not included. The
+ * self-metric is not registered by default. Register it with
+ *
+ * <pre>{@code
+ * LabelCombinationOverflowLookups.register();
+ * }</pre>
+ */
+public final class LabelCombinationOverflowLookups {
+
+  private static final Map<StatefulMetric<?, ?>, LongAdder> overflows =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private LabelCombinationOverflowLookups() {}
+
+  /** Register the self-metric with the default registry. */
+  public static CounterWithCallback register() {
+    return register(PrometheusRegistry.defaultRegistry);
+  }
+
+  /** Register the self-metric with the given registry. */
+  public static CounterWithCallback register(PrometheusRegistry registry) {
+    return CounterWithCallback.builder()
+        .name("prometheus_metrics_label_combination_overflow_lookups_total")
+        .help(
+            "Number of data point lookups recorded in the overflow data point because the metric"
+                + " reached its limit on label value combinations")
+        .labelNames("metric")
+        .callback(callback -> countsByName().forEach((name, count) -> callback.call(count, name)))
+        .register(registry);
+  }
+
+  private static Map<String, Double> countsByName() {
+    Map<String, Double> result = new TreeMap<>();
+    synchronized (overflows) {
+      overflows.forEach(
+          (metric, count) ->
+              result.merge(metric.metadata.getName(), (double) count.sum(), Double::sum));
+    }
+    return result;
+  }
+
+  /** The counter for the given metric instance, created when the metric reaches its limit. */
+  static LongAdder counterFor(StatefulMetric<?, ?> metric) {
+    synchronized (overflows) {
+      return overflows.computeIfAbsent(metric, m -> new LongAdder());
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.snapshots.Labels;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Map from label values to data points, used by {@link StatefulMetric}.
+ *
+ * <p>Lookups are lock-free and don't allocate: The hash is computed from the label values directly
+ * (the hash code of a {@link String} is cached), and the table is searched with linear probing.
+ * There are lookup methods for 1 to 4 label values so that callers don't need to allocate an array.
+ * Only inserting and removing take a lock.
+ *
+ * <p>Entries never move within a table. Removed entries are replaced with a tombstone, and the
+ * table is rebuilt when it is too full. That way, iterating over the table yields each entry at
+ * most once, even if entries are inserted or removed concurrently.
+ *
+ * <p>The hash of the label values is the same as {@link List#hashCode()}, so this map can be used
+ * as a {@code Map<List<String>, T>}.
+ */
+final class LabelValuesMap<T> extends AbstractMap<List<String>, T> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Never equal to actual label values, because the hash of an empty list is 1.
+  private static final Node<Object> TOMBSTONE = new Node<>(0, new String[0], new Object());
+
+  private final Object lock = new Object();
+  private volatile AtomicReferenceArray<Node<T>> table =
+      new AtomicReferenceArray<>(INITIAL_CAPACITY);
+  private volatile int size = 0; // written while holding the lock
+  private int usedSlots = 0; // including tombstones, guarded by lock
+  private volatile int removals = 0; // written while holding the lock
+
+  /** Get the data point for the label values, or {@code null} if there is none. */
+  @Nullable
+  T get(String[] labelValues) {
+    int hash = hash(labelValues);
+    AtomicReferenceArray<Node<T>> tab = table;
+    int mask = tab.length() - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      Node<T> node = tab.get(i);
+      if (node == null) {
+        return null;
+      }
+      if (node.hash == hash && Arrays.equals(node.labelValues, labelValues)) {
+        return node.value;
+      }
+    }
+  }
+
+  @Nullable
+  T get(String v1) {
+    return get(hash(1, v1), 1, v1, null, null, null);
+  }
+
+  @Nullable
+  T get(String v1, String v2) {
+    return get(hash(hash(1, v1), v2), 2, v1, v2, null, null);
+  }
+
+  @Nullable
+  T get(String v1, String v2, String v3) {
+    return get(hash(hash(hash(1, v1), v2), v3), 3, v1, v2, v3, null);
+  }
+
+  @Nullable
+  T get(String v1, String v2, String v3, String v4) {
+    return get(hash(hash(hash(hash(1, v1), v2), v3), v4), 4, v1, v2, v3, v4);
+  }
+
+  @Nullable
+  private T get(
+      int hash,
+      int n,
+      @Nullable String v1,
+      @Nullable String v2,
+      @Nullable String v3,
+      @Nullable String v4) {
+    AtomicReferenceArray<Node<T>> tab = table;
+    int mask = tab.length() - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      Node<T> node = tab.get(i);
+      if (node == null) {
+        return null;
+      }
+      if (node.hash == hash && matches(node.labelValues, n, v1, v2, v3, v4)) {
+        return node.value;
+      }
+    }
+  }
+
+  @Override
+  @Nullable
+  public T get(Object key) {
+    if (!(key instanceof List)) {
+      return null;
+    }
+    List<?> list = (List<?>) key;
+    String[] labelValues = new String[list.size()];
+    for (int i = 0; i < labelValues.length; i++) {
+      if (!(list.get(i) instanceof String)) {
+        return null;
+      }
+      labelValues[i] = (String) list.get(i);
+    }
+    return get(labelValues);
+  }
+
+  private static boolean matches(
+      String[] labelValues,
+      int n,
+      @Nullable String v1,
+      @Nullable String v2,
+      @Nullable String v3,
+      @Nullable String v4) {
+    return labelValues.length == n
+        && labelValues[0].equals(v1)
+        && (n < 2 || labelValues[1].equals(v2))
+        && (n < 3 || labelValues[2].equals(v3))
+        && (n < 4 || labelValues[3].equals(v4));
+  }
+
+  /**
+   * Get the data point for the label values, or create it with {@code newDataPoint} if there is
+   * none. {@code newDataPoint} is called with a copy of the label values while holding the lock.
+   */
+  T computeIfAbsent(String[] labelValues, Function<String[], T> newDataPoint) {
+    // not null, because there is no size limit
+    return Objects.requireNonNull(computeIfAbsent(labelValues, Integer.MAX_VALUE, newDataPoint));
+  }
+
+  /**
+   * Same as {@link #computeIfAbsent(String[], Function)}, but returns {@code null} instead of
+   * creating a new data point if the map already has {@code maxSize} entries.
+   */
+  @Nullable
+  T computeIfAbsent(String[] labelValues, int maxSize, Function<String[], T> newDataPoint) {
+    synchronized (lock) {
+      T result = get(labelValues);
+      if (result == null && size < maxSize) {
+        String[] copy = labelValues.clone();
+        result = newDataPoint.apply(copy);
+        insert(new Node<>(hash(copy), copy, result));
+      }
+      return result;
+    }
+  }
+
+  /** Remove the data point for the label values. */
+  @Nullable
+  T remove(String[] labelValues) {
+    return remove(labelValues, null);
+  }
+
+  /**
+   * Remove the data point for the label values if it is {@code dataPoint}, or any data point if
+   * {@code dataPoint} is {@code null}.
+   */
+  @Nullable
+  // size is only written while holding the lock, data points are compared by identity
+  @SuppressWarnings({"NonAtomicVolatileUpdate", "ReferenceEquality"})
+  T remove(String[] labelValues, @Nullable T dataPoint) {
+    int hash = hash(labelValues);
+    synchronized (lock) {
+      AtomicReferenceArray<Node<T>> tab = table;
+      int mask = tab.length() - 1;
+      for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+        Node<T> node = tab.get(i);
+        if (node == null) {
+          return null;
+        }
+        if (node.hash == hash && Arrays.equals(node.labelValues, labelValues)) {
+          if (dataPoint != null && node.value != dataPoint) {
+            return null;
+          }
+          tab.set(i, tombstone());
+          size--;
+          removals++;
+          return node.value;
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove the data points where {@code filter} returns {@code true} for the label values. The
+   * label values passed to {@code filter} must not be modified.
+   */
+  void removeIf(Predicate<String[]> filter) {
+    forEachDataPoint(
+        (labelValues, dataPoint) -> {
+          if (filter.test(labelValues)) {
+            remove(labelValues);
+          }
+        });
+  }
+
+  /**
+   * Call {@code action} for each data point. This does not block concurrent updates. The label
+   * values passed to {@code action} must not be modified.
+   */
+  void forEachDataPoint(BiConsumer<String[], T> action) {
+    AtomicReferenceArray<Node<T>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      Node<T> node = tab.get(i);
+      if (node != null && node != TOMBSTONE) {
+        action.accept(node.labelValues, node.value);
+      }
+    }
+  }
+
+  /**
+   * Like {@link #forEachDataPoint(BiConsumer)}, but passes the {@link Labels} of each data point
+   * instead of the label values. The labels are created with {@code toLabels} the first time, and
+   * cached with the data point for subsequent calls. {@code toLabels} must always return the same
+   * labels for the same label values.
+   */
+  void forEachDataPoint(Function<String[], Labels> toLabels, BiConsumer<Labels, T> action) {
+    AtomicReferenceArray<Node<T>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      Node<T> node = tab.get(i);
+      if (node != null && node != TOMBSTONE) {
+        Labels labels = node.labels;
+        if (labels == null) {
+          labels = toLabels.apply(node.labelValues);
+          node.labels = labels;
+        }
+        action.accept(labels, node.value);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("NonAtomicVolatileUpdate")
+  public void clear() {
+    synchronized (lock) {
+      table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+      size = 0;
+      usedSlots = 0;
+      removals++;
+    }
+  }
+
+  /**
+   * Number of times data points were removed, or the map was cleared. This can be used to detect
+   * whether references to data points obtained from this map may be stale.
+   */
+  int getRemovals() {
+    return removals;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Set<Map.Entry<List<String>, T>> entrySet() {
+    return new AbstractSet<Map.Entry<List<String>, T>>() {
+      @Override
+      public Iterator<Map.Entry<List<String>, T>> iterator() {
+        return new EntryIterator<>(table);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  // Must be called while holding the lock.
+  @SuppressWarnings("NonAtomicVolatileUpdate")
+  private void insert(Node<T> node) {
+    AtomicReferenceArray<Node<T>> tab = table;
+    if (4 * (usedSlots + 1) > 3 * tab.length()) {
+      tab = rehash(size + 1);
+    }
+    int mask = tab.length() - 1;
+    for (int i = spread(node.hash) & mask; ; i = (i + 1) & mask) {
+      Node<T> existing = tab.get(i);
+      if (existing == null || existing == TOMBSTONE) {
+        if (existing == null) {
+          usedSlots++;
+        }
+        tab.set(i, node);
+        size++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Copy the entries to a new table with room for {@code minSize} entries. This drops the
+   * tombstones, and shrinks the table if many entries have been removed.
+   */
+  private AtomicReferenceArray<Node<T>> rehash(int minSize) {
+    int capacity = INITIAL_CAPACITY;
+    while (3 * capacity < 8 * minSize) {
+      capacity *= 2;
+    }
+    AtomicReferenceArray<Node<T>> oldTable = table;
+    AtomicReferenceArray<Node<T>> newTable = new AtomicReferenceArray<>(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldTable.length(); i++) {
+      Node<T> node = oldTable.get(i);
+      if (node != null && node != TOMBSTONE) {
+        int j = spread(node.hash) & mask;
+        while (newTable.get(j) != null) {
+          j = (j + 1) & mask;
+        }
+        newTable.set(j, node);
+      }
+    }
+    table = newTable;
+    usedSlots = size;
+    return newTable;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Node<T> tombstone() {
+    return (Node<T>) (Node<?>) TOMBSTONE;
+  }
+
+  /** Same as {@code Arrays.asList(labelValues).hashCode()}. */
+  private static int hash(String[] labelValues) {
+    int result = 1;
+    for (String labelValue : labelValues) {
+      result = hash(result, labelValue);
+    }
+    return result;
+  }
+
+  private static int hash(int hash, @Nullable String labelValue) {
+    // labelValue may be null if called with invalid label values.
+    return 31 * hash + (labelValue == null ? 0 : labelValue.hashCode());
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class Node<T> {
+
+    private final int hash;
+    private final String[] labelValues;
+    private final T value;
+    // Cached by forEachDataPoint(toLabels, action). Labels is immutable, so the race is benign.
+    @Nullable private Labels labels;
+
+    private Node(int hash, String[] labelValues, T value) {
+      this.hash = hash;
+      this.labelValues = labelValues;
+      this.value = value;
+    }
+  }
+
+  private static final class EntryIterator<T> implements Iterator<Map.Entry<List<String>, T>> {
+
+    private final AtomicReferenceArray<Node<T>> table;
+    private int index = 0;
+    @Nullable private Node<T> next;
+
+    private EntryIterator(AtomicReferenceArray<Node<T>> table) {
+      this.table = table;
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && index < table.length()) {
+        Node<T> node = table.get(index++);
+        if (node != null && node != TOMBSTONE) {
+          next = node;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<List<String>, T> next() {
+      Node<T> node = next;
+      if (node == null) {
+        throw new NoSuchElementException();
+      }
+      advance();
+      return new SimpleImmutableEntry<>(Arrays.asList(node.labelValues.clone()), node.value);
+    }
+  }
+}
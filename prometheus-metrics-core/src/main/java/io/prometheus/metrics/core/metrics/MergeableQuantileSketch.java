@@ -0,0 +1,23 @@
+package io.prometheus.metrics.core.metrics;
+
+/**
+ * A {@link QuantileSketch} that can be merged with other sketches created by the same {@link
+ * QuantileSketch.Factory}.
+ *
+ * <p>If the factory of a {@link Summary} creates mergeable sketches, each observation is inserted
+ * into the newest age bucket only, and the age buckets are merged when the summary is scraped. This
+ * makes observations cheaper, in particular with many age buckets and many threads.
+ *
+ * <p>Implementations don't need to be thread safe, the summary synchronizes access.
+ */
+public interface MergeableQuantileSketch extends QuantileSketch {
+
+  /**
+   * Add all observations of {@code other} to this sketch. {@code other} is created by the same
+   * {@link QuantileSketch.Factory} as this sketch.
+   */
+  void merge(MergeableQuantileSketch other);
+
+  /** Remove all observations. */
+  void clear();
+}
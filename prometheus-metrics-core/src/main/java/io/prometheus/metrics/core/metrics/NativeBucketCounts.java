@@ -0,0 +1,232 @@
+package io.prometheus.metrics.core.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Native histogram bucket counts for positive or negative values in one half of a {@link
+ * Histogram.DataPoint}, see {@link Buffer}.
+ *
+ * <p>The counts are stored in a dense array indexed by {@code bucketIndex - offset}, so recording
+ * an observation is an array access rather than a map lookup, and does not allocate. To avoid
+ * contention, the array is striped: Each stripe has its own copy of all buckets, and each thread
+ * picks a stripe based on its {@link Buffer#probe() probe}.
+ *
+ * <p>The number of stripes follows the contention of the {@link Buffer}, but each stripe multiplies
+ * the size of the dense array. The number of stripes is therefore capped at {@code maxStripes}, and
+ * additionally so that {@code stripes * length} is at most {@code maxCounts}: A dense array of up
+ * to 256 buckets gets up to 4 stripes, up to 512 buckets gets up to 2 stripes, and a longer one is
+ * not striped. In the worst case, the dense array has 1024 counts (8 KiB) and 1024 presence bits
+ * (128 bytes). A {@link Histogram} data point has four instances (positive and negative values, hot
+ * and cold half), so the dense arrays of a data point take at most about 33 KiB, plus the overflow
+ * maps.
+ *
+ * <p>Observations outside the dense array are recorded in an overflow map. The map is created with
+ * the instance, so recording an observation never allocates the map, and it is cleared rather than
+ * replaced on resize. The dense array is only resized while this half is cold, i.e. when no thread
+ * is recording observations, see {@link #maybeResize(NativeBucketList, int)}. The data point does
+ * this when the half is drained, so buckets are moved from the overflow map into the dense array
+ * with the next scrape. The overflow map holds only buckets outside the dense array, i.e. outliers
+ * and the buckets observed before the first scrape.
+ */
+class NativeBucketCounts {
+
+  // Upper bound for the length of the dense array. Buckets with indexes far away from the others,
+  // like observations of a few extreme outliers, remain in the overflow map.
+  private static final int maxLength = 1024;
+
+  // Upper bound for the number of stripes of the dense array, independent of the number of stripes
+  // of the Buffer. Observations are spread over many buckets, so the bucket counts are less
+  // contended than the Buffer's observation count.
+  static final int maxStripes = 4;
+
+  // Upper bound for stripes * length, i.e. for the size of the counts array.
+  static final int maxCounts = 1024;
+
+  // There are thousands of instances of this class if a histogram has many labels, so we use
+  // field updaters instead of atomic objects, and share the empty array. The overflow map is
+  // created empty, its table is allocated on the first insert.
+  private static final AtomicLongArray empty = new AtomicLongArray(0);
+
+  private static final AtomicIntegerFieldUpdater<NativeBucketCounts> numberOfBucketsUpdater =
+      AtomicIntegerFieldUpdater.newUpdater(NativeBucketCounts.class, "numberOfBuckets");
+
+  // The following fields are only modified while this half is cold.
+  private int offset = 0;
+  private int length = 0;
+  private int stripes = 1;
+  private AtomicLongArray counts = empty; // stripes * length, stripe by stripe
+  private AtomicLongArray present = empty; // one bit per bucket
+  private boolean resizeNeeded = false;
+
+  private final ConcurrentHashMap<Integer, LongAdder> overflow = new ConcurrentHashMap<>();
+  private volatile int numberOfBuckets = 0;
+  // Set when a bucket was created in the overflow map, so the dense array should be resized.
+  private volatile boolean overflowed = false;
+
+  /** Callback for {@link #drain(BucketConsumer)}. */
+  @FunctionalInterface
+  interface BucketConsumer {
+    void accept(int bucketIndex, long count);
+  }
+
+  /**
+   * Increment the count of the bucket with the given index.
+   *
+   * @return {@code true} if the bucket was created, i.e. if this is the first observation in that
+   *     bucket since the last reset.
+   */
+  boolean increment(int bucketIndex) {
+    int i = bucketIndex - offset;
+    if (i < 0 || i >= length) {
+      return incrementOverflow(bucketIndex);
+    }
+    int stripe = stripes == 1 ? 0 : Buffer.probe() & (stripes - 1);
+    if (counts.getAndIncrement(stripe * length + i) != 0) {
+      return false;
+    }
+    // This is the first observation in that bucket in this stripe since the half was drained.
+    // The bucket might still exist, as draining does not remove buckets.
+    while (true) {
+      long word = present.get(i >>> 6);
+      if ((word & (1L << i)) != 0) {
+        return false;
+      }
+      if (present.compareAndSet(i >>> 6, word, word | (1L << i))) {
+        numberOfBucketsUpdater.incrementAndGet(this);
+        return true;
+      }
+    }
+  }
+
+  private boolean incrementOverflow(int bucketIndex) {
+    LongAdder bucketCount = overflow.get(bucketIndex);
+    if (bucketCount == null) {
+      LongAdder newBucketCount = new LongAdder();
+      LongAdder existingBucketCount = overflow.putIfAbsent(bucketIndex, newBucketCount);
+      if (existingBucketCount == null) {
+        newBucketCount.increment();
+        numberOfBucketsUpdater.incrementAndGet(this);
+        overflowed = true;
+        return true;
+      }
+      bucketCount = existingBucketCount;
+    }
+    bucketCount.increment();
+    return false;
+  }
+
+  /**
+   * Number of buckets created since the last reset. This includes buckets that are empty because
+   * the half was drained.
+   */
+  int numberOfBuckets() {
+    return numberOfBuckets;
+  }
+
+  /** The number of stripes of the dense array. */
+  int numberOfStripes() {
+    return stripes;
+  }
+
+  /**
+   * Pass all non-empty buckets to {@code consumer} and set their counts to zero. Must only be
+   * called while this half is cold.
+   */
+  void drain(BucketConsumer consumer) {
+    for (Map.Entry<Integer, LongAdder> entry : overflow.entrySet()) {
+      long count = entry.getValue().sumThenReset();
+      if (count != 0) {
+        consumer.accept(entry.getKey(), count);
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      long count = 0;
+      for (int stripe = 0; stripe < stripes; stripe++) {
+        int pos = stripe * length + i;
+        long stripeCount = counts.get(pos);
+        if (stripeCount != 0) {
+          count += stripeCount;
+          counts.set(pos, 0);
+        }
+      }
+      if (count != 0) {
+        consumer.accept(offset + i, count);
+      }
+    }
+  }
+
+  /**
+   * Discard all buckets, including the empty ones. Must only be called while this half is cold and
+   * after {@link #drain(BucketConsumer)}, i.e. when all counts are zero.
+   *
+   * <p>This is called when the schema changes, so the dense array needs to be resized.
+   */
+  void reset() {
+    clearBuckets();
+    resizeNeeded = true;
+  }
+
+  private void clearBuckets() {
+    for (int i = 0; i < present.length(); i++) {
+      present.set(i, 0);
+    }
+    overflow.clear();
+    numberOfBuckets = 0;
+    overflowed = false;
+  }
+
+  /**
+   * Resize the dense array so that it covers the range of {@code accumulated}, if needed. Must only
+   * be called while this half is cold and after {@link #drain(BucketConsumer)}.
+   *
+   * @param accumulated the buckets accumulated so far, with the schema this half will use from now
+   *     on.
+   * @param stripes the number of stripes, must be a power of two. Capped at {@code maxStripes}, and
+   *     at {@code maxCounts / length}.
+   */
+  void maybeResize(NativeBucketList accumulated, int stripes) {
+    stripes = Math.min(stripes, maxStripes);
+    boolean needed = resizeNeeded || overflowed;
+    if (needed && accumulated.isEmpty()) {
+      // We don't know which range to cover yet. Keep resizeNeeded for the next time.
+      needed = false;
+      resizeNeeded = true;
+    } else if (needed) {
+      resizeNeeded = false;
+    }
+    int newOffset = offset;
+    int newLength = length;
+    if (needed) {
+      int min = accumulated.minIndex();
+      int max = accumulated.maxIndex();
+      long span = (long) max - min + 1;
+      if (span > maxLength) {
+        newLength = maxLength;
+        newOffset = accumulated.indexOfLargestBucket() - maxLength / 2;
+      } else {
+        // Leave some room on both sides, so that we don't need to resize for every new bucket.
+        newLength = (int) Math.min(maxLength, Math.max(16, 2 * span));
+        newOffset = (int) (min - (newLength - span) / 2);
+      }
+    }
+    if (newLength > 0) {
+      stripes = Math.min(stripes, Integer.highestOneBit(Math.max(1, maxCounts / newLength)));
+    }
+    if (!needed && stripes == this.stripes) {
+      return;
+    }
+    // The overflow buckets are drained, and the dense array might cover them now.
+    clearBuckets();
+    offset = newOffset;
+    if (newLength != length || stripes != this.stripes) {
+      length = newLength;
+      this.stripes = stripes;
+      counts = newLength == 0 ? empty : new AtomicLongArray(stripes * newLength);
+      present = newLength == 0 ? empty : new AtomicLongArray((newLength + 63) / 64);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+import java.util.Arrays;
+
+/**
+ * Native histogram buckets sorted by bucket index, stored as two parallel primitive arrays.
+ *
+ * <p>This is used for the accumulated state of a {@link Histogram.DataPoint}. It is not thread
+ * safe, the data point only accesses it from the action in {@link
+ * Buffer#run(java.util.function.Supplier)}.
+ */
+class NativeBucketList {
+
+  private int[] bucketIndexes = new int[0];
+  private long[] counts = new long[0];
+  private int size = 0;
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Smallest bucket index. Must not be called if the list is empty. */
+  int minIndex() {
+    return bucketIndexes[0];
+  }
+
+  /** Largest bucket index. Must not be called if the list is empty. */
+  int maxIndex() {
+    return bucketIndexes[size - 1];
+  }
+
+  /** Index of the bucket with the largest count. Must not be called if the list is empty. */
+  int indexOfLargestBucket() {
+    int result = 0;
+    for (int i = 1; i < size; i++) {
+      if (counts[i] > counts[result]) {
+        result = i;
+      }
+    }
+    return bucketIndexes[result];
+  }
+
+  /** Add {@code count} to the bucket with the given index, creating the bucket if necessary. */
+  void add(int bucketIndex, long count) {
+    int pos = Arrays.binarySearch(bucketIndexes, 0, size, bucketIndex);
+    if (pos >= 0) {
+      counts[pos] += count;
+      return;
+    }
+    pos = -pos - 1;
+    if (size == bucketIndexes.length) {
+      int newCapacity = Math.max(8, size * 2);
+      bucketIndexes = Arrays.copyOf(bucketIndexes, newCapacity);
+      counts = Arrays.copyOf(counts, newCapacity);
+    }
+    System.arraycopy(bucketIndexes, pos, bucketIndexes, pos + 1, size - pos);
+    System.arraycopy(counts, pos, counts, pos + 1, size - pos);
+    bucketIndexes[pos] = bucketIndex;
+    counts[pos] = count;
+    size++;
+  }
+
+  /**
+   * Remove the bucket with the given index.
+   *
+   * @return the count of the removed bucket, or 0 if there was no such bucket.
+   */
+  long remove(int bucketIndex) {
+    int pos = Arrays.binarySearch(bucketIndexes, 0, size, bucketIndex);
+    if (pos < 0) {
+      return 0;
+    }
+    final long result = counts[pos];
+    System.arraycopy(bucketIndexes, pos + 1, bucketIndexes, pos, size - pos - 1);
+    System.arraycopy(counts, pos + 1, counts, pos, size - pos - 1);
+    size--;
+    return result;
+  }
+
+  /**
+   * Merge each pair of neighboring buckets, as needed when the schema is decreased by one.
+   *
+   * <p>The new index {@code (i > 0 ? i + 1 : i) / 2} is monotonic in {@code i}, so this is a single
+   * pass over the sorted arrays.
+   */
+  void doubleBucketWidth() {
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      int newIndex = (bucketIndexes[i] > 0 ? bucketIndexes[i] + 1 : bucketIndexes[i]) / 2;
+      if (newSize > 0 && bucketIndexes[newSize - 1] == newIndex) {
+        counts[newSize - 1] += counts[i];
+      } else {
+        bucketIndexes[newSize] = newIndex;
+        counts[newSize] = counts[i];
+        newSize++;
+      }
+    }
+    size = newSize;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  NativeHistogramBuckets toNativeHistogramBuckets() {
+    if (size == 0) {
+      return NativeHistogramBuckets.EMPTY;
+    }
+    return NativeHistogramBuckets.of(
+        Arrays.copyOf(bucketIndexes, size), Arrays.copyOf(counts, size));
+  }
+}
@@ -0,0 +1,87 @@
+package io.prometheus.metrics.core.metrics;
+
+/**
+ * Data structure for estimating quantiles of a stream of observations, used by {@link Summary}.
+ *
+ * <p>A {@link Summary} data point maintains one sketch per age bucket, see {@link
+ * Summary.Builder#numberOfAgeBuckets(int)}. Each observation is inserted into each age bucket, and
+ * quantiles are read from the oldest age bucket. Sketches that implement {@link
+ * MergeableQuantileSketch} are inserted into the newest age bucket only, and the age buckets are
+ * merged when the summary is scraped.
+ *
+ * <p>Implementations don't need to be thread safe, the summary synchronizes access.
+ *
+ * <p>Built-in implementations are available via {@link #ckms()} and {@link #relativeError(double,
+ * int)}. Use {@link Summary.Builder#quantileSketch(Factory)} for custom implementations.
+ */
+public interface QuantileSketch {
+
+  /** Add an observed value. */
+  void insert(double value);
+
+  /**
+   * Get the estimated value at the specified quantile.
+   *
+   * @param quantile number between 0.0 and 1.0.
+   * @return the estimated value, or {@link Double#NaN} if there are no observations.
+   */
+  double get(double quantile);
+
+  /** Creates new instances of a {@link QuantileSketch}. */
+  @FunctionalInterface
+  interface Factory {
+
+    /**
+     * @param quantiles the quantiles configured with {@link Summary.Builder#quantile(double,
+     *     double)}. These are the quantiles that will be passed to {@link #get(double)}.
+     * @param errors the corresponding error margins. Sketches that don't target specific quantiles
+     *     may ignore this.
+     */
+    QuantileSketch newSketch(double[] quantiles, double[] errors);
+  }
+
+  /**
+   * The CKMS algorithm for targeted quantiles. This is the default.
+   *
+   * <p>The number of samples kept by this sketch depends on the configured quantiles and error
+   * margins. It is not mergeable.
+   */
+  static Factory ckms() {
+    return (quantiles, errors) -> {
+      CKMSQuantiles.Quantile[] targets = new CKMSQuantiles.Quantile[quantiles.length];
+      for (int i = 0; i < quantiles.length; i++) {
+        targets[i] = new CKMSQuantiles.Quantile(quantiles[i], errors[i]);
+      }
+      return new CKMSQuantiles(targets);
+    };
+  }
+
+  /**
+   * A {@link MergeableQuantileSketch mergeable} sketch with fixed maximum memory that guarantees a
+   * relative error for each quantile.
+   *
+   * <p>Observations are counted in exponential buckets, similar to native histograms. The estimated
+   * value {@code v} for a quantile with the true value {@code x} satisfies {@code |v - x| <=
+   * relativeError * |x|}, regardless of the quantile. The error margins configured with {@link
+   * Summary.Builder#quantile(double, double)} are ignored.
+   *
+   * <p>There are at most {@code maxNumberOfBuckets} buckets for positive observations and at most
+   * {@code maxNumberOfBuckets} buckets for negative observations. If the observations span more
+   * buckets than that, the buckets closest to zero are merged, so that the relative error is no
+   * longer guaranteed for values close to zero. Observations with an absolute value less than
+   * {@link Double#MIN_NORMAL} are counted as zero.
+   *
+   * @param relativeError number between 0.0 and 1.0 (exclusive), for example 0.01 for 1%.
+   * @param maxNumberOfBuckets maximum number of buckets per sign.
+   */
+  static Factory relativeError(double relativeError, int maxNumberOfBuckets) {
+    if (relativeError <= 0.0 || relativeError >= 1.0) {
+      throw new IllegalArgumentException(
+          "Relative error " + relativeError + " invalid: Expected number between 0.0 and 1.0.");
+    }
+    if (maxNumberOfBuckets <= 0) {
+      throw new IllegalArgumentException("maxNumberOfBuckets cannot be " + maxNumberOfBuckets);
+    }
+    return (quantiles, errors) -> new RelativeErrorQuantiles(relativeError, maxNumberOfBuckets);
+  }
+}
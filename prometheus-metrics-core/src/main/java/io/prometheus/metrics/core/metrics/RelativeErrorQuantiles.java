@@ -0,0 +1,238 @@
+package io.prometheus.metrics.core.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with a relative error guarantee, see {@link
+ * QuantileSketch#relativeError(double, int)}.
+ *
+ * <p>This is similar to DDSketch as described in "DDSketch: A Fast and Fully-Mergeable Quantile
+ * Sketch with Relative-Error Guarantees" by Masson, Rim, and Lee. With {@code gamma = (1 +
+ * relativeError) / (1 - relativeError)}, bucket {@code i} counts the observations {@code x} with
+ * {@code gamma^(i-1) < |x| <= gamma^i}. The value reported for bucket {@code i} is {@code 2 *
+ * gamma^i / (gamma + 1)}, which is within the relative error for each value in the bucket.
+ *
+ * <p>The counts are stored in a dense {@code long[]} per sign, so inserting doesn't allocate once
+ * the arrays have grown to the range of the observations.
+ */
+final class RelativeErrorQuantiles implements MergeableQuantileSketch {
+
+  // Clamp bucket indexes so that the difference of two indexes cannot overflow.
+  private static final double MAX_INDEX = 1 << 29;
+
+  private final double gamma;
+  private final double logGamma;
+  // Infinity is counted in the bucket of Double.MAX_VALUE.
+  private final int maxBucketIndex;
+  private final Store positive;
+  private final Store negative;
+  private long zeroCount = 0;
+  private long count = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  RelativeErrorQuantiles(double relativeError, int maxNumberOfBuckets) {
+    gamma = (1 + relativeError) / (1 - relativeError);
+    logGamma = Math.log(gamma);
+    maxBucketIndex = (int) Math.min(MAX_INDEX, Math.ceil(Math.log(Double.MAX_VALUE) / logGamma));
+    positive = new Store(maxNumberOfBuckets);
+    negative = new Store(maxNumberOfBuckets);
+  }
+
+  @Override
+  public void insert(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (value >= Double.MIN_NORMAL) {
+      positive.add(bucketIndex(value), 1);
+    } else if (value <= -Double.MIN_NORMAL) {
+      negative.add(bucketIndex(-value), 1);
+    } else {
+      zeroCount++;
+    }
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  private int bucketIndex(double value) {
+    double result = Math.ceil(Math.log(value) / logGamma);
+    return (int) Math.max(-MAX_INDEX, Math.min(maxBucketIndex, result));
+  }
+
+  private double bucketValue(int bucketIndex) {
+    return 2 * Math.exp(bucketIndex * logGamma) / (gamma + 1);
+  }
+
+  @Override
+  public double get(double quantile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (quantile <= 0.0) {
+      return min;
+    }
+    if (quantile >= 1.0) {
+      return max;
+    }
+    long rank = (long) (quantile * (count - 1));
+    double result;
+    if (rank < negative.count) {
+      // The smallest observations are the negative observations with the largest absolute value.
+      result = -bucketValue(negative.bucketIndexAtRank(negative.count - 1 - rank));
+    } else if (rank < negative.count + zeroCount) {
+      result = 0;
+    } else {
+      result = bucketValue(positive.bucketIndexAtRank(rank - negative.count - zeroCount));
+    }
+    // The bucket value may be slightly out of the range of the actual observations.
+    return Math.max(min, Math.min(max, result));
+  }
+
+  @Override
+  public void merge(MergeableQuantileSketch other) {
+    RelativeErrorQuantiles o = (RelativeErrorQuantiles) other;
+    if (o.count == 0) {
+      return;
+    }
+    if (o.gamma != gamma) {
+      throw new IllegalArgumentException("Cannot merge sketches with different relative errors.");
+    }
+    positive.addAll(o.positive);
+    negative.addAll(o.negative);
+    zeroCount += o.zeroCount;
+    count += o.count;
+    min = Math.min(min, o.min);
+    max = Math.max(max, o.max);
+  }
+
+  @Override
+  public void clear() {
+    positive.clear();
+    negative.clear();
+    zeroCount = 0;
+    count = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  // VisibleForTesting
+  int numberOfBuckets() {
+    return positive.numberOfBuckets() + negative.numberOfBuckets();
+  }
+
+  /**
+   * Bucket counts for one sign, stored in a dense array covering the bucket indexes from {@code
+   * offset} to {@code offset + counts.length - 1}.
+   *
+   * <p>If the range of bucket indexes exceeds {@code maxNumberOfBuckets}, the lowest buckets are
+   * merged into the lowest remaining bucket.
+   */
+  private static final class Store {
+
+    private final int maxNumberOfBuckets;
+    private long[] counts = new long[0];
+    private int offset = 0;
+    // minIndex and maxIndex are only valid if count > 0.
+    private int minIndex = 0;
+    private int maxIndex = 0;
+    private long count = 0;
+
+    private Store(int maxNumberOfBuckets) {
+      this.maxNumberOfBuckets = maxNumberOfBuckets;
+    }
+
+    private void add(int bucketIndex, long n) {
+      int lo = count == 0 ? bucketIndex : Math.min(minIndex, bucketIndex);
+      final int hi = count == 0 ? bucketIndex : Math.max(maxIndex, bucketIndex);
+      if (hi - lo >= maxNumberOfBuckets) {
+        lo = hi - maxNumberOfBuckets + 1;
+      }
+      final int index = Math.max(lo, bucketIndex);
+      if (lo < offset || hi >= offset + counts.length || (count > 0 && lo > minIndex)) {
+        adjustRange(lo, hi);
+      }
+      counts[index - offset] += n;
+      minIndex = lo;
+      maxIndex = hi;
+      count += n;
+    }
+
+    /**
+     * Make sure the array covers the bucket indexes from {@code lo} to {@code hi}, and merge the
+     * buckets below {@code lo} into bucket {@code lo}.
+     */
+    private void adjustRange(int lo, int hi) {
+      long collapsed = 0;
+      int from = lo;
+      if (count > 0) {
+        for (int i = minIndex; i < lo && i <= maxIndex; i++) {
+          collapsed += counts[i - offset];
+          counts[i - offset] = 0;
+        }
+        from = Math.max(minIndex, lo);
+      }
+      if (lo < offset || hi >= offset + counts.length) {
+        int span = hi - lo + 1;
+        boolean grow = span > counts.length;
+        long[] target =
+            grow ? new long[Math.min(maxNumberOfBuckets, Math.max(16, 2 * span))] : counts;
+        int newOffset = lo - (target.length - span) / 2;
+        if (count > 0 && from <= maxIndex) {
+          int length = maxIndex - from + 1;
+          System.arraycopy(counts, from - offset, target, from - newOffset, length);
+          if (!grow) {
+            Arrays.fill(counts, 0, from - newOffset, 0);
+            Arrays.fill(counts, from - newOffset + length, counts.length, 0);
+          }
+        }
+        counts = target;
+        offset = newOffset;
+      }
+      counts[lo - offset] += collapsed;
+    }
+
+    private void addAll(Store other) {
+      if (other.count == 0) {
+        return;
+      }
+      // Start with the highest bucket, so that collapsing happens at most once per bucket.
+      for (int i = other.maxIndex; i >= other.minIndex; i--) {
+        long n = other.counts[i - other.offset];
+        if (n > 0) {
+          add(i, n);
+        }
+      }
+    }
+
+    /** The bucket index of the observation with the given rank, starting at 0. */
+    private int bucketIndexAtRank(long rank) {
+      long n = 0;
+      for (int i = minIndex; i < maxIndex; i++) {
+        n += counts[i - offset];
+        if (n > rank) {
+          return i;
+        }
+      }
+      return maxIndex;
+    }
+
+    private int numberOfBuckets() {
+      int result = 0;
+      if (count > 0) {
+        for (int i = minIndex; i <= maxIndex; i++) {
+          if (counts[i - offset] > 0) {
+            result++;
+          }
+        }
+      }
+      return result;
+    }
+
+    private void clear() {
+      Arrays.fill(counts, 0);
+      count = 0;
+    }
+  }
+}
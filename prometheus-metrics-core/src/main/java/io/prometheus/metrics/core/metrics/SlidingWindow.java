@@ -1,42 +1,61 @@
 package io.prometheus.metrics.core.metrics;
 
 import io.prometheus.metrics.annotations.StableApi;
-import java.lang.reflect.Array;
+import io.prometheus.metrics.core.util.Scheduler;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.LongSupplier;
 import java.util.function.ObjDoubleConsumer;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /**
  * Maintains a ring buffer of T to implement a sliding time window.
  *
- * <p>This is used to maintain a sliding window of {@link CKMSQuantiles} for {@link Summary}
+ * <p>This is used to maintain a sliding window of {@link QuantileSketch} for {@link Summary}
  * metrics.
  *
  * <p>It is implemented in a generic way so that 3rd party libraries can use it for implementing
  * sliding windows.
  *
- * <p><b>Thread Safety:</b> This class uses coarse-grained {@code synchronized} methods for
- * simplicity and correctness. All public methods ({@link #current()} and {@link #observe(double)})
- * are synchronized, which ensures thread-safe access to the ring buffer and rotation logic.
+ * <p><b>Rotation:</b> Time is divided into epochs of {@code maxAgeSeconds / ageBuckets}, and each
+ * age bucket belongs to one epoch. The ring slot of an epoch is {@code epoch % ageBuckets}, so
+ * rotating means replacing the bucket of an expired epoch with a new bucket, which is a single
+ * compare-and-set. The time is read from the coarse clock provided by {@link
+ * Scheduler#currentTimeMillis()}, which is cheaper than {@link System#currentTimeMillis()} on every
+ * observation.
  *
- * <p><b>Performance Note:</b> The synchronized approach may cause contention under high-frequency
- * observations.
+ * <p><b>Thread Safety:</b> Instances of {@code T} don't need to be thread safe. {@link #current()},
+ * {@link #observe(double)}, and {@link #withCurrent(Function)} are {@code synchronized}, so with
+ * the public API all observations and reads of a sliding window are serialized by one lock, and
+ * rotating happens while holding that lock. To read the instance returned by {@link #current()}
+ * while other threads are observing values, either synchronize on the sliding window, or use {@link
+ * #withCurrent(Function)}.
  *
- * <p>However, given that Summary metrics are less commonly used (Histogram is generally preferred),
- * and the observation frequency is typically lower than Counter increments, the current
- * implementation provides an acceptable trade-off between simplicity and performance.
+ * <p>Only types that can be merged avoid the window lock. {@link Summary} uses the package-private
+ * {@code observeNewest(double)} and {@code forEach(Consumer)} for mergeable quantile sketches.
+ * These don't take the window lock: rotating is lock-free, and each observation locks one of the
+ * stripes of the newest age bucket, which are added as contention grows. Types that can't be merged
+ * must be observed in every age bucket, so they use {@link #observe(double)} and don't benefit from
+ * the stripes.
  */
 @StableApi
 public class SlidingWindow<T> {
 
   private final Supplier<T> constructor;
   private final ObjDoubleConsumer<T> observeFunction;
-  private final T[] ringBuffer;
-  private int currentBucket;
-  private long lastRotateTimestampMillis;
+  private final AtomicReferenceArray<Bucket<T>> ringBuffer;
+  private final long startTimeMillis;
   private final long durationBetweenRotatesMillis;
   private final LongSupplier currentTimeMillis;
+  // Each bucket starts with the number of stripes the previous bucket had grown to, up to this.
+  private final int maxStripes;
+  private volatile int numberOfStripes = 1;
 
   /**
    * Example: If the {@code maxAgeSeconds} is 60 and {@code ageBuckets} is 3, then 3 instances of
@@ -55,11 +74,10 @@ public class SlidingWindow<T> {
       ObjDoubleConsumer<T> observeFunction,
       long maxAgeSeconds,
       int ageBuckets) {
-    this(clazz, constructor, observeFunction, maxAgeSeconds, ageBuckets, System::currentTimeMillis);
+    this(constructor, observeFunction, maxAgeSeconds, ageBuckets, 1, Scheduler::currentTimeMillis);
   }
 
   // VisibleForTesting
-  @SuppressWarnings("unchecked")
   SlidingWindow(
       Class<T> clazz,
       Supplier<T> constructor,
@@ -67,41 +85,247 @@ public class SlidingWindow<T> {
       long maxAgeSeconds,
       int ageBuckets,
       LongSupplier currentTimeMillis) {
+    this(constructor, observeFunction, maxAgeSeconds, ageBuckets, 1, currentTimeMillis);
+  }
+
+  // VisibleForTesting
+  SlidingWindow(
+      Supplier<T> constructor,
+      ObjDoubleConsumer<T> observeFunction,
+      long maxAgeSeconds,
+      int ageBuckets,
+      int maxStripes,
+      LongSupplier currentTimeMillis) {
     this.constructor = constructor;
     this.observeFunction = observeFunction;
-    this.ringBuffer = (T[]) Array.newInstance(clazz, ageBuckets);
-    for (int i = 0; i < ringBuffer.length; i++) {
-      this.ringBuffer[i] = constructor.get();
-    }
-    this.currentBucket = 0;
-    this.lastRotateTimestampMillis = currentTimeMillis.getAsLong();
-    this.durationBetweenRotatesMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets;
+    this.ringBuffer = new AtomicReferenceArray<>(ageBuckets);
+    this.startTimeMillis = currentTimeMillis.getAsLong();
+    this.durationBetweenRotatesMillis =
+        Math.max(1, TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets);
     this.currentTimeMillis = currentTimeMillis;
+    this.maxStripes = maxStripes;
   }
 
-  /** Get the currently active instance of {@code T}. */
+  /**
+   * Sliding window for types that can be merged, see {@link #observeNewest(double)}. Observations
+   * of concurrent threads are recorded in separate instances of {@code T}, so the number of
+   * instances per age bucket grows with contention, up to the number of processors.
+   */
+  static <T> SlidingWindow<T> striped(
+      Supplier<T> constructor,
+      ObjDoubleConsumer<T> observeFunction,
+      long maxAgeSeconds,
+      int ageBuckets) {
+    return new SlidingWindow<>(
+        constructor,
+        observeFunction,
+        maxAgeSeconds,
+        ageBuckets,
+        Buffer.defaultMaxStripes,
+        Scheduler::currentTimeMillis);
+  }
+
+  /**
+   * Get the currently active instance of {@code T}. This is the oldest instance that is not
+   * expired, it has all values observed in the last {@code maxAgeSeconds}.
+   *
+   * <p>The instance is modified by {@link #observe(double)}, see thread safety note above.
+   */
   public synchronized T current() {
-    return rotate();
+    return oldestBucket().stripes[0].get(constructor);
+  }
+
+  /**
+   * Apply {@code function} to the {@link #current()} instance of {@code T} while holding the lock,
+   * so that the instance is not modified by concurrent observations.
+   */
+  public synchronized <R> R withCurrent(Function<? super T, R> function) {
+    return function.apply(current());
   }
 
-  /** Observe a value. */
+  /** Observe a value. The value is observed in each instance of {@code T}. */
   public synchronized void observe(double value) {
-    rotate();
-    for (T t : ringBuffer) {
-      observeFunction.accept(t, value);
+    long epoch = currentEpoch();
+    currentBucket(epoch);
+    for (int i = 0; i < ringBuffer.length(); i++) {
+      Bucket<T> bucket = liveBucket(i, epoch);
+      if (bucket != null) {
+        // Guarded by the sliding window's lock, the stripe locks are only used by striped windows.
+        observeFunction.accept(bucket.stripes[0].get(constructor), value);
+      }
+    }
+  }
+
+  private Bucket<T> oldestBucket() {
+    long epoch = currentEpoch();
+    Bucket<T> oldest = null;
+    for (int i = 0; i < ringBuffer.length(); i++) {
+      Bucket<T> bucket = liveBucket(i, epoch);
+      if (bucket != null && (oldest == null || bucket.epoch < oldest.epoch)) {
+        oldest = bucket;
+      }
+    }
+    if (oldest == null) {
+      oldest = currentBucket(epoch);
+    }
+    return oldest;
+  }
+
+  /**
+   * Observe a value in the newest age bucket only. This is for types that can be merged, see {@link
+   * #forEach(Consumer)}.
+   */
+  void observeNewest(double value) {
+    insert(currentBucket(currentEpoch()), value);
+  }
+
+  /**
+   * Call {@code action} for each instance of {@code T} that is not expired, while holding the lock
+   * for that instance. If the values are observed with {@link #observeNewest(double)}, merging all
+   * instances yields the sliding window.
+   */
+  void forEach(Consumer<T> action) {
+    long epoch = currentEpoch();
+    for (int i = 0; i < ringBuffer.length(); i++) {
+      Bucket<T> bucket = liveBucket(i, epoch);
+      if (bucket != null) {
+        for (Stripe<T> stripe : bucket.stripes) {
+          stripe.lock.lock();
+          try {
+            if (stripe.value != null) {
+              action.accept(stripe.value);
+            }
+          } finally {
+            stripe.lock.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  private long currentEpoch() {
+    return Math.floorDiv(
+        currentTimeMillis.getAsLong() - startTimeMillis, durationBetweenRotatesMillis);
+  }
+
+  /** The bucket for {@code epoch}, replacing the expired bucket in its ring slot if necessary. */
+  private Bucket<T> currentBucket(long epoch) {
+    int slot = (int) Math.floorMod(epoch, (long) ringBuffer.length());
+    while (true) {
+      Bucket<T> bucket = ringBuffer.get(slot);
+      // A thread that read the clock before another thread rotated may see a newer bucket.
+      if (bucket != null && bucket.epoch >= epoch) {
+        return bucket;
+      }
+      Bucket<T> newBucket = new Bucket<>(epoch, numberOfStripes);
+      if (ringBuffer.compareAndSet(slot, bucket, newBucket)) {
+        return newBucket;
+      }
+    }
+  }
+
+  /** The bucket in ring slot {@code slot}, or {@code null} if it is empty or expired. */
+  @Nullable
+  private Bucket<T> liveBucket(int slot, long epoch) {
+    Bucket<T> bucket = ringBuffer.get(slot);
+    if (bucket != null && bucket.epoch <= epoch - ringBuffer.length()) {
+      // Release the memory of the expired bucket. Losing the race against rotation is fine.
+      ringBuffer.compareAndSet(slot, bucket, null);
+      return null;
+    }
+    return bucket;
+  }
+
+  private void insert(Bucket<T> bucket, double value) {
+    Stripe<T>[] stripes = bucket.stripes;
+    Stripe<T> stripe;
+    if (stripes.length == 1) {
+      // Fast path for the uncontended case, no need to look up the thread's probe.
+      stripe = stripes[0];
+    } else {
+      stripe = stripes[Buffer.probe() & (stripes.length - 1)];
+    }
+    if (!stripe.lock.tryLock()) {
+      stripe = lockContended(bucket);
+    }
+    try {
+      observeFunction.accept(stripe.get(constructor), value);
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Called when the stripe was locked by another thread. Moves the current thread to another
+   * stripe, and adds stripes if contention persists, like {@link Buffer} does.
+   *
+   * @return the stripe, locked by the current thread.
+   */
+  private Stripe<T> lockContended(Bucket<T> bucket) {
+    Stripe<T>[] stripes = bucket.stripes;
+    if (stripes.length < maxStripes) {
+      Stripe<T> stripe = stripes[Buffer.nextProbe() & (stripes.length - 1)];
+      if (stripe.lock.tryLock()) {
+        return stripe;
+      }
+      stripes = bucket.grow(stripes, maxStripes);
+      if (stripes.length > numberOfStripes) {
+        numberOfStripes = stripes.length;
+      }
     }
+    Stripe<T> stripe = stripes[Buffer.nextProbe() & (stripes.length - 1)];
+    stripe.lock.lock();
+    return stripe;
   }
 
-  private T rotate() {
-    long timeSinceLastRotateMillis = currentTimeMillis.getAsLong() - lastRotateTimestampMillis;
-    while (timeSinceLastRotateMillis > durationBetweenRotatesMillis) {
-      ringBuffer[currentBucket] = constructor.get();
-      if (++currentBucket >= ringBuffer.length) {
-        currentBucket = 0;
+  private static final class Bucket<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Bucket, Stripe[]> stripesUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Bucket.class, Stripe[].class, "stripes");
+
+    private final long epoch;
+    private volatile Stripe<T>[] stripes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Bucket(long epoch, int numberOfStripes) {
+      this.epoch = epoch;
+      this.stripes = new Stripe[numberOfStripes];
+      for (int i = 0; i < numberOfStripes; i++) {
+        stripes[i] = new Stripe<>();
+      }
+    }
+
+    /**
+     * Double the number of stripes, unless another thread already did that.
+     *
+     * @return the current stripes.
+     */
+    private Stripe<T>[] grow(Stripe<T>[] expected, int maxStripes) {
+      if (expected.length < maxStripes) {
+        Stripe<T>[] newStripes = Arrays.copyOf(expected, expected.length * 2);
+        for (int i = expected.length; i < newStripes.length; i++) {
+          newStripes[i] = new Stripe<>();
+        }
+        // If this fails another thread added stripes.
+        stripesUpdater.compareAndSet(this, expected, newStripes);
+      }
+      return stripes;
+    }
+  }
+
+  private static final class Stripe<T> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    @Nullable private T value; // guarded by lock, created on the first observation
+
+    private T get(Supplier<T> constructor) {
+      T result = value;
+      if (result == null) {
+        result = constructor.get();
+        value = result;
       }
-      timeSinceLastRotateMillis -= durationBetweenRotatesMillis;
-      lastRotateTimestampMillis += durationBetweenRotatesMillis;
+      return result;
     }
-    return ringBuffer[currentBucket];
   }
 }
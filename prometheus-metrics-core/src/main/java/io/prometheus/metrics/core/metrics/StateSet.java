@@ -112,11 +112,13 @@ public class StateSet extends StatefulMetric<StateSetDataPoint, StateSet.DataPoi
     return new DataPoint();
   }
 
-  class DataPoint implements StateSetDataPoint {
+  class DataPoint extends TrackedDataPoint implements StateSetDataPoint {
 
     private final boolean[] values = new boolean[names.length];
 
-    private DataPoint() {}
+    private DataPoint() {
+      super(StateSet.this);
+    }
 
     @Override
     public void setTrue(String state) {
@@ -132,6 +134,7 @@ public class StateSet extends StatefulMetric<StateSetDataPoint, StateSet.DataPoi
       for (int i = 0; i < names.length; i++) {
         if (names[i].equals(name)) {
           values[i] = value;
+          touch();
           return;
         }
       }
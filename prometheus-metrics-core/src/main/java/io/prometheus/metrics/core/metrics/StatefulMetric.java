@@ -4,15 +4,17 @@ import io.prometheus.metrics.annotations.StableApi;
 import io.prometheus.metrics.config.MetricsProperties;
 import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.core.datapoints.DataPoint;
+import io.prometheus.metrics.core.util.Scheduler;
 import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
@@ -36,14 +38,51 @@ import javax.annotation.Nullable;
 public abstract class StatefulMetric<D extends DataPoint, T extends D>
     extends MetricWithFixedMetadata {
 
+  private static final Labels OVERFLOW_LABELS = Labels.of("otel.metric.overflow", "true");
+
   /** Map label values to data points. */
-  private final ConcurrentHashMap<List<String>, T> data = new ConcurrentHashMap<>();
+  private final LabelValuesMap<T> data = new LabelValuesMap<>();
 
   /** Shortcut for data.get(Collections.emptyList()) */
   @Nullable private volatile T noLabels;
 
+  private final int maxLabelCombinations;
+
+  /** Data point for label values that exceed maxLabelCombinations, created on demand. */
+  @Nullable private volatile T overflow;
+
+  @Nullable private Labels overflowLabels; // cached, see collect()
+
+  /** Overflow lookups of this metric instance, see {@link LabelCombinationOverflowLookups}. */
+  @Nullable private volatile LongAdder overflowLookups;
+
+  /** 0 means data points don't expire. Always 0 for metrics without labels. */
+  private final long idleTimeoutMillis;
+
+  private volatile boolean idleSweeperStarted;
+
+  private final boolean trackChanges;
+
   protected StatefulMetric(Builder<?, ?> builder) {
     super(builder);
+    String name = metadata.getName();
+    this.maxLabelCombinations =
+        getProperty(
+            name,
+            builder,
+            MetricsProperties::getMaxLabelCombinations,
+            builder.maxLabelCombinations,
+            Integer.MAX_VALUE);
+    long idleTimeoutSeconds =
+        getProperty(
+            name,
+            builder,
+            MetricsProperties::getIdleTimeoutSeconds,
+            builder.idleTimeoutSeconds,
+            0L);
+    this.idleTimeoutMillis = labelNames.length > 0 ? idleTimeoutSeconds * 1000 : 0;
+    this.trackChanges =
+        getProperty(name, builder, MetricsProperties::getTrackChanges, builder.trackChanges, false);
   }
 
   /**
@@ -53,20 +92,46 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
 
   @Override
   public MetricSnapshot collect() {
+    return collect(-1);
+  }
+
+  private MetricSnapshot collect(long changedSinceGeneration) {
     if (labelNames.length == 0 && data.isEmpty()) {
       // This is a metric without labels that has not been used yet. Initialize the data on the fly.
       labelValues();
     }
     List<Labels> labels = new ArrayList<>(data.size());
     List<T> metricData = new ArrayList<>(data.size());
-    for (Map.Entry<List<String>, T> entry : data.entrySet()) {
-      String[] labelValues = entry.getKey().toArray(new String[labelNames.length]);
-      labels.add(constLabels.merge(labelNames, labelValues));
-      metricData.add(entry.getValue());
+    data.forEachDataPoint(
+        labelValues -> constLabels.merge(labelNames, labelValues),
+        (dataPointLabels, dataPoint) -> {
+          if (isChangedSince(dataPoint, changedSinceGeneration)) {
+            labels.add(dataPointLabels);
+            metricData.add(dataPoint);
+          }
+        });
+    T overflow = this.overflow;
+    if (overflow != null && isChangedSince(overflow, changedSinceGeneration)) {
+      Labels overflowLabels = this.overflowLabels;
+      if (overflowLabels == null) {
+        overflowLabels = constLabels.merge(OVERFLOW_LABELS);
+        this.overflowLabels = overflowLabels;
+      }
+      labels.add(overflowLabels);
+      metricData.add(overflow);
     }
     return collect(labels, metricData);
   }
 
+  /**
+   * Like {@link #collect()}, but if change tracking is enabled (see {@link Builder#trackChanges()})
+   * only data points that changed since {@code generation} are included.
+   */
+  @Override
+  public MetricSnapshot collectChangedSince(long generation) {
+    return trackChanges ? collect(generation) : collect();
+  }
+
   /**
    * Initialize label values.
    *
@@ -102,7 +167,23 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
     labelValues(labelValues);
   }
 
+  /**
+   * Get the data point for the given label values. The data point is created if it does not exist
+   * yet. The number of label values must match the number of label names.
+   *
+   * <p>Looking up an existing data point does not allocate. For up to 4 label values there are
+   * overloads like {@link #labelValues(String, String)} that don't need a varargs array either. If
+   * the label values are the same for many calls, consider keeping a reference to the data point.
+   *
+   * <p>If the metric has a limit on the number of label value combinations (see {@link
+   * Builder#maxLabelCombinations(int)}) and the limit is reached, new label value combinations get
+   * the overflow data point.
+   */
   public D labelValues(String... labelValues) {
+    T dataPoint = data.get(labelValues);
+    if (dataPoint != null) {
+      return dataPoint;
+    }
     if (labelValues.length != labelNames.length) {
       if (labelValues.length == 0) {
         throw new IllegalArgumentException(
@@ -116,39 +197,198 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
             "Expected " + labelNames.length + " label values, but got " + labelValues.length + ".");
       }
     }
-    return data.computeIfAbsent(
-        Arrays.asList(labelValues),
-        l -> {
-          for (int i = 0; i < l.size(); i++) {
-            if (l.get(i) == null) {
-              throw new IllegalArgumentException(
-                  "null label value for metric "
-                      + metadata.getName()
-                      + " and label "
-                      + labelNames[i]);
-            }
+    for (int i = 0; i < labelValues.length; i++) {
+      if (labelValues[i] == null) {
+        throw new IllegalArgumentException(
+            "null label value for metric " + metadata.getName() + " and label " + labelNames[i]);
+      }
+    }
+    if (data.size() >= maxLabelCombinations) {
+      // Don't take the lock if the limit is reached, the label values may be unbounded.
+      return overflow();
+    }
+    dataPoint = data.computeIfAbsent(labelValues, maxLabelCombinations, l -> newDataPoint());
+    if (dataPoint == null) {
+      return overflow();
+    }
+    if (idleTimeoutMillis > 0 && !idleSweeperStarted) {
+      startIdleSweeper();
+    }
+    return dataPoint;
+  }
+
+  /** Same as {@link #labelValues(String...)} for a single label value. */
+  public D labelValues(String labelValue) {
+    T dataPoint = data.get(labelValue);
+    return dataPoint != null ? dataPoint : labelValues(new String[] {labelValue});
+  }
+
+  /** Same as {@link #labelValues(String...)} for two label values. */
+  public D labelValues(String labelValue1, String labelValue2) {
+    T dataPoint = data.get(labelValue1, labelValue2);
+    return dataPoint != null ? dataPoint : labelValues(new String[] {labelValue1, labelValue2});
+  }
+
+  /** Same as {@link #labelValues(String...)} for three label values. */
+  public D labelValues(String labelValue1, String labelValue2, String labelValue3) {
+    T dataPoint = data.get(labelValue1, labelValue2, labelValue3);
+    return dataPoint != null
+        ? dataPoint
+        : labelValues(new String[] {labelValue1, labelValue2, labelValue3});
+  }
+
+  /** Same as {@link #labelValues(String...)} for four label values. */
+  public D labelValues(
+      String labelValue1, String labelValue2, String labelValue3, String labelValue4) {
+    T dataPoint = data.get(labelValue1, labelValue2, labelValue3, labelValue4);
+    return dataPoint != null
+        ? dataPoint
+        : labelValues(new String[] {labelValue1, labelValue2, labelValue3, labelValue4});
+  }
+
+  private T overflow() {
+    LongAdder lookups = overflowLookups;
+    if (lookups == null) {
+      lookups = LabelCombinationOverflowLookups.counterFor(this);
+      overflowLookups = lookups;
+    }
+    lookups.increment();
+    T result = overflow;
+    if (result == null) {
+      synchronized (data) {
+        result = overflow;
+        if (result == null) {
+          result = newDataPoint();
+          overflow = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Fix the values of the first label names, and get a view for looking up data points by the
+   * remaining label values.
+   *
+   * <p>Example: If the label names are {@code service}, {@code method}, and {@code status}, then
+   *
+   * <pre>{@code
+   * counter.curry("checkout").labelValues("GET", "200")
+   * }</pre>
+   *
+   * returns the same data point as {@code counter.labelValues("checkout", "GET", "200")}. The view
+   * has its own index of the data points, so the lookup only needs to hash and compare the
+   * remaining label values. Create the view once and keep a reference to it, like you would keep a
+   * reference to a data point.
+   *
+   * @param labelValues values of the first {@code labelValues.length} label names.
+   */
+  public CurriedLabelValues<D> curry(String... labelValues) {
+    if (labelValues.length > labelNames.length) {
+      throw new IllegalArgumentException(
+          "Expected at most "
+              + labelNames.length
+              + " label values, but got "
+              + labelValues.length
+              + ".");
+    }
+    for (int i = 0; i < labelValues.length; i++) {
+      if (labelValues[i] == null) {
+        throw new IllegalArgumentException(
+            "null label value for metric " + metadata.getName() + " and label " + labelNames[i]);
+      }
+    }
+    return new CurriedLabelValues<>(this, labelValues.clone());
+  }
+
+  /** Whether data points must track when they were last updated, see {@link TrackedDataPoint}. */
+  boolean isIdleTimeoutEnabled() {
+    return idleTimeoutMillis > 0;
+  }
+
+  /** Whether data points must track in which generation they were last updated. */
+  boolean isChangeTrackingEnabled() {
+    return trackChanges;
+  }
+
+  private static boolean isChangedSince(DataPoint dataPoint, long generation) {
+    return generation < 0
+        || !(dataPoint instanceof TrackedDataPoint)
+        || ((TrackedDataPoint) dataPoint).isChangedSince(generation);
+  }
+
+  private synchronized void startIdleSweeper() {
+    if (!idleSweeperStarted) {
+      idleSweeperStarted = true;
+      new IdleSweeper(this, Math.max(idleTimeoutMillis / 2, Scheduler.CLOCK_TICK_MILLIS))
+          .scheduleNext();
+    }
+  }
+
+  /** Remove data points that have not been updated for the idle timeout. */
+  void evictIdle(long nowMillis) {
+    long idleSince = nowMillis - idleTimeoutMillis;
+    data.forEachDataPoint(
+        (labelValues, dataPoint) -> {
+          if (dataPoint instanceof TrackedDataPoint
+              && ((TrackedDataPoint) dataPoint).isIdleSince(idleSince)) {
+            data.remove(labelValues, dataPoint);
           }
-          return newDataPoint();
         });
   }
 
+  /**
+   * Periodically evicts idle data points. Holds the metric only weakly, so that the sweeper stops
+   * when the metric is garbage collected.
+   */
+  private static class IdleSweeper implements Runnable {
+
+    private final WeakReference<StatefulMetric<?, ?>> metric;
+    private final long intervalMillis;
+
+    private IdleSweeper(StatefulMetric<?, ?> metric, long intervalMillis) {
+      this.metric = new WeakReference<>(metric);
+      this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+      StatefulMetric<?, ?> m = metric.get();
+      if (m != null) {
+        m.evictIdle(Scheduler.currentTimeMillis());
+        scheduleNext();
+      }
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void scheduleNext() {
+      Scheduler.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** See {@link LabelValuesMap#getRemovals()}. */
+  int getRemovals() {
+    return data.getRemovals();
+  }
+
   /**
    * Remove the data point with the given label values. See <a
    * href="https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels">https://prometheus.io/docs/instrumenting/writing_clientlibs/#labels</a>.
    */
   public void remove(String... labelValues) {
-    data.remove(Arrays.asList(labelValues));
+    data.remove(labelValues);
   }
 
   /** Remove the data points when the given function. */
   public void removeIf(Function<List<String>, Boolean> f) {
-    data.entrySet().removeIf(entry -> f.apply(Collections.unmodifiableList(entry.getKey())));
+    data.removeIf(labelValues -> f.apply(Collections.unmodifiableList(Arrays.asList(labelValues))));
   }
 
   /** Reset the metric (remove all data points). */
   public void clear() {
     data.clear();
     noLabels = null;
+    overflow = null;
   }
 
   protected abstract T newDataPoint();
@@ -184,6 +424,27 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
     return properties.toArray(new MetricsProperties[0]);
   }
 
+  /**
+   * Same order of precedence as {@link #getMetricProperties(Builder, PrometheusProperties)}, for
+   * properties that apply to all metric types.
+   */
+  private static <P> P getProperty(
+      String metricName,
+      Builder<?, ?> builder,
+      Function<MetricsProperties, P> getter,
+      @Nullable P builderValue,
+      P defaultValue) {
+    MetricsProperties metricProperties = builder.properties.getMetricProperties(metricName);
+    if (metricProperties != null && getter.apply(metricProperties) != null) {
+      return getter.apply(metricProperties);
+    }
+    if (builderValue != null) {
+      return builderValue;
+    }
+    P result = getter.apply(builder.properties.getDefaultMetricProperties());
+    return result != null ? result : defaultValue;
+  }
+
   protected <P> P getConfigProperty(
       MetricsProperties[] properties, Function<MetricsProperties, P> getter) {
     P result;
@@ -202,6 +463,9 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
 
     @Nullable protected Boolean exemplarsEnabled;
     @Nullable protected Supplier<Labels> exemplarLabelsSupplier;
+    @Nullable protected Integer maxLabelCombinations;
+    @Nullable protected Long idleTimeoutSeconds;
+    @Nullable protected Boolean trackChanges;
 
     protected Builder(List<String> illegalLabelNames, PrometheusProperties config) {
       super(illegalLabelNames, config);
@@ -238,6 +502,78 @@ public abstract class StatefulMetric<D extends DataPoint, T extends D>
       return self();
     }
 
+    /**
+     * Limit the number of label value combinations (data points) of this metric. This protects
+     * against unbounded label values like user IDs or URL paths, which would otherwise increase the
+     * memory usage and the scrape size without limit.
+     *
+     * <p>If the limit is reached, new label value combinations are recorded in a single overflow
+     * data point with the label {@code otel.metric.overflow="true"}. Each lookup of the overflow
+     * data point is counted by the {@link LabelCombinationOverflowLookups} self-metric. Label value
+     * combinations that already have a data point are not affected. Removing data points makes room
+     * for new label value combinations.
+     *
+     * <p>Default is unlimited. The limit can also be configured at runtime with the {@code
+     * io.prometheus.metrics.max_label_combinations} property for all metrics, or with {@code
+     * io.prometheus.metrics.<metric name>.max_label_combinations} for a single metric.
+     */
+    public B maxLabelCombinations(int maxLabelCombinations) {
+      if (maxLabelCombinations <= 0) {
+        throw new IllegalArgumentException(
+            "maxLabelCombinations must be > 0, got " + maxLabelCombinations);
+      }
+      this.maxLabelCombinations = maxLabelCombinations;
+      return self();
+    }
+
+    /**
+     * Remove data points that have not been updated for the given duration. This keeps short-lived
+     * label values like the names of upstream pods or temporary queues from accumulating.
+     *
+     * <p>Idle data points are removed by a background task, so a data point is removed between
+     * {@code duration} and 1.5 times {@code duration} after its last update. Don't keep references
+     * to data points of metrics with an idle timeout: Updates to a removed data point are lost. Use
+     * {@link StatefulMetric#labelValues(String...)} instead, which creates a new data point if the
+     * old one was removed. Metrics without labels are not affected.
+     *
+     * <p>Default is no timeout. The timeout can also be configured at runtime with the {@code
+     * io.prometheus.metrics.idle_timeout_seconds} property for all metrics, or with {@code
+     * io.prometheus.metrics.<metric name>.idle_timeout_seconds} for a single metric.
+     */
+    public B idleTimeout(long duration, TimeUnit unit) {
+      if (duration <= 0) {
+        throw new IllegalArgumentException(duration + ": value > 0 expected");
+      }
+      long seconds = unit.toSeconds(duration);
+      if (seconds == 0) {
+        throw new IllegalArgumentException(
+            duration
+                + " "
+                + unit
+                + ": duration must be at least 1 second. Sub-second durations are not supported.");
+      }
+      this.idleTimeoutSeconds = seconds;
+      return self();
+    }
+
+    /**
+     * Record in which {@link io.prometheus.metrics.model.registry.ScrapeGeneration
+     * ScrapeGeneration} each data point was last updated, so that {@link
+     * io.prometheus.metrics.model.registry.PrometheusRegistry#scrapeChangedSince(long)} can skip
+     * data points that have not changed. This is useful for exporters that send deltas from large
+     * registries where most data points don't change between scrapes.
+     *
+     * <p>This adds a read of the current generation to each update, and a write when the generation
+     * changed since the last update of the data point. Default is off. Change tracking can also be
+     * enabled at runtime with the {@code io.prometheus.metrics.track_changes} property for all
+     * metrics, or with {@code io.prometheus.metrics.<metric name>.track_changes} for a single
+     * metric.
+     */
+    public B trackChanges() {
+      this.trackChanges = true;
+      return self();
+    }
+
     /** Override if there are more properties than just exemplars enabled. */
     protected MetricsProperties toProperties() {
       return MetricsProperties.builder().exemplarsEnabled(exemplarsEnabled).build();
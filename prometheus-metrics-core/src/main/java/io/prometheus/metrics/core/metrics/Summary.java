@@ -49,6 +49,7 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     implements DistributionDataPoint {
 
   private final List<CKMSQuantiles.Quantile> quantiles; // May be empty, but cannot be null.
+  private final QuantileSketch.Factory quantileSketchFactory;
 
   private final long maxAgeSeconds;
   private final int ageBuckets;
@@ -59,6 +60,11 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     super(builder);
     MetricsProperties[] properties = getMetricProperties(builder, prometheusProperties);
     quantiles = Collections.unmodifiableList(makeQuantiles(properties));
+    if (builder.quantileSketchFactory != null) {
+      quantileSketchFactory = builder.quantileSketchFactory;
+    } else {
+      quantileSketchFactory = makeQuantileSketchFactory(properties);
+    }
     maxAgeSeconds = getConfigProperty(properties, MetricsProperties::getSummaryMaxAgeSeconds);
     ageBuckets = getConfigProperty(properties, MetricsProperties::getSummaryNumberOfAgeBuckets);
     boolean exemplarsEnabled =
@@ -90,6 +96,16 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     return result;
   }
 
+  private QuantileSketch.Factory makeQuantileSketchFactory(MetricsProperties[] properties) {
+    String sketch = getConfigProperty(properties, MetricsProperties::getSummaryQuantileSketch);
+    if (sketch.equals("relative_error")) {
+      return QuantileSketch.relativeError(
+          getConfigProperty(properties, MetricsProperties::getSummaryRelativeError),
+          getConfigProperty(properties, MetricsProperties::getSummaryMaxNumberOfBuckets));
+    }
+    return QuantileSketch.ckms();
+  }
+
   @Override
   public double getSum() {
     return getNoLabels().getSum();
@@ -139,28 +155,62 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     return new DataPoint();
   }
 
-  public class DataPoint implements DistributionDataPoint {
-
-    private final LongAdder count = new LongAdder();
-    private final DoubleAdder sum = new DoubleAdder();
-    @Nullable private final SlidingWindow<CKMSQuantiles> quantileValues;
-    private final Buffer buffer = new Buffer();
+  public class DataPoint extends TrackedDataPoint implements DistributionDataPoint {
+
+    // Observations are recorded in the hot half of the counts, see Buffer.
+    private final Counts[] counts = new Counts[] {new Counts(), new Counts()};
+    private final Buffer buffer = new Buffer(i -> counts[i].count.sum());
+    // count and sum of all observations drained from the cold half.
+    // Only accessed by the action in buffer.run().
+    private long count = 0;
+    private double sum = 0;
+    // Only used if the sketch is not mergeable.
+    @Nullable private final SlidingWindow<QuantileSketch> quantileValues;
+    // Only used if the sketch is mergeable.
+    @Nullable private final SlidingWindow<MergeableQuantileSketch> mergeableQuantileValues;
+    // Only used if the sketch is mergeable. Only accessed by the action in buffer.run().
+    @Nullable private final MergeableQuantileSketch mergedQuantileValues;
     @Nullable private final ExemplarSampler exemplarSampler;
 
     private final long createdTimeMillis = System.currentTimeMillis();
 
     private DataPoint() {
+      super(Summary.this);
       if (quantiles.isEmpty()) {
         quantileValues = null;
+        mergeableQuantileValues = null;
+        mergedQuantileValues = null;
       } else {
-        CKMSQuantiles.Quantile[] quantilesArray = quantiles.toArray(new CKMSQuantiles.Quantile[0]);
-        quantileValues =
-            new SlidingWindow<>(
-                CKMSQuantiles.class,
-                () -> new CKMSQuantiles(quantilesArray),
-                CKMSQuantiles::insert,
-                maxAgeSeconds,
-                ageBuckets);
+        double[] quantilesArray = new double[quantiles.size()];
+        double[] errorsArray = new double[quantiles.size()];
+        for (int i = 0; i < quantiles.size(); i++) {
+          quantilesArray[i] = quantiles.get(i).quantile;
+          errorsArray[i] = quantiles.get(i).epsilon;
+        }
+        QuantileSketch merged = quantileSketchFactory.newSketch(quantilesArray, errorsArray);
+        if (merged instanceof MergeableQuantileSketch) {
+          // The factory creates sketches of the same type.
+          quantileValues = null;
+          mergedQuantileValues = (MergeableQuantileSketch) merged;
+          mergeableQuantileValues =
+              SlidingWindow.striped(
+                  () ->
+                      (MergeableQuantileSketch)
+                          quantileSketchFactory.newSketch(quantilesArray, errorsArray),
+                  QuantileSketch::insert,
+                  maxAgeSeconds,
+                  ageBuckets);
+        } else {
+          mergeableQuantileValues = null;
+          mergedQuantileValues = null;
+          quantileValues =
+              new SlidingWindow<>(
+                  QuantileSketch.class,
+                  () -> quantileSketchFactory.newSketch(quantilesArray, errorsArray),
+                  QuantileSketch::insert,
+                  maxAgeSeconds,
+                  ageBuckets);
+        }
       }
       if (exemplarSamplerConfig != null) {
         exemplarSampler = new ExemplarSampler(exemplarSamplerConfig, null, exemplarLabelsSupplier);
@@ -171,12 +221,12 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
 
     @Override
     public double getSum() {
-      return sum.sum();
+      return buffer.run(() -> sum + counts[0].sum.sum() + counts[1].sum.sum());
     }
 
     @Override
     public long getCount() {
-      return count.sum();
+      return buffer.run(() -> count + counts[0].count.sum() + counts[1].count.sum());
     }
 
     @Override
@@ -184,9 +234,7 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
       if (Double.isNaN(value)) {
         return;
       }
-      if (!buffer.append(value)) {
-        doObserve(value);
-      }
+      doObserve(value);
       if (exemplarSampler != null) {
         exemplarSampler.observe(value);
       }
@@ -197,43 +245,42 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
       if (Double.isNaN(value)) {
         return;
       }
-      if (!buffer.append(value)) {
-        doObserve(value);
-      }
+      doObserve(value);
       if (exemplarSampler != null) {
         exemplarSampler.observeWithExemplar(value, labels);
       }
     }
 
     private void doObserve(double amount) {
-      sum.add(amount);
-      if (quantileValues != null) {
+      Counts hot = counts[buffer.startObservation()];
+      hot.sum.add(amount);
+      if (mergeableQuantileValues != null) {
+        mergeableQuantileValues.observeNewest(amount);
+      } else if (quantileValues != null) {
         quantileValues.observe(amount);
       }
       // count must be incremented last, because in collect() the count
       // indicates the number of completed observations.
-      count.increment();
+      hot.count.increment();
+      touch();
     }
 
     private SummarySnapshot.SummaryDataPointSnapshot collect(Labels labels) {
       return buffer.run(
-          expectedCount -> count.sum() == expectedCount,
-          // Note: Exemplars are currently hard-coded as empty for Summary metrics.
-          // While exemplars are sampled during observe() and observeWithExemplar() calls
-          // via the exemplarSampler field, they are not included in the snapshot to maintain
-          // consistency with the buffering mechanism. The buffer.run() ensures atomic
-          // collection of count, sum, and quantiles. Adding exemplars would require
-          // coordination between the buffer and exemplarSampler, which could impact
-          // performance. Consider using Histogram instead if exemplars are needed.
-          () ->
-              new SummarySnapshot.SummaryDataPointSnapshot(
-                  count.sum(),
-                  sum.sum(),
-                  makeQuantiles(),
-                  labels,
-                  Exemplars.EMPTY,
-                  createdTimeMillis),
-          this::doObserve);
+          () -> {
+            Counts cold = counts[buffer.swap()];
+            sum += cold.sum.sumThenReset();
+            count += cold.count.sumThenReset();
+            // Note: Exemplars are currently hard-coded as empty for Summary metrics.
+            // While exemplars are sampled during observe() and observeWithExemplar() calls
+            // via the exemplarSampler field, they are not included in the snapshot to maintain
+            // consistency with the buffering mechanism. The buffer.run() ensures atomic
+            // collection of count and sum. Adding exemplars would require
+            // coordination between the buffer and exemplarSampler, which could impact
+            // performance. Consider using Histogram instead if exemplars are needed.
+            return new SummarySnapshot.SummaryDataPointSnapshot(
+                count, sum, makeQuantiles(), labels, Exemplars.EMPTY, createdTimeMillis);
+          });
     }
 
     private List<CKMSQuantiles.Quantile> getQuantiles() {
@@ -242,16 +289,37 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
 
     private Quantiles makeQuantiles() {
       Quantile[] quantiles = new Quantile[getQuantiles().size()];
+      if (quantiles.length == 0) {
+        return Quantiles.of(quantiles);
+      }
+      if (mergedQuantileValues != null) {
+        // The observations are in the newest age bucket only, so the window is the merge of all.
+        MergeableQuantileSketch merged = mergedQuantileValues;
+        merged.clear();
+        requireNonNull(mergeableQuantileValues).forEach(merged::merge);
+        fillQuantiles(quantiles, merged);
+      } else {
+        // get() modifies the sketch, so it must not run concurrently with observe().
+        requireNonNull(quantileValues).withCurrent(sketch -> fillQuantiles(quantiles, sketch));
+      }
+      return Quantiles.of(quantiles);
+    }
+
+    private Quantile[] fillQuantiles(Quantile[] quantiles, QuantileSketch sketch) {
       for (int i = 0; i < getQuantiles().size(); i++) {
         CKMSQuantiles.Quantile quantile = getQuantiles().get(i);
-        quantiles[i] =
-            new Quantile(
-                quantile.quantile, requireNonNull(quantileValues).current().get(quantile.quantile));
+        quantiles[i] = new Quantile(quantile.quantile, sketch.get(quantile.quantile));
       }
-      return Quantiles.of(quantiles);
+      return quantiles;
     }
   }
 
+  /** One half of the double buffered observations of a {@link DataPoint}, see {@link Buffer}. */
+  private static class Counts {
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+  }
+
   public static Summary.Builder builder() {
     return new Builder(PrometheusProperties.get());
   }
@@ -268,9 +336,18 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
     /** 5. See {@link #numberOfAgeBuckets(int)} */
     public static final int DEFAULT_NUMBER_OF_AGE_BUCKETS = 5;
 
+    /** 0.01, i.e. 1%. See {@link #relativeError(double)} */
+    public static final double DEFAULT_RELATIVE_ERROR = 0.01;
+
+    /** 1024. See {@link #maxNumberOfBuckets(int)} */
+    public static final int DEFAULT_MAX_NUMBER_OF_BUCKETS = 1024;
+
     private final List<CKMSQuantiles.Quantile> quantiles = new ArrayList<>();
     @Nullable private Long maxAgeSeconds;
     @Nullable private Integer ageBuckets;
+    @Nullable private Double relativeError;
+    @Nullable private Integer maxNumberOfBuckets;
+    @Nullable private QuantileSketch.Factory quantileSketchFactory;
 
     private Builder(PrometheusProperties properties) {
       super(Collections.singletonList("quantile"), properties);
@@ -359,6 +436,52 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
       return this;
     }
 
+    /**
+     * Use a mergeable sketch with a fixed maximum size and a relative error guarantee for computing
+     * the quantiles, rather than the default CKMS algorithm. See {@link
+     * QuantileSketch#relativeError(double, int)}.
+     *
+     * <p>The memory used by the default CKMS algorithm grows with the number of quantiles and with
+     * lower error margins, and each observation is inserted into each age bucket. With the relative
+     * error sketch each observation is inserted into one age bucket, and the memory per age bucket
+     * is bounded by {@link #maxNumberOfBuckets(int)}.
+     *
+     * <p>Example: {@code .relativeError(0.01)} means that the estimated 0.99 quantile is within 1%
+     * of the actual value of the 0.99 quantile. The error margins passed to {@link
+     * #quantile(double, double)} are ignored. Default is {@link #DEFAULT_RELATIVE_ERROR}.
+     */
+    public Builder relativeError(double relativeError) {
+      if (relativeError <= 0.0 || relativeError >= 1.0) {
+        throw new IllegalArgumentException(
+            "Relative error " + relativeError + " invalid: Expected number between 0.0 and 1.0.");
+      }
+      this.relativeError = relativeError;
+      return this;
+    }
+
+    /**
+     * Maximum number of buckets for positive observations and for negative observations in each age
+     * bucket of the {@link #relativeError(double) relative error} sketch. Only used with {@link
+     * #relativeError(double)}. Default is {@link #DEFAULT_MAX_NUMBER_OF_BUCKETS}.
+     */
+    public Builder maxNumberOfBuckets(int maxNumberOfBuckets) {
+      if (maxNumberOfBuckets <= 0) {
+        throw new IllegalArgumentException("maxNumberOfBuckets cannot be " + maxNumberOfBuckets);
+      }
+      this.maxNumberOfBuckets = maxNumberOfBuckets;
+      return this;
+    }
+
+    /**
+     * Use a custom {@link QuantileSketch} for computing the quantiles. If this is set, the {@code
+     * summary_quantile_sketch}, {@code summary_relative_error}, and {@code
+     * summary_max_number_of_buckets} properties are ignored for this metric.
+     */
+    public Builder quantileSketch(QuantileSketch.Factory quantileSketchFactory) {
+      this.quantileSketchFactory = quantileSketchFactory;
+      return this;
+    }
+
     @Override
     protected MetricsProperties toProperties() {
       double[] quantiles = null;
@@ -378,10 +501,15 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
       if (quantileErrors != null) {
         builder.summaryQuantileErrors(quantileErrors);
       }
+      if (relativeError != null) {
+        builder.summaryQuantileSketch("relative_error");
+      }
       return builder
           .exemplarsEnabled(exemplarsEnabled)
           .summaryNumberOfAgeBuckets(ageBuckets)
           .summaryMaxAgeSeconds(maxAgeSeconds)
+          .summaryRelativeError(relativeError)
+          .summaryMaxNumberOfBuckets(maxNumberOfBuckets)
           .build();
     }
 
@@ -393,6 +521,9 @@ public class Summary extends StatefulMetric<DistributionDataPoint, Summary.DataP
           .summaryQuantiles()
           .summaryNumberOfAgeBuckets(DEFAULT_NUMBER_OF_AGE_BUCKETS)
           .summaryMaxAgeSeconds(DEFAULT_MAX_AGE_SECONDS)
+          .summaryQuantileSketch("ckms")
+          .summaryRelativeError(DEFAULT_RELATIVE_ERROR)
+          .summaryMaxNumberOfBuckets(DEFAULT_MAX_NUMBER_OF_BUCKETS)
           .build();
     }
 
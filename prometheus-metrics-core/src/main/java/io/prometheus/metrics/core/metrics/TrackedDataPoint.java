@@ -0,0 +1,82 @@
+package io.prometheus.metrics.core.metrics;
+
+import io.prometheus.metrics.core.util.Scheduler;
+import io.prometheus.metrics.model.registry.ScrapeGeneration;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Base class for data points that remember when they were last updated. This is used for
+ *
+ * <ul>
+ *   <li>removing data points that have been idle for longer than the metric's idle timeout, see
+ *       {@link StatefulMetric.Builder#idleTimeout(long, java.util.concurrent.TimeUnit)}.
+ *   <li>collecting only the data points that changed since a given {@link ScrapeGeneration}, see
+ *       {@link StatefulMetric.Builder#trackChanges()}.
+ * </ul>
+ *
+ * <p>Updates call {@link #touch()} after the value is updated. If neither is enabled for the
+ * metric, this is a no-op. Otherwise, it reads the coarse {@link Scheduler#currentTimeMillis()}
+ * clock or the current {@link ScrapeGeneration}, and writes it only if it is newer than the
+ * recorded value. Most updates find the recorded value up to date and don't write at all. The write
+ * is a compare-and-set that never moves the recorded value backwards, so a thread that read the
+ * clock or generation before a concurrent update cannot overwrite the newer value.
+ */
+abstract class TrackedDataPoint {
+
+  private static final AtomicLongFieldUpdater<TrackedDataPoint> lastTouchedMillisUpdater =
+      AtomicLongFieldUpdater.newUpdater(TrackedDataPoint.class, "lastTouchedMillis");
+  private static final AtomicLongFieldUpdater<TrackedDataPoint> lastChangedGenerationUpdater =
+      AtomicLongFieldUpdater.newUpdater(TrackedDataPoint.class, "lastChangedGeneration");
+
+  private final boolean trackIdle;
+  private final boolean trackChanges;
+  private volatile long lastTouchedMillis;
+  private volatile long lastChangedGeneration;
+
+  TrackedDataPoint(StatefulMetric<?, ?> metric) {
+    this.trackIdle = metric.isIdleTimeoutEnabled();
+    this.trackChanges = metric.isChangeTrackingEnabled();
+    if (trackIdle) {
+      lastTouchedMillis = Scheduler.currentTimeMillis();
+    }
+    if (trackChanges) {
+      lastChangedGeneration = ScrapeGeneration.current();
+    }
+  }
+
+  /** Record that the data point was updated. Must be called after the value is updated. */
+  final void touch() {
+    if (trackIdle) {
+      advance(lastTouchedMillisUpdater, Scheduler.currentTimeMillis());
+    }
+    if (trackChanges) {
+      // Reading the generation after updating the value guarantees that an update that is missed
+      // by a scrape is recorded with the generation that was started before that scrape, or later.
+      advance(lastChangedGenerationUpdater, ScrapeGeneration.current());
+    }
+  }
+
+  /** Set the field to {@code value} unless it already holds {@code value} or a greater value. */
+  private void advance(AtomicLongFieldUpdater<TrackedDataPoint> updater, long value) {
+    long current = updater.get(this);
+    while (current < value) {
+      if (updater.compareAndSet(this, current, value)) {
+        return;
+      }
+      current = updater.get(this);
+    }
+  }
+
+  /** {@code true} if the data point was not updated since {@code timestampMillis}. */
+  final boolean isIdleSince(long timestampMillis) {
+    return lastTouchedMillis < timestampMillis;
+  }
+
+  /**
+   * {@code true} if the data point may have changed since {@code generation}. Always {@code true}
+   * if the metric doesn't track changes.
+   */
+  final boolean isChangedSince(long generation) {
+    return !trackChanges || lastChangedGeneration >= generation;
+  }
+}
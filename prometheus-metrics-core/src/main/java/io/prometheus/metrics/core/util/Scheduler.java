@@ -9,7 +9,7 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Used for scheduling maintenance tasks like purging outdated Exemplars or resetting native
- * histograms.
+ * histograms, and for the coarse clock that drives the rotation of summary age buckets.
  */
 public class Scheduler {
 
@@ -28,6 +28,9 @@ public class Scheduler {
     }
   }
 
+  /** Resolution of {@link #currentTimeMillis()}. */
+  public static final long CLOCK_TICK_MILLIS = 100;
+
   private static final ScheduledExecutorService executor =
       Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
 
@@ -35,6 +38,31 @@ public class Scheduler {
     return executor.schedule(command, delay, unit);
   }
 
+  /**
+   * Coarse clock, updated by the scheduler thread every {@link #CLOCK_TICK_MILLIS} milliseconds.
+   *
+   * <p>This is for code paths that need the time on every observation, like rotating the age
+   * buckets of a summary. Reading this is cheaper than calling {@link System#currentTimeMillis()},
+   * but it may lag behind by up to one tick.
+   */
+  public static long currentTimeMillis() {
+    return CoarseClock.currentTimeMillis;
+  }
+
+  // The clock is only ticking once it's used for the first time.
+  @SuppressWarnings("FutureReturnValueIgnored")
+  private static class CoarseClock {
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+
+    static {
+      executor.scheduleAtFixedRate(
+          () -> currentTimeMillis = System.currentTimeMillis(),
+          CLOCK_TICK_MILLIS,
+          CLOCK_TICK_MILLIS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
   /** For unit test. Wait until the executor Thread is running. */
   @SuppressWarnings("FutureReturnValueIgnored")
   public static void awaitInitialization() throws InterruptedException {
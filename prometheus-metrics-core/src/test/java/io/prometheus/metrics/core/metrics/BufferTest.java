@@ -1,15 +1,180 @@
 package io.prometheus.metrics.core.metrics;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.junit.jupiter.api.Test;
 
 class BufferTest {
 
   @Test
-  void stripeIndexDoesNotOverflowWhenThreadIdNarrowsToIntegerMinValue() {
-    assertThat(Buffer.stripeIndex(2_147_483_648L, 3)).isEqualTo(2);
-    assertThat(Buffer.stripeIndex(2_147_483_648L, 6)).isEqualTo(2);
-    assertThat(Buffer.stripeIndex(2_147_483_648L, 12)).isEqualTo(8);
+  void probeIsNeverZero() {
+    // advanceProbe() would be stuck at zero forever
+    for (long threadId = 0; threadId < 10_000; threadId++) {
+      assertThat(Buffer.initialProbe(threadId)).isNotZero();
+    }
+    assertThat(Buffer.initialProbe(2_147_483_648L)).isNotZero();
+    assertThat(Buffer.advanceProbe(1)).isNotZero();
+  }
+
+  @Test
+  void startsWithSingleStripe() {
+    Buffer buffer = new Buffer(i -> 0);
+    buffer.startObservation();
+    assertThat(buffer.numberOfStripes()).isOne();
+  }
+
+  @Test
+  void concurrentObservationsAndSwaps() throws Exception {
+    int nThreads = 8;
+    int nObservationsPerThread = 100_000;
+    LongAdder[] completed = {new LongAdder(), new LongAdder()};
+    LongAdder drained = new LongAdder();
+    // independent of the number of processors, so that stripes are added on any machine
+    Buffer buffer = new Buffer(i -> completed[i].sum(), 8);
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int i = 0; i < nObservationsPerThread; i++) {
+                    completed[buffer.startObservation()].increment();
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      while (futures.stream().anyMatch(f -> !f.isDone())) {
+        buffer.run(
+            () -> {
+              int cold = buffer.swap();
+              drained.add(completed[cold].sumThenReset());
+              return null;
+            });
+      }
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      buffer.run(
+          () -> {
+            drained.add(completed[buffer.swap()].sumThenReset());
+            drained.add(completed[buffer.swap()].sumThenReset());
+            return null;
+          });
+      assertThat(drained.sum()).isEqualTo((long) nThreads * nObservationsPerThread);
+      assertThat(buffer.numberOfStripes()).isLessThanOrEqualTo(8);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void swapAlternatesBetweenHalves() {
+    LongAdder[] completed = {new LongAdder(), new LongAdder()};
+    Buffer buffer = new Buffer(i -> completed[i].sum());
+    int hot = buffer.startObservation();
+    completed[hot].increment();
+    assertThat(buffer.run(buffer::swap)).isEqualTo(hot);
+    completed[hot].reset();
+    assertThat(buffer.startObservation()).isEqualTo(1 - hot);
+    completed[1 - hot].increment();
+    assertThat(buffer.run(buffer::swap)).isEqualTo(1 - hot);
+    assertThat(buffer.startObservation()).isEqualTo(hot);
+  }
+
+  @Test
+  void newStripesInheritTheHotIndex() {
+    LongAdder[] completed = {new LongAdder(), new LongAdder()};
+    Buffer buffer = new Buffer(i -> completed[i].sum(), 4);
+    assertThat(observeOnEachStripe(buffer, completed)).isZero();
+    assertThat(buffer.run(buffer::swap)).isZero();
+    completed[0].reset();
+
+    // The hot index is now 1, stripes created from now on must start with hot index 1.
+    buffer.grow();
+    assertThat(buffer.numberOfStripes()).isEqualTo(2);
+    assertThat(observeOnEachStripe(buffer, completed)).isOne();
+    buffer.grow();
+    assertThat(buffer.numberOfStripes()).isEqualTo(4);
+    assertThat(observeOnEachStripe(buffer, completed)).isOne();
+    buffer.grow(); // maxStripes
+    assertThat(buffer.numberOfStripes()).isEqualTo(4);
+
+    // swap() waits for the observations on all stripes, so this would hang if a new stripe
+    // had counted its observations for the wrong half.
+    assertThat(buffer.run(buffer::swap)).isOne();
+    assertThat(completed[1].sumThenReset()).isEqualTo(6);
+    assertThat(observeOnEachStripe(buffer, completed)).isZero();
+  }
+
+  /**
+   * Record one observation on each stripe, by moving the current thread from stripe to stripe.
+   *
+   * @return the hot index, which must be the same for all stripes.
+   */
+  private static int observeOnEachStripe(Buffer buffer, LongAdder[] completed) {
+    int n = buffer.numberOfStripes();
+    boolean[] observed = new boolean[n];
+    int remaining = n;
+    int hot = -1;
+    while (remaining > 0) {
+      int stripe = Buffer.probe() & (n - 1);
+      if (n == 1 || !observed[stripe]) {
+        int index = buffer.startObservation();
+        completed[index].increment();
+        if (hot != -1) {
+          assertThat(index).as("hot index of stripe %d", stripe).isEqualTo(hot);
+        }
+        hot = index;
+        observed[stripe] = true;
+        remaining--;
+      }
+      Buffer.nextProbe();
+    }
+    return hot;
+  }
+
+  @Test
+  void swapOutsideOfRunFails() {
+    Buffer buffer = new Buffer(i -> 0);
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(buffer::swap);
+  }
+
+  @Test
+  void swapWaitsForInFlightObservations() throws Exception {
+    LongAdder[] completed = {new LongAdder(), new LongAdder()};
+    Buffer buffer = new Buffer(i -> completed[i].sum());
+    int hot = buffer.startObservation(); // observation is in flight, but not completed
+    CountDownLatch swapStarted = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> cold =
+          executor.submit(
+              () ->
+                  buffer.run(
+                      () -> {
+                        swapStarted.countDown();
+                        return buffer.swap();
+                      }));
+      swapStarted.await();
+      Thread.sleep(50);
+      assertThat(cold.isDone()).isFalse();
+      completed[hot].increment();
+      assertThat(cold.get(5, TimeUnit.SECONDS)).isEqualTo(hot);
+    } finally {
+      executor.shutdownNow();
+    }
   }
 }
@@ -95,7 +95,9 @@ class CKMSQuantilesTest {
       ckms.insert(v);
     }
     validateResults(ckms);
-    assertThat(ckms.samples).as("sample size should be way below 1_000_000").hasSizeLessThan(1000);
+    assertThat(ckms.samples())
+        .as("sample size should be way below 1_000_000")
+        .hasSizeLessThan(1000);
   }
 
   @Test
@@ -108,7 +110,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     ckms.compress();
-    assertThat(ckms.samples).hasSize(2);
+    assertThat(ckms.samples()).hasSize(2);
   }
 
   @Test
@@ -121,7 +123,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     ckms.compress();
-    assertThat(ckms.samples).hasSize(2);
+    assertThat(ckms.samples()).hasSize(2);
   }
 
   @Test
@@ -134,7 +136,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     ckms.compress();
-    assertThat(ckms.samples).hasSize(2);
+    assertThat(ckms.samples()).hasSize(2);
   }
 
   @Test
@@ -146,7 +148,7 @@ class CKMSQuantilesTest {
       ckms.insert(v);
     }
     validateResults(ckms);
-    assertThat(ckms.samples).hasSizeLessThan(200); // should be a lot less than input.size()
+    assertThat(ckms.samples()).hasSizeLessThan(200); // should be a lot less than input.size()
   }
 
   @Test
@@ -158,7 +160,7 @@ class CKMSQuantilesTest {
       ckms.insert(v);
     }
     validateResults(ckms);
-    assertThat(ckms.samples).hasSizeLessThan(200); // should be a lot less than input.size()
+    assertThat(ckms.samples()).hasSizeLessThan(200); // should be a lot less than input.size()
   }
 
   @Test
@@ -170,7 +172,7 @@ class CKMSQuantilesTest {
       ckms.insert(v);
     }
     validateResults(ckms);
-    assertThat(ckms.samples).hasSizeLessThan(200); // should be a lot less than input.size()
+    assertThat(ckms.samples()).hasSizeLessThan(200); // should be a lot less than input.size()
   }
 
   @Test
@@ -183,7 +185,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     // With epsilon == 0 we need to keep all inputs in samples.
-    assertThat(ckms.samples).hasSameSizeAs(input);
+    assertThat(ckms.samples()).hasSameSizeAs(input);
   }
 
   @Test
@@ -196,7 +198,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     // With epsilon == 0 we need to keep all inputs in samples.
-    assertThat(ckms.samples).hasSameSizeAs(input);
+    assertThat(ckms.samples()).hasSameSizeAs(input);
   }
 
   @Test
@@ -209,7 +211,7 @@ class CKMSQuantilesTest {
     }
     validateResults(ckms);
     // With epsilon == 0 we need to keep all inputs in samples.
-    assertThat(ckms.samples).hasSameSizeAs(input);
+    assertThat(ckms.samples()).hasSameSizeAs(input);
   }
 
   @Test
@@ -271,7 +273,7 @@ class CKMSQuantilesTest {
     assertThat(ckms.get(0.99))
         .isCloseTo(p99, offset(errorBoundsNormalDistribution(0.99, 0.001, normalDistribution)));
 
-    assertThat(ckms.samples).as("sample size should be below 1000").hasSizeLessThan(1000);
+    assertThat(ckms.samples()).as("sample size should be below 1000").hasSizeLessThan(1000);
   }
 
   double errorBoundsNormalDistribution(double p, double epsilon, NormalDistribution nd) {
@@ -283,6 +285,61 @@ class CKMSQuantilesTest {
     return Math.abs(upperBound - lowerBound) / 2;
   }
 
+  @Test
+  void testSameResultsAsLinkedListImplementation() {
+    Quantile[][] configurations = {
+      {q50, q95, q99},
+      {qMin, q50, qMax},
+      {qMin, qMax},
+      {new Quantile(0.5, 0.05)},
+      {new Quantile(0.1, 0.01), q99},
+    };
+    for (int seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      Quantile[] quantiles = configurations[seed % configurations.length];
+      CKMSQuantiles ckms = new CKMSQuantiles(quantiles);
+      LinkedListCKMSQuantiles reference = new LinkedListCKMSQuantiles(quantiles);
+      int nObservations = random.nextInt(5000);
+      for (int i = 0; i < nObservations; i++) {
+        // duplicates and outliers in addition to normally distributed values
+        double value;
+        switch (random.nextInt(3)) {
+          case 0:
+            value = random.nextInt(50);
+            break;
+          case 1:
+            value = random.nextGaussian() * 1000;
+            break;
+          default:
+            value = random.nextGaussian();
+        }
+        ckms.insert(value);
+        reference.insert(value);
+        // get() flushes the buffer, so this flushes at random points between compressions.
+        if (random.nextInt(100) == 0) {
+          double q =
+              random.nextBoolean()
+                  ? quantiles[random.nextInt(quantiles.length)].quantile
+                  : random.nextDouble();
+          String msg = "seed=" + seed + ", i=" + i + ", q=" + q;
+          assertThat(ckms.get(q)).as(msg).isEqualTo(reference.get(q));
+          assertThat(ckms.n).as(msg).isEqualTo(reference.n);
+          assertThat(ckms.samples())
+              .as(msg)
+              .usingRecursiveFieldByFieldElementComparator()
+              .isEqualTo(reference.samples());
+        }
+      }
+      for (Quantile q : quantiles) {
+        assertThat(ckms.get(q.quantile)).isEqualTo(reference.get(q.quantile));
+      }
+      assertThat(ckms.n).isEqualTo(reference.n).isEqualTo(nObservations);
+      assertThat(ckms.samples())
+          .usingRecursiveFieldByFieldElementComparator()
+          .isEqualTo(reference.samples());
+    }
+  }
+
   @Test
   void testIllegalArgumentException() {
     try {
@@ -314,7 +371,7 @@ class CKMSQuantilesTest {
   private void validateSamples(CKMSQuantiles ckms) {
     double prev = -1.0;
     int r = 0; // sum of all g's left of the current sample
-    for (CKMSQuantiles.Sample sample : ckms.samples) {
+    for (CKMSQuantiles.Sample sample : ckms.samples()) {
       String msg =
           "invalid sample " + sample + ": count=" + ckms.n + " r=" + r + " f(r)=" + ckms.f(r);
       assertThat(sample.g + sample.delta).as(msg).isLessThanOrEqualTo(ckms.f(r));
@@ -352,7 +409,7 @@ class CKMSQuantilesTest {
       }
       boolean ok = actual >= lowerBound && actual <= upperBound;
       if (!ok) {
-        for (CKMSQuantiles.Sample sample : ckms.samples) {
+        for (CKMSQuantiles.Sample sample : ckms.samples()) {
           System.err.println(sample);
         }
       }
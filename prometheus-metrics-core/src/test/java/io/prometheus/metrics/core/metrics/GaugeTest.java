@@ -13,6 +13,11 @@ import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
 import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.tracer.common.SpanContext;
 import io.prometheus.metrics.tracer.initializer.SpanContextSupplier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -240,4 +245,66 @@ class GaugeTest {
     gauge.inc(2.0);
     assertThat(getData(gauge).getExemplar()).isNull();
   }
+
+  @Test
+  void testAdditive() {
+    Gauge gauge = Gauge.builder().name("in_flight").labelNames("l").additive().build();
+    gauge.labelValues("a").inc();
+    gauge.labelValues("a").inc(2.5);
+    gauge.labelValues("a").dec();
+    assertThat(getValue(gauge, "l", "a")).isCloseTo(2.5, offset(.001));
+    gauge.labelValues("a").set(10);
+    assertThat(getValue(gauge, "l", "a")).isCloseTo(10.0, offset(.001));
+    gauge.labelValues("a").dec(0.5);
+    assertThat(gauge.labelValues("a").get()).isCloseTo(9.5, offset(.001));
+    gauge.labelValues("b").setWithExemplar(-1, Labels.of("key", "value"));
+    assertThat(getValue(gauge, "l", "b")).isCloseTo(-1.0, offset(.001));
+    assertExemplarEquals(
+        Exemplar.builder().value(-1.0).labels(Labels.of("key", "value")).build(),
+        getData(gauge, "l", "b").getExemplar());
+    // The exemplar has the value after the increment.
+    gauge.labelValues("c").inc(2.0);
+    gauge.labelValues("c").incWithExemplar(1.5, Labels.of("key", "value"));
+    assertThat(getValue(gauge, "l", "c")).isCloseTo(3.5, offset(.001));
+    assertExemplarEquals(
+        Exemplar.builder().value(3.5).labels(Labels.of("key", "value")).build(),
+        getData(gauge, "l", "c").getExemplar());
+  }
+
+  @Test
+  void testAdditiveWithoutExemplars() {
+    Gauge gauge = Gauge.builder().name("in_flight").additive().withoutExemplars().build();
+    gauge.setWithExemplar(3.0, Labels.of("a", "b"));
+    gauge.incWithExemplar(2.0, Labels.of("a", "b"));
+    assertThat(getValue(gauge)).isCloseTo(5.0, offset(.001));
+    assertThat(getData(gauge).getExemplar()).isNull();
+  }
+
+  @Test
+  void testAdditiveConcurrentIncDec() throws Exception {
+    Gauge gauge = Gauge.builder().name("in_flight").additive().build();
+    int nThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 10_000; i++) {
+                    gauge.inc();
+                    gauge.inc(0.5);
+                    gauge.dec(1.5);
+                  }
+                  gauge.inc();
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(getValue(gauge)).isCloseTo(nThreads, offset(.001));
+  }
 }
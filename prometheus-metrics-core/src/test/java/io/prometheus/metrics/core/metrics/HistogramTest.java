@@ -28,9 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.CountDownLatch;
@@ -41,7 +39,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -840,32 +837,165 @@ class HistogramTest {
   }
 
   @Test
-  void testDoubleBucketWidthMergesNegativeIndexesCorrectly()
-      throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-    Histogram histogram = Histogram.builder().name("test").nativeOnly().build();
-    Histogram.DataPoint dataPoint = histogram.newDataPoint();
-
-    Method doubleBucketWidth =
-        Histogram.DataPoint.class.getDeclaredMethod("doubleBucketWidth", Map.class);
-    doubleBucketWidth.setAccessible(true);
-
+  void testDoubleBucketWidthMergesNegativeIndexesCorrectly() {
     int[] keys = {-5, -4, -3, -2, -1, 0, 1, 2, 3, 4, 5};
     int[] expectedMergedIndexes = {-2, -2, -1, -1, 0, 0, 1, 1, 2, 2, 3};
 
     for (int i = 0; i < keys.length; i++) {
-      Map<Integer, LongAdder> buckets = new HashMap<>();
-      LongAdder adder = new LongAdder();
-      adder.add(7);
-      buckets.put(keys[i], adder);
+      NativeBucketList buckets = new NativeBucketList();
+      buckets.add(keys[i], 7L);
 
-      doubleBucketWidth.invoke(dataPoint, buckets);
+      buckets.doubleBucketWidth();
 
-      assertThat(buckets.keySet())
+      NativeHistogramBuckets result = buckets.toNativeHistogramBuckets();
+      assertThat(result.size()).as("number of buckets for original key " + keys[i]).isOne();
+      assertThat(result.getBucketIndex(0))
           .as("merged index for original key " + keys[i])
-          .containsExactly(expectedMergedIndexes[i]);
-      assertThat(buckets.get(expectedMergedIndexes[i]).sum())
-          .as("count preserved for original key " + keys[i])
-          .isEqualTo(7);
+          .isEqualTo(expectedMergedIndexes[i]);
+      assertThat(result.getCount(0)).as("count preserved for original key " + keys[i]).isEqualTo(7);
+    }
+  }
+
+  @Test
+  void testDoubleBucketWidthMergesNeighbors() {
+    NativeBucketList buckets = new NativeBucketList();
+    for (int key = -5; key <= 5; key++) {
+      buckets.add(key, 1);
+    }
+
+    buckets.doubleBucketWidth();
+
+    NativeHistogramBuckets result = buckets.toNativeHistogramBuckets();
+    assertThat(result.stream().mapToInt(NativeHistogramBucket::getBucketIndex).toArray())
+        .containsExactly(-2, -1, 0, 1, 2, 3);
+    assertThat(result.stream().mapToLong(NativeHistogramBucket::getCount).toArray())
+        .containsExactly(2, 2, 2, 2, 2, 1);
+  }
+
+  @Test
+  void testNativeBucketsFarApart() {
+    // The buckets span a much wider range of indexes than the dense bucket array can hold,
+    // so some of them stay in the overflow map.
+    Histogram histogram =
+        Histogram.builder()
+            .name("test")
+            .nativeOnly()
+            .nativeInitialSchema(5)
+            .nativeMaxNumberOfBuckets(0)
+            .build();
+    double[] values = {1e-30, 1e-3, 1e-3 * 1.001, 1, 1e300, -1e-30, -1, -1e300};
+    for (int round = 1; round <= 3; round++) {
+      for (double value : values) {
+        histogram.observe(value);
+      }
+      HistogramSnapshot.HistogramDataPointSnapshot data =
+          histogram.collect().getDataPoints().get(0);
+      assertThat(data.getCount()).isEqualTo(round * values.length);
+      assertThat(data.getNativeBucketsForPositiveValues().size()).isEqualTo(4);
+      assertThat(data.getNativeBucketsForNegativeValues().size()).isEqualTo(3);
+      // 1e-3 and 1e-3 * 1.001 are in the same bucket
+      assertThat(
+              data.getNativeBucketsForPositiveValues().stream()
+                  .mapToLong(NativeHistogramBucket::getCount)
+                  .toArray())
+          .containsExactly(round, 2 * round, round, round);
+      assertThat(
+              data.getNativeBucketsForNegativeValues().stream()
+                  .mapToLong(NativeHistogramBucket::getCount)
+                  .toArray())
+          .containsExactly(round, round, round);
+    }
+  }
+
+  /**
+   * findBucketIndex() uses the bit representation of doubles. Make sure the result is exactly the
+   * same as with the naive frexp() implementation and binary search used before.
+   */
+  @Test
+  void testFindBucketIndexMatchesNaiveImplementation()
+      throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    Method findBucketIndex =
+        Histogram.class.getDeclaredMethod("findBucketIndex", int.class, double.class);
+    findBucketIndex.setAccessible(true);
+    double[][] bounds = naiveNativeBounds();
+    Random rand = new Random(0);
+    List<Double> values = new ArrayList<>();
+    values.addAll(Arrays.asList(Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, 1.0, 0.5));
+    for (int i = 0; i < 100_000; i++) {
+      // positive doubles with random exponent and mantissa, including subnormals
+      values.add(Double.longBitsToDouble(rand.nextLong() & 0x7fefffffffffffffL));
+    }
+    for (double bound : bounds[7]) {
+      // values exactly at and next to bucket boundaries
+      for (int exp : new int[] {-1070, -1022, -10, 0, 1, 10, 1023}) {
+        double value = Math.scalb(bound, exp);
+        values.add(value);
+        values.add(Math.nextUp(value));
+        values.add(Math.nextDown(value));
+      }
+    }
+    for (int schema = -4; schema <= 8; schema++) {
+      for (double value : values) {
+        if (value <= 0 || Double.isInfinite(value)) {
+          continue;
+        }
+        assertThat((int) findBucketIndex.invoke(null, schema, value))
+            .as("schema=" + schema + ", value=" + value)
+            .isEqualTo(naiveFindBucketIndex(bounds, schema, value));
+      }
+    }
+  }
+
+  private static double[][] naiveNativeBounds() {
+    double[][] result = new double[8][];
+    for (int schema = 1; schema <= 8; schema++) {
+      result[schema - 1] = new double[1 << schema];
+      result[schema - 1][0] = 0.5;
+      double base = Math.pow(2, Math.pow(2, -schema));
+      for (int i = 1; i < result[schema - 1].length; i++) {
+        if (i % 2 == 0 && schema > 1) {
+          result[schema - 1][i] = result[schema - 2][i / 2];
+        } else {
+          result[schema - 1][i] = result[schema - 1][i - 1] * base;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int naiveFindBucketIndex(double[][] nativeBounds, int schema, double value) {
+    double frac = value;
+    int exp = 0;
+    while (frac < 0.5) {
+      frac *= 2.0;
+      exp--;
+    }
+    while (frac >= 1.0) {
+      frac /= 2.0;
+      exp++;
+    }
+    if (schema >= 1) {
+      double[] bounds = nativeBounds[schema - 1];
+      int first = 0;
+      int last = bounds.length - 1;
+      while (first <= last) {
+        int mid = (first + last) / 2;
+        if (bounds[mid] == frac) {
+          return mid + (exp - 1) * bounds.length;
+        } else if (bounds[mid] < frac) {
+          first = mid + 1;
+        } else {
+          last = mid - 1;
+        }
+      }
+      return last + 1 + (exp - 1) * bounds.length;
+    } else {
+      int bucketIndex = exp;
+      if (frac == 0.5) {
+        bucketIndex--;
+      }
+      int offset = (1 << -schema) - 1;
+      return (bucketIndex + offset) >> -schema;
     }
   }
 
@@ -878,7 +1008,7 @@ class HistogramTest {
       throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
     Random rand = new Random();
     Method findBucketIndex =
-        Histogram.DataPoint.class.getDeclaredMethod("findBucketIndex", double.class);
+        Histogram.class.getDeclaredMethod("findBucketIndex", int.class, double.class);
     Method nativeBucketIndexToUpperBound =
         Histogram.DataPoint.class.getDeclaredMethod(
             "nativeBucketIndexToUpperBound", int.class, int.class);
@@ -890,7 +1020,7 @@ class HistogramTest {
       for (int i = 0; i < 10_000; i++) {
         for (int zeros = -5; zeros <= 10; zeros++) {
           double value = rand.nextDouble() * Math.pow(10, zeros);
-          int bucketIndex = (int) findBucketIndex.invoke(histogram.getNoLabels(), value);
+          int bucketIndex = (int) findBucketIndex.invoke(null, schema, value);
           double lowerBound =
               (double)
                   nativeBucketIndexToUpperBound.invoke(
@@ -0,0 +1,229 @@
+package io.prometheus.metrics.core.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import io.prometheus.metrics.model.snapshots.Labels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class LabelValuesMapTest {
+
+  @Test
+  void testGet() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    map.computeIfAbsent(new String[] {"a"}, Arrays::toString);
+    map.computeIfAbsent(new String[] {"a", "b"}, Arrays::toString);
+    map.computeIfAbsent(new String[] {"a", "b", "c"}, Arrays::toString);
+    map.computeIfAbsent(new String[] {"a", "b", "c", "d"}, Arrays::toString);
+    map.computeIfAbsent(new String[] {"a", "b", "c", "d", "e"}, Arrays::toString);
+
+    assertThat(map.get("a")).isEqualTo("[a]");
+    assertThat(map.get("a", "b")).isEqualTo("[a, b]");
+    assertThat(map.get("a", "b", "c")).isEqualTo("[a, b, c]");
+    assertThat(map.get("a", "b", "c", "d")).isEqualTo("[a, b, c, d]");
+    assertThat(map.get(new String[] {"a", "b", "c", "d", "e"})).isEqualTo("[a, b, c, d, e]");
+    assertThat(map.get(new String[] {"a", "b"})).isEqualTo("[a, b]");
+    assertThat(map.get(Arrays.asList("a", "b"))).isEqualTo("[a, b]");
+
+    assertThat(map.get("b")).isNull();
+    assertThat(map.get("a", "c")).isNull();
+    assertThat(map.get("a", null)).isNull();
+    assertThat(map.get(new String[] {"a", null})).isNull();
+    assertThat(map.get(new String[0])).isNull();
+    assertThat(map).hasSize(5);
+  }
+
+  @Test
+  void testComputeIfAbsentCopiesLabelValues() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    String[] labelValues = {"a", "b"};
+    assertThat(map.computeIfAbsent(labelValues, l -> "first")).isEqualTo("first");
+    assertThat(map.computeIfAbsent(labelValues, l -> "second")).isEqualTo("first");
+    labelValues[1] = "c";
+    assertThat(map.get("a", "b")).isEqualTo("first");
+    assertThat(map.get("a", "c")).isNull();
+  }
+
+  @Test
+  void testRemove() {
+    LabelValuesMap<Integer> map = new LabelValuesMap<>();
+    for (int i = 0; i < 1000; i++) {
+      map.computeIfAbsent(new String[] {Integer.toString(i)}, l -> Integer.parseInt(l[0]));
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      assertThat(map.remove(new String[] {Integer.toString(i)})).isEqualTo(i);
+    }
+    assertThat(map.remove(new String[] {"0"})).isNull();
+    assertThat(map).hasSize(500);
+    for (int i = 0; i < 1000; i++) {
+      if (i % 2 == 0) {
+        assertThat(map.get(Integer.toString(i))).isNull();
+      } else {
+        assertThat(map.get(Integer.toString(i))).isEqualTo(i);
+      }
+    }
+    // Re-inserting replaces tombstones or triggers a rehash.
+    for (int i = 0; i < 1000; i += 2) {
+      map.computeIfAbsent(new String[] {Integer.toString(i)}, l -> -Integer.parseInt(l[0]));
+    }
+    assertThat(map).hasSize(1000);
+    assertThat(map.get("2")).isEqualTo(-2);
+    assertThat(map.get("3")).isEqualTo(3);
+  }
+
+  @Test
+  void testRemoveIf() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    map.computeIfAbsent(new String[] {"a", "b"}, l -> "ab");
+    map.computeIfAbsent(new String[] {"a", "c"}, l -> "ac");
+    map.computeIfAbsent(new String[] {"d", "e"}, l -> "de");
+    map.removeIf(labelValues -> labelValues[0].equals("a"));
+    assertThat(map).hasSize(1);
+    assertThat(map.get("d", "e")).isEqualTo("de");
+  }
+
+  @Test
+  void testForEachDataPoint() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    for (int i = 0; i < 100; i++) {
+      map.computeIfAbsent(new String[] {"x", Integer.toString(i)}, l -> l[1]);
+    }
+    map.remove(new String[] {"x", "7"});
+    Set<String> values = new HashSet<>();
+    map.forEachDataPoint(
+        (labelValues, value) -> {
+          assertThat(labelValues[1]).isEqualTo(value);
+          assertThat(values.add(value)).isTrue();
+        });
+    assertThat(values).hasSize(99).doesNotContain("7");
+  }
+
+  @Test
+  void testForEachDataPointCachesLabels() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    map.computeIfAbsent(new String[] {"a"}, l -> "A");
+    map.computeIfAbsent(new String[] {"b"}, l -> "B");
+    AtomicInteger calls = new AtomicInteger();
+    List<Labels> first = new ArrayList<>();
+    map.forEachDataPoint(
+        labelValues -> {
+          calls.incrementAndGet();
+          return Labels.of("l", labelValues[0]);
+        },
+        (labels, value) -> {
+          assertThat(labels.get("l").toUpperCase(Locale.ROOT)).isEqualTo(value);
+          first.add(labels);
+        });
+    List<Labels> second = new ArrayList<>();
+    map.forEachDataPoint(
+        labelValues -> {
+          throw new AssertionError("labels should be cached");
+        },
+        (labels, value) -> second.add(labels));
+    assertThat(calls).hasValue(2);
+    assertThat(second).hasSize(2);
+    for (int i = 0; i < 2; i++) {
+      assertThat(second.get(i) == first.get(i)).isTrue();
+    }
+  }
+
+  @Test
+  void testMapView() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    Map<List<String>, String> expected = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      String[] labelValues = {"x", Integer.toString(i)};
+      map.computeIfAbsent(labelValues, l -> l[1]);
+      expected.put(Arrays.asList(labelValues), labelValues[1]);
+    }
+    // leave tombstones in the table
+    for (int i = 0; i < 20; i += 3) {
+      map.remove(new String[] {"x", Integer.toString(i)});
+      expected.remove(Arrays.asList("x", Integer.toString(i)));
+    }
+    assertThat(map.entrySet()).hasSize(expected.size());
+    assertThat(map).isEqualTo(expected).hasSameHashCodeAs(expected);
+    assertThat(map.containsKey(Arrays.asList("x", "1"))).isTrue();
+    assertThat(map.containsKey(Arrays.asList("x", "0"))).isFalse();
+    assertThat(map.get((Object) "x")).isNull();
+    assertThat(map.get(Arrays.asList("x", 1))).isNull();
+
+    Iterator<Map.Entry<List<String>, String>> iterator = map.entrySet().iterator();
+    int count = 0;
+    while (iterator.hasNext()) {
+      Map.Entry<List<String>, String> entry = iterator.next();
+      assertThat(entry.getValue()).isEqualTo(expected.get(entry.getKey()));
+      // keys are copies of the label values
+      entry.getKey().set(1, "modified");
+      count++;
+    }
+    assertThat(count).isEqualTo(expected.size());
+    assertThatExceptionOfType(NoSuchElementException.class).isThrownBy(iterator::next);
+    assertThat(map).isEqualTo(expected);
+
+    map.clear();
+    assertThat(map.entrySet()).isEmpty();
+    assertThat(map.entrySet().iterator().hasNext()).isFalse();
+  }
+
+  @Test
+  void testClear() {
+    LabelValuesMap<String> map = new LabelValuesMap<>();
+    for (int i = 0; i < 100; i++) {
+      map.computeIfAbsent(new String[] {Integer.toString(i)}, l -> l[0]);
+    }
+    map.clear();
+    assertThat(map).isEmpty();
+    assertThat(map.get("1")).isNull();
+    map.computeIfAbsent(new String[] {"1"}, l -> "one");
+    assertThat(map.get("1")).isEqualTo("one");
+  }
+
+  @Test
+  void testConcurrentComputeIfAbsent() throws Exception {
+    LabelValuesMap<AtomicInteger> map = new LabelValuesMap<>();
+    int nThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 10_000; i++) {
+                    String labelValue = Integer.toString(i % 1000);
+                    AtomicInteger counter = map.get(labelValue, "x");
+                    if (counter == null) {
+                      counter =
+                          map.computeIfAbsent(
+                              new String[] {labelValue, "x"}, l -> new AtomicInteger());
+                    }
+                    counter.incrementAndGet();
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(map).hasSize(1000);
+    map.forEachDataPoint(
+        (labelValues, counter) -> assertThat(counter.get()).isEqualTo(10 * nThreads));
+  }
+}
@@ -0,0 +1,218 @@
+package io.prometheus.metrics.core.metrics;
+
+// Copy of the LinkedList based CKMSQuantiles implementation that was replaced with the array based
+// implementation. It is kept as a reference for CKMSQuantilesTest, which verifies that both
+// implementations produce the same samples and quantiles.
+
+/*
+Copyright 2012 Andrew Wang (andrew@umbrant.com)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import io.prometheus.metrics.core.metrics.CKMSQuantiles.Quantile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/** Reference implementation for {@link CKMSQuantiles}, see {@code CKMSQuantilesTest}. */
+final class LinkedListCKMSQuantiles {
+
+  @SuppressWarnings("ReferenceEquality")
+  private static boolean sameObject(Object left, Object right) {
+    return left == right;
+  }
+
+  final Quantile[] quantiles;
+
+  /** Total number of observations (not including those that are still in the buffer). */
+  int n = 0;
+
+  /** List of sampled observations, ordered by Sample.value. */
+  @SuppressWarnings("JdkObsolete")
+  final LinkedList<Sample> samples = new LinkedList<>();
+
+  private final int compressInterval = 128;
+
+  private int insertsSinceLastCompress = 0;
+
+  private final double[] buffer = new double[compressInterval];
+
+  private int bufferPos = 0;
+
+  LinkedListCKMSQuantiles(Quantile... quantiles) {
+    this.quantiles = quantiles;
+  }
+
+  void insert(double value) {
+    buffer[bufferPos++] = value;
+
+    if (bufferPos == buffer.length) {
+      flush();
+    }
+
+    if (++insertsSinceLastCompress == compressInterval) {
+      compress();
+      insertsSinceLastCompress = 0;
+    }
+  }
+
+  private void flush() {
+    Arrays.sort(buffer, 0, bufferPos);
+    insertBatch(buffer, bufferPos);
+    bufferPos = 0;
+  }
+
+  void insertBatch(double[] sortedBuffer, int toIndex) {
+    if (toIndex == 0) {
+      return;
+    }
+    ListIterator<Sample> iterator = samples.listIterator();
+    int i = 0; // position in buffer
+    int r = 0; // sum of g's left of the current sample
+    while (iterator.hasNext() && i < toIndex) {
+      Sample item = iterator.next();
+      while (i < toIndex) {
+        if (sortedBuffer[i] > item.value) {
+          break;
+        }
+        insertBefore(iterator, sortedBuffer[i], r);
+        r++; // new item with g=1 was inserted before, so increment r
+        i++;
+        n++;
+      }
+      r += item.g;
+    }
+    while (i < toIndex) {
+      samples.add(new Sample(sortedBuffer[i], 0));
+      i++;
+      n++;
+    }
+  }
+
+  private void insertBefore(ListIterator<Sample> iterator, double value, int r) {
+    if (!iterator.hasPrevious()) {
+      samples.addFirst(new Sample(value, 0));
+    } else {
+      iterator.previous();
+      iterator.add(new Sample(value, f(r) - 1));
+      iterator.next();
+    }
+  }
+
+  double get(double q) {
+    flush();
+
+    if (samples.isEmpty()) {
+      return Double.NaN;
+    }
+
+    if (q == 0.0) {
+      return samples.getFirst().value;
+    }
+
+    if (q == 1.0) {
+      return samples.getLast().value;
+    }
+
+    int r = 0; // sum of g's left of the current sample
+    int desiredRank = (int) Math.ceil(q * n);
+    int upperBound = desiredRank + f(desiredRank) / 2;
+
+    ListIterator<Sample> iterator = samples.listIterator();
+    while (iterator.hasNext()) {
+      Sample sample = iterator.next();
+      if (r + sample.g + sample.delta > upperBound) {
+        iterator.previous(); // roll back the item.next() above
+        if (iterator.hasPrevious()) {
+          Sample result = iterator.previous();
+          return result.value;
+        } else {
+          return sample.value;
+        }
+      }
+      r += sample.g;
+    }
+    return samples.getLast().value;
+  }
+
+  int f(int r) {
+    int minResult = Integer.MAX_VALUE;
+    for (Quantile q : quantiles) {
+      if (q.quantile == 0 || q.quantile == 1) {
+        continue;
+      }
+      int result;
+      if (r >= q.quantile * n) {
+        result = (int) (q.v * r + 0.00000000001);
+      } else {
+        result = (int) (q.u * (n - r) + 0.00000000001);
+      }
+      if (result < minResult) {
+        minResult = result;
+      }
+    }
+    return Math.max(minResult, 1);
+  }
+
+  void compress() {
+    if (samples.size() < 3) {
+      return;
+    }
+    Iterator<Sample> descendingIterator = samples.descendingIterator();
+    int r = n; // n is equal to the sum of the g's of all samples
+
+    Sample right;
+    Sample left = descendingIterator.next();
+    r -= left.g;
+
+    while (descendingIterator.hasNext()) {
+      right = left;
+      left = descendingIterator.next();
+      r = r - left.g;
+      if (sameObject(left, samples.getFirst())) {
+        // The min sample must never be merged.
+        break;
+      }
+      if (left.g + right.g + right.delta < f(r)) {
+        right.g += left.g;
+        descendingIterator.remove();
+        left = right;
+      }
+    }
+  }
+
+  /** Copy of the current samples, in the same representation as {@link CKMSQuantiles#samples()}. */
+  List<CKMSQuantiles.Sample> samples() {
+    List<CKMSQuantiles.Sample> result = new ArrayList<>(samples.size());
+    for (Sample sample : samples) {
+      result.add(new CKMSQuantiles.Sample(sample.value, sample.g, sample.delta));
+    }
+    return result;
+  }
+
+  private static class Sample {
+
+    final double value;
+    int g = 1;
+    final int delta;
+
+    Sample(double value, int delta) {
+      this.value = value;
+      this.delta = delta;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package io.prometheus.metrics.core.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+class NativeBucketCountsTest {
+
+  @Test
+  void bucketsAreCreatedOnce() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    assertThat(buckets.increment(3)).isTrue();
+    assertThat(buckets.increment(3)).isFalse();
+    assertThat(buckets.increment(4)).isTrue();
+    assertThat(buckets.numberOfBuckets()).isEqualTo(2);
+  }
+
+  @Test
+  void resizeMovesBucketsFromOverflowToDenseArray() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    NativeBucketList accumulated = new NativeBucketList();
+    buckets.increment(-7);
+    buckets.increment(10);
+    buckets.increment(10);
+    buckets.drain(accumulated::add);
+    buckets.maybeResize(accumulated, 2);
+    assertThat(buckets.numberOfBuckets()).isZero();
+
+    // Buckets are new again after the resize, but still drained correctly.
+    assertThat(buckets.increment(10)).isTrue();
+    assertThat(buckets.increment(10)).isFalse();
+    assertThat(buckets.increment(-7)).isTrue();
+    assertThat(buckets.increment(1000)).isTrue();
+    buckets.drain(accumulated::add);
+    assertThat(drain(buckets)).isEmpty();
+
+    assertThat(toMap(accumulated)).containsExactly(entry(-7, 2), entry(10, 4), entry(1000, 1));
+  }
+
+  @Test
+  void drainDoesNotRemoveBuckets() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    NativeBucketList accumulated = new NativeBucketList();
+    buckets.increment(1);
+    buckets.drain(accumulated::add);
+    buckets.maybeResize(accumulated, 1);
+    assertThat(buckets.increment(1)).isTrue();
+    buckets.drain(accumulated::add);
+    assertThat(buckets.increment(1)).isFalse();
+    assertThat(drain(buckets)).containsExactly(entry(1, 1));
+  }
+
+  @Test
+  void resetDiscardsBuckets() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    buckets.increment(1);
+    drain(buckets);
+    buckets.reset();
+    assertThat(buckets.numberOfBuckets()).isZero();
+    assertThat(buckets.increment(1)).isTrue();
+  }
+
+  @Test
+  void numberOfStripesIsCapped() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    NativeBucketList accumulated = new NativeBucketList();
+    buckets.increment(1);
+    buckets.drain(accumulated::add);
+    buckets.maybeResize(accumulated, 2);
+    assertThat(buckets.numberOfStripes()).isEqualTo(2);
+    buckets.maybeResize(accumulated, 64);
+    assertThat(buckets.numberOfStripes()).isEqualTo(NativeBucketCounts.maxStripes);
+
+    // observations on all stripes are drained
+    for (int i = 0; i < 100; i++) {
+      buckets.increment(1);
+      Buffer.nextProbe();
+    }
+    assertThat(drain(buckets)).containsExactly(entry(1, 100));
+  }
+
+  @Test
+  void numberOfStripesIsCappedByLength() {
+    NativeBucketCounts buckets = new NativeBucketCounts();
+    NativeBucketList accumulated = new NativeBucketList();
+    buckets.increment(0);
+    buckets.increment(200);
+    buckets.drain(accumulated::add);
+    // span 201 -> length 402, room for 1024 / 402 = 2 stripes
+    buckets.maybeResize(accumulated, 4);
+    assertThat(buckets.numberOfStripes()).isEqualTo(2);
+
+    buckets.increment(400);
+    buckets.drain(accumulated::add);
+    // span 401 -> length 802, no striping
+    buckets.maybeResize(accumulated, 4);
+    assertThat(buckets.numberOfStripes()).isEqualTo(1);
+    for (int i = 0; i < 100; i++) {
+      buckets.increment(400);
+      Buffer.nextProbe();
+    }
+    assertThat(drain(buckets)).containsExactly(entry(400, 100));
+  }
+
+  private static Map<Integer, Long> drain(NativeBucketCounts buckets) {
+    Map<Integer, Long> result = new TreeMap<>();
+    buckets.drain((bucketIndex, count) -> result.merge(bucketIndex, count, Long::sum));
+    return result;
+  }
+
+  private static Map<Integer, Long> toMap(NativeBucketList list) {
+    Map<Integer, Long> result = new TreeMap<>();
+    list.toNativeHistogramBuckets()
+        .forEach(bucket -> result.put(bucket.getBucketIndex(), bucket.getCount()));
+    return result;
+  }
+
+  private static Map.Entry<Integer, Long> entry(int bucketIndex, long count) {
+    return Map.entry(bucketIndex, count);
+  }
+}
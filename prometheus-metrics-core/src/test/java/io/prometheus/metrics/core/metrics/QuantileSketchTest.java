@@ -0,0 +1,69 @@
+package io.prometheus.metrics.core.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.data.Offset.offset;
+
+import org.junit.jupiter.api.Test;
+
+class QuantileSketchTest {
+
+  private static final double[] QUANTILES = {0.5, 0.99};
+  private static final double[] ERRORS = {0.01, 0.001};
+
+  @Test
+  void testNotMergeableByDefault() {
+    QuantileSketch sketch =
+        new QuantileSketch() {
+          @Override
+          public void insert(double value) {}
+
+          @Override
+          public double get(double quantile) {
+            return Double.NaN;
+          }
+        };
+    assertThat(sketch).isNotInstanceOf(MergeableQuantileSketch.class);
+  }
+
+  @Test
+  void testCkms() {
+    QuantileSketch sketch = QuantileSketch.ckms().newSketch(QUANTILES, ERRORS);
+    assertThat(sketch).isInstanceOf(CKMSQuantiles.class);
+    assertThat(sketch).isNotInstanceOf(MergeableQuantileSketch.class);
+    assertThat(sketch.get(0.5)).isNaN();
+    for (int i = 1; i <= 1000; i++) {
+      sketch.insert(i);
+    }
+    assertThat(sketch.get(0.5)).isCloseTo(500.0, offset(10.0));
+    assertThat(sketch.get(0.99)).isCloseTo(990.0, offset(1.0));
+  }
+
+  @Test
+  void testRelativeError() {
+    QuantileSketch.Factory factory = QuantileSketch.relativeError(0.01, 160);
+    assertThat(factory.newSketch(QUANTILES, ERRORS)).isInstanceOf(RelativeErrorQuantiles.class);
+    MergeableQuantileSketch sketch = (MergeableQuantileSketch) factory.newSketch(QUANTILES, ERRORS);
+    MergeableQuantileSketch other = (MergeableQuantileSketch) factory.newSketch(QUANTILES, ERRORS);
+    for (int i = 1; i <= 1000; i++) {
+      (i % 2 == 0 ? sketch : other).insert(i);
+    }
+    sketch.merge(other);
+    assertThat(sketch.get(0.5)).isCloseTo(500.0, offset(10.0));
+    sketch.clear();
+    assertThat(sketch.get(0.5)).isNaN();
+  }
+
+  @Test
+  void testRelativeErrorInvalidArguments() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> QuantileSketch.relativeError(0.0, 160))
+        .withMessage("Relative error 0.0 invalid: Expected number between 0.0 and 1.0.");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> QuantileSketch.relativeError(1.0, 160))
+        .withMessage("Relative error 1.0 invalid: Expected number between 0.0 and 1.0.");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> QuantileSketch.relativeError(0.01, 0))
+        .withMessage("maxNumberOfBuckets cannot be 0");
+  }
+}
@@ -0,0 +1,143 @@
+package io.prometheus.metrics.core.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RelativeErrorQuantilesTest {
+
+  private final double[] quantiles = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999};
+
+  @Test
+  void testGetOnEmptyValues() {
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.01, 1024);
+    assertThat(sketch.get(0.5)).isNaN();
+  }
+
+  @Test
+  void testRelativeError() {
+    Random random = new Random(0);
+    double[] values = new double[100_000];
+    for (int i = 0; i < values.length; i++) {
+      // log-normal, spans many orders of magnitude but less than 1024 buckets
+      values[i] = Math.exp(random.nextGaussian() * 2);
+    }
+    assertRelativeError(0.01, values);
+    assertRelativeError(0.05, values);
+  }
+
+  @Test
+  void testNegativeAndZeroValues() {
+    Random random = new Random(1);
+    double[] values = new double[10_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i % 10 == 0 ? 0.0 : random.nextGaussian() * 1000;
+    }
+    assertRelativeError(0.01, values);
+  }
+
+  @Test
+  void testMinAndMax() {
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.1, 1024);
+    sketch.insert(3.0);
+    sketch.insert(-7.0);
+    sketch.insert(11.0);
+    assertThat(sketch.get(0.0)).isEqualTo(-7.0);
+    assertThat(sketch.get(1.0)).isEqualTo(11.0);
+  }
+
+  @Test
+  void testMerge() {
+    Random random = new Random(2);
+    RelativeErrorQuantiles all = new RelativeErrorQuantiles(0.01, 1024);
+    RelativeErrorQuantiles merged = new RelativeErrorQuantiles(0.01, 1024);
+    RelativeErrorQuantiles[] parts = new RelativeErrorQuantiles[5];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = new RelativeErrorQuantiles(0.01, 1024);
+    }
+    for (int i = 0; i < 10_000; i++) {
+      double value = Math.exp(random.nextGaussian() * 3) * (random.nextInt(4) == 0 ? -1 : 1);
+      all.insert(value);
+      parts[random.nextInt(parts.length)].insert(value);
+    }
+    for (RelativeErrorQuantiles part : parts) {
+      merged.merge(part);
+    }
+    for (double q : quantiles) {
+      assertThat(merged.get(q)).isEqualTo(all.get(q));
+    }
+    assertThat(merged.numberOfBuckets()).isEqualTo(all.numberOfBuckets());
+  }
+
+  @Test
+  void testClear() {
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.01, 1024);
+    sketch.insert(1.0);
+    sketch.insert(-1.0);
+    sketch.clear();
+    assertThat(sketch.get(0.5)).isNaN();
+    assertThat(sketch.numberOfBuckets()).isZero();
+    sketch.insert(1000.0);
+    assertThat(sketch.get(0.5)).isEqualTo(1000.0);
+  }
+
+  @Test
+  void testMaxNumberOfBuckets() {
+    Random random = new Random(3);
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.01, 64);
+    double[] values = new double[10_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Math.pow(10, -10 + 20 * random.nextDouble());
+      sketch.insert(values[i]);
+    }
+    assertThat(sketch.numberOfBuckets()).isLessThanOrEqualTo(64);
+    Arrays.sort(values);
+    // Only the buckets closest to zero are merged, so the high quantiles are still accurate.
+    double expected = values[(int) (0.999 * (values.length - 1))];
+    assertThat(sketch.get(0.999)).isCloseTo(expected, offset(0.01 * expected));
+    // The lowest quantiles are reported as the lowest remaining bucket.
+    assertThat(sketch.get(0.01)).isGreaterThan(values[(int) (0.01 * (values.length - 1))]);
+  }
+
+  @Test
+  void testNewValuesBelowCollapsedRange() {
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.01, 16);
+    sketch.insert(1000.0);
+    sketch.insert(1.0);
+    sketch.insert(0.001);
+    // 1.0 and 0.001 are merged into the lowest bucket within 16 buckets of 1000.0.
+    assertThat(sketch.numberOfBuckets()).isEqualTo(2);
+    assertThat(sketch.get(0.5)).isBetween(1000.0 / Math.pow(1.01 / 0.99, 16), 1000.0);
+    assertThat(sketch.get(0.0)).isEqualTo(0.001);
+    assertThat(sketch.get(1.0)).isEqualTo(1000.0);
+  }
+
+  @Test
+  void testInfinity() {
+    // Enough buckets for the entire range of double values.
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(0.01, 100_000);
+    sketch.insert(1.0);
+    sketch.insert(Double.POSITIVE_INFINITY);
+    assertThat(sketch.get(0.5)).isCloseTo(1.0, offset(0.01));
+    assertThat(sketch.get(1.0)).isEqualTo(Double.POSITIVE_INFINITY);
+    assertThat(sketch.get(0.0)).isEqualTo(1.0);
+  }
+
+  private void assertRelativeError(double relativeError, double[] values) {
+    RelativeErrorQuantiles sketch = new RelativeErrorQuantiles(relativeError, 1024);
+    for (double value : values) {
+      sketch.insert(value);
+    }
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (double q : quantiles) {
+      double expected = sorted[(int) (q * (sorted.length - 1))];
+      assertThat(sketch.get(q))
+          .as("quantile %s", q)
+          .isCloseTo(expected, offset(relativeError * Math.abs(expected) + 1e-12));
+    }
+  }
+}
@@ -91,4 +91,102 @@ class SlidingWindowTest {
     currentTimeMillis.addAndGet(3 * timeBetweenRotateMillis); // 10/5 of max age
     ringBuffer.current().assertValues(); // empty
   }
+
+  @Test
+  void testObserveNewest() {
+    ringBuffer.observeNewest(1.0);
+    currentTimeMillis.addAndGet(2 * timeBetweenRotateMillis); // 2/5 of max aqe
+    ringBuffer.observeNewest(2.0);
+    assertMerged(1.0, 2.0);
+    currentTimeMillis.addAndGet(
+        3 * timeBetweenRotateMillis); // 5/5 of max age -> first observation evicted
+    assertMerged(2.0);
+    ringBuffer.observeNewest(3.0);
+    assertMerged(2.0, 3.0);
+    currentTimeMillis.addAndGet(2 * timeBetweenRotateMillis); // 7/5 of max age
+    assertMerged(3.0);
+    currentTimeMillis.addAndGet(3 * timeBetweenRotateMillis); // 10/5 of max age
+    assertMerged(); // empty
+  }
+
+  @Test
+  void testConcurrentObserveNewest() throws InterruptedException {
+    SlidingWindow<Observer> striped =
+        new SlidingWindow<>(
+            Observer::new, Observer::observe, maxAgeSeconds, ageBuckets, 8, currentTimeMillis::get);
+    int nThreads = 8;
+    int nObservations = 10_000;
+    Thread[] threads = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      double value = i;
+      threads[i] =
+          new Thread(
+              () -> {
+                for (int j = 0; j < nObservations; j++) {
+                  striped.observeNewest(value);
+                }
+              });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    List<Double> all = new ArrayList<>();
+    striped.forEach(observer -> all.addAll(observer.values));
+    assertThat(all).hasSize(nThreads * nObservations);
+    for (int i = 0; i < nThreads; i++) {
+      double value = i;
+      assertThat(all.stream().filter(v -> v == value).count()).isEqualTo(nObservations);
+    }
+  }
+
+  @Test
+  void testConcurrentObserveWithCurrent() throws InterruptedException {
+    int nThreads = 4;
+    int nObservations = 10_000;
+    Thread[] threads = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                for (int j = 0; j < nObservations; j++) {
+                  ringBuffer.observe(1.0);
+                }
+              });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    int previousSize = 0;
+    for (int i = 0; i < 100; i++) {
+      // Summing the list would fail with a ConcurrentModificationException if observers
+      // modified it while we are reading.
+      double sum = ringBuffer.withCurrent(o -> o.values.stream().mapToDouble(v -> v).sum());
+      assertThat((int) sum).isGreaterThanOrEqualTo(previousSize);
+      previousSize = (int) sum;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    List<Double> values = ringBuffer.withCurrent(o -> o.values);
+    assertThat(values).hasSize(nThreads * nObservations);
+  }
+
+  @Test
+  void testExpiredBucketsAreNotMerged() {
+    ringBuffer.observeNewest(1.0);
+    currentTimeMillis.addAndGet(ageBuckets * timeBetweenRotateMillis);
+    ringBuffer.observeNewest(2.0);
+    assertMerged(2.0);
+    assertThat(ringBuffer.current().values).containsExactly(2.0);
+  }
+
+  private void assertMerged(double... expectedValues) {
+    Observer merged = new Observer();
+    ringBuffer.forEach(observer -> merged.values.addAll(observer.values));
+    merged.values.sort(null);
+    merged.assertValues(expectedValues);
+  }
 }
@@ -3,10 +3,22 @@ package io.prometheus.metrics.core.metrics;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import io.prometheus.metrics.config.MetricsProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.util.Scheduler;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.registry.ScrapeGeneration;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 
 class StatefulMetricTest {
@@ -101,4 +113,308 @@ class StatefulMetricTest {
         .isThrownBy(() -> counter.labelValues("l1", null))
         .withMessage("null label value for metric test and label l2");
   }
+
+  @Test
+  void testLabelValuesOverloads() {
+    Counter one = Counter.builder().name("one").labelNames("l1").build();
+    assertThat(one.labelValues("a")).isSameAs(one.labelValues(new String[] {"a"}));
+
+    Counter two = Counter.builder().name("two").labelNames("l1", "l2").build();
+    assertThat(two.labelValues("a", "b")).isSameAs(two.labelValues(new String[] {"a", "b"}));
+
+    Counter three = Counter.builder().name("three").labelNames("l1", "l2", "l3").build();
+    assertThat(three.labelValues("a", "b", "c"))
+        .isSameAs(three.labelValues(new String[] {"a", "b", "c"}));
+
+    Counter four = Counter.builder().name("four").labelNames("l1", "l2", "l3", "l4").build();
+    assertThat(four.labelValues("a", "b", "c", "d"))
+        .isSameAs(four.labelValues(new String[] {"a", "b", "c", "d"}));
+    assertThat(four.collect().getDataPoints()).hasSize(1);
+
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> two.labelValues("a"))
+        .withMessage("Expected 2 label values, but got 1.");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> three.labelValues("a", null, "c"))
+        .withMessage("null label value for metric three and label l2");
+  }
+
+  @Test
+  void testLabelValuesAfterRemove() {
+    Counter counter = Counter.builder().name("test").labelNames("l1", "l2").build();
+    CounterDataPoint dataPoint = counter.labelValues("a", "b");
+    dataPoint.inc();
+    counter.remove("a", "b");
+    assertThat(counter.labelValues("a", "b")).isNotSameAs(dataPoint);
+    assertThat(counter.labelValues("a", "b").get()).isEqualTo(0.0);
+  }
+
+  @Test
+  void testCurry() {
+    Counter counter = Counter.builder().name("test").labelNames("l1", "l2", "l3", "l4").build();
+    CurriedLabelValues<CounterDataPoint> a = counter.curry("a");
+    CurriedLabelValues<CounterDataPoint> ab = counter.curry("a", "b");
+
+    assertThat(a.labelValues("b", "c", "d")).isSameAs(counter.labelValues("a", "b", "c", "d"));
+    assertThat(a.labelValues(new String[] {"b", "c", "d"}))
+        .isSameAs(counter.labelValues("a", "b", "c", "d"));
+    assertThat(ab.labelValues("c", "d")).isSameAs(counter.labelValues("a", "b", "c", "d"));
+    assertThat(counter.curry("a", "b", "c").labelValues("d"))
+        .isSameAs(counter.labelValues("a", "b", "c", "d"));
+    assertThat(counter.curry("a", "b", "c", "d").labelValues())
+        .isSameAs(counter.labelValues("a", "b", "c", "d"));
+    assertThat(counter.curry().labelValues("a", "b", "c", "d"))
+        .isSameAs(counter.labelValues("a", "b", "c", "d"));
+
+    ab.labelValues("x", "y").inc();
+    assertThat(counter.labelValues("a", "b", "x", "y").get()).isEqualTo(1.0);
+    assertThat(counter.collect().getDataPoints()).hasSize(2);
+  }
+
+  @Test
+  void testCurryAfterRemove() {
+    Counter counter = Counter.builder().name("test").labelNames("l1", "l2").build();
+    CurriedLabelValues<CounterDataPoint> curried = counter.curry("a");
+    CounterDataPoint dataPoint = curried.labelValues("b");
+    assertThat(curried.labelValues("b")).isSameAs(dataPoint);
+
+    counter.remove("a", "b");
+    CounterDataPoint newDataPoint = curried.labelValues("b");
+    assertThat(newDataPoint).isNotSameAs(dataPoint);
+    assertThat(newDataPoint).isSameAs(counter.labelValues("a", "b"));
+
+    counter.clear();
+    curried.labelValues("b").inc();
+    assertThat(counter.collect().getDataPoints()).hasSize(1);
+    assertThat(counter.labelValues("a", "b").get()).isEqualTo(1.0);
+  }
+
+  @Test
+  void testCurryInvalidLabelValues() {
+    Counter counter = Counter.builder().name("test").labelNames("l1", "l2").build();
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> counter.curry("a", "b", "c"))
+        .withMessage("Expected at most 2 label values, but got 3.");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> counter.curry((String) null))
+        .withMessage("null label value for metric test and label l1");
+    CurriedLabelValues<CounterDataPoint> curried = counter.curry("a");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> curried.labelValues("b", "c"))
+        .withMessage("Expected 2 label values, but got 3.");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> curried.labelValues((String) null))
+        .withMessage("null label value for metric test and label l2");
+    assertThat(counter.collect().getDataPoints()).isEmpty();
+  }
+
+  @Test
+  void testMaxLabelCombinations() {
+    Counter counter =
+        Counter.builder().name("test_overflow").labelNames("path").maxLabelCombinations(2).build();
+    counter.labelValues("/a").inc();
+    counter.labelValues("/b").inc();
+    counter.labelValues("/c").inc();
+    counter.labelValues("/d").inc(2);
+    counter.labelValues("/a").inc();
+
+    CounterSnapshot snapshot = counter.collect();
+    assertThat(snapshot.getDataPoints()).hasSize(3);
+    assertThat(getValue(snapshot, Labels.of("path", "/a"))).isEqualTo(2.0);
+    assertThat(getValue(snapshot, Labels.of("path", "/b"))).isEqualTo(1.0);
+    assertThat(getValue(snapshot, Labels.of("otel.metric.overflow", "true"))).isEqualTo(3.0);
+    assertThat(labelCombinationOverflowLookups("test_overflow")).isEqualTo(2.0);
+
+    // Removing a data point makes room for a new label value combination.
+    counter.remove("/b");
+    counter.labelValues("/e").inc();
+    snapshot = counter.collect();
+    assertThat(snapshot.getDataPoints()).hasSize(3);
+    assertThat(getValue(snapshot, Labels.of("path", "/e"))).isEqualTo(1.0);
+
+    counter.clear();
+    assertThat(counter.collect().getDataPoints()).isEmpty();
+  }
+
+  @Test
+  void testLabelCombinationOverflowLookupsPerInstance() {
+    Counter first =
+        Counter.builder().name("test_instances").labelNames("path").maxLabelCombinations(1).build();
+    Counter second =
+        Counter.builder().name("test_instances").labelNames("path").maxLabelCombinations(1).build();
+    first.labelValues("/a").inc();
+    second.labelValues("/a").inc();
+    // every overflow lookup is counted, even for the same label values
+    first.labelValues("/b").inc();
+    first.labelValues("/b").inc();
+    second.labelValues("/b").inc();
+
+    assertThat(LabelCombinationOverflowLookups.counterFor(first).sum()).isEqualTo(2);
+    assertThat(LabelCombinationOverflowLookups.counterFor(second).sum()).isOne();
+    assertThat(labelCombinationOverflowLookups("test_instances")).isEqualTo(3.0);
+
+    // clear() removes the data points, but the counter is monotonic
+    first.clear();
+    assertThat(labelCombinationOverflowLookups("test_instances")).isEqualTo(3.0);
+  }
+
+  @Test
+  void testMaxLabelCombinationsFromProperties() {
+    PrometheusProperties properties =
+        PrometheusProperties.builder()
+            .defaultMetricsProperties(MetricsProperties.builder().maxLabelCombinations(1).build())
+            .putMetricProperty(
+                "test_properties", MetricsProperties.builder().maxLabelCombinations(3).build())
+            .build();
+    Histogram histogram =
+        Histogram.builder(properties)
+            .name("test_properties")
+            .labelNames("path")
+            .maxLabelCombinations(2)
+            .build();
+    Gauge gauge = Gauge.builder(properties).name("test_default").labelNames("path").build();
+    for (int i = 0; i < 5; i++) {
+      histogram.labelValues("/" + i).observe(1.0);
+      gauge.labelValues("/" + i).inc();
+    }
+    // metric-specific properties take precedence over the builder
+    HistogramSnapshot histogramSnapshot = histogram.collect();
+    assertThat(histogramSnapshot.getDataPoints()).hasSize(4);
+    assertThat(
+            histogramSnapshot.getDataPoints().stream()
+                .filter(
+                    dataPoint ->
+                        dataPoint.getLabels().equals(Labels.of("otel.metric.overflow", "true")))
+                .mapToLong(HistogramSnapshot.HistogramDataPointSnapshot::getCount))
+        .containsExactly(2L);
+    assertThat(gauge.collect().getDataPoints()).hasSize(2);
+  }
+
+  @Test
+  void testInvalidMaxLabelCombinations() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> Counter.builder().name("test").maxLabelCombinations(0))
+        .withMessage("maxLabelCombinations must be > 0, got 0");
+  }
+
+  @Test
+  void testIdleTimeout() throws InterruptedException {
+    Counter counter =
+        Counter.builder().name("test").labelNames("path").idleTimeout(1, TimeUnit.SECONDS).build();
+    CurriedLabelValues<CounterDataPoint> curried = counter.curry();
+    counter.labelValues("/a").inc();
+    CounterDataPoint b = curried.labelValues("/b");
+    b.inc();
+    long created = Scheduler.currentTimeMillis();
+    // wait for the coarse clock to tick, then update only /a
+    while (Scheduler.currentTimeMillis() == created) {
+      Thread.sleep(10);
+    }
+    counter.labelValues("/a").inc();
+
+    counter.evictIdle(created);
+    assertThat(counter.collect().getDataPoints()).hasSize(2);
+    counter.evictIdle(created + 1001);
+    CounterSnapshot snapshot = counter.collect();
+    assertThat(snapshot.getDataPoints()).hasSize(1);
+    assertThat(getValue(snapshot, Labels.of("path", "/a"))).isEqualTo(2.0);
+
+    // the curried view must not return the evicted data point
+    assertThat(curried.labelValues("/b")).isNotSameAs(b);
+    assertThat(counter.collect().getDataPoints()).hasSize(2);
+  }
+
+  @Test
+  void testIdleTimeoutBackgroundSweep() throws InterruptedException {
+    Gauge gauge =
+        Gauge.builder().name("test").labelNames("queue").idleTimeout(1, TimeUnit.SECONDS).build();
+    gauge.labelValues("tmp-1").set(1.0);
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!gauge.collect().getDataPoints().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertThat(gauge.collect().getDataPoints()).isEmpty();
+  }
+
+  @Test
+  void testIdleTimeoutFromProperties() {
+    PrometheusProperties properties =
+        PrometheusProperties.builder()
+            .defaultMetricsProperties(MetricsProperties.builder().idleTimeoutSeconds(60L).build())
+            .build();
+    Histogram histogram = Histogram.builder(properties).name("test").labelNames("path").build();
+    histogram.labelValues("/").observe(1.0);
+    histogram.evictIdle(Scheduler.currentTimeMillis() + 59_000);
+    assertThat(histogram.collect().getDataPoints()).hasSize(1);
+    histogram.evictIdle(Scheduler.currentTimeMillis() + 61_000);
+    assertThat(histogram.collect().getDataPoints()).isEmpty();
+
+    // metrics without labels are not affected
+    Summary summary = Summary.builder(properties).name("test_no_labels").build();
+    summary.observe(1.0);
+    summary.evictIdle(Scheduler.currentTimeMillis() + 61_000);
+    assertThat(summary.collect().getDataPoints()).hasSize(1);
+  }
+
+  @Test
+  void testInvalidIdleTimeout() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> Counter.builder().name("test").idleTimeout(500, TimeUnit.MILLISECONDS))
+        .withMessage(
+            "500 MILLISECONDS: duration must be at least 1 second. Sub-second durations are not"
+                + " supported.");
+  }
+
+  @Test
+  void testTrackChanges() {
+    Counter counter = Counter.builder().name("test").labelNames("path").trackChanges().build();
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counter);
+    counter.labelValues("/a").inc();
+    counter.labelValues("/b").inc();
+
+    long first = ScrapeGeneration.next();
+    assertThat(changedLabels(registry, 0)).containsExactlyInAnyOrder("/a", "/b");
+    counter.labelValues("/a").inc();
+    long second = ScrapeGeneration.next();
+    assertThat(changedLabels(registry, first)).containsExactly("/a");
+    assertThat(changedLabels(registry, second)).isEmpty();
+    counter.labelValues("/c").inc();
+    assertThat(changedLabels(registry, second)).containsExactly("/c");
+
+    // unchanged data points are still included in a full scrape
+    assertThat(counter.collect().getDataPoints()).hasSize(3);
+  }
+
+  @Test
+  void testTrackChangesDisabled() {
+    Counter counter = Counter.builder().name("test").labelNames("path").build();
+    counter.labelValues("/a").inc();
+    long generation = ScrapeGeneration.next();
+    assertThat(counter.collectChangedSince(generation).getDataPoints()).hasSize(1);
+  }
+
+  private static List<String> changedLabels(PrometheusRegistry registry, long generation) {
+    return registry.scrapeChangedSince(generation).get(0).getDataPoints().stream()
+        .map(dataPoint -> dataPoint.getLabels().get("path"))
+        .collect(Collectors.toList());
+  }
+
+  private static double getValue(CounterSnapshot snapshot, Labels labels) {
+    return snapshot.getDataPoints().stream()
+        .filter(dataPoint -> dataPoint.getLabels().equals(labels))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("no data point with labels " + labels))
+        .getValue();
+  }
+
+  private static double labelCombinationOverflowLookups(String metricName) {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    LabelCombinationOverflowLookups.register(registry);
+    MetricSnapshots snapshots = registry.scrape();
+    CounterSnapshot snapshot = (CounterSnapshot) snapshots.get(0);
+    assertThat(snapshot.getMetadata().getPrometheusName())
+        .isEqualTo("prometheus_metrics_label_combination_overflow_lookups");
+    return getValue(snapshot, Labels.of("metric", metricName));
+  }
 }
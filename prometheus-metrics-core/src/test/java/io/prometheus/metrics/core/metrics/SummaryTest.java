@@ -5,6 +5,8 @@ import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.assertj.core.api.Assertions.fail;
 import static org.assertj.core.data.Offset.offset;
 
+import io.prometheus.metrics.config.MetricsProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
 import io.prometheus.metrics.core.datapoints.Timer;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
@@ -15,6 +17,8 @@ import io.prometheus.metrics.model.snapshots.Quantiles;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.Unit;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -118,6 +122,81 @@ class SummaryTest {
         .isCloseTo(getQuantile(withLabelsAndQuantiles, 0.99, labels), offset(0.001 * nSamples));
   }
 
+  @Test
+  void testConcurrentObserveAndCollect() throws InterruptedException {
+    // Wraps the default CKMS sketch and records whether insert() and get() ever overlap.
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    Summary summary =
+        Summary.builder()
+            .quantile(0.5, 0.05)
+            .quantile(0.99, 0.001)
+            .quantileSketch(
+                (quantiles, errors) -> {
+                  QuantileSketch ckms = QuantileSketch.ckms().newSketch(quantiles, errors);
+                  return new QuantileSketch() {
+                    @Override
+                    public void insert(double value) {
+                      if (active.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                      }
+                      ckms.insert(value);
+                      active.decrementAndGet();
+                    }
+
+                    @Override
+                    public double get(double quantile) {
+                      if (active.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                      }
+                      Thread.yield();
+                      double result = ckms.get(quantile);
+                      active.decrementAndGet();
+                      return result;
+                    }
+                  };
+                })
+            .name("concurrent")
+            .help("help")
+            .register(registry);
+    int nThreads = 4;
+    int nObservations = 100_000;
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread[] threads = new Thread[nThreads];
+    for (int i = 0; i < nThreads; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                for (int j = 0; j < nObservations; j++) {
+                  summary.observe(j % 1000 + 1);
+                }
+              });
+      threads[i].setUncaughtExceptionHandler((thread, e) -> error.set(e));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      for (Quantile quantile : getDatapoint(summary, Labels.EMPTY).getQuantiles()) {
+        if (!Double.isNaN(quantile.getValue())) {
+          assertThat(quantile.getValue()).isBetween(1.0, 1000.0);
+        }
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(error.get()).isNull();
+    assertThat(overlaps.get()).isZero();
+    assertThat(getCount(summary, Labels.EMPTY)).isEqualTo((long) nThreads * nObservations);
+    assertThat(getQuantile(summary, 0.5, Labels.EMPTY)).isCloseTo(500.0, offset(50.0));
+  }
+
   @Test
   void testMaxAge() throws InterruptedException {
     Summary summary =
@@ -167,6 +246,143 @@ class SummaryTest {
         .isThrownBy(() -> Summary.builder().name("name").maxAgeSeconds(-1).build());
   }
 
+  @Test
+  void testRelativeErrorQuantiles() {
+    Summary summary =
+        Summary.builder()
+            .quantile(0.5)
+            .quantile(0.9)
+            .quantile(0.99)
+            .relativeError(0.01)
+            .name("relative_error")
+            .help("help")
+            .register(registry);
+    int nSamples = 1000000;
+    for (int i = 1; i <= nSamples; i++) {
+      summary.observe(i);
+    }
+    assertThat(getQuantile(summary, 0.5, Labels.EMPTY))
+        .isCloseTo(0.5 * nSamples, offset(0.01 * 0.5 * nSamples));
+    assertThat(getQuantile(summary, 0.9, Labels.EMPTY))
+        .isCloseTo(0.9 * nSamples, offset(0.01 * 0.9 * nSamples));
+    assertThat(getQuantile(summary, 0.99, Labels.EMPTY))
+        .isCloseTo(0.99 * nSamples, offset(0.01 * 0.99 * nSamples));
+  }
+
+  @Test
+  void testRelativeErrorMaxAge() throws InterruptedException {
+    Summary summary =
+        Summary.builder()
+            .quantile(0.99)
+            .relativeError(0.01)
+            .maxAgeSeconds(1) // After 1s, all observations will be discarded.
+            .numberOfAgeBuckets(2) // We got 2 buckets, so we discard one bucket every 500ms.
+            .name("short_attention_span")
+            .help("help")
+            .register(registry);
+    summary.observe(8.0);
+    assertThat(getQuantile(summary, 0.99, Labels.EMPTY)).isEqualTo(8.0); // From bucket 1.
+    Thread.sleep(600);
+    assertThat(getQuantile(summary, 0.99, Labels.EMPTY)).isEqualTo(8.0); // From bucket 1.
+    Thread.sleep(600);
+    assertThat(getQuantile(summary, 0.99, Labels.EMPTY)).isNaN(); // Bucket 1 was discarded.
+  }
+
+  @Test
+  void testQuantileSketchFromProperties() {
+    PrometheusProperties properties =
+        PrometheusProperties.builder()
+            .putMetricProperty(
+                "test",
+                MetricsProperties.builder()
+                    .summaryQuantileSketch("relative_error")
+                    .summaryRelativeError(0.1)
+                    .build())
+            .build();
+    Summary summary = Summary.builder(properties).name("test").quantile(0.5, 0.0).build();
+    for (int i = 1; i <= 1000; i++) {
+      summary.observe(i);
+    }
+    double median = getQuantile(summary, 0.5, Labels.EMPTY);
+    assertThat(median).isCloseTo(500.0, offset(50.0));
+    // CKMS reports observed values, the relative error sketch reports bucket values.
+    assertThat(median % 1.0).isNotZero();
+  }
+
+  @Test
+  void testCustomQuantileSketch() {
+    Summary summary =
+        Summary.builder()
+            .quantile(0.5)
+            .quantileSketch(
+                (quantiles, errors) ->
+                    new QuantileSketch() {
+                      @Override
+                      public void insert(double value) {}
+
+                      @Override
+                      public double get(double quantile) {
+                        return 42.0;
+                      }
+                    })
+            .name("custom")
+            .help("help")
+            .register(registry);
+    summary.observe(1.0);
+    assertThat(getQuantile(summary, 0.5, Labels.EMPTY)).isEqualTo(42.0);
+  }
+
+  @Test
+  void testCustomMergeableQuantileSketch() {
+    AtomicInteger merges = new AtomicInteger();
+    class CountingSketch implements MergeableQuantileSketch {
+      private final RelativeErrorQuantiles delegate = new RelativeErrorQuantiles(0.01, 160);
+
+      @Override
+      public void insert(double value) {
+        delegate.insert(value);
+      }
+
+      @Override
+      public double get(double quantile) {
+        return delegate.get(quantile);
+      }
+
+      @Override
+      public void merge(MergeableQuantileSketch other) {
+        merges.incrementAndGet();
+        delegate.merge(((CountingSketch) other).delegate);
+      }
+
+      @Override
+      public void clear() {
+        delegate.clear();
+      }
+    }
+    Summary summary =
+        Summary.builder()
+            .quantile(0.5)
+            .numberOfAgeBuckets(3)
+            .quantileSketch((quantiles, errors) -> new CountingSketch())
+            .name("custom_mergeable")
+            .help("help")
+            .register(registry);
+    for (int i = 1; i <= 100; i++) {
+      summary.observe(i);
+    }
+    assertThat(getQuantile(summary, 0.5, Labels.EMPTY)).isCloseTo(50.0, offset(1.0));
+    // observations are only in the newest age bucket, the age buckets are merged when scraped
+    assertThat(merges.get()).isPositive();
+  }
+
+  @Test
+  void testBuilderInvalidRelativeError() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> Summary.builder().name("name").relativeError(0.0).build());
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> Summary.builder().name("name").maxNumberOfBuckets(0).build());
+  }
+
   @Test
   void testBuilderInvalidQuantile() {
     assertThatExceptionOfType(IllegalArgumentException.class)
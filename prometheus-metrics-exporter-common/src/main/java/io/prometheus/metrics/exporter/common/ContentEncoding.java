@@ -0,0 +1,40 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@code Content-Encoding} for scrape responses, like {@code gzip} or {@code zstd}.
+ *
+ * <p>{@code gzip} is built in, {@code zstd} is built in if {@code com.github.luben:zstd-jni} is on
+ * the classpath. Additional encodings are loaded with {@link java.util.ServiceLoader}: Implement
+ * this interface, and list the implementation class in {@code
+ * META-INF/services/io.prometheus.metrics.exporter.common.ContentEncoding}. An implementation with
+ * the same {@link #getName() name} as a built-in encoding replaces the built-in one.
+ *
+ * <p>The {@link PrometheusScrapeHandler} selects the encoding based on the {@code Accept-Encoding}
+ * request header. If the client accepts multiple encodings with the same quality value, service
+ * loader encodings are preferred over {@code zstd}, and {@code zstd} is preferred over {@code
+ * gzip}.
+ *
+ * <p>Implementations must be thread safe.
+ */
+public interface ContentEncoding {
+
+  /** Name in the {@code Accept-Encoding} and {@code Content-Encoding} headers, like "gzip". */
+  String getName();
+
+  /**
+   * Encodings that are not available are ignored, for example because a native library is missing.
+   * Default is {@code true}.
+   */
+  default boolean isAvailable() {
+    return true;
+  }
+
+  /**
+   * Wrap {@code out} with an encoding output stream. Closing the returned stream must write the end
+   * of the encoded data and close {@code out}.
+   */
+  OutputStream encode(OutputStream out) throws IOException;
+}
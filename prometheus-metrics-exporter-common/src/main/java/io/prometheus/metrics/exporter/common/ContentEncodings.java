@@ -0,0 +1,121 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import javax.annotation.Nullable;
+
+/**
+ * The available {@link ContentEncoding}s in order of preference, and {@code Accept-Encoding}
+ * negotiation as in RFC 9110 section 12.5.3.
+ */
+final class ContentEncodings {
+
+  private final List<ContentEncoding> encodings;
+
+  ContentEncodings(List<ContentEncoding> encodings) {
+    this.encodings = new ArrayList<>();
+    for (ContentEncoding encoding : encodings) {
+      if (encoding.isAvailable()) {
+        this.encodings.add(encoding);
+      }
+    }
+  }
+
+  /**
+   * Encodings loaded with {@link ServiceLoader} first, followed by the built-in {@code zstd} and
+   * {@code gzip} encodings unless replaced by an encoding with the same name.
+   */
+  static ContentEncodings load(int gzipCompressionLevel) {
+    Map<String, ContentEncoding> result = new LinkedHashMap<>();
+    for (ContentEncoding encoding :
+        ServiceLoader.load(ContentEncoding.class, ContentEncoding.class.getClassLoader())) {
+      result.putIfAbsent(encoding.getName().toLowerCase(Locale.ROOT), encoding);
+    }
+    result.putIfAbsent("zstd", new ZstdContentEncoding());
+    result.putIfAbsent("gzip", new GzipContentEncoding(gzipCompressionLevel));
+    return new ContentEncodings(new ArrayList<>(result.values()));
+  }
+
+  /**
+   * The encoding with the highest quality value in the {@code Accept-Encoding} headers, or {@code
+   * null} if the response should not be encoded. Encodings with the same quality value are chosen
+   * in order of preference.
+   */
+  @Nullable
+  ContentEncoding negotiate(@Nullable Enumeration<String> acceptEncodingHeaders) {
+    if (acceptEncodingHeaders == null || encodings.isEmpty()) {
+      return null;
+    }
+    Map<String, Double> qualities = parse(acceptEncodingHeaders);
+    Double wildcard = qualities.get("*");
+    ContentEncoding result = null;
+    double resultQuality = 0;
+    for (ContentEncoding encoding : encodings) {
+      Double quality = qualities.get(encoding.getName().toLowerCase(Locale.ROOT));
+      if (quality == null) {
+        quality = wildcard;
+      }
+      if (quality != null && quality > resultQuality) {
+        result = encoding;
+        resultQuality = quality;
+      }
+    }
+    Double identity = qualities.get("identity");
+    if (identity != null && identity > resultQuality) {
+      return null;
+    }
+    return result;
+  }
+
+  /**
+   * Map of lower case coding to quality value. Codings with an invalid quality value are ignored.
+   */
+  private static Map<String, Double> parse(Enumeration<String> acceptEncodingHeaders) {
+    Map<String, Double> result = new HashMap<>();
+    while (acceptEncodingHeaders.hasMoreElements()) {
+      String header = acceptEncodingHeaders.nextElement();
+      if (header == null) {
+        continue;
+      }
+      for (String element : header.split(",")) {
+        String[] parts = element.split(";");
+        String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+        if (coding.isEmpty()) {
+          continue;
+        }
+        Double quality = 1.0;
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].trim();
+          if (param.length() > 1
+              && (param.charAt(0) == 'q' || param.charAt(0) == 'Q')
+              && param.substring(1).trim().startsWith("=")) {
+            quality = parseQuality(param.substring(param.indexOf('=') + 1).trim());
+          }
+        }
+        if (quality != null) {
+          result.put(coding, quality);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Double parseQuality(String value) {
+    try {
+      double quality = Double.parseDouble(value);
+      if (quality >= 0 && quality <= 1) {
+        return quality;
+      }
+    } catch (NumberFormatException e) {
+      // invalid quality value
+    }
+    return null;
+  }
+}
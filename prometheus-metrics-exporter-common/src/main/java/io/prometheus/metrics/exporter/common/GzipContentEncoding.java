@@ -0,0 +1,98 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The {@code gzip} {@link ContentEncoding}, see {@link
+ * io.prometheus.metrics.config.ExporterHttpServerProperties#getCompressionLevel()}.
+ *
+ * <p>{@link java.util.zip.GZIPOutputStream} creates a new {@link Deflater} with native memory for
+ * each response. This class keeps a small pool of deflaters. Thread safe.
+ */
+final class GzipContentEncoding implements ContentEncoding {
+
+  private static final int MAX_POOLED = 4;
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final int level;
+  private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+  GzipContentEncoding(int level) {
+    this.level = level;
+  }
+
+  @Override
+  public String getName() {
+    return "gzip";
+  }
+
+  @Override
+  public OutputStream encode(OutputStream out) throws IOException {
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(level, true);
+    }
+    return new GzipOutputStream(out, deflater);
+  }
+
+  private void release(Deflater deflater) {
+    deflater.reset();
+    if (!deflaters.offer(deflater)) {
+      deflater.end();
+    }
+  }
+
+  /** Like {@link java.util.zip.GZIPOutputStream}, but with a pooled {@link Deflater}. */
+  private class GzipOutputStream extends DeflaterOutputStream {
+
+    // magic number, deflate, no flags, no modification time, no extra flags, unknown OS
+    private final byte[] header = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private final CRC32 crc = new CRC32();
+    private boolean released = false;
+
+    private GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+      super(out, deflater, BUFFER_SIZE);
+      out.write(header);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (!def.finished()) {
+        super.finish();
+        writeInt((int) crc.getValue());
+        writeInt((int) def.getBytesRead());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!released) {
+          released = true;
+          release(def);
+        }
+      }
+    }
+
+    private void writeInt(int i) throws IOException {
+      out.write(i & 0xff);
+      out.write((i >> 8) & 0xff);
+      out.write((i >> 16) & 0xff);
+      out.write((i >> 24) & 0xff);
+    }
+  }
+}
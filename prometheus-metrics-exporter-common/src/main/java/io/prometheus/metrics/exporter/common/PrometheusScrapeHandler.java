@@ -3,6 +3,8 @@ package io.prometheus.metrics.exporter.common;
 import io.prometheus.metrics.annotations.StableApi;
 import io.prometheus.metrics.config.EscapingScheme;
 import io.prometheus.metrics.config.ExporterFilterProperties;
+import io.prometheus.metrics.config.ExporterHttpServerProperties;
+import io.prometheus.metrics.config.ExporterProperties;
 import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.expositionformats.ExpositionFormatWriter;
 import io.prometheus.metrics.expositionformats.ExpositionFormats;
@@ -13,13 +15,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
-import java.util.zip.GZIPOutputStream;
 import javax.annotation.Nullable;
 
 /** Prometheus scrape endpoint. */
@@ -32,6 +40,16 @@ public class PrometheusScrapeHandler {
   private final AtomicInteger lastResponseSize = new AtomicInteger(2 << 9); //  0.5 MB
   private final List<String> supportedFormats;
   private final boolean preferUncompressedResponse;
+  @Nullable private final Executor collectionExecutor;
+  @Nullable private final ExecutorService ownedCollectionExecutor; // see close()
+  @Nullable private final Duration collectorTimeout;
+  @Nullable private final ScrapeCache scrapeCache;
+  private final ContentEncodings contentEncodings;
+  private final BlockingQueue<ByteArrayOutputStream> compressedBuffers =
+      new ArrayBlockingQueue<>(4);
+  private final int compressionMinSize;
+  private final boolean bufferCompressedResponse;
+  private final boolean bufferUncompressedResponse;
 
   public PrometheusScrapeHandler() {
     this(PrometheusProperties.get(), PrometheusRegistry.defaultRegistry);
@@ -46,11 +64,39 @@ public class PrometheusScrapeHandler {
   }
 
   public PrometheusScrapeHandler(PrometheusProperties config, PrometheusRegistry registry) {
+    this(config, registry, null);
+  }
+
+  /**
+   * @param collectionExecutor for calling collectors in parallel, for example a {@link
+   *     java.util.concurrent.ForkJoinPool}. If {@code null}, the handler creates a thread pool if
+   *     {@link ExporterProperties#getParallelCollectionThreads()} is configured. An executor passed
+   *     here is not shut down by {@link #close()}.
+   */
+  public PrometheusScrapeHandler(
+      PrometheusProperties config,
+      PrometheusRegistry registry,
+      @Nullable Executor collectionExecutor) {
     this.expositionFormats = ExpositionFormats.init(config);
-    this.preferUncompressedResponse =
-        config.getExporterHttpServerProperties().isPreferUncompressedResponse();
+    ExporterHttpServerProperties httpServerProperties = config.getExporterHttpServerProperties();
+    this.preferUncompressedResponse = httpServerProperties.isPreferUncompressedResponse();
+    this.scrapeCache = makeScrapeCache(httpServerProperties);
+    this.contentEncodings = ContentEncodings.load(httpServerProperties.getCompressionLevel());
+    this.compressionMinSize = httpServerProperties.getCompressionMinSizeBytes();
+    this.bufferCompressedResponse = httpServerProperties.isBufferCompressedResponse();
+    this.bufferUncompressedResponse = httpServerProperties.isBufferUncompressedResponse();
     this.registry = registry;
     this.nameFilter = makeNameFilter(config.getExporterFilterProperties());
+    ExporterProperties exporterProperties = config.getExporterProperties();
+    if (collectionExecutor != null) {
+      this.ownedCollectionExecutor = null;
+      this.collectionExecutor = collectionExecutor;
+    } else {
+      this.ownedCollectionExecutor =
+          makeCollectionExecutor(exporterProperties.getParallelCollectionThreads());
+      this.collectionExecutor = ownedCollectionExecutor;
+    }
+    this.collectorTimeout = exporterProperties.getCollectorTimeout();
     supportedFormats = new ArrayList<>(Arrays.asList("openmetrics", "text"));
     if (expositionFormats.getPrometheusProtobufWriter().isAvailable()) {
       supportedFormats.add("prometheus-protobuf");
@@ -69,40 +115,42 @@ public class PrometheusScrapeHandler {
         writeInvalidQueryParametersResponse(exchange);
         return;
       }
-      MetricSnapshots snapshots = scrape(request, includedNames);
+      Predicate<String> filter = makeNameFilter(includedNames);
       String acceptHeader = request.getHeader("Accept");
       EscapingScheme escapingScheme = EscapingScheme.fromAcceptHeader(acceptHeader);
-      if (writeDebugResponse(snapshots, escapingScheme, debugParam, exchange)) {
+      if (debugParam != null
+          && writeDebugResponse(scrape(request, filter), escapingScheme, debugParam, exchange)) {
         return;
       }
       ExpositionFormatWriter writer = expositionFormats.findWriter(acceptHeader);
       PrometheusHttpResponse response = exchange.getResponse();
       response.setHeader("Content-Type", writer.getContentType());
 
-      if (shouldUseCompression(request)) {
-        response.setHeader("Content-Encoding", "gzip");
-        try (GZIPOutputStream gzipOutputStream =
-            new GZIPOutputStream(response.sendHeadersAndGetBody(200, 0))) {
-          writer.write(gzipOutputStream, snapshots, escapingScheme);
-        }
+      ContentEncoding encoding = selectContentEncoding(request);
+      if (scrapeCache != null) {
+        String key = cacheKey(request, writer, escapingScheme, encoding);
+        ScrapeCache.Response cached =
+            scrapeCache.get(key, () -> encode(request, filter, writer, escapingScheme, encoding));
+        writeResponse(
+            request,
+            response,
+            cached.body.length,
+            cached.contentEncoding,
+            out -> out.write(cached.body));
+      } else if (isStreaming(request, encoding)) {
+        writeStreaming(request, response, filter, writer, escapingScheme, encoding);
       } else {
         ByteArrayOutputStream responseBuffer =
-            new ByteArrayOutputStream(lastResponseSize.get() + 1024);
-        writer.write(responseBuffer, snapshots, escapingScheme);
-        lastResponseSize.set(responseBuffer.size());
-        int contentLength = responseBuffer.size();
-        if (contentLength > 0) {
-          response.setHeader("Content-Length", String.valueOf(contentLength));
-        }
-        if (request.getMethod().equals("HEAD")) {
-          // The HTTPServer implementation will throw an Exception if we close the output stream
-          // without sending a response body, so let's not close the output stream in case of a HEAD
-          // response.
-          response.sendHeadersAndGetBody(200, -1);
-        } else {
-          try (OutputStream outputStream = response.sendHeadersAndGetBody(200, contentLength)) {
-            responseBuffer.writeTo(outputStream);
+            encodeUncompressed(request, filter, writer, escapingScheme);
+        if (encoding != null && responseBuffer.size() >= compressionMinSize) {
+          ByteArrayOutputStream compressed = compress(encoding, responseBuffer);
+          try {
+            writeResponse(request, response, compressed.size(), encoding, compressed::writeTo);
+          } finally {
+            release(compressed);
           }
+        } else {
+          writeResponse(request, response, responseBuffer.size(), null, responseBuffer::writeTo);
         }
       }
     } catch (IOException e) {
@@ -114,6 +162,181 @@ public class PrometheusScrapeHandler {
     }
   }
 
+  private boolean isStreaming(PrometheusHttpRequest request, @Nullable ContentEncoding encoding) {
+    if (request.getMethod().equals("HEAD")) {
+      return false;
+    }
+    return encoding != null ? !bufferCompressedResponse : !bufferUncompressedResponse;
+  }
+
+  /**
+   * Write the response one metric family at a time, without holding the entire response in memory.
+   * See {@link ExporterHttpServerProperties#isBufferCompressedResponse()}.
+   */
+  private void writeStreaming(
+      PrometheusHttpRequest request,
+      PrometheusHttpResponse response,
+      @Nullable Predicate<String> filter,
+      ExpositionFormatWriter writer,
+      EscapingScheme escapingScheme,
+      @Nullable ContentEncoding encoding)
+      throws IOException {
+    Iterator<MetricSnapshots> metricFamilies = scrapeIncrementally(request, filter);
+    // hasNext() collects the first metric family before the headers are sent, so that a failing
+    // registry results in an error response rather than a truncated 200.
+    boolean unused = metricFamilies.hasNext();
+    if (encoding != null) {
+      response.setHeader("Content-Encoding", encoding.getName());
+    }
+    OutputStream body = response.sendHeadersAndGetBody(200, 0);
+    try (OutputStream outputStream = encoding != null ? encoding.encode(body) : body) {
+      writer.writeIncrementally(outputStream, metricFamilies, escapingScheme);
+    }
+  }
+
+  /**
+   * Shut down the thread pool for parallel collection if the handler created one, see {@link
+   * ExporterProperties#getParallelCollectionThreads()}. Call this when the handler is no longer
+   * used, for example when the server is stopped or the web application is undeployed.
+   */
+  public void close() {
+    if (ownedCollectionExecutor != null) {
+      ownedCollectionExecutor.shutdown();
+    }
+  }
+
+  private static String cacheKey(
+      PrometheusHttpRequest request,
+      ExpositionFormatWriter writer,
+      EscapingScheme escapingScheme,
+      @Nullable ContentEncoding encoding) {
+    // Collectors may use the request path and query parameters, see PrometheusScrapeRequest.
+    return request.getRequestPath()
+        + "?"
+        + request.getQueryString()
+        + " "
+        + writer.getContentType()
+        + " "
+        + escapingScheme
+        + (encoding != null ? " " + encoding.getName() : "");
+  }
+
+  private ScrapeCache.Response encode(
+      PrometheusHttpRequest request,
+      @Nullable Predicate<String> filter,
+      ExpositionFormatWriter writer,
+      EscapingScheme escapingScheme,
+      @Nullable ContentEncoding encoding)
+      throws IOException {
+    if (encoding != null && compressionMinSize == 0) {
+      ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(lastResponseSize.get() / 4);
+      try (OutputStream compressedOutputStream = encoding.encode(responseBuffer)) {
+        writer.writeIncrementally(
+            compressedOutputStream, scrapeIncrementally(request, filter), escapingScheme);
+      }
+      return new ScrapeCache.Response(responseBuffer.toByteArray(), encoding);
+    }
+    ByteArrayOutputStream responseBuffer =
+        encodeUncompressed(request, filter, writer, escapingScheme);
+    if (encoding != null && responseBuffer.size() >= compressionMinSize) {
+      ByteArrayOutputStream compressed = compress(encoding, responseBuffer);
+      try {
+        return new ScrapeCache.Response(compressed.toByteArray(), encoding);
+      } finally {
+        release(compressed);
+      }
+    }
+    return new ScrapeCache.Response(responseBuffer.toByteArray(), null);
+  }
+
+  /**
+   * Compress {@code uncompressed} into a pooled buffer. Call {@link
+   * #release(ByteArrayOutputStream)} when the buffer is no longer needed.
+   */
+  private ByteArrayOutputStream compress(
+      ContentEncoding encoding, ByteArrayOutputStream uncompressed) throws IOException {
+    ByteArrayOutputStream buffer = compressedBuffers.poll();
+    if (buffer == null) {
+      buffer = new ByteArrayOutputStream(Math.max(8 * 1024, uncompressed.size() / 4));
+    }
+    try (OutputStream out = encoding.encode(buffer)) {
+      uncompressed.writeTo(out);
+    }
+    return buffer;
+  }
+
+  private void release(ByteArrayOutputStream buffer) {
+    buffer.reset();
+    compressedBuffers.offer(buffer);
+  }
+
+  private ByteArrayOutputStream encodeUncompressed(
+      PrometheusHttpRequest request,
+      @Nullable Predicate<String> filter,
+      ExpositionFormatWriter writer,
+      EscapingScheme escapingScheme)
+      throws IOException {
+    Iterator<MetricSnapshots> metricFamilies = scrapeIncrementally(request, filter);
+    ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(lastResponseSize.get() + 1024);
+    writer.writeIncrementally(responseBuffer, metricFamilies, escapingScheme);
+    lastResponseSize.set(responseBuffer.size());
+    return responseBuffer;
+  }
+
+  private interface ResponseBody {
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+
+  private static void writeResponse(
+      PrometheusHttpRequest request,
+      PrometheusHttpResponse response,
+      int contentLength,
+      @Nullable ContentEncoding encoding,
+      ResponseBody body)
+      throws IOException {
+    if (encoding != null) {
+      response.setHeader("Content-Encoding", encoding.getName());
+    }
+    if (contentLength > 0) {
+      response.setHeader("Content-Length", String.valueOf(contentLength));
+    }
+    if (request.getMethod().equals("HEAD")) {
+      // The HTTPServer implementation will throw an Exception if we close the output stream
+      // without sending a response body, so let's not close the output stream in case of a HEAD
+      // response.
+      response.sendHeadersAndGetBody(200, -1);
+    } else {
+      try (OutputStream outputStream = response.sendHeadersAndGetBody(200, contentLength)) {
+        body.writeTo(outputStream);
+      }
+    }
+  }
+
+  @Nullable
+  private static ScrapeCache makeScrapeCache(ExporterHttpServerProperties properties) {
+    int maxAge = properties.getScrapeCacheMaxAgeMilliseconds();
+    if (maxAge == 0 && !properties.isCoalesceConcurrentScrapes()) {
+      return null;
+    }
+    return new ScrapeCache(maxAge);
+  }
+
+  @Nullable
+  private static ExecutorService makeCollectionExecutor(int threads) {
+    if (threads == 0) {
+      return null;
+    }
+    AtomicInteger threadNumber = new AtomicInteger(1);
+    return Executors.newFixedThreadPool(
+        threads,
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "prometheus-collector-" + threadNumber.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
   @Nullable
   private Predicate<String> makeNameFilter(ExporterFilterProperties props) {
     if (props.getAllowedMetricNames() == null
@@ -145,9 +368,11 @@ public class PrometheusScrapeHandler {
     return result;
   }
 
-  private MetricSnapshots scrape(PrometheusHttpRequest request, @Nullable String[] includedNames) {
-
-    Predicate<String> filter = makeNameFilter(includedNames);
+  private MetricSnapshots scrape(
+      PrometheusHttpRequest request, @Nullable Predicate<String> filter) {
+    if (collectionExecutor != null) {
+      return registry.scrapeInParallel(filter, request, collectionExecutor, collectorTimeout);
+    }
     if (filter != null) {
       return registry.scrape(filter, request);
     } else {
@@ -155,6 +380,15 @@ public class PrometheusScrapeHandler {
     }
   }
 
+  private Iterator<MetricSnapshots> scrapeIncrementally(
+      PrometheusHttpRequest request, @Nullable Predicate<String> filter) {
+    // Parallel collection starts all collectors at once.
+    if (collectionExecutor != null) {
+      return Collections.singletonList(scrape(request, filter)).iterator();
+    }
+    return registry.scrapeIncrementally(filter, request);
+  }
+
   private boolean writeDebugResponse(
       MetricSnapshots snapshots,
       EscapingScheme escapingScheme,
@@ -205,24 +439,11 @@ public class PrometheusScrapeHandler {
     }
   }
 
-  private boolean shouldUseCompression(PrometheusHttpRequest request) {
+  @Nullable
+  private ContentEncoding selectContentEncoding(PrometheusHttpRequest request) {
     if (preferUncompressedResponse) {
-      return false;
-    }
-
-    Enumeration<String> encodingHeaders = request.getHeaders("Accept-Encoding");
-    if (encodingHeaders == null) {
-      return false;
-    }
-    while (encodingHeaders.hasMoreElements()) {
-      String encodingHeader = encodingHeaders.nextElement();
-      String[] encodings = encodingHeader.split(",");
-      for (String encoding : encodings) {
-        if (encoding.trim().equalsIgnoreCase("gzip")) {
-          return true;
-        }
-      }
+      return null;
     }
-    return false;
+    return contentEncodings.negotiate(request.getHeaders("Accept-Encoding"));
   }
 }
@@ -0,0 +1,102 @@
+package io.prometheus.metrics.exporter.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Encoded responses of the {@link PrometheusScrapeHandler}, see {@link
+ * io.prometheus.metrics.config.ExporterHttpServerProperties#isCoalesceConcurrentScrapes()} and
+ * {@link
+ * io.prometheus.metrics.config.ExporterHttpServerProperties#getScrapeCacheMaxAgeMilliseconds()}.
+ *
+ * <p>The first request for a key encodes the response, concurrent requests for the same key wait
+ * for that response. If {@code maxAgeMillis > 0}, the response is kept and returned for requests
+ * within {@code maxAgeMillis} after it was encoded.
+ */
+final class ScrapeCache {
+
+  // The key contains the query string, so limit the number of responses kept.
+  private static final int MAX_ENTRIES = 64;
+
+  interface Encoder {
+    Response encode() throws IOException;
+  }
+
+  static final class Response {
+    final byte[] body;
+    @Nullable final ContentEncoding contentEncoding;
+
+    Response(byte[] body, @Nullable ContentEncoding contentEncoding) {
+      this.body = body;
+      this.contentEncoding = contentEncoding;
+    }
+  }
+
+  private final long maxAgeNanos;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  ScrapeCache(long maxAgeMillis) {
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+  }
+
+  @SuppressWarnings("ReferenceEquality") // identity of the entry we created
+  Response get(String key, Encoder encoder) throws IOException {
+    long now = System.nanoTime();
+    Entry created = new Entry();
+    Entry entry = entries.compute(key, (k, e) -> e != null && !e.isExpired(now) ? e : created);
+    if (entry != created) {
+      return entry.await();
+    }
+    Response response;
+    try {
+      response = encoder.encode();
+    } catch (IOException | RuntimeException | Error e) {
+      entries.remove(key, created);
+      created.future.completeExceptionally(e);
+      throw e;
+    }
+    created.encodedAt = System.nanoTime();
+    created.future.complete(response);
+    if (maxAgeNanos == 0 || entries.size() > MAX_ENTRIES) {
+      entries.remove(key, created);
+    }
+    if (maxAgeNanos > 0) {
+      long purgeTime = System.nanoTime();
+      entries.values().removeIf(e -> e.isExpired(purgeTime));
+    }
+    return response;
+  }
+
+  private class Entry {
+    private final CompletableFuture<Response> future = new CompletableFuture<>();
+    private volatile long encodedAt;
+
+    boolean isExpired(long now) {
+      return future.isDone() && now - encodedAt > maxAgeNanos;
+    }
+
+    Response await() throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a concurrent scrape.");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+}
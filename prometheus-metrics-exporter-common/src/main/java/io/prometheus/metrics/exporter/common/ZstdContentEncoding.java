@@ -0,0 +1,60 @@
+package io.prometheus.metrics.exporter.common;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+import com.github.luben.zstd.util.Native;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The {@code zstd} {@link ContentEncoding}. Requires the optional {@code com.github.luben:zstd-jni}
+ * dependency, which includes native libraries for the most common platforms.
+ */
+final class ZstdContentEncoding implements ContentEncoding {
+
+  private static final boolean AVAILABLE = isZstdAvailable();
+
+  private static boolean isZstdAvailable() {
+    try {
+      return ZstdJni.load();
+    } catch (LinkageError | RuntimeException e) {
+      // not in classpath, or no native library for this platform
+      return false;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "zstd";
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  @Override
+  public OutputStream encode(OutputStream out) throws IOException {
+    return ZstdJni.newOutputStream(out);
+  }
+
+  /**
+   * All references to zstd-jni are in this class, so that {@link ZstdContentEncoding} can be loaded
+   * if zstd-jni is not in the classpath.
+   */
+  private static final class ZstdJni {
+
+    // The zstd default level. Levels 1 to 3 are faster than gzip's default level, and result in
+    // smaller responses for the text format.
+    private static final int LEVEL = 3;
+
+    private static boolean load() {
+      Native.load();
+      return true;
+    }
+
+    private static OutputStream newOutputStream(OutputStream out) throws IOException {
+      return new ZstdOutputStreamNoFinalizer(out, RecyclingBufferPool.INSTANCE, LEVEL);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.prometheus.metrics.exporter.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ContentEncodingsTest {
+
+  private final ContentEncodings encodings =
+      new ContentEncodings(
+          Arrays.asList(
+              new TestEncoding("br", false),
+              new TestEncoding("zstd", true),
+              new TestEncoding("gzip", true)));
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      nullValues = "none",
+      value = {
+        "gzip | gzip",
+        "GZIP | gzip",
+        "zstd | zstd",
+        "'gzip, zstd' | zstd",
+        "'gzip, deflate, br' | gzip",
+        "br | none",
+        "deflate | none",
+        "'' | none",
+        "* | zstd",
+        "'zstd;q=0.5, gzip' | gzip",
+        "'zstd;q=0.5, gzip;q=0.8' | gzip",
+        "'zstd; q=0.9, gzip;q=0.8' | zstd",
+        "'zstd;Q=1.0, gzip;q=1' | zstd",
+        "'gzip;q=0, *' | zstd",
+        "'zstd;q=0, *;q=0.1' | gzip",
+        "'*;q=0' | none",
+        "'gzip;q=0' | none",
+        "'gzip;q=0.5, identity' | none",
+        "'gzip, identity;q=0.5' | gzip",
+        "'gzip;q=2' | none",
+        "'gzip;q=invalid' | none",
+        "'identity;q=0' | none",
+      })
+  void negotiate(String acceptEncoding, String expected) {
+    ContentEncoding result =
+        encodings.negotiate(Collections.enumeration(Collections.singletonList(acceptEncoding)));
+    if (expected == null) {
+      assertThat(result).isNull();
+    } else {
+      assertThat(result).isNotNull();
+      assertThat(result.getName()).isEqualTo(expected);
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({"gzip;q=0.5, zstd;q=0.4, gzip", "zstd;q=0.5, gzip;q=0.5, zstd"})
+  void negotiateMultipleHeaders(String first, String second, String expected) {
+    List<String> headers = Arrays.asList(first, second);
+    assertThat(encodings.negotiate(Collections.enumeration(headers)).getName()).isEqualTo(expected);
+  }
+
+  private static class TestEncoding implements ContentEncoding {
+    private final String name;
+    private final boolean available;
+
+    TestEncoding(String name, boolean available) {
+      this.name = name;
+      this.available = available;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public boolean isAvailable() {
+      return available;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) {
+      return out;
+    }
+  }
+}
@@ -1,17 +1,44 @@
 package io.prometheus.metrics.exporter.common;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
+import com.github.luben.zstd.ZstdInputStream;
+import io.prometheus.metrics.config.ExporterHttpServerProperties;
+import io.prometheus.metrics.config.ExporterProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.model.registry.Collector;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.registry.PrometheusScrapeRequest;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -78,6 +105,237 @@ class PrometheusScrapeHandlerTest {
     assertThat(decompressed).contains("test_counter");
   }
 
+  @Test
+  void testGzipCompressionLevel() throws IOException {
+    for (int level : new int[] {0, 1, 9}) {
+      PrometheusScrapeHandler levelHandler =
+          handler(ExporterHttpServerProperties.builder().compressionLevel(level).build());
+      // repeat to re-use pooled deflaters
+      for (int i = 0; i < 3; i++) {
+        TestHttpExchange exchange =
+            new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip");
+        levelHandler.handleRequest(exchange);
+        assertThat(exchange.isGzipCompressed()).isTrue();
+        assertThat(exchange.getDecompressedBody()).contains("test_counter_total 5.0");
+      }
+    }
+  }
+
+  @Test
+  void testBufferCompressedResponse() throws IOException {
+    PrometheusScrapeHandler bufferingHandler =
+        handler(ExporterHttpServerProperties.builder().bufferCompressedResponse(true).build());
+    for (int i = 0; i < 3; i++) {
+      TestHttpExchange exchange =
+          new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip");
+      bufferingHandler.handleRequest(exchange);
+      assertThat(exchange.isGzipCompressed()).isTrue();
+      assertThat(exchange.getResponseHeaders().get("Content-Length"))
+          .isEqualTo(String.valueOf(exchange.rawResponseBody.size()));
+      assertThat(exchange.getDecompressedBody()).contains("test_counter_total 5.0");
+    }
+  }
+
+  @Test
+  void testCollectorThrows() {
+    registry.register(
+        (Collector)
+            () -> {
+              throw new IllegalStateException("collector failed");
+            });
+    PrometheusScrapeHandler bufferingHandler =
+        handler(ExporterHttpServerProperties.builder().bufferCompressedResponse(true).build());
+    for (PrometheusScrapeHandler h : new PrometheusScrapeHandler[] {handler, bufferingHandler}) {
+      for (String acceptEncoding : new String[] {"identity", "gzip"}) {
+        TestHttpExchange exchange =
+            new TestHttpExchange("GET", null).withHeader("Accept-Encoding", acceptEncoding);
+        assertThatExceptionOfType(IllegalStateException.class)
+            .isThrownBy(() -> h.handleRequest(exchange))
+            .withMessage("collector failed");
+        // The headers were not sent, so the exchange can still respond with an error.
+        assertThat(exchange.getResponseCode()).isZero();
+        assertThat(exchange.rawResponseBody.size()).isZero();
+      }
+    }
+  }
+
+  @Test
+  void testStreamingResponse() throws IOException {
+    AtomicReference<TestHttpExchange> current = new AtomicReference<>();
+    List<Integer> responseCodes = new ArrayList<>();
+    GaugeWithCallback.builder()
+        .name("z_gauge")
+        .callback(
+            callback -> {
+              responseCodes.add(current.get().getResponseCode());
+              callback.call(1.0);
+            })
+        .register(registry);
+    PrometheusScrapeHandler streamingHandler =
+        handler(ExporterHttpServerProperties.builder().bufferUncompressedResponse(false).build());
+    for (String acceptEncoding : new String[] {"identity", "gzip"}) {
+      TestHttpExchange exchange =
+          new TestHttpExchange("GET", null).withHeader("Accept-Encoding", acceptEncoding);
+      current.set(exchange);
+      streamingHandler.handleRequest(exchange);
+      assertThat(exchange.getResponseCode()).isEqualTo(200);
+      assertThat(exchange.getResponseHeaders()).doesNotContainKey("Content-Length");
+      assertThat(exchange.getDecompressedBody())
+          .contains("test_counter_total 5.0")
+          .contains("z_gauge 1.0");
+    }
+    // test_counter is collected before the headers are sent, z_gauge after.
+    assertThat(responseCodes).containsExactly(200, 200);
+  }
+
+  @Test
+  void testStreamingResponseTruncated() {
+    GaugeWithCallback.builder()
+        .name("z_gauge")
+        .callback(
+            callback -> {
+              throw new IllegalStateException("collector failed");
+            })
+        .register(registry);
+    PrometheusScrapeHandler streamingHandler =
+        handler(ExporterHttpServerProperties.builder().bufferUncompressedResponse(false).build());
+    TestHttpExchange exchange = new TestHttpExchange("GET", null);
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> streamingHandler.handleRequest(exchange))
+        .withMessage("collector failed");
+    // The headers were already sent, so the client gets a truncated 200 response.
+    assertThat(exchange.getResponseCode()).isEqualTo(200);
+  }
+
+  @Test
+  void testRegistrySubclass() {
+    PrometheusRegistry customRegistry =
+        new PrometheusRegistry() {
+          @Override
+          public Iterator<MetricSnapshots> scrapeIncrementally(
+              Predicate<String> includedNames, PrometheusScrapeRequest scrapeRequest) {
+            throw new IllegalStateException("scrapeIncrementally");
+          }
+
+          @Override
+          public MetricSnapshots scrapeInParallel(
+              Predicate<String> includedNames,
+              PrometheusScrapeRequest scrapeRequest,
+              Executor executor,
+              Duration collectorTimeout) {
+            throw new IllegalStateException("scrapeInParallel");
+          }
+        };
+    for (ExporterHttpServerProperties properties :
+        Arrays.asList(
+            ExporterHttpServerProperties.builder().build(),
+            ExporterHttpServerProperties.builder().bufferCompressedResponse(true).build(),
+            ExporterHttpServerProperties.builder().bufferUncompressedResponse(false).build())) {
+      PrometheusScrapeHandler h =
+          new PrometheusScrapeHandler(
+              PrometheusProperties.builder().exporterHttpServerProperties(properties).build(),
+              customRegistry);
+      for (String acceptEncoding : new String[] {"identity", "gzip"}) {
+        assertThatExceptionOfType(IllegalStateException.class)
+            .isThrownBy(
+                () ->
+                    h.handleRequest(
+                        new TestHttpExchange("GET", null)
+                            .withHeader("Accept-Encoding", acceptEncoding)))
+            .withMessage("scrapeIncrementally");
+      }
+    }
+    PrometheusScrapeHandler parallelHandler =
+        new PrometheusScrapeHandler(
+            PrometheusProperties.builder()
+                .exporterProperties(
+                    ExporterProperties.builder().parallelCollectionThreads(2).build())
+                .build(),
+            customRegistry);
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(() -> parallelHandler.handleRequest(new TestHttpExchange("GET", null)))
+        .withMessage("scrapeInParallel");
+  }
+
+  @Test
+  void testCompressionMinSize() throws IOException {
+    int uncompressedSize = handle(new TestHttpExchange("GET", null)).rawResponseBody.size();
+
+    TestHttpExchange small =
+        new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip");
+    handler(
+            ExporterHttpServerProperties.builder()
+                .compressionMinSizeBytes(uncompressedSize + 1)
+                .build())
+        .handleRequest(small);
+    assertThat(small.isGzipCompressed()).isFalse();
+    assertThat(small.getResponseHeaders().get("Content-Length"))
+        .isEqualTo(String.valueOf(uncompressedSize));
+    assertThat(small.getResponseBody()).contains("test_counter_total 5.0");
+
+    TestHttpExchange large =
+        new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip");
+    handler(
+            ExporterHttpServerProperties.builder()
+                .compressionMinSizeBytes(uncompressedSize)
+                .build())
+        .handleRequest(large);
+    assertThat(large.isGzipCompressed()).isTrue();
+    assertThat(large.getDecompressedBody()).contains("test_counter_total 5.0");
+
+    TestHttpExchange cached =
+        new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip");
+    handler(
+            ExporterHttpServerProperties.builder()
+                .compressionMinSizeBytes(uncompressedSize + 1)
+                .scrapeCacheMaxAgeMilliseconds(60_000)
+                .build())
+        .handleRequest(cached);
+    assertThat(cached.isGzipCompressed()).isFalse();
+    assertThat(cached.getResponseBody()).contains("test_counter_total 5.0");
+  }
+
+  @Test
+  void testZstdCompression() throws IOException {
+    PrometheusScrapeHandler bufferingHandler =
+        handler(ExporterHttpServerProperties.builder().bufferCompressedResponse(true).build());
+    for (PrometheusScrapeHandler h : new PrometheusScrapeHandler[] {handler, bufferingHandler}) {
+      TestHttpExchange exchange =
+          new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip, zstd");
+      h.handleRequest(exchange);
+
+      assertThat(exchange.getResponseCode()).isEqualTo(200);
+      assertThat(exchange.getResponseHeaders().get("Content-Encoding")).isEqualTo("zstd");
+      try (ZstdInputStream in =
+          new ZstdInputStream(new ByteArrayInputStream(exchange.rawResponseBody.toByteArray()))) {
+        assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+            .contains("test_counter_total 5.0");
+      }
+    }
+  }
+
+  @Test
+  void testAcceptEncodingQualityValues() throws IOException {
+    TestHttpExchange exchange =
+        handle(new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "zstd;q=0.5, gzip"));
+    assertThat(exchange.isGzipCompressed()).isTrue();
+    assertThat(exchange.getDecompressedBody()).contains("test_counter_total 5.0");
+
+    exchange = handle(new TestHttpExchange("GET", null).withHeader("Accept-Encoding", "gzip;q=0"));
+    assertThat(exchange.getResponseHeaders()).doesNotContainKey("Content-Encoding");
+    assertThat(exchange.getResponseBody()).contains("test_counter_total 5.0");
+  }
+
+  private PrometheusScrapeHandler handler(ExporterHttpServerProperties properties) {
+    return new PrometheusScrapeHandler(
+        PrometheusProperties.builder().exporterHttpServerProperties(properties).build(), registry);
+  }
+
+  private TestHttpExchange handle(TestHttpExchange exchange) throws IOException {
+    handler.handleRequest(exchange);
+    return exchange;
+  }
+
   @Test
   void testMultipleAcceptEncodingHeaders() throws IOException {
     TestHttpExchange exchange =
@@ -164,6 +422,225 @@ class PrometheusScrapeHandlerTest {
     assertThat(body).doesNotContain("metric_three");
   }
 
+  @Test
+  void testParallelCollection() throws IOException {
+    PrometheusProperties config =
+        PrometheusProperties.builder()
+            .exporterProperties(
+                ExporterProperties.builder()
+                    .parallelCollectionThreads(2)
+                    .collectorTimeout(Duration.ofMillis(200))
+                    .build())
+            .build();
+    registry.register(
+        (Collector)
+            () -> {
+              try {
+                Thread.sleep(60_000);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return GaugeSnapshot.builder().name("slow_gauge").build();
+            });
+    Counter.builder().name("another_counter").register(registry).inc();
+    PrometheusScrapeHandler parallelHandler = new PrometheusScrapeHandler(config, registry);
+
+    TestHttpExchange exchange = new TestHttpExchange("GET", null);
+    parallelHandler.handleRequest(exchange);
+
+    assertThat(exchange.getResponseCode()).isEqualTo(200);
+    assertThat(exchange.getResponseBody())
+        .contains("test_counter_total 5.0")
+        .contains("another_counter_total 1.0")
+        .doesNotContain("slow_gauge");
+  }
+
+  @Test
+  void testCollectionExecutor() throws IOException {
+    AtomicInteger tasks = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      PrometheusScrapeHandler parallelHandler =
+          new PrometheusScrapeHandler(
+              PrometheusProperties.get(),
+              registry,
+              task -> {
+                tasks.incrementAndGet();
+                executor.execute(task);
+              });
+      TestHttpExchange exchange = new TestHttpExchange("GET", null);
+      parallelHandler.handleRequest(exchange);
+      assertThat(exchange.getResponseBody()).contains("test_counter_total 5.0");
+      assertThat(tasks.get()).isOne();
+
+      // The executor belongs to the caller.
+      parallelHandler.close();
+      assertThat(executor.isShutdown()).isFalse();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testCloseShutsDownCollectionThreads() throws IOException {
+    PrometheusScrapeHandler parallelHandler =
+        new PrometheusScrapeHandler(
+            PrometheusProperties.builder()
+                .exporterProperties(
+                    ExporterProperties.builder().parallelCollectionThreads(2).build())
+                .build(),
+            registry);
+    parallelHandler.handleRequest(new TestHttpExchange("GET", null));
+    parallelHandler.close();
+    assertThatExceptionOfType(RejectedExecutionException.class)
+        .isThrownBy(() -> parallelHandler.handleRequest(new TestHttpExchange("GET", null)));
+  }
+
+  @Test
+  void testScrapeCacheMaxAge() throws IOException {
+    PrometheusScrapeHandler cachingHandler =
+        new PrometheusScrapeHandler(
+            PrometheusProperties.builder()
+                .exporterHttpServerProperties(
+                    ExporterHttpServerProperties.builder()
+                        .scrapeCacheMaxAgeMilliseconds(60_000)
+                        .build())
+                .build(),
+            registry);
+
+    TestHttpExchange first = new TestHttpExchange("GET", null);
+    cachingHandler.handleRequest(first);
+    testCounter.inc();
+    TestHttpExchange second = new TestHttpExchange("GET", null);
+    cachingHandler.handleRequest(second);
+    TestHttpExchange otherFormat =
+        new TestHttpExchange("GET", null).withHeader("Accept", "application/openmetrics-text");
+    cachingHandler.handleRequest(otherFormat);
+    TestHttpExchange otherQuery = new TestHttpExchange("GET", "name[]=test_counter");
+    cachingHandler.handleRequest(otherQuery);
+
+    assertThat(first.getResponseBody()).contains("test_counter_total 5.0");
+    assertThat(second.getResponseBody()).isEqualTo(first.getResponseBody());
+    assertThat(second.getResponseHeaders().get("Content-Length"))
+        .isEqualTo(String.valueOf(first.rawResponseBody.size()));
+    assertThat(otherFormat.getResponseBody()).contains("test_counter_total 6.0");
+    assertThat(otherQuery.getResponseBody()).contains("test_counter_total 6.0");
+  }
+
+  @Test
+  void testCoalesceConcurrentScrapes() throws Exception {
+    AtomicInteger collectCount = new AtomicInteger();
+    CountDownLatch collecting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    registry.register(
+        (Collector)
+            () -> {
+              collectCount.incrementAndGet();
+              collecting.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return GaugeSnapshot.builder().name("blocking_gauge").build();
+            });
+    PrometheusScrapeHandler coalescingHandler =
+        new PrometheusScrapeHandler(
+            PrometheusProperties.builder()
+                .exporterHttpServerProperties(
+                    ExporterHttpServerProperties.builder().coalesceConcurrentScrapes(true).build())
+                .build(),
+            registry);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      TestHttpExchange first = new TestHttpExchange("GET", null);
+      TestHttpExchange second = new TestHttpExchange("GET", null);
+      Future<?> firstResult = executor.submit(() -> handle(coalescingHandler, first));
+      assertThat(collecting.await(10, TimeUnit.SECONDS)).isTrue();
+      Future<?> secondResult = executor.submit(() -> handle(coalescingHandler, second));
+      // give the second request time to join the first one
+      Thread.sleep(100);
+      release.countDown();
+      firstResult.get(10, TimeUnit.SECONDS);
+      secondResult.get(10, TimeUnit.SECONDS);
+
+      assertThat(collectCount.get()).isOne();
+      assertThat(second.getResponseBody())
+          .isEqualTo(first.getResponseBody())
+          .contains("test_counter_total 5.0");
+
+      // Without max age, the response is not re-used after the scrape is complete.
+      coalescingHandler.handleRequest(new TestHttpExchange("GET", null));
+      assertThat(collectCount.get()).isEqualTo(2);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testCoalescedScrapesFail() throws Exception {
+    AtomicInteger collectCount = new AtomicInteger();
+    CountDownLatch collecting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    registry.register(
+        (Collector)
+            () -> {
+              if (collectCount.incrementAndGet() == 1) {
+                collecting.countDown();
+                try {
+                  release.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("collector failed");
+              }
+              return GaugeSnapshot.builder().name("blocking_gauge").build();
+            });
+    PrometheusScrapeHandler coalescingHandler =
+        handler(ExporterHttpServerProperties.builder().coalesceConcurrentScrapes(true).build());
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      TestHttpExchange first = new TestHttpExchange("GET", null);
+      TestHttpExchange second = new TestHttpExchange("GET", null);
+      Future<?> firstResult = executor.submit(() -> handle(coalescingHandler, first));
+      assertThat(collecting.await(10, TimeUnit.SECONDS)).isTrue();
+      Future<?> secondResult = executor.submit(() -> handle(coalescingHandler, second));
+      // give the second request time to join the first one
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<?> result : Arrays.asList(firstResult, secondResult)) {
+        assertThatExceptionOfType(ExecutionException.class)
+            .isThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+            .havingCause()
+            .isInstanceOf(IllegalStateException.class)
+            .withMessage("collector failed");
+      }
+      // Neither response was started, so both exchanges can still respond with an error.
+      assertThat(first.getResponseCode()).isZero();
+      assertThat(second.getResponseCode()).isZero();
+      assertThat(collectCount.get()).isOne();
+
+      // The failed scrape is not cached.
+      TestHttpExchange next = new TestHttpExchange("GET", null);
+      coalescingHandler.handleRequest(next);
+      assertThat(collectCount.get()).isEqualTo(2);
+      assertThat(next.getResponseCode()).isEqualTo(200);
+      assertThat(next.getResponseBody()).contains("test_counter_total 5.0");
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static Void handle(PrometheusScrapeHandler handler, TestHttpExchange exchange)
+      throws IOException {
+    handler.handleRequest(exchange);
+    return null;
+  }
+
   @Test
   void testRejectsTooManyQueryParameters() throws IOException {
     StringBuilder queryString = new StringBuilder("name[]=test_counter");
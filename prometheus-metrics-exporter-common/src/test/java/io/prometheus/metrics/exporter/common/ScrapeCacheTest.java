@@ -0,0 +1,116 @@
+package io.prometheus.metrics.exporter.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ScrapeCacheTest {
+
+  private final ScrapeCache cache = new ScrapeCache(0);
+  private final AtomicInteger encodeCount = new AtomicInteger();
+  private final CountDownLatch encoding = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void coalescedRequestsFailWithIOException() throws Exception {
+    IOException failure = new IOException("write failed");
+    for (Future<ScrapeCache.Response> result : coalesce(failure)) {
+      assertThatExceptionOfType(ExecutionException.class)
+          .isThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+          .withCause(failure);
+    }
+    assertThat(encodeCount.get()).isOne();
+    assertThat(cache.get("key", this::encode).body).isEqualTo(new byte[] {2});
+  }
+
+  @Test
+  void coalescedRequestsFailWithError() throws Exception {
+    Error failure = new OutOfMemoryError("out of memory");
+    for (Future<ScrapeCache.Response> result : coalesce(failure)) {
+      assertThatExceptionOfType(ExecutionException.class)
+          .isThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+          .withCause(failure);
+    }
+    assertThat(cache.get("key", this::encode).body).isEqualTo(new byte[] {2});
+  }
+
+  @Test
+  void interruptedWhileWaiting() throws Exception {
+    Future<ScrapeCache.Response> first = executor.submit(() -> cache.get("key", this::encode));
+    assertThat(encoding.await(10, TimeUnit.SECONDS)).isTrue();
+    Thread.currentThread().interrupt();
+    assertThatExceptionOfType(InterruptedIOException.class)
+        .isThrownBy(() -> cache.get("key", this::encode));
+    assertThat(Thread.interrupted()).isTrue();
+    release.countDown();
+    assertThat(first.get(10, TimeUnit.SECONDS).body).isEqualTo(new byte[] {1});
+  }
+
+  @Test
+  void maxAge() throws IOException {
+    release.countDown();
+    ScrapeCache caching = new ScrapeCache(60_000);
+    assertThat(caching.get("key", this::encode).body).isEqualTo(new byte[] {1});
+    assertThat(caching.get("key", this::encode).body).isEqualTo(new byte[] {1});
+    assertThat(caching.get("other", this::encode).body).isEqualTo(new byte[] {2});
+  }
+
+  /** Two concurrent requests for the same key, the first one fails with {@code failure}. */
+  private List<Future<ScrapeCache.Response>> coalesce(Throwable failure) throws Exception {
+    Future<ScrapeCache.Response> first =
+        executor.submit(
+            () ->
+                cache.get(
+                    "key",
+                    () -> {
+                      encode();
+                      if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                      }
+                      throw (Error) failure;
+                    }));
+    assertThat(encoding.await(10, TimeUnit.SECONDS)).isTrue();
+    Future<ScrapeCache.Response> second = executor.submit(() -> cache.get("key", this::encode));
+    // give the second request time to join the first one
+    Thread.sleep(100);
+    release.countDown();
+    return Arrays.asList(first, second);
+  }
+
+  private ScrapeCache.Response encode() throws IOException {
+    int count = encodeCount.incrementAndGet();
+    encoding.countDown();
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+    return new ScrapeCache.Response(new byte[] {(byte) count}, null);
+  }
+}
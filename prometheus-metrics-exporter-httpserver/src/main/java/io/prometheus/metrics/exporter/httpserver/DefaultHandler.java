@@ -78,6 +78,15 @@ public class DefaultHandler implements HttpHandler {
     this.contentType = "text/html; charset=utf-8";
   }
 
+  /** Used by the {@link NioHTTPServer}. */
+  byte[] getResponseBytes() {
+    return responseBytes;
+  }
+
+  String getContentType() {
+    return contentType;
+  }
+
   @Override
   public void handle(HttpExchange exchange) throws IOException {
     try {
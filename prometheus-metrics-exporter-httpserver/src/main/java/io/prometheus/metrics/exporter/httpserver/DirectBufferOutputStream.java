@@ -0,0 +1,108 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.annotation.Nullable;
+
+/**
+ * OutputStream writing to a list of direct {@link ByteBuffer ByteBuffers} from a {@link Pool}.
+ *
+ * <p>The {@link NioHTTPServer} encodes the response into this stream, and writes the buffers to the
+ * socket with a gathering write without copying them again. Not thread safe.
+ */
+final class DirectBufferOutputStream extends OutputStream {
+
+  private final Pool pool;
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+  @Nullable private ByteBuffer current;
+  private long size;
+
+  DirectBufferOutputStream(Pool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public void write(int b) {
+    ensureRemaining().put((byte) b);
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    while (len > 0) {
+      ByteBuffer buffer = ensureRemaining();
+      int n = Math.min(len, buffer.remaining());
+      buffer.put(b, off, n);
+      off += n;
+      len -= n;
+      size += n;
+    }
+  }
+
+  /** Closing is a no-op, the buffers are returned to the pool with {@link #release()}. */
+  @Override
+  public void close() {}
+
+  long size() {
+    return size;
+  }
+
+  /** Flip the buffers for reading. No more bytes must be written after calling this. */
+  ByteBuffer[] flip() {
+    ByteBuffer[] result = new ByteBuffer[buffers.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (ByteBuffer) buffers.get(i).flip(); // cast for Java 8 compatibility
+    }
+    current = null;
+    return result;
+  }
+
+  /** Return the buffers to the pool. The stream is empty and can be written again. */
+  void release() {
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    buffers.clear();
+    current = null;
+    size = 0;
+  }
+
+  private ByteBuffer ensureRemaining() {
+    ByteBuffer buffer = current;
+    if (buffer == null || !buffer.hasRemaining()) {
+      buffer = pool.acquire();
+      buffers.add(buffer);
+      current = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Direct buffers of {@link #BUFFER_SIZE} bytes. At most {@code maxPooledBuffers} are kept for
+   * reuse, so the memory retained after a large scrape is bounded. Thread safe.
+   */
+  static final class Pool {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    Pool(int maxPooledBuffers) {
+      this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    ByteBuffer acquire() {
+      ByteBuffer buffer = buffers.poll();
+      return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void release(ByteBuffer buffer) {
+      buffer.clear();
+      buffers.offer(buffer);
+    }
+  }
+}
@@ -18,6 +18,7 @@ import java.net.InetSocketAddress;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -51,10 +52,12 @@ public class HTTPServer implements Closeable {
 
   protected final HttpServer server;
   protected final ExecutorService executorService;
+  private final MetricsHandler metricsHandler;
 
   private HTTPServer(
       PrometheusProperties config,
       ExecutorService executorService,
+      @Nullable Executor collectionExecutor,
       HttpServer httpServer,
       PrometheusRegistry registry,
       @Nullable Authenticator authenticator,
@@ -83,11 +86,8 @@ public class HTTPServer implements Closeable {
     } catch (IllegalArgumentException e) {
       // context metricsPath not registered yet, ignore
     }
-    registerHandler(
-        metricsPath,
-        new MetricsHandler(config, registry),
-        authenticator,
-        authenticatedSubjectAttributeName);
+    this.metricsHandler = new MetricsHandler(config, registry, collectionExecutor);
+    registerHandler(metricsPath, metricsHandler, authenticator, authenticatedSubjectAttributeName);
     if (registerHealthHandler == null || registerHealthHandler) {
       registerHandler(
           "/-/healthy", new HealthyHandler(), authenticator, authenticatedSubjectAttributeName);
@@ -179,6 +179,7 @@ public class HTTPServer implements Closeable {
   public void close() {
     server.stop(0);
     executorService.shutdown(); // Free any (parked/idle) threads in pool
+    metricsHandler.close();
   }
 
   /**
@@ -204,6 +205,7 @@ public class HTTPServer implements Closeable {
     @Nullable private String hostname = null;
     @Nullable private InetAddress inetAddress = null;
     @Nullable private ExecutorService executorService = null;
+    @Nullable private Executor collectionExecutor = null;
     @Nullable private PrometheusRegistry registry = null;
     @Nullable private Authenticator authenticator = null;
     @Nullable private String authenticatedSubjectAttributeName = null;
@@ -244,12 +246,27 @@ public class HTTPServer implements Closeable {
       return this;
     }
 
-    /** Optional: ExecutorService used by the {@code httpServer}. */
+    /**
+     * Optional: ExecutorService used by the {@code httpServer}. Default is a pool of up to 10
+     * daemon threads, or a virtual thread per request if {@code
+     * io.prometheus.exporter.http_server.use_virtual_threads} is {@code true} on Java 21+.
+     */
     public Builder executorService(ExecutorService executorService) {
       this.executorService = executorService;
       return this;
     }
 
+    /**
+     * Optional: Executor for calling collectors in parallel during a scrape, for example a {@link
+     * java.util.concurrent.ForkJoinPool}. The executor is not shut down when the server is closed.
+     * Default is a pool with {@code io.prometheus.exporter.parallel_collection_threads} threads if
+     * configured, otherwise collectors are called one after the other.
+     */
+    public Builder collectionExecutor(Executor collectionExecutor) {
+      this.collectionExecutor = collectionExecutor;
+      return this;
+    }
+
     /** Optional: Default is {@link PrometheusRegistry#defaultRegistry}. */
     public Builder registry(PrometheusRegistry registry) {
       this.registry = registry;
@@ -312,6 +329,7 @@ public class HTTPServer implements Closeable {
       return new HTTPServer(
           config,
           executorService,
+          collectionExecutor,
           httpServer,
           registry,
           authenticator,
@@ -335,16 +353,23 @@ public class HTTPServer implements Closeable {
     private ExecutorService makeExecutorService() {
       if (executorService != null) {
         return executorService;
-      } else {
-        return new ThreadPoolExecutor(
-            1,
-            10,
-            120,
-            TimeUnit.SECONDS,
-            new SynchronousQueue<>(true),
-            NamedDaemonThreadFactory.defaultThreadFactory(true),
-            new BlockingRejectedExecutionHandler());
       }
+      if (config != null
+          && config.getExporterHttpServerProperties() != null
+          && config.getExporterHttpServerProperties().isUseVirtualThreads()) {
+        ExecutorService virtualThreads = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null) {
+          return virtualThreads;
+        }
+      }
+      return new ThreadPoolExecutor(
+          1,
+          10,
+          120,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<>(true),
+          NamedDaemonThreadFactory.defaultThreadFactory(true),
+          new BlockingRejectedExecutionHandler());
     }
 
     private int findPort() {
@@ -19,6 +19,15 @@ public class HealthyHandler implements HttpHandler {
     this.contentType = "text/plain; charset=utf-8";
   }
 
+  /** Used by the {@link NioHTTPServer}. */
+  byte[] getResponseBytes() {
+    return responseBytes;
+  }
+
+  String getContentType() {
+    return contentType;
+  }
+
   @Override
   public void handle(HttpExchange exchange) throws IOException {
     try {
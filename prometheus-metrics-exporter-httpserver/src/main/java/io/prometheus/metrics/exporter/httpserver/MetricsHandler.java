@@ -7,6 +7,8 @@ import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.exporter.common.PrometheusScrapeHandler;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 
 /** Handler for the /metrics endpoint */
 @StableApi
@@ -30,8 +32,24 @@ public class MetricsHandler implements HttpHandler {
     prometheusScrapeHandler = new PrometheusScrapeHandler(config, registry);
   }
 
+  /**
+   * See {@link PrometheusScrapeHandler#PrometheusScrapeHandler(PrometheusProperties,
+   * PrometheusRegistry, Executor)}.
+   */
+  public MetricsHandler(
+      PrometheusProperties config,
+      PrometheusRegistry registry,
+      @Nullable Executor collectionExecutor) {
+    prometheusScrapeHandler = new PrometheusScrapeHandler(config, registry, collectionExecutor);
+  }
+
   @Override
   public void handle(HttpExchange t) throws IOException {
     prometheusScrapeHandler.handleRequest(new HttpExchangeAdapter(t));
   }
+
+  /** See {@link PrometheusScrapeHandler#close()}. */
+  public void close() {
+    prometheusScrapeHandler.close();
+  }
 }
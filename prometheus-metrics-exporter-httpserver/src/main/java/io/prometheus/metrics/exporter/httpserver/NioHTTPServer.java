@@ -0,0 +1,679 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.exporter.common.PrometheusScrapeHandler;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Expose Prometheus metrics using a non-blocking HTTP/1.1 server based on Java NIO.
+ *
+ * <p>A single selector thread accepts connections, reads requests, and writes responses. Scrapes
+ * run on an {@link ExecutorService} and are encoded into pooled direct {@link ByteBuffer
+ * ByteBuffers}, which are written to the socket with gathering writes whenever the socket is
+ * writable. That way a slow client doesn't block a scrape thread, and the encoded response is not
+ * copied again on its way to the socket. Connections are kept alive between scrapes.
+ *
+ * <p>Compared to {@link HTTPServer}, the {@code NioHTTPServer} supports GET and HEAD requests to
+ * the {@code /metrics} (configurable), {@code /-/healthy}, and {@code /} endpoints, but neither
+ * authentication, nor TLS, nor custom handlers.
+ *
+ * <p>Example Usage:
+ *
+ * <pre>{@code
+ * NioHTTPServer server = NioHTTPServer.builder()
+ *     .port(9090)
+ *     .buildAndStart();
+ * }</pre>
+ */
+public class NioHTTPServer implements Closeable {
+
+  /** Maximum size of the request line and headers. Larger requests are rejected with 431. */
+  static final int MAX_REQUEST_HEAD_SIZE = 8 * 1024;
+
+  /** Idle connections, and connections not making progress, are closed after this time. */
+  private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  private static final int MAX_POOLED_BUFFERS = 32;
+  private static final String HEALTH_PATH = "/-/healthy";
+  private static final Map<String, String> ALLOW_GET_HEAD =
+      Collections.singletonMap("Allow", "GET, HEAD");
+
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ExecutorService executorService;
+  private final PrometheusScrapeHandler scrapeHandler;
+  private final String metricsPath;
+  @Nullable private final HealthyHandler healthyHandler;
+  private final DefaultHandler defaultHandler;
+  private final DirectBufferOutputStream.Pool bufferPool =
+      new DirectBufferOutputStream.Pool(MAX_POOLED_BUFFERS);
+  private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+  private final Thread selectorThread;
+  private final int port;
+  private volatile boolean running = true;
+
+  private NioHTTPServer(
+      PrometheusProperties config,
+      ExecutorService executorService,
+      @Nullable Executor collectionExecutor,
+      ServerSocketChannel serverChannel,
+      PrometheusRegistry registry,
+      @Nullable String metricsHandlerPath,
+      @Nullable Boolean registerHealthHandler)
+      throws IOException {
+    this.serverChannel = serverChannel;
+    this.executorService = executorService;
+    this.port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    this.scrapeHandler = new PrometheusScrapeHandler(config, registry, collectionExecutor);
+    this.metricsPath = getMetricsPath(metricsHandlerPath);
+    this.healthyHandler =
+        registerHealthHandler == null || registerHealthHandler ? new HealthyHandler() : null;
+    this.defaultHandler = new DefaultHandler(metricsPath);
+    this.selector = Selector.open();
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    this.selectorThread = NamedDaemonThreadFactory.defaultThreadFactory(true).newThread(this::run);
+    selectorThread.start();
+  }
+
+  private static String getMetricsPath(@Nullable String metricsHandlerPath) {
+    if (metricsHandlerPath == null) {
+      return "/metrics";
+    }
+    if (!metricsHandlerPath.startsWith("/")) {
+      return "/" + metricsHandlerPath;
+    }
+    return metricsHandlerPath;
+  }
+
+  private void run() {
+    long nextIdleCheck = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    try {
+      while (running) {
+        selector.select(1000);
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+          task.run();
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else {
+            ((Connection) key.attachment()).handle();
+          }
+        }
+        selector.selectedKeys().clear();
+        long now = System.nanoTime();
+        if (now - nextIdleCheck > 0) {
+          closeIdleConnections(now);
+          nextIdleCheck = now + TimeUnit.SECONDS.toNanos(1);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      Logger.getLogger(this.getClass().getName())
+          .log(Level.SEVERE, "The Prometheus metrics NioHTTPServer stopped unexpectedly.", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection) {
+          ((Connection) key.attachment()).close();
+        }
+      }
+      closeQuietly(selector);
+      closeQuietly(serverChannel);
+    }
+  }
+
+  private void accept() {
+    SocketChannel channel = null;
+    try {
+      channel = serverChannel.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new Connection(channel, key));
+    } catch (IOException e) {
+      // The client will see the connection closed, there's nothing else we can do.
+      if (channel != null) {
+        closeQuietly(channel);
+      }
+    }
+  }
+
+  private void closeIdleConnections(long now) {
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Connection) {
+        Connection connection = (Connection) key.attachment();
+        if (!connection.processing && now - connection.lastActivity > IDLE_TIMEOUT_NANOS) {
+          connection.close();
+        }
+      }
+    }
+  }
+
+  /** Run the task on the selector thread. */
+  private void runOnSelector(Runnable task) {
+    selectorTasks.add(task);
+    selector.wakeup();
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  /** State of a client connection. Only accessed by the selector thread. */
+  private final class Connection {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    // Bounded: Requests with a larger head are rejected, and the body is skipped.
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_REQUEST_HEAD_SIZE);
+    private long bodyBytesToSkip;
+    private boolean keepAlive;
+    // true while the scrape is running on the executor, the key has no interest ops meanwhile
+    private boolean processing;
+    @Nullable private ByteBuffer[] writeBuffers;
+    @Nullable private NioHttpExchange exchange;
+    private long lastActivity = System.nanoTime();
+
+    private Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    void handle() {
+      try {
+        if (key.isReadable()) {
+          read();
+        }
+        if (key.isValid() && key.isWritable()) {
+          write();
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+      }
+    }
+
+    private void read() throws IOException {
+      if (processing || writeBuffers != null) {
+        return;
+      }
+      if (channel.read(readBuffer) < 0) {
+        close();
+        return;
+      }
+      lastActivity = System.nanoTime();
+      processInput();
+    }
+
+    private void processInput() {
+      if (!channel.isOpen() || processing || writeBuffers != null) {
+        return;
+      }
+      if (bodyBytesToSkip > 0) {
+        int skip = (int) Math.min(bodyBytesToSkip, readBuffer.position());
+        discard(skip);
+        bodyBytesToSkip -= skip;
+        if (bodyBytesToSkip > 0) {
+          return;
+        }
+      }
+      int headLength = indexOfEmptyLine(readBuffer.array(), readBuffer.position());
+      if (headLength < 0) {
+        if (!readBuffer.hasRemaining()) {
+          keepAlive = false;
+          sendText(431, "Request header fields too large.\n");
+        }
+        return;
+      }
+      String head = new String(readBuffer.array(), 0, headLength, ISO_8859_1);
+      discard(headLength + 4);
+      handleRequest(head);
+    }
+
+    private void handleRequest(String head) {
+      keepAlive = false;
+      String[] lines = head.split("\r\n");
+      String[] requestLine = lines[0].split(" ");
+      if (requestLine.length != 3) {
+        sendText(400, "Bad request.\n");
+        return;
+      }
+      String version = requestLine[2];
+      if (!version.startsWith("HTTP/1.")) {
+        sendText(505, "HTTP version not supported.\n");
+        return;
+      }
+      Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      for (int i = 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon <= 0) {
+          sendText(400, "Bad request.\n");
+          return;
+        }
+        headers
+            .computeIfAbsent(lines[i].substring(0, colon).trim(), name -> new ArrayList<>())
+            .add(lines[i].substring(colon + 1).trim());
+      }
+      if (headers.containsKey("Transfer-Encoding")) {
+        sendText(501, "Chunked request bodies are not supported.\n");
+        return;
+      }
+      List<String> contentLength = headers.get("Content-Length");
+      if (contentLength != null) {
+        try {
+          bodyBytesToSkip = Long.parseLong(contentLength.get(0));
+        } catch (NumberFormatException e) {
+          bodyBytesToSkip = -1;
+        }
+        if (bodyBytesToSkip < 0) {
+          bodyBytesToSkip = 0;
+          sendText(400, "Invalid Content-Length.\n");
+          return;
+        }
+      }
+      List<String> connection = headers.get("Connection");
+      String connectionHeader =
+          connection == null ? "" : connection.get(0).toLowerCase(Locale.ROOT);
+      if (version.equals("HTTP/1.0")) {
+        keepAlive = connectionHeader.contains("keep-alive");
+      } else {
+        keepAlive = !connectionHeader.contains("close");
+      }
+      dispatch(requestLine[0], requestLine[1], headers);
+    }
+
+    private void dispatch(String method, String target, Map<String, List<String>> headers) {
+      boolean head = method.equals("HEAD");
+      if (!head && !method.equals("GET")) {
+        send(405, ALLOW_GET_HEAD, "Method not allowed.\n".getBytes(UTF_8), false);
+        return;
+      }
+      int qx = target.indexOf('?');
+      String path = qx == -1 ? target : target.substring(0, qx);
+      if (healthyHandler != null && path.startsWith(HEALTH_PATH)) {
+        sendHandlerResponse(
+            healthyHandler.getContentType(), healthyHandler.getResponseBytes(), head);
+      } else if (path.startsWith(metricsPath)) {
+        scrape(method, target, headers);
+      } else {
+        sendHandlerResponse(
+            defaultHandler.getContentType(), defaultHandler.getResponseBytes(), head);
+      }
+    }
+
+    private void scrape(String method, String target, Map<String, List<String>> headers) {
+      NioHttpExchange exchange =
+          new NioHttpExchange(
+              method,
+              target,
+              headers,
+              bufferPool,
+              completed -> runOnSelector(() -> responseReady(completed)));
+      processing = true;
+      // Stop selecting this connection until the response is ready. Otherwise the selector would
+      // spin on pipelined input or on a client that closed the connection.
+      key.interestOps(0);
+      try {
+        executorService.execute(
+            () -> {
+              try {
+                scrapeHandler.handleRequest(exchange);
+              } catch (IOException e) {
+                // not thrown, because NioHttpExchange.handleException() doesn't throw
+                exchange.close();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        processing = false;
+        sendText(503, "Too many concurrent scrapes.\n");
+      }
+    }
+
+    private void responseReady(NioHttpExchange exchange) {
+      processing = false;
+      // startWriting() restores the interest ops, or closes the connection if the client is gone.
+      startWriting(exchange.responseBuffers(keepAlive), exchange);
+    }
+
+    private void sendText(int statusCode, String message) {
+      send(
+          statusCode,
+          Collections.singletonMap("Content-Type", "text/plain; charset=utf-8"),
+          message.getBytes(UTF_8),
+          false);
+    }
+
+    private void sendHandlerResponse(String contentType, byte[] body, boolean head) {
+      send(200, Collections.singletonMap("Content-Type", contentType), body, head);
+    }
+
+    private void send(int statusCode, Map<String, String> headers, byte[] body, boolean head) {
+      ByteBuffer responseHead =
+          NioHttpExchange.responseHead(statusCode, headers, body.length, keepAlive);
+      if (head) {
+        startWriting(new ByteBuffer[] {responseHead}, null);
+      } else {
+        startWriting(new ByteBuffer[] {responseHead, ByteBuffer.wrap(body)}, null);
+      }
+    }
+
+    private void startWriting(ByteBuffer[] buffers, @Nullable NioHttpExchange exchange) {
+      if (!channel.isOpen()) {
+        if (exchange != null) {
+          exchange.release();
+        }
+        return;
+      }
+      this.writeBuffers = buffers;
+      this.exchange = exchange;
+      try {
+        write();
+      } catch (IOException | RuntimeException e) {
+        close();
+      }
+    }
+
+    private void write() throws IOException {
+      ByteBuffer[] buffers = writeBuffers;
+      if (buffers == null) {
+        key.interestOps(SelectionKey.OP_READ);
+        return;
+      }
+      channel.write(buffers);
+      lastActivity = System.nanoTime();
+      if (hasRemaining(buffers)) {
+        // The socket's send buffer is full, continue when the socket is writable again.
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+      writeBuffers = null;
+      if (exchange != null) {
+        exchange.release();
+        exchange = null;
+      }
+      if (!keepAlive) {
+        close();
+        return;
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      if (readBuffer.position() > 0) {
+        // pipelined request
+        runOnSelector(this::processInput);
+      }
+    }
+
+    void close() {
+      key.cancel();
+      closeQuietly(channel);
+      writeBuffers = null;
+      if (exchange != null) {
+        exchange.release();
+        exchange = null;
+      }
+    }
+
+    /** Remove the first {@code n} bytes from the read buffer. */
+    private void discard(int n) {
+      readBuffer.flip();
+      readBuffer.position(n);
+      readBuffer.compact();
+    }
+  }
+
+  /** Length of the request head, i.e. the index of the first {@code "\r\n\r\n"}, or -1. */
+  private static int indexOfEmptyLine(byte[] bytes, int length) {
+    for (int i = 0; i + 3 < length; i++) {
+      if (bytes[i] == '\r'
+          && bytes[i + 1] == '\n'
+          && bytes[i + 2] == '\r'
+          && bytes[i + 3] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean hasRemaining(ByteBuffer[] buffers) {
+    for (int i = buffers.length - 1; i >= 0; i--) {
+      if (buffers[i].hasRemaining()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Stop the HTTP server. Same as {@link #close()}. */
+  public void stop() {
+    close();
+  }
+
+  /** Stop the NioHTTPServer. Same as {@link #stop()}. */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+    if (!Thread.currentThread().equals(selectorThread)) {
+      try {
+        selectorThread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    executorService.shutdown(); // Free any (parked/idle) threads in pool
+    scrapeHandler.close();
+  }
+
+  /**
+   * Gets the port number. This is useful if you did not specify a port and the server picked a free
+   * port automatically.
+   */
+  public int getPort() {
+    return port;
+  }
+
+  public static Builder builder() {
+    return new Builder(PrometheusProperties.get());
+  }
+
+  public static Builder builder(PrometheusProperties config) {
+    return new Builder(config);
+  }
+
+  public static class Builder {
+
+    private final PrometheusProperties config;
+    @Nullable private Integer port = null;
+    @Nullable private String hostname = null;
+    @Nullable private InetAddress inetAddress = null;
+    @Nullable private ExecutorService executorService = null;
+    @Nullable private Executor collectionExecutor = null;
+    @Nullable private PrometheusRegistry registry = null;
+    @Nullable private String metricsHandlerPath = null;
+    @Nullable private Boolean registerHealthHandler = null;
+
+    private Builder(PrometheusProperties config) {
+      this.config = config;
+    }
+
+    /**
+     * Port to bind to. Default is 0, indicating that a random port will be selected. You can learn
+     * the randomly selected port by calling {@link NioHTTPServer#getPort()}.
+     */
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Use this hostname to resolve the IP address to bind to. Must not be called together with
+     * {@link #inetAddress(InetAddress)}. Default is empty, indicating that the server binds to the
+     * wildcard address.
+     */
+    public Builder hostname(String hostname) {
+      this.hostname = hostname;
+      return this;
+    }
+
+    /**
+     * Bind to this IP address. Must not be called together with {@link #hostname(String)}. Default
+     * is empty, indicating that the server binds to the wildcard address.
+     */
+    public Builder inetAddress(InetAddress address) {
+      this.inetAddress = address;
+      return this;
+    }
+
+    /**
+     * Optional: ExecutorService for running scrapes. Requests and responses are handled by the
+     * selector thread. If the executor rejects a scrape, the server responds with HTTP 503. Default
+     * is a pool of up to 10 daemon threads, or a virtual thread per scrape if {@code
+     * io.prometheus.exporter.http_server.use_virtual_threads} is {@code true} on Java 21+.
+     */
+    public Builder executorService(ExecutorService executorService) {
+      this.executorService = executorService;
+      return this;
+    }
+
+    /**
+     * Optional: Executor for calling collectors in parallel during a scrape, see {@link
+     * HTTPServer.Builder#collectionExecutor(Executor)}.
+     */
+    public Builder collectionExecutor(Executor collectionExecutor) {
+      this.collectionExecutor = collectionExecutor;
+      return this;
+    }
+
+    /** Optional: Default is {@link PrometheusRegistry#defaultRegistry}. */
+    public Builder registry(PrometheusRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    /** Optional: Override default path for the metrics endpoint. Default is {@code /metrics}. */
+    public Builder metricsHandlerPath(String metricsHandlerPath) {
+      this.metricsHandlerPath = metricsHandlerPath;
+      return this;
+    }
+
+    /** Optional: Override if the health handler should be registered. Default is {@code true}. */
+    public Builder registerHealthHandler(boolean registerHealthHandler) {
+      this.registerHealthHandler = registerHealthHandler;
+      return this;
+    }
+
+    /** Build and start the NioHTTPServer. */
+    public NioHTTPServer buildAndStart() throws IOException {
+      if (registry == null) {
+        registry = PrometheusRegistry.defaultRegistry;
+      }
+      InetSocketAddress address = makeInetSocketAddress();
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      try {
+        serverChannel.bind(address);
+        return new NioHTTPServer(
+            config,
+            makeExecutorService(),
+            collectionExecutor,
+            serverChannel,
+            registry,
+            metricsHandlerPath,
+            registerHealthHandler);
+      } catch (IOException | RuntimeException e) {
+        closeQuietly(serverChannel);
+        throw e;
+      }
+    }
+
+    private InetSocketAddress makeInetSocketAddress() {
+      if (inetAddress != null) {
+        assertNull(hostname, "cannot configure 'inetAddress' and 'hostname' at the same time");
+        return new InetSocketAddress(inetAddress, findPort());
+      } else if (hostname != null) {
+        return new InetSocketAddress(hostname, findPort());
+      } else {
+        return new InetSocketAddress(findPort());
+      }
+    }
+
+    private ExecutorService makeExecutorService() {
+      if (executorService != null) {
+        return executorService;
+      }
+      if (config != null
+          && config.getExporterHttpServerProperties() != null
+          && config.getExporterHttpServerProperties().isUseVirtualThreads()) {
+        ExecutorService virtualThreads = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        if (virtualThreads != null) {
+          return virtualThreads;
+        }
+      }
+      // No BlockingRejectedExecutionHandler: The selector thread must not block.
+      return new ThreadPoolExecutor(
+          1,
+          10,
+          120,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<>(true),
+          NamedDaemonThreadFactory.defaultThreadFactory(true));
+    }
+
+    private int findPort() {
+      if (config != null && config.getExporterHttpServerProperties() != null) {
+        Integer port = config.getExporterHttpServerProperties().getPort();
+        if (port != null) {
+          return port;
+        }
+      }
+      if (port != null) {
+        return port;
+      }
+      return 0; // random port will be selected
+    }
+
+    private void assertNull(@Nullable Object o, String msg) {
+      if (o != null) {
+        throw new IllegalStateException(msg);
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import io.prometheus.metrics.exporter.common.PrometheusHttpExchange;
+import io.prometheus.metrics.exporter.common.PrometheusHttpRequest;
+import io.prometheus.metrics.exporter.common.PrometheusHttpResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * {@link PrometheusHttpExchange} for the {@link NioHTTPServer}.
+ *
+ * <p>The response is buffered in a {@link DirectBufferOutputStream}. Nothing is written to the
+ * socket until the exchange is closed, so an exception during the scrape always results in an HTTP
+ * 500 response, even if the response headers were already "sent".
+ */
+final class NioHttpExchange implements PrometheusHttpExchange {
+
+  private final String method;
+  private final String requestPath;
+  @Nullable private final String queryString;
+  private final Map<String, List<String>> requestHeaders;
+  private final DirectBufferOutputStream body;
+  private final Consumer<NioHttpExchange> onClose;
+  private final Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final HttpRequest request = new HttpRequest();
+  private final HttpResponse response = new HttpResponse();
+  private int statusCode = 0; // 0 means not sent yet
+  private boolean closed = false;
+
+  /**
+   * @param requestHeaders must use case-insensitive keys
+   * @param onClose called with this exchange when the response is complete
+   */
+  NioHttpExchange(
+      String method,
+      String requestTarget,
+      Map<String, List<String>> requestHeaders,
+      DirectBufferOutputStream.Pool bufferPool,
+      Consumer<NioHttpExchange> onClose) {
+    this.method = method;
+    int qx = requestTarget.indexOf('?');
+    this.requestPath = qx == -1 ? requestTarget : requestTarget.substring(0, qx);
+    this.queryString = qx == -1 ? null : requestTarget.substring(qx + 1);
+    this.requestHeaders = requestHeaders;
+    this.body = new DirectBufferOutputStream(bufferPool);
+    this.onClose = onClose;
+  }
+
+  private class HttpRequest implements PrometheusHttpRequest {
+
+    @Override
+    @SuppressWarnings("NullAway") // null if there is no query string, like the Servlet API
+    public String getQueryString() {
+      return queryString;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      List<String> headers = requestHeaders.get(name);
+      if (headers == null) {
+        return Collections.emptyEnumeration();
+      } else {
+        return Collections.enumeration(headers);
+      }
+    }
+
+    @Override
+    public String getMethod() {
+      return method;
+    }
+
+    @Override
+    public String getRequestPath() {
+      return requestPath;
+    }
+  }
+
+  private class HttpResponse implements PrometheusHttpResponse {
+
+    @Override
+    public void setHeader(String name, String value) {
+      responseHeaders.put(name, value);
+    }
+
+    @Override
+    public OutputStream sendHeadersAndGetBody(int statusCode, int contentLength)
+        throws IOException {
+      if (NioHttpExchange.this.statusCode != 0) {
+        throw new IOException("Cannot send multiple HTTP responses for a single HTTP exchange.");
+      }
+      NioHttpExchange.this.statusCode = statusCode;
+      return body;
+    }
+  }
+
+  @Override
+  public PrometheusHttpRequest getRequest() {
+    return request;
+  }
+
+  @Override
+  public PrometheusHttpResponse getResponse() {
+    return response;
+  }
+
+  @Override
+  public void handleException(IOException e) {
+    sendErrorResponseWithStackTrace(e);
+  }
+
+  @Override
+  public void handleException(RuntimeException e) {
+    sendErrorResponseWithStackTrace(e);
+  }
+
+  private void sendErrorResponseWithStackTrace(Exception requestHandlerException) {
+    body.release();
+    responseHeaders.clear();
+    responseHeaders.put("Content-Type", "text/plain; charset=utf-8");
+    statusCode = 500;
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    printWriter.write("An Exception occurred while scraping metrics: ");
+    requestHandlerException.printStackTrace(new PrintWriter(printWriter));
+    byte[] stackTrace = stringWriter.toString().getBytes(StandardCharsets.UTF_8);
+    body.write(stackTrace, 0, stackTrace.length);
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (statusCode == 0) {
+      statusCode = 500;
+    }
+    onClose.accept(this);
+  }
+
+  /**
+   * The response as buffers to be written to the socket: The response head followed by the direct
+   * buffers with the body. Call {@link #release()} when the buffers are written.
+   */
+  ByteBuffer[] responseBuffers(boolean keepAlive) {
+    if (method.equals("HEAD")) {
+      // The scrape handler sets the Content-Length header for HEAD requests if it is known.
+      long contentLength = -1;
+      String header = responseHeaders.get("Content-Length");
+      if (header != null) {
+        try {
+          contentLength = Long.parseLong(header);
+        } catch (NumberFormatException e) {
+          // ignore, don't send a Content-Length
+        }
+      }
+      return new ByteBuffer[] {responseHead(statusCode, responseHeaders, contentLength, keepAlive)};
+    }
+    ByteBuffer[] chunks = body.flip();
+    ByteBuffer[] result = new ByteBuffer[chunks.length + 1];
+    result[0] = responseHead(statusCode, responseHeaders, body.size(), keepAlive);
+    System.arraycopy(chunks, 0, result, 1, chunks.length);
+    return result;
+  }
+
+  /** Return the body buffers to the pool. */
+  void release() {
+    body.release();
+  }
+
+  /**
+   * Status line and headers. {@code Content-Length} and {@code Connection} are set here and ignored
+   * in {@code headers}. A negative {@code contentLength} means no {@code Content-Length} header.
+   */
+  static ByteBuffer responseHead(
+      int statusCode, Map<String, String> headers, long contentLength, boolean keepAlive) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("HTTP/1.1 ").append(statusCode).append(' ').append(reasonPhrase(statusCode));
+    sb.append("\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      String name = header.getKey();
+      if (!name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Connection")) {
+        sb.append(name).append(": ").append(header.getValue()).append("\r\n");
+      }
+    }
+    if (contentLength >= 0) {
+      sb.append("Content-Length: ").append(contentLength).append("\r\n");
+    }
+    if (!keepAlive) {
+      sb.append("Connection: close\r\n");
+    }
+    sb.append("\r\n");
+    return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static String reasonPhrase(int statusCode) {
+    switch (statusCode) {
+      case 200:
+        return "OK";
+      case 400:
+        return "Bad Request";
+      case 404:
+        return "Not Found";
+      case 405:
+        return "Method Not Allowed";
+      case 431:
+        return "Request Header Fields Too Large";
+      case 500:
+        return "Internal Server Error";
+      case 501:
+        return "Not Implemented";
+      case 503:
+        return "Service Unavailable";
+      case 505:
+        return "HTTP Version Not Supported";
+      default:
+        return "";
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+
+/**
+ * Access to {@code Executors.newVirtualThreadPerTaskExecutor()} via reflection, so that this
+ * library still runs on Java 8. See {@code ExporterHttpServerProperties.isUseVirtualThreads()}.
+ */
+final class VirtualThreads {
+
+  @Nullable
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR =
+      findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+  private VirtualThreads() {}
+
+  /**
+   * The static factory method {@code methodName} of {@code factoryClass}, or {@code null} if it
+   * doesn't exist or doesn't return a working {@link ExecutorService}.
+   */
+  @Nullable
+  // VisibleForTesting
+  static Method findMethod(Class<?> factoryClass, String methodName) {
+    try {
+      Method method = factoryClass.getMethod(methodName);
+      // Java 19 and 20 have the method, but throw an Exception if preview features are disabled.
+      ((ExecutorService) method.invoke(null)).shutdown();
+      return method;
+    } catch (NoSuchMethodException
+        | IllegalAccessException
+        | InvocationTargetException
+        | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A new executor that starts a virtual thread for each task, or {@code null} if virtual threads
+   * are not supported by this JVM.
+   */
+  @Nullable
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    return newExecutor(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR);
+  }
+
+  @Nullable
+  // VisibleForTesting
+  static ExecutorService newExecutor(@Nullable Method factoryMethod) {
+    if (factoryMethod == null) {
+      return null;
+    }
+    try {
+      return (ExecutorService) factoryMethod.invoke(null);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      return null;
+    }
+  }
+}
@@ -8,6 +8,9 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpPrincipal;
 import com.sun.net.httpserver.HttpsConfigurator;
+import io.prometheus.metrics.config.ExporterHttpServerProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.model.registry.Collector;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import io.prometheus.metrics.model.registry.PrometheusScrapeRequest;
 import io.prometheus.metrics.model.snapshots.CounterSnapshot;
@@ -23,8 +26,18 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import javax.net.ssl.SSLContext;
 import javax.security.auth.Subject;
 import org.junit.jupiter.api.BeforeEach;
@@ -130,6 +143,32 @@ class HTTPServerTest {
         "my_counter_total 1.0");
   }
 
+  @Test
+  void metricsCollectionExecutor() throws Exception {
+    AtomicInteger tasks = new AtomicInteger();
+    ExecutorService collectionExecutor = Executors.newSingleThreadExecutor();
+    try {
+      run(
+          HTTPServer.builder()
+              .port(0)
+              .registry(registry)
+              .collectionExecutor(
+                  task -> {
+                    tasks.incrementAndGet();
+                    collectionExecutor.execute(task);
+                  })
+              .buildAndStart(),
+          "/metrics",
+          200,
+          "my_counter_total 1.0");
+      assertThat(tasks.get()).isOne();
+      // stopping the server does not shut down the executor
+      assertThat(collectionExecutor.isShutdown()).isFalse();
+    } finally {
+      collectionExecutor.shutdownNow();
+    }
+  }
+
   @Test
   void metricsCustomPath() throws Exception {
     run(
@@ -169,6 +208,12 @@ class HTTPServerTest {
                   public MetricSnapshots scrape(PrometheusScrapeRequest scrapeRequest) {
                     throw new IllegalStateException("test");
                   }
+
+                  @Override
+                  public Iterator<MetricSnapshots> scrapeIncrementally(
+                      Predicate<String> includedNames, PrometheusScrapeRequest scrapeRequest) {
+                    throw new IllegalStateException("test");
+                  }
                 })
             .buildAndStart();
     run(server, "/metrics", 500, "An Exception occurred while scraping metrics");
@@ -234,6 +279,53 @@ class HTTPServerTest {
         "");
   }
 
+  @Test
+  void virtualThreads() throws Exception {
+    // Each scrape blocks until all scrapes are running, which requires a thread per connection.
+    int connections = 200;
+    CountDownLatch allScrapesRunning = new CountDownLatch(connections);
+    Set<Boolean> isVirtual = ConcurrentHashMap.newKeySet();
+    PrometheusRegistry blockingRegistry = new PrometheusRegistry();
+    blockingRegistry.register(
+        (Collector)
+            () -> {
+              isVirtual.add(Thread.currentThread().isVirtual());
+              allScrapesRunning.countDown();
+              try {
+                allScrapesRunning.await(60, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return registry.scrape().get(0);
+            });
+    PrometheusProperties config =
+        PrometheusProperties.builder()
+            .exporterHttpServerProperties(
+                ExporterHttpServerProperties.builder().useVirtualThreads(true).build())
+            .build();
+    HTTPServer server =
+        HTTPServer.builder(config).port(0).registry(blockingRegistry).buildAndStart();
+    // we cannot use try-with-resources or even client.close(), or the test will fail with Java 17
+    @SuppressWarnings("resource")
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    try {
+      URI uri = URI.create("http://localhost:%s/metrics".formatted(server.getPort()));
+      List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+      for (int i = 0; i < connections; i++) {
+        responses.add(
+            client.sendAsync(
+                HttpRequest.newBuilder().uri(uri).build(), HttpResponse.BodyHandlers.ofString()));
+      }
+      for (CompletableFuture<HttpResponse<String>> response : responses) {
+        assertThat(response.get(120, TimeUnit.SECONDS).body()).contains("my_counter_total 1.0");
+      }
+      assertThat(allScrapesRunning.getCount()).isZero();
+      assertThat(isVirtual).containsExactly(true);
+    } finally {
+      server.stop();
+    }
+  }
+
   private static void run(
       HTTPServer server, String path, int expectedStatusCode, String expectedBody)
       throws Exception {
@@ -3,6 +3,7 @@ package io.prometheus.metrics.exporter.httpserver;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.RETURNS_MOCKS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import io.prometheus.metrics.config.PrometheusProperties;
@@ -31,6 +32,7 @@ class MetricsHandlerTest {
         .extracting("registry")
         .isEqualTo(PrometheusRegistry.defaultRegistry);
 
-    verify(properties).getExporterProperties();
+    // once for the exposition formats, once for the collection settings
+    verify(properties, times(2)).getExporterProperties();
   }
 }
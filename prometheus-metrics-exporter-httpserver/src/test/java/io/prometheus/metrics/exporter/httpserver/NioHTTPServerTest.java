@@ -0,0 +1,419 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import io.prometheus.metrics.model.registry.Collector;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.registry.PrometheusScrapeRequest;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NioHTTPServerTest {
+
+  private PrometheusRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    final MetricMetadata metadata = new MetricMetadata("my-counter");
+    final CounterDataPointSnapshot dataPointSnapshot =
+        new CounterDataPointSnapshot(1.0, Labels.EMPTY, null, System.currentTimeMillis());
+
+    registry = new PrometheusRegistry();
+    registry.register(() -> new CounterSnapshot(metadata, List.of(dataPointSnapshot)));
+  }
+
+  @Test
+  void defaultHandler() throws Exception {
+    run(
+        NioHTTPServer.builder().port(0).buildAndStart(),
+        "/",
+        200,
+        "<title>Prometheus Java Client</title>");
+  }
+
+  @Test
+  void metrics() throws Exception {
+    run(
+        NioHTTPServer.builder()
+            .port(0)
+            .registry(registry)
+            .executorService(Executors.newFixedThreadPool(1))
+            .buildAndStart(),
+        "/metrics",
+        200,
+        "my_counter_total 1.0");
+  }
+
+  @Test
+  void metricsCollectionExecutor() throws Exception {
+    AtomicInteger tasks = new AtomicInteger();
+    ExecutorService collectionExecutor = Executors.newSingleThreadExecutor();
+    try {
+      run(
+          NioHTTPServer.builder()
+              .port(0)
+              .registry(registry)
+              .collectionExecutor(
+                  task -> {
+                    tasks.incrementAndGet();
+                    collectionExecutor.execute(task);
+                  })
+              .buildAndStart(),
+          "/metrics",
+          200,
+          "my_counter_total 1.0");
+      assertThat(tasks.get()).isOne();
+      // stopping the server does not shut down the executor
+      assertThat(collectionExecutor.isShutdown()).isFalse();
+    } finally {
+      collectionExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  void metricsCustomPath() throws Exception {
+    run(
+        NioHTTPServer.builder()
+            .port(0)
+            .registry(registry)
+            .metricsHandlerPath("my-metrics")
+            .buildAndStart(),
+        "/my-metrics?name[]=my_counter_total",
+        200,
+        "my_counter_total 1.0");
+  }
+
+  @Test
+  void registryThrows() throws Exception {
+    NioHTTPServer server =
+        NioHTTPServer.builder()
+            .port(0)
+            .registry(
+                new PrometheusRegistry() {
+                  @Override
+                  public MetricSnapshots scrape(PrometheusScrapeRequest scrapeRequest) {
+                    throw new IllegalStateException("test");
+                  }
+
+                  @Override
+                  public Iterator<MetricSnapshots> scrapeIncrementally(
+                      Predicate<String> includedNames, PrometheusScrapeRequest scrapeRequest) {
+                    throw new IllegalStateException("test");
+                  }
+                })
+            .buildAndStart();
+    run(server, "/metrics", 500, "An Exception occurred while scraping metrics");
+  }
+
+  @Test
+  void health() throws Exception {
+    run(NioHTTPServer.builder().port(0).buildAndStart(), "/-/healthy", 200, "Exporter is healthy.");
+  }
+
+  @Test
+  void healthDisabled() throws Exception {
+    run(
+        NioHTTPServer.builder().port(0).registerHealthHandler(false).buildAndStart(),
+        "/-/healthy",
+        200,
+        "<title>Prometheus Java Client</title>");
+  }
+
+  @Test
+  @SuppressWarnings("resource")
+  void config() {
+    assertThatExceptionOfType(IllegalStateException.class)
+        .isThrownBy(
+            () ->
+                NioHTTPServer.builder()
+                    .port(0)
+                    .hostname("localhost")
+                    .inetAddress(InetAddress.getByName("localhost"))
+                    .buildAndStart())
+        .withMessage("cannot configure 'inetAddress' and 'hostname' at the same time");
+  }
+
+  @Test
+  void keepAlive() throws Exception {
+    try (NioHTTPServer server = NioHTTPServer.builder().port(0).registry(registry).buildAndStart();
+        Socket socket = new Socket("localhost", server.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      InputStream in = socket.getInputStream();
+      for (int i = 0; i < 3; i++) {
+        out.write(request("GET", "/metrics", "").getBytes(ISO_8859_1));
+        out.flush();
+        Response response = readResponse(in, true);
+        assertThat(response.statusLine).isEqualTo("HTTP/1.1 200 OK");
+        assertThat(response.headers).doesNotContain("Connection: close");
+        assertThat(response.body).contains("my_counter_total 1.0");
+      }
+    }
+  }
+
+  @Test
+  void pipelining() throws Exception {
+    try (NioHTTPServer server = NioHTTPServer.builder().port(0).registry(registry).buildAndStart();
+        Socket socket = new Socket("localhost", server.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(
+          (request("GET", "/-/healthy", "")
+                  + request("HEAD", "/metrics", "")
+                  + request("GET", "/metrics", "Connection: close\r\n"))
+              .getBytes(ISO_8859_1));
+      out.flush();
+      InputStream in = socket.getInputStream();
+      assertThat(readResponse(in, true).body).isEqualTo("Exporter is healthy.\n");
+      Response head = readResponse(in, false);
+      assertThat(head.statusLine).isEqualTo("HTTP/1.1 200 OK");
+      assertThat(head.headers).contains("Content-Length: ");
+      Response last = readResponse(in, true);
+      assertThat(last.headers).contains("Connection: close");
+      assertThat(last.body).contains("my_counter_total 1.0");
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  void requestHeadTooLarge() throws Exception {
+    try (NioHTTPServer server = NioHTTPServer.builder().port(0).buildAndStart();
+        Socket socket = new Socket("localhost", server.getPort())) {
+      String header = "X-Large: " + "x".repeat(NioHTTPServer.MAX_REQUEST_HEAD_SIZE) + "\r\n";
+      socket.getOutputStream().write(request("GET", "/metrics", header).getBytes(ISO_8859_1));
+      InputStream in = socket.getInputStream();
+      assertThat(readResponse(in, true).statusLine)
+          .isEqualTo("HTTP/1.1 431 Request Header Fields Too Large");
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  void methodNotAllowed() throws Exception {
+    try (NioHTTPServer server = NioHTTPServer.builder().port(0).buildAndStart();
+        Socket socket = new Socket("localhost", server.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(
+          (request("POST", "/metrics", "Content-Length: 5\r\n") + "hello").getBytes(ISO_8859_1));
+      out.write(request("GET", "/-/healthy", "").getBytes(ISO_8859_1));
+      InputStream in = socket.getInputStream();
+      Response response = readResponse(in, true);
+      assertThat(response.statusLine).isEqualTo("HTTP/1.1 405 Method Not Allowed");
+      assertThat(response.headers).contains("Allow: GET, HEAD");
+      // the request body is skipped and the connection is still usable
+      assertThat(readResponse(in, true).body).isEqualTo("Exporter is healthy.\n");
+    }
+  }
+
+  @Test
+  void largeResponseWithGzip() throws Exception {
+    PrometheusRegistry largeRegistry = new PrometheusRegistry();
+    largeRegistry.register(
+        (Collector)
+            () -> {
+              CounterSnapshot.Builder builder = CounterSnapshot.builder().name("large");
+              for (int i = 0; i < 20_000; i++) {
+                builder.dataPoint(
+                    CounterDataPointSnapshot.builder()
+                        .labels(Labels.of("id", Integer.toString(i)))
+                        .value(i)
+                        .build());
+              }
+              return builder.build();
+            });
+    try (NioHTTPServer server =
+        NioHTTPServer.builder().port(0).registry(largeRegistry).buildAndStart()) {
+      HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+      URI uri = URI.create("http://localhost:%s/metrics".formatted(server.getPort()));
+      HttpResponse<String> plain =
+          client.send(
+              HttpRequest.newBuilder().uri(uri).build(), HttpResponse.BodyHandlers.ofString());
+      assertThat(plain.statusCode()).isEqualTo(200);
+      assertThat(plain.body()).contains("large_total{id=\"19999\"} 19999.0");
+      assertThat(plain.body().length()).isGreaterThan(4 * 64 * 1024);
+
+      HttpResponse<byte[]> gzip =
+          client.send(
+              HttpRequest.newBuilder().uri(uri).header("Accept-Encoding", "gzip").build(),
+              HttpResponse.BodyHandlers.ofByteArray());
+      assertThat(gzip.headers().firstValue("Content-Encoding")).hasValue("gzip");
+      assertThat(gzip.headers().firstValueAsLong("Content-Length")).hasValue(gzip.body().length);
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.body()))) {
+        assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(plain.body());
+      }
+    }
+  }
+
+  @Test
+  void concurrentConnections() throws Exception {
+    try (NioHTTPServer server =
+        NioHTTPServer.builder().port(0).registry(registry).buildAndStart()) {
+      List<Socket> sockets = new ArrayList<>();
+      try {
+        for (int i = 0; i < 20; i++) {
+          Socket socket = new Socket("localhost", server.getPort());
+          sockets.add(socket);
+          socket.getOutputStream().write(request("GET", "/metrics", "").getBytes(ISO_8859_1));
+        }
+        for (Socket socket : sockets) {
+          assertThat(readResponse(socket.getInputStream(), true).body)
+              .contains("my_counter_total 1.0");
+        }
+      } finally {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  void clientDisconnectsDuringScrape() throws Exception {
+    CountDownLatch scrapeStarted = new CountDownLatch(1);
+    CountDownLatch releaseScrape = new CountDownLatch(1);
+    PrometheusRegistry blockingRegistry = new PrometheusRegistry();
+    blockingRegistry.register(
+        (Collector)
+            () -> {
+              scrapeStarted.countDown();
+              try {
+                releaseScrape.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return CounterSnapshot.builder()
+                  .name("blocking")
+                  .dataPoint(CounterDataPointSnapshot.builder().value(1.0).build())
+                  .build();
+            });
+    Set<Thread> threadsBefore = Thread.getAllStackTraces().keySet();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (NioHTTPServer server =
+        NioHTTPServer.builder()
+            .port(0)
+            .registry(blockingRegistry)
+            .executorService(executor)
+            .buildAndStart()) {
+      Thread selectorThread =
+          Thread.getAllStackTraces().keySet().stream()
+              .filter(thread -> !threadsBefore.contains(thread))
+              .filter(thread -> thread.getName().startsWith("prometheus-http-"))
+              .findFirst()
+              .orElseThrow();
+      try (Socket socket = new Socket("localhost", server.getPort())) {
+        OutputStream out = socket.getOutputStream();
+        // the second, pipelined request is not read while the first one is being scraped
+        out.write(
+            (request("GET", "/metrics", "") + request("GET", "/-/healthy", ""))
+                .getBytes(ISO_8859_1));
+        out.flush();
+        assertThat(scrapeStarted.await(10, TimeUnit.SECONDS)).isTrue();
+      }
+      // The client is gone, and the scrape is still blocked. The selector must not spin.
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      long cpuBefore = threadMXBean.getThreadCpuTime(selectorThread.threadId());
+      Thread.sleep(500);
+      long cpuNanos = threadMXBean.getThreadCpuTime(selectorThread.threadId()) - cpuBefore;
+      assertThat(cpuNanos).isLessThan(TimeUnit.MILLISECONDS.toNanos(200));
+
+      releaseScrape.countDown();
+      try (Socket socket = new Socket("localhost", server.getPort())) {
+        socket.getOutputStream().write(request("GET", "/metrics", "").getBytes(ISO_8859_1));
+        assertThat(readResponse(socket.getInputStream(), true).body).contains("blocking_total 1.0");
+      }
+    } finally {
+      releaseScrape.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static String request(String method, String path, String extraHeaders) {
+    return method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n" + extraHeaders + "\r\n";
+  }
+
+  private static class Response {
+    final String statusLine;
+    final String headers;
+    final String body;
+
+    Response(String statusLine, String headers, String body) {
+      this.statusLine = statusLine;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  /** Minimal HTTP/1.1 response parser, the response must have a Content-Length. */
+  private static Response readResponse(InputStream in, boolean readBody) throws IOException {
+    ByteArrayOutputStream head = new ByteArrayOutputStream();
+    while (!head.toString(ISO_8859_1).endsWith("\r\n\r\n")) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of stream: " + head.toString(ISO_8859_1));
+      }
+      head.write(b);
+    }
+    String headString = head.toString(ISO_8859_1);
+    String statusLine = headString.substring(0, headString.indexOf("\r\n"));
+    int contentLength = 0;
+    for (String line : headString.split("\r\n")) {
+      if (line.startsWith("Content-Length: ")) {
+        contentLength = Integer.parseInt(line.substring("Content-Length: ".length()));
+      }
+    }
+    String body = "";
+    if (readBody) {
+      body = new String(in.readNBytes(contentLength), StandardCharsets.UTF_8);
+    }
+    return new Response(statusLine, headString, body);
+  }
+
+  private static void run(
+      NioHTTPServer server, String path, int expectedStatusCode, String expectedBody)
+      throws Exception {
+    // we cannot use try-with-resources or even client.close(), or the test will fail with Java 17
+    @SuppressWarnings("resource")
+    final HttpClient client = HttpClient.newBuilder().build();
+    try {
+      final URI uri = URI.create("http://localhost:%s%s".formatted(server.getPort(), path));
+      final HttpRequest request = HttpRequest.newBuilder().uri(uri).GET().build();
+
+      final HttpResponse<String> response =
+          client.send(request, HttpResponse.BodyHandlers.ofString());
+      assertThat(response.statusCode()).isEqualTo(expectedStatusCode);
+      assertThat(response.body()).contains(expectedBody);
+    } finally {
+      server.stop();
+    }
+  }
+}
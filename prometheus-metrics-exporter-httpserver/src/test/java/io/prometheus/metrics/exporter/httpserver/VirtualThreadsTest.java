@@ -0,0 +1,57 @@
+package io.prometheus.metrics.exporter.httpserver;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadsTest {
+
+  private static final AtomicInteger calls = new AtomicInteger();
+
+  public static ExecutorService supportedOnce() {
+    if (calls.incrementAndGet() > 1) {
+      throw new IllegalStateException("not supported anymore");
+    }
+    return Executors.newSingleThreadExecutor();
+  }
+
+  public static ExecutorService notSupported() {
+    // like Java 19 and 20 if preview features are disabled
+    throw new UnsupportedOperationException("preview features are disabled");
+  }
+
+  @Test
+  void newVirtualThreadPerTaskExecutor() throws Exception {
+    ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+    assertThat(executor).isNotNull();
+    try {
+      assertThat(executor.submit(() -> Thread.currentThread().isVirtual()).get()).isTrue();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void methodDoesNotExist() {
+    Method method = VirtualThreads.findMethod(Executors.class, "newFictionalExecutor");
+    assertThat(method).isNull();
+    assertThat(VirtualThreads.newExecutor(method)).isNull();
+  }
+
+  @Test
+  void methodNotSupported() {
+    assertThat(VirtualThreads.findMethod(VirtualThreadsTest.class, "notSupported")).isNull();
+  }
+
+  @Test
+  void invokeFails() {
+    calls.set(0);
+    Method method = VirtualThreads.findMethod(VirtualThreadsTest.class, "supportedOnce");
+    assertThat(method).isNotNull();
+    assertThat(VirtualThreads.newExecutor(method)).isNull();
+  }
+}
@@ -0,0 +1,154 @@
+package io.prometheus.metrics.exporter.servlet.javax;
+
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.exporter.common.PrometheusScrapeHandler;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Like {@link PrometheusMetricsServlet}, but the container thread is released immediately: Metrics
+ * are collected on a separate executor, and the response is written with non-blocking I/O, so slow
+ * clients don't block a container thread.
+ *
+ * <p>The servlet must be registered with async support, like {@code
+ * <async-supported>true</async-supported>} in {@code web.xml}. Otherwise, requests are handled
+ * synchronously like in {@link PrometheusMetricsServlet}. The container's async timeout applies to
+ * the entire scrape.
+ *
+ * <p>The default executor has up to 10 threads. If all threads are busy, the servlet responds with
+ * 503 Service Unavailable.
+ */
+public class AsyncPrometheusMetricsServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 0L;
+
+  private final transient PrometheusScrapeHandler handler;
+  private final transient ExecutorService executor;
+  private final boolean shutdownExecutor;
+
+  /** Default constructor. Uses the default PrometheusProperties and PrometheusRegistry. */
+  public AsyncPrometheusMetricsServlet() {
+    this(PrometheusProperties.get(), PrometheusRegistry.defaultRegistry);
+  }
+
+  /**
+   * Constructor with a custom PrometheusRegistry. Uses the default PrometheusProperties.
+   *
+   * @param registry the PrometheusRegistry to use
+   */
+  public AsyncPrometheusMetricsServlet(PrometheusRegistry registry) {
+    this(PrometheusProperties.get(), registry);
+  }
+
+  /**
+   * Constructor with custom PrometheusProperties. Uses the default PrometheusRegistry.
+   *
+   * @param config the PrometheusProperties to use
+   */
+  public AsyncPrometheusMetricsServlet(PrometheusProperties config) {
+    this(config, PrometheusRegistry.defaultRegistry);
+  }
+
+  /**
+   * Constructor with custom PrometheusProperties and PrometheusRegistry.
+   *
+   * @param config the PrometheusProperties to use
+   * @param registry the PrometheusRegistry to use
+   */
+  public AsyncPrometheusMetricsServlet(PrometheusProperties config, PrometheusRegistry registry) {
+    this(config, registry, null);
+  }
+
+  /**
+   * Constructor with custom PrometheusProperties, PrometheusRegistry, and executor.
+   *
+   * @param config the PrometheusProperties to use
+   * @param registry the PrometheusRegistry to use
+   * @param executor for collecting metrics. If {@code null}, a default executor is created and shut
+   *     down in {@link #destroy()}. A custom executor is not shut down.
+   */
+  public AsyncPrometheusMetricsServlet(
+      PrometheusProperties config,
+      PrometheusRegistry registry,
+      @Nullable ExecutorService executor) {
+    this.handler = new PrometheusScrapeHandler(config, registry);
+    this.shutdownExecutor = executor == null;
+    this.executor = executor != null ? executor : makeDefaultExecutor();
+  }
+
+  private static ExecutorService makeDefaultExecutor() {
+    AtomicInteger threadNumber = new AtomicInteger(1);
+    return new ThreadPoolExecutor(
+        1,
+        10,
+        120,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<>(),
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "prometheus-servlet-" + threadNumber.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (!request.isAsyncSupported()) {
+      handler.handleRequest(new HttpExchangeAdapter(request, response));
+      return;
+    }
+    AsyncContext asyncContext = request.startAsync();
+    try {
+      executor.execute(() -> scrape(asyncContext, request, response));
+    } catch (RejectedExecutionException e) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      asyncContext.complete();
+    }
+  }
+
+  private void scrape(
+      AsyncContext asyncContext, HttpServletRequest request, HttpServletResponse response) {
+    HttpExchangeAdapter.BufferedResponse bufferedResponse =
+        new HttpExchangeAdapter.BufferedResponse(response);
+    try {
+      handler.handleRequest(
+          new HttpExchangeAdapter(new HttpExchangeAdapter.Request(request), bufferedResponse));
+      bufferedResponse.writeAsync(asyncContext);
+    } catch (IOException | RuntimeException e) {
+      // There is no container thread to propagate the exception to.
+      log("Exception while scraping metrics", e);
+      try {
+        if (!response.isCommitted()) {
+          response.reset();
+          response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+      } catch (IOException | RuntimeException ignored) {
+        // the response is broken, nothing we can do
+      } finally {
+        asyncContext.complete();
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (shutdownExecutor) {
+      executor.shutdownNow();
+    }
+    handler.close();
+    super.destroy();
+  }
+}
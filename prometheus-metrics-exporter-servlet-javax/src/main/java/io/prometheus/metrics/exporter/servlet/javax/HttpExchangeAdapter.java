@@ -3,9 +3,13 @@ package io.prometheus.metrics.exporter.servlet.javax;
 import io.prometheus.metrics.exporter.common.PrometheusHttpExchange;
 import io.prometheus.metrics.exporter.common.PrometheusHttpRequest;
 import io.prometheus.metrics.exporter.common.PrometheusHttpResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Enumeration;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -26,8 +30,19 @@ public class HttpExchangeAdapter implements PrometheusHttpExchange {
    * @param response the HttpServletResponse to be adapted
    */
   public HttpExchangeAdapter(HttpServletRequest request, HttpServletResponse response) {
-    this.request = new Request(request);
-    this.response = new Response(response);
+    this(new Request(request), new Response(response));
+  }
+
+  /**
+   * Constructs a new HttpExchangeAdapter with the given Request and Response, like a {@link
+   * BufferedResponse}.
+   *
+   * @param request the adapted request
+   * @param response the adapted response
+   */
+  public HttpExchangeAdapter(Request request, Response response) {
+    this.request = request;
+    this.response = response;
   }
 
   /**
@@ -142,4 +157,81 @@ public class HttpExchangeAdapter implements PrometheusHttpExchange {
       return response.getOutputStream();
     }
   }
+
+  /**
+   * Like {@link Response}, but the body is written to a buffer, and sent with non-blocking I/O by
+   * {@link #writeAsync(AsyncContext)}. Used by the {@link AsyncPrometheusMetricsServlet}.
+   */
+  public static class BufferedResponse extends Response {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServletResponse response;
+    private final Buffer body = new Buffer();
+    private int contentLength = 0;
+
+    /**
+     * Constructs a new BufferedResponse with the given HttpServletResponse.
+     *
+     * @param response the HttpServletResponse to be adapted
+     */
+    public BufferedResponse(HttpServletResponse response) {
+      super(response);
+      this.response = response;
+    }
+
+    @Override
+    public OutputStream sendHeadersAndGetBody(int statusCode, int contentLength) {
+      this.contentLength = contentLength;
+      response.setStatus(statusCode);
+      return body;
+    }
+
+    /**
+     * Write the buffered body whenever the servlet output stream is ready, and complete the {@code
+     * asyncContext} when done. Returns immediately.
+     *
+     * @param asyncContext the async context of the request
+     * @throws IOException if the servlet output stream cannot be obtained
+     */
+    public void writeAsync(AsyncContext asyncContext) throws IOException {
+      // The length is known now even if the body was streamed, like a gzip response.
+      int length = body.size() > 0 ? body.size() : contentLength;
+      if (response.getHeader("Content-Length") == null && length > 0) {
+        response.setContentLength(length);
+      }
+      ServletOutputStream out = response.getOutputStream();
+      out.setWriteListener(
+          new WriteListener() {
+            private int offset = 0;
+
+            @Override
+            public void onWritePossible() throws IOException {
+              while (out.isReady()) {
+                if (offset == body.size()) {
+                  asyncContext.complete();
+                  return;
+                }
+                int length = Math.min(CHUNK_SIZE, body.size() - offset);
+                out.write(body.array(), offset, length);
+                offset += length;
+              }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+              // the client went away, nothing to do
+              asyncContext.complete();
+            }
+          });
+    }
+  }
+
+  /** Avoids copying the buffer for writing. */
+  private static class Buffer extends ByteArrayOutputStream {
+
+    private byte[] array() {
+      return buf;
+    }
+  }
 }
@@ -67,4 +67,10 @@ public class PrometheusMetricsServlet extends HttpServlet {
       throws IOException {
     handler.handleRequest(new HttpExchangeAdapter(request, response));
   }
+
+  @Override
+  public void destroy() {
+    handler.close();
+    super.destroy();
+  }
 }
@@ -0,0 +1,220 @@
+package io.prometheus.metrics.exporter.servlet.javax;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.prometheus.metrics.config.PrometheusProperties;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncPrometheusMetricsServletTest {
+
+  private PrometheusRegistry registry;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private AsyncContext asyncContext;
+  private final AtomicBoolean completed = new AtomicBoolean();
+  private TestOutputStream outputStream;
+  private QueuedExecutor executor;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    registry = new PrometheusRegistry();
+    Counter counter =
+        Counter.builder().name("test_counter").help("Test counter").register(registry);
+    counter.inc(42);
+    // a large response, so that it is written in multiple chunks
+    Counter large = Counter.builder().name("large").labelNames("id").register(registry);
+    for (int i = 0; i < 2000; i++) {
+      large.labelValues("id-" + i).inc();
+    }
+
+    request = mock(HttpServletRequest.class);
+    when(request.getQueryString()).thenReturn(null);
+    when(request.getMethod()).thenReturn("GET");
+    when(request.getHeaders("Accept-Encoding")).thenReturn(Collections.emptyEnumeration());
+    when(request.getHeaders("Accept")).thenReturn(Collections.emptyEnumeration());
+    when(request.getContextPath()).thenReturn("");
+    when(request.getServletPath()).thenReturn("/metrics");
+    when(request.getPathInfo()).thenReturn(null);
+    when(request.isAsyncSupported()).thenReturn(true);
+    asyncContext = mock(AsyncContext.class);
+    when(request.startAsync()).thenReturn(asyncContext);
+    doAnswer(
+            invocation -> {
+              completed.set(true);
+              return null;
+            })
+        .when(asyncContext)
+        .complete();
+
+    response = mock(HttpServletResponse.class);
+    outputStream = new TestOutputStream();
+    when(response.getOutputStream()).thenReturn(outputStream);
+
+    executor = new QueuedExecutor();
+  }
+
+  @Test
+  void testDoGetReleasesContainerThread() throws IOException {
+    AsyncPrometheusMetricsServlet servlet =
+        new AsyncPrometheusMetricsServlet(PrometheusProperties.get(), registry, executor);
+    servlet.doGet(request, response);
+
+    // nothing happened on the container thread
+    verify(response, never()).getOutputStream();
+    assertThat(executor.tasks).hasSize(1);
+
+    executor.tasks.get(0).run();
+    assertThat(outputStream.listener).isNotNull();
+    verify(asyncContext, never()).complete();
+
+    // the client is slow, write one chunk at a time
+    int chunks = 0;
+    while (!completed.get()) {
+      outputStream.ready = true;
+      outputStream.listener.onWritePossible();
+      chunks++;
+    }
+    assertThat(chunks).isGreaterThan(2);
+    verify(response).setContentLength(outputStream.body.size());
+    verify(response).setStatus(200);
+    String output = outputStream.body.toString(StandardCharsets.UTF_8);
+    assertThat(output).contains("test_counter_total 42.0");
+    assertThat(output).contains("large_total{id=\"id-1999\"} 1.0");
+  }
+
+  @Test
+  void testExecutorRejected() throws IOException {
+    AsyncPrometheusMetricsServlet servlet =
+        new AsyncPrometheusMetricsServlet(
+            PrometheusProperties.get(),
+            registry,
+            new QueuedExecutor() {
+              @Override
+              public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+              }
+            });
+    servlet.doGet(request, response);
+
+    verify(response).sendError(503);
+    verify(asyncContext).complete();
+  }
+
+  @Test
+  void testAsyncNotSupported() throws IOException {
+    when(request.isAsyncSupported()).thenReturn(false);
+    outputStream.ready = true;
+    AsyncPrometheusMetricsServlet servlet =
+        new AsyncPrometheusMetricsServlet(PrometheusProperties.get(), registry, executor);
+    servlet.doGet(request, response);
+
+    verify(request, never()).startAsync();
+    assertThat(executor.tasks).isEmpty();
+    assertThat(outputStream.body.toString(StandardCharsets.UTF_8))
+        .contains("test_counter_total 42.0");
+  }
+
+  @Test
+  void testDefaultExecutor() throws Exception {
+    AsyncPrometheusMetricsServlet servlet = new AsyncPrometheusMetricsServlet(registry);
+    servlet.doGet(request, response);
+    // wait for the scrape to finish on the default executor
+    for (int i = 0; i < 100 && outputStream.listener == null; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(outputStream.listener).isNotNull();
+    while (!completed.get()) {
+      outputStream.ready = true;
+      outputStream.listener.onWritePossible();
+    }
+    assertThat(outputStream.body.toString(StandardCharsets.UTF_8))
+        .contains("test_counter_total 42.0");
+    servlet.destroy();
+    verify(response, never()).sendError(anyInt());
+  }
+
+  /** Becomes not ready after each write, like a slow client. */
+  private static class TestOutputStream extends ServletOutputStream {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    volatile WriteListener listener;
+    boolean ready = false;
+
+    @Override
+    public void write(int b) {
+      body.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      body.write(b, off, len);
+      ready = listener == null;
+    }
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      this.listener = writeListener;
+    }
+  }
+
+  /** Runs tasks when the test says so. */
+  private static class QueuedExecutor extends AbstractExecutorService {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package io.prometheus.metrics.exporter.servlet.javax;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import io.prometheus.metrics.config.ExporterProperties;
+import io.prometheus.metrics.config.PrometheusProperties;
 import io.prometheus.metrics.core.metrics.Counter;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import java.io.ByteArrayOutputStream;
@@ -79,4 +82,18 @@ class PrometheusMetricsServletTest {
     PrometheusMetricsServlet servlet = new PrometheusMetricsServlet(registry);
     assertThat(servlet).isNotNull();
   }
+
+  @Test
+  void testDestroyShutsDownCollectionThreads() {
+    PrometheusMetricsServlet servlet =
+        new PrometheusMetricsServlet(
+            PrometheusProperties.builder()
+                .exporterProperties(
+                    ExporterProperties.builder().parallelCollectionThreads(2).build())
+                .build(),
+            registry);
+    assertThatCode(servlet::destroy).doesNotThrowAnyException();
+    // destroy() may be called again by some containers
+    assertThatCode(servlet::destroy).doesNotThrowAnyException();
+  }
 }
@@ -0,0 +1,553 @@
+package io.prometheus.metrics.expositionformats.internal;
+
+import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getSnapshotLabelName;
+
+import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.expositionformats.EncoderCache;
+import io.prometheus.metrics.expositionformats.TextFormatUtil;
+import io.prometheus.metrics.model.snapshots.ClassicHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.HistogramSnapshot.HistogramDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.InfoSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.Quantiles;
+import io.prometheus.metrics.model.snapshots.SnapshotEscaper;
+import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Writes the Prometheus protobuf format directly from {@link MetricSnapshot}s, without creating the
+ * generated {@code Metrics.MetricFamily} objects.
+ *
+ * <p>The output is the same as {@code convert(snapshot).writeDelimitedTo(out)} in {@link
+ * PrometheusProtobufWriterImpl}, byte for byte. Each metric family is encoded into a re-used buffer
+ * and then written to the output stream. Fields are written in field number order like the
+ * generated code does, see {@code metrics.proto} in <a
+ * href="https://github.com/prometheus/client_model">client_model</a> for the field numbers.
+ *
+ * <p>The encoded {@code name}, {@code help}, and {@code type} of each metric family and the encoded
+ * labels of each data point are cached in an {@link EncoderCache}.
+ */
+final class PrometheusProtobufStreamingWriter {
+
+  // Slot in the encoder cache for each metric family
+  private static final int HEADER = 0;
+  // Slot in the encoder cache for each data point
+  private static final int LABELS = 0;
+
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+  // MetricFamily
+  private static final int FAMILY_NAME = 1;
+  private static final int FAMILY_HELP = 2;
+  private static final int FAMILY_TYPE = 3;
+  private static final int FAMILY_METRIC = 4;
+
+  // MetricType
+  private static final int TYPE_COUNTER = 0;
+  private static final int TYPE_GAUGE = 1;
+  private static final int TYPE_SUMMARY = 2;
+  private static final int TYPE_UNTYPED = 3;
+  private static final int TYPE_HISTOGRAM = 4;
+  private static final int TYPE_GAUGE_HISTOGRAM = 5;
+
+  // Metric
+  private static final int METRIC_LABEL = 1;
+  private static final int METRIC_GAUGE = 2;
+  private static final int METRIC_COUNTER = 3;
+  private static final int METRIC_SUMMARY = 4;
+  private static final int METRIC_UNTYPED = 5;
+  private static final int METRIC_TIMESTAMP_MS = 6;
+  private static final int METRIC_HISTOGRAM = 7;
+
+  // LabelPair
+  private static final int LABEL_NAME = 1;
+  private static final int LABEL_VALUE = 2;
+
+  // Gauge, Untyped
+  private static final int VALUE = 1;
+
+  // Counter
+  private static final int COUNTER_VALUE = 1;
+  private static final int COUNTER_EXEMPLAR = 2;
+  private static final int COUNTER_CREATED_TIMESTAMP = 3;
+
+  // Summary
+  private static final int SUMMARY_SAMPLE_COUNT = 1;
+  private static final int SUMMARY_SAMPLE_SUM = 2;
+  private static final int SUMMARY_QUANTILE = 3;
+
+  // Quantile
+  private static final int QUANTILE_QUANTILE = 1;
+  private static final int QUANTILE_VALUE = 2;
+
+  // Histogram
+  private static final int HISTOGRAM_SAMPLE_COUNT = 1;
+  private static final int HISTOGRAM_SAMPLE_SUM = 2;
+  private static final int HISTOGRAM_BUCKET = 3;
+  private static final int HISTOGRAM_SCHEMA = 5;
+  private static final int HISTOGRAM_ZERO_THRESHOLD = 6;
+  private static final int HISTOGRAM_ZERO_COUNT = 7;
+  private static final int HISTOGRAM_NEGATIVE_SPAN = 9;
+  private static final int HISTOGRAM_NEGATIVE_DELTA = 10;
+  private static final int HISTOGRAM_POSITIVE_SPAN = 12;
+  private static final int HISTOGRAM_POSITIVE_DELTA = 13;
+
+  // Bucket
+  private static final int BUCKET_CUMULATIVE_COUNT = 1;
+  private static final int BUCKET_UPPER_BOUND = 2;
+  private static final int BUCKET_EXEMPLAR = 3;
+
+  // BucketSpan
+  private static final int SPAN_OFFSET = 1;
+  private static final int SPAN_LENGTH = 2;
+
+  // Exemplar
+  private static final int EXEMPLAR_LABEL = 1;
+  private static final int EXEMPLAR_VALUE = 2;
+  private static final int EXEMPLAR_TIMESTAMP = 3;
+
+  // google.protobuf.Timestamp
+  private static final int TIMESTAMP_SECONDS = 1;
+  private static final int TIMESTAMP_NANOS = 2;
+
+  private final EncoderCache<byte[]> encoderCache;
+  private final AtomicReference<byte[]> pooledBuffer = new AtomicReference<>();
+
+  PrometheusProtobufStreamingWriter(int encoderCacheSize) {
+    this.encoderCache = new EncoderCache<>(LABELS + 1, encoderCacheSize);
+  }
+
+  void write(OutputStream out, MetricSnapshots metricSnapshots, EscapingScheme escapingScheme)
+      throws IOException {
+    ProtobufEncoder encoder = acquireEncoder();
+    writeMetricFamilies(out, encoder, metricSnapshots, escapingScheme);
+    releaseEncoder(encoder);
+  }
+
+  void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme escapingScheme)
+      throws IOException {
+    ProtobufEncoder encoder = acquireEncoder();
+    while (metricFamilies.hasNext()) {
+      writeMetricFamilies(out, encoder, metricFamilies.next(), escapingScheme);
+    }
+    releaseEncoder(encoder);
+  }
+
+  private void writeMetricFamilies(
+      OutputStream out,
+      ProtobufEncoder encoder,
+      MetricSnapshots metricSnapshots,
+      EscapingScheme escapingScheme)
+      throws IOException {
+    MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+    for (MetricSnapshot s : merged) {
+      MetricSnapshot snapshot = SnapshotEscaper.escapeMetricSnapshot(s, escapingScheme);
+      if (!snapshot.getDataPoints().isEmpty()) {
+        EncoderCache.Family<byte[]> family =
+            encoderCache.family(snapshot.getMetadata(), escapingScheme);
+        encoder.reset();
+        int start = encoder.beginDelimited();
+        writeMetricFamily(
+            encoder, snapshot, s.getMetadata().getOriginalName(), family, escapingScheme);
+        encoder.endMessage(start);
+        encoder.writeTo(out);
+        family.close();
+      }
+    }
+  }
+
+  private ProtobufEncoder acquireEncoder() {
+    byte[] buffer = pooledBuffer.getAndSet(null);
+    return new ProtobufEncoder(buffer != null ? buffer : new byte[INITIAL_BUFFER_SIZE]);
+  }
+
+  private void releaseEncoder(ProtobufEncoder encoder) {
+    if (encoder.buffer().length <= MAX_POOLED_BUFFER_SIZE) {
+      pooledBuffer.set(encoder.buffer());
+    }
+  }
+
+  private void writeMetricFamily(
+      ProtobufEncoder encoder,
+      MetricSnapshot snapshot,
+      String rawOriginalName,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme) {
+    MetricMetadata metadata = snapshot.getMetadata();
+    if (snapshot instanceof CounterSnapshot) {
+      writeHeader(encoder, family, metadata, "_total", TYPE_COUNTER, scheme);
+      for (CounterDataPointSnapshot data : ((CounterSnapshot) snapshot).getDataPoints()) {
+        writeCounter(encoder, data, family, scheme);
+      }
+    } else if (snapshot instanceof GaugeSnapshot) {
+      writeHeader(encoder, family, metadata, rawOriginalName, null, TYPE_GAUGE, scheme, true);
+      for (GaugeSnapshot.GaugeDataPointSnapshot data : ((GaugeSnapshot) snapshot).getDataPoints()) {
+        int start = beginMetric(encoder, data, family, scheme);
+        writeValue(encoder, METRIC_GAUGE, data.getValue());
+        writeScrapeTimestamp(encoder, data);
+        encoder.endMessage(start);
+      }
+    } else if (snapshot instanceof HistogramSnapshot) {
+      HistogramSnapshot histogram = (HistogramSnapshot) snapshot;
+      int type = histogram.isGaugeHistogram() ? TYPE_GAUGE_HISTOGRAM : TYPE_HISTOGRAM;
+      writeHeader(encoder, family, metadata, null, type, scheme);
+      for (HistogramDataPointSnapshot data : histogram.getDataPoints()) {
+        writeHistogram(encoder, data, family, scheme);
+      }
+    } else if (snapshot instanceof SummarySnapshot) {
+      SummarySnapshot summary = (SummarySnapshot) snapshot;
+      // Data points without count, sum, and quantiles are skipped, and the header is only written
+      // if there are any metrics left.
+      boolean hasMetrics = false;
+      for (SummarySnapshot.SummaryDataPointSnapshot data : summary.getDataPoints()) {
+        if (data.hasCount() || data.hasSum() || data.getQuantiles().size() > 0) {
+          if (!hasMetrics) {
+            writeHeader(encoder, family, metadata, null, TYPE_SUMMARY, scheme);
+            hasMetrics = true;
+          }
+          writeSummary(encoder, data, family, scheme);
+        }
+      }
+    } else if (snapshot instanceof InfoSnapshot) {
+      writeHeader(encoder, family, metadata, "_info", TYPE_GAUGE, scheme);
+      for (InfoSnapshot.InfoDataPointSnapshot data : ((InfoSnapshot) snapshot).getDataPoints()) {
+        int start = beginMetric(encoder, data, family, scheme);
+        writeValue(encoder, METRIC_GAUGE, 1);
+        writeScrapeTimestamp(encoder, data);
+        encoder.endMessage(start);
+      }
+    } else if (snapshot instanceof StateSetSnapshot) {
+      StateSetSnapshot stateSet = (StateSetSnapshot) snapshot;
+      boolean hasMetrics = false;
+      for (StateSetSnapshot.StateSetDataPointSnapshot data : stateSet.getDataPoints()) {
+        for (int i = 0; i < data.size(); i++) {
+          if (!hasMetrics) {
+            writeHeader(encoder, family, metadata, null, TYPE_GAUGE, scheme);
+            hasMetrics = true;
+          }
+          int start = beginMetric(encoder, data, family, scheme);
+          writeLabel(encoder, METRIC_LABEL, metadata.getPrometheusName(), data.getName(i));
+          writeValue(encoder, METRIC_GAUGE, data.isTrue(i) ? 1 : 0);
+          writeScrapeTimestamp(encoder, data);
+          encoder.endMessage(start);
+        }
+      }
+    } else if (snapshot instanceof UnknownSnapshot) {
+      writeHeader(encoder, family, metadata, null, TYPE_UNTYPED, scheme);
+      for (UnknownSnapshot.UnknownDataPointSnapshot data :
+          ((UnknownSnapshot) snapshot).getDataPoints()) {
+        int start = beginMetric(encoder, data, family, scheme);
+        writeValue(encoder, METRIC_UNTYPED, data.getValue());
+        encoder.endMessage(start);
+      }
+    }
+  }
+
+  private void writeHeader(
+      ProtobufEncoder encoder,
+      EncoderCache.Family<byte[]> family,
+      MetricMetadata metadata,
+      @Nullable String nameSuffix,
+      int type,
+      EscapingScheme scheme) {
+    writeHeader(
+        encoder, family, metadata, metadata.getOriginalName(), nameSuffix, type, scheme, false);
+  }
+
+  private void writeHeader(
+      ProtobufEncoder encoder,
+      EncoderCache.Family<byte[]> family,
+      MetricMetadata metadata,
+      String rawOriginalName,
+      @Nullable String nameSuffix,
+      int type,
+      EscapingScheme scheme,
+      boolean normalizeLegacyGaugeName) {
+    byte[] cached = family.get(HEADER);
+    if (cached != null) {
+      encoder.writeRaw(cached, 0, cached.length);
+      return;
+    }
+    int start = encoder.position();
+    encoder.writeString(
+        FAMILY_NAME,
+        ProtobufUtil.resolveMetricFamilyName(
+            metadata, rawOriginalName, nameSuffix, scheme, normalizeLegacyGaugeName));
+    if (metadata.getHelp() != null) {
+      encoder.writeString(FAMILY_HELP, metadata.getHelp());
+    }
+    encoder.writeEnum(FAMILY_TYPE, type);
+    if (family.isEnabled()) {
+      family.put(HEADER, encoder.toByteArray(start));
+    }
+  }
+
+  private void writeCounter(
+      ProtobufEncoder encoder,
+      CounterDataPointSnapshot data,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme) {
+    int start = beginMetric(encoder, data, family, scheme);
+    int counter = encoder.beginMessage(METRIC_COUNTER);
+    encoder.writeDouble(COUNTER_VALUE, data.getValue());
+    if (data.getExemplar() != null) {
+      writeExemplar(encoder, COUNTER_EXEMPLAR, data.getExemplar(), scheme);
+    }
+    if (data.hasCreatedTimestamp()) {
+      writeTimestamp(encoder, COUNTER_CREATED_TIMESTAMP, data.getCreatedTimestampMillis());
+    }
+    encoder.endMessage(counter);
+    writeScrapeTimestamp(encoder, data);
+    encoder.endMessage(start);
+  }
+
+  private void writeHistogram(
+      ProtobufEncoder encoder,
+      HistogramDataPointSnapshot data,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme) {
+    int start = beginMetric(encoder, data, family, scheme);
+    writeScrapeTimestamp(encoder, data);
+    int histogram = encoder.beginMessage(METRIC_HISTOGRAM);
+    if (data.hasCount()) {
+      encoder.writeUInt64(HISTOGRAM_SAMPLE_COUNT, data.getCount());
+    }
+    if (data.hasSum()) {
+      encoder.writeDouble(HISTOGRAM_SAMPLE_SUM, data.getSum());
+    }
+    if (data.hasClassicHistogramData()) {
+      ClassicHistogramBuckets buckets = data.getClassicBuckets();
+      double lowerBound = Double.NEGATIVE_INFINITY;
+      long cumulativeCount = 0;
+      for (int i = 0; i < buckets.size(); i++) {
+        cumulativeCount += buckets.getCount(i);
+        double upperBound = buckets.getUpperBound(i);
+        writeBucket(
+            encoder,
+            cumulativeCount,
+            upperBound,
+            data.getExemplars().get(lowerBound, upperBound),
+            scheme);
+        lowerBound = upperBound;
+      }
+    } else if (data.hasNativeHistogramData()) {
+      // Native only: Add a single +Inf bucket for the exemplar.
+      Exemplar exemplar = data.getExemplars().getLatest();
+      if (exemplar != null) {
+        writeBucket(encoder, getNativeCount(data), Double.POSITIVE_INFINITY, exemplar, scheme);
+      }
+    }
+    if (data.hasNativeHistogramData()) {
+      encoder.writeSInt32(HISTOGRAM_SCHEMA, data.getNativeSchema());
+      encoder.writeDouble(HISTOGRAM_ZERO_THRESHOLD, data.getNativeZeroThreshold());
+      encoder.writeUInt64(HISTOGRAM_ZERO_COUNT, data.getNativeZeroCount());
+      NativeHistogramBuckets negative = data.getNativeBucketsForNegativeValues();
+      writeSpansOrDeltas(encoder, negative, HISTOGRAM_NEGATIVE_SPAN, true);
+      writeSpansOrDeltas(encoder, negative, HISTOGRAM_NEGATIVE_DELTA, false);
+      NativeHistogramBuckets positive = data.getNativeBucketsForPositiveValues();
+      writeSpansOrDeltas(encoder, positive, HISTOGRAM_POSITIVE_SPAN, true);
+      writeSpansOrDeltas(encoder, positive, HISTOGRAM_POSITIVE_DELTA, false);
+    }
+    encoder.endMessage(histogram);
+    encoder.endMessage(start);
+  }
+
+  private void writeBucket(
+      ProtobufEncoder encoder,
+      long cumulativeCount,
+      double upperBound,
+      @Nullable Exemplar exemplar,
+      EscapingScheme scheme) {
+    int bucket = encoder.beginMessage(HISTOGRAM_BUCKET);
+    encoder.writeUInt64(BUCKET_CUMULATIVE_COUNT, cumulativeCount);
+    encoder.writeDouble(BUCKET_UPPER_BOUND, upperBound);
+    if (exemplar != null) {
+      writeExemplar(encoder, BUCKET_EXEMPLAR, exemplar, scheme);
+    }
+    encoder.endMessage(bucket);
+  }
+
+  /**
+   * The spans are written before the deltas, so this is called twice for each sign: Once with
+   * {@code spans = true} writing the spans, and once with {@code spans = false} writing the deltas.
+   */
+  private void writeSpansOrDeltas(
+      ProtobufEncoder encoder, NativeHistogramBuckets buckets, int field, boolean spans) {
+    if (buckets.size() == 0) {
+      return;
+    }
+    int offset = buckets.getBucketIndex(0);
+    int length = 0;
+    int previousIndex = offset;
+    long previousCount = 0;
+    for (int i = 0; i < buckets.size(); i++) {
+      if (buckets.getBucketIndex(i) > previousIndex + 1) {
+        // If the gap between bucketIndex and previousIndex is just 1 or 2,
+        // we don't start a new span but continue the existing span and add 1 or 2 empty buckets.
+        if (buckets.getBucketIndex(i) <= previousIndex + 3) {
+          while (buckets.getBucketIndex(i) > previousIndex + 1) {
+            length++;
+            previousIndex++;
+            if (!spans) {
+              encoder.writeSInt64(field, -previousCount);
+            }
+            previousCount = 0;
+          }
+        } else {
+          if (spans) {
+            writeSpan(encoder, field, offset, length);
+          }
+          offset = buckets.getBucketIndex(i) - (previousIndex + 1);
+          length = 0;
+        }
+      }
+      length++;
+      previousIndex = buckets.getBucketIndex(i);
+      if (!spans) {
+        encoder.writeSInt64(field, buckets.getCount(i) - previousCount);
+      }
+      previousCount = buckets.getCount(i);
+    }
+    if (spans) {
+      writeSpan(encoder, field, offset, length);
+    }
+  }
+
+  private void writeSpan(ProtobufEncoder encoder, int field, int offset, int length) {
+    int span = encoder.beginMessage(field);
+    encoder.writeSInt32(SPAN_OFFSET, offset);
+    encoder.writeUInt32(SPAN_LENGTH, length);
+    encoder.endMessage(span);
+  }
+
+  private void writeSummary(
+      ProtobufEncoder encoder,
+      SummarySnapshot.SummaryDataPointSnapshot data,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme) {
+    int start = beginMetric(encoder, data, family, scheme);
+    int summary = encoder.beginMessage(METRIC_SUMMARY);
+    if (data.hasCount()) {
+      encoder.writeUInt64(SUMMARY_SAMPLE_COUNT, data.getCount());
+    }
+    if (data.hasSum()) {
+      encoder.writeDouble(SUMMARY_SAMPLE_SUM, data.getSum());
+    }
+    Quantiles quantiles = data.getQuantiles();
+    for (int i = 0; i < quantiles.size(); i++) {
+      int quantile = encoder.beginMessage(SUMMARY_QUANTILE);
+      encoder.writeDouble(QUANTILE_QUANTILE, quantiles.get(i).getQuantile());
+      encoder.writeDouble(QUANTILE_VALUE, quantiles.get(i).getValue());
+      encoder.endMessage(quantile);
+    }
+    encoder.endMessage(summary);
+    writeScrapeTimestamp(encoder, data);
+    encoder.endMessage(start);
+  }
+
+  private void writeExemplar(
+      ProtobufEncoder encoder, int field, Exemplar exemplar, EscapingScheme scheme) {
+    int start = encoder.beginMessage(field);
+    Labels labels = exemplar.getLabels();
+    for (int i = 0; i < labels.size(); i++) {
+      writeLabel(
+          encoder, EXEMPLAR_LABEL, getSnapshotLabelName(labels, i, scheme), labels.getValue(i));
+    }
+    encoder.writeDouble(EXEMPLAR_VALUE, exemplar.getValue());
+    if (exemplar.hasTimestamp()) {
+      writeTimestamp(encoder, EXEMPLAR_TIMESTAMP, exemplar.getTimestampMillis());
+    }
+    encoder.endMessage(start);
+  }
+
+  /** Start a {@code Metric} message and write its labels. */
+  private int beginMetric(
+      ProtobufEncoder encoder,
+      DataPointSnapshot data,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme) {
+    int start = encoder.beginMessage(FAMILY_METRIC);
+    Labels labels = data.getLabels();
+    byte[] cached = family.get(labels, LABELS);
+    if (cached != null) {
+      encoder.writeRaw(cached, 0, cached.length);
+      return start;
+    }
+    int labelsStart = encoder.position();
+    for (int i = 0; i < labels.size(); i++) {
+      writeLabel(
+          encoder, METRIC_LABEL, getSnapshotLabelName(labels, i, scheme), labels.getValue(i));
+    }
+    if (family.isEnabled()) {
+      family.put(labels, LABELS, encoder.toByteArray(labelsStart));
+    }
+    return start;
+  }
+
+  private void writeLabel(ProtobufEncoder encoder, int field, String name, String value) {
+    int start = encoder.beginMessage(field);
+    encoder.writeString(LABEL_NAME, name);
+    encoder.writeString(LABEL_VALUE, value);
+    encoder.endMessage(start);
+  }
+
+  /** Write a {@code Gauge} or {@code Untyped} message. */
+  private void writeValue(ProtobufEncoder encoder, int field, double value) {
+    int start = encoder.beginMessage(field);
+    encoder.writeDouble(VALUE, value);
+    encoder.endMessage(start);
+  }
+
+  private void writeTimestamp(ProtobufEncoder encoder, int field, long timestampMillis) {
+    int start = encoder.beginMessage(field);
+    long seconds = timestampMillis / 1000L;
+    int nanos = (int) (timestampMillis % 1000L * 1000000L);
+    // google.protobuf.Timestamp is proto3, default values are not written.
+    if (seconds != 0) {
+      encoder.writeInt64(TIMESTAMP_SECONDS, seconds);
+    }
+    if (nanos != 0) {
+      encoder.writeInt32(TIMESTAMP_NANOS, nanos);
+    }
+    encoder.endMessage(start);
+  }
+
+  private void writeScrapeTimestamp(ProtobufEncoder encoder, DataPointSnapshot data) {
+    if (data.hasScrapeTimestamp()) {
+      encoder.writeInt64(METRIC_TIMESTAMP_MS, data.getScrapeTimestampMillis());
+    }
+  }
+
+  private static long getNativeCount(HistogramDataPointSnapshot data) {
+    if (data.hasCount()) {
+      return data.getCount();
+    } else {
+      long count = data.getNativeZeroCount();
+      for (int i = 0; i < data.getNativeBucketsForPositiveValues().size(); i++) {
+        count += data.getNativeBucketsForPositiveValues().getCount(i);
+      }
+      for (int i = 0; i < data.getNativeBucketsForNegativeValues().size(); i++) {
+        count += data.getNativeBucketsForNegativeValues().getCount(i);
+      }
+      return count;
+    }
+  }
+}
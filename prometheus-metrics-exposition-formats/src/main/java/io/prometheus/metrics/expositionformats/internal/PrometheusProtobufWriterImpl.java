@@ -4,6 +4,7 @@ import static io.prometheus.metrics.expositionformats.internal.ProtobufUtil.time
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getSnapshotLabelName;
 
 import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.expositionformats.EncoderCache;
 import io.prometheus.metrics.expositionformats.ExpositionFormatWriter;
 import io.prometheus.metrics.expositionformats.TextFormatUtil;
 import io.prometheus.metrics.expositionformats.generated.Metrics;
@@ -27,11 +28,49 @@ import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import javax.annotation.Nullable;
 
+/**
+ * Implementation of {@link io.prometheus.metrics.expositionformats.PrometheusProtobufWriter}.
+ *
+ * <p>By default, {@link #write(OutputStream, MetricSnapshots, EscapingScheme) write()} encodes the
+ * snapshots directly, without creating the generated {@link Metrics.MetricFamily} objects. {@link
+ * #PrometheusProtobufWriterImpl(boolean) PrometheusProtobufWriterImpl(false)} creates a writer that
+ * uses the generated code instead. Both produce the same bytes.
+ */
 @SuppressWarnings("NonCanonicalType")
 public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
 
+  // Slot in the encoder cache for each data point
+  private static final int LABELS = 0;
+
+  @Nullable private final PrometheusProtobufStreamingWriter streamingWriter;
+  private final EncoderCache<List<Metrics.LabelPair>> encoderCache;
+  private final EncoderCache<List<Metrics.LabelPair>> noCache = new EncoderCache<>(LABELS + 1, 0);
+
+  public PrometheusProtobufWriterImpl() {
+    this(true);
+  }
+
+  /**
+   * @param streaming {@code true} to encode the snapshots directly, {@code false} to build the
+   *     generated {@link Metrics.MetricFamily} objects and write them with {@code
+   *     writeDelimitedTo()}.
+   */
+  public PrometheusProtobufWriterImpl(boolean streaming) {
+    if (streaming) {
+      this.streamingWriter =
+          new PrometheusProtobufStreamingWriter(EncoderCache.DEFAULT_MAX_DATA_POINTS);
+      this.encoderCache = noCache;
+    } else {
+      this.streamingWriter = null;
+      this.encoderCache = new EncoderCache<>(LABELS + 1, EncoderCache.DEFAULT_MAX_DATA_POINTS);
+    }
+  }
+
   @Override
   public boolean accepts(@Nullable String acceptHeader) {
     throw new IllegalStateException("use PrometheusProtobufWriter instead");
@@ -51,7 +90,11 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
       if (!snapshot.getDataPoints().isEmpty()) {
         stringBuilder.append(
             PrometheusProtobufDebugFormat.toDebugString(
-                convert(snapshot, s.getMetadata().getOriginalName(), escapingScheme)));
+                convert(
+                    snapshot,
+                    s.getMetadata().getOriginalName(),
+                    noCache.family(snapshot.getMetadata(), escapingScheme),
+                    escapingScheme)));
       }
     }
     return stringBuilder.toString();
@@ -61,31 +104,59 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
   public void write(
       OutputStream out, MetricSnapshots metricSnapshots, EscapingScheme escapingScheme)
       throws IOException {
+    if (streamingWriter != null) {
+      streamingWriter.write(out, metricSnapshots, escapingScheme);
+      return;
+    }
     MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
     for (MetricSnapshot s : merged) {
       MetricSnapshot snapshot = SnapshotEscaper.escapeMetricSnapshot(s, escapingScheme);
       if (!snapshot.getDataPoints().isEmpty()) {
-        convert(snapshot, s.getMetadata().getOriginalName(), escapingScheme).writeDelimitedTo(out);
+        EncoderCache.Family<List<Metrics.LabelPair>> family =
+            encoderCache.family(snapshot.getMetadata(), escapingScheme);
+        convert(snapshot, s.getMetadata().getOriginalName(), family, escapingScheme)
+            .writeDelimitedTo(out);
+        family.close();
       }
     }
   }
 
+  @Override
+  public void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme escapingScheme)
+      throws IOException {
+    if (streamingWriter != null) {
+      streamingWriter.writeIncrementally(out, metricFamilies, escapingScheme);
+      return;
+    }
+    while (metricFamilies.hasNext()) {
+      write(out, metricFamilies.next(), escapingScheme);
+    }
+  }
+
   public Metrics.MetricFamily convert(MetricSnapshot snapshot, EscapingScheme scheme) {
-    return convert(snapshot, snapshot.getMetadata().getOriginalName(), scheme);
+    return convert(
+        snapshot,
+        snapshot.getMetadata().getOriginalName(),
+        noCache.family(snapshot.getMetadata(), scheme),
+        scheme);
   }
 
   private Metrics.MetricFamily convert(
-      MetricSnapshot snapshot, String rawOriginalName, EscapingScheme scheme) {
+      MetricSnapshot snapshot,
+      String rawOriginalName,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.MetricFamily.Builder builder = Metrics.MetricFamily.newBuilder();
     if (snapshot instanceof CounterSnapshot) {
       for (CounterDataPointSnapshot data : ((CounterSnapshot) snapshot).getDataPoints()) {
-        builder.addMetric(convert(data, scheme));
+        builder.addMetric(convert(data, family, scheme));
       }
       setMetadataUnlessEmpty(
           builder, snapshot.getMetadata(), "_total", Metrics.MetricType.COUNTER, scheme);
     } else if (snapshot instanceof GaugeSnapshot) {
       for (GaugeSnapshot.GaugeDataPointSnapshot data : ((GaugeSnapshot) snapshot).getDataPoints()) {
-        builder.addMetric(convert(data, scheme));
+        builder.addMetric(convert(data, family, scheme));
       }
       setMetadataUnlessEmpty(
           builder,
@@ -98,7 +169,7 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
     } else if (snapshot instanceof HistogramSnapshot) {
       HistogramSnapshot histogram = (HistogramSnapshot) snapshot;
       for (HistogramSnapshot.HistogramDataPointSnapshot data : histogram.getDataPoints()) {
-        builder.addMetric(convert(data, scheme));
+        builder.addMetric(convert(data, family, scheme));
       }
       Metrics.MetricType type =
           histogram.isGaugeHistogram()
@@ -109,14 +180,14 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
       for (SummarySnapshot.SummaryDataPointSnapshot data :
           ((SummarySnapshot) snapshot).getDataPoints()) {
         if (data.hasCount() || data.hasSum() || data.getQuantiles().size() > 0) {
-          builder.addMetric(convert(data, scheme));
+          builder.addMetric(convert(data, family, scheme));
         }
       }
       setMetadataUnlessEmpty(
           builder, snapshot.getMetadata(), null, Metrics.MetricType.SUMMARY, scheme);
     } else if (snapshot instanceof InfoSnapshot) {
       for (InfoSnapshot.InfoDataPointSnapshot data : ((InfoSnapshot) snapshot).getDataPoints()) {
-        builder.addMetric(convert(data, scheme));
+        builder.addMetric(convert(data, family, scheme));
       }
       setMetadataUnlessEmpty(
           builder, snapshot.getMetadata(), "_info", Metrics.MetricType.GAUGE, scheme);
@@ -124,7 +195,8 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
       for (StateSetSnapshot.StateSetDataPointSnapshot data :
           ((StateSetSnapshot) snapshot).getDataPoints()) {
         for (int i = 0; i < data.size(); i++) {
-          builder.addMetric(convert(data, snapshot.getMetadata().getPrometheusName(), i, scheme));
+          builder.addMetric(
+              convert(data, snapshot.getMetadata().getPrometheusName(), i, family, scheme));
         }
       }
       setMetadataUnlessEmpty(
@@ -132,7 +204,7 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
     } else if (snapshot instanceof UnknownSnapshot) {
       for (UnknownSnapshot.UnknownDataPointSnapshot data :
           ((UnknownSnapshot) snapshot).getDataPoints()) {
-        builder.addMetric(convert(data, scheme));
+        builder.addMetric(convert(data, family, scheme));
       }
       setMetadataUnlessEmpty(
           builder, snapshot.getMetadata(), null, Metrics.MetricType.UNTYPED, scheme);
@@ -140,7 +212,10 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
     return builder.build();
   }
 
-  private Metrics.Metric.Builder convert(CounterDataPointSnapshot data, EscapingScheme scheme) {
+  private Metrics.Metric.Builder convert(
+      CounterDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Counter.Builder counterBuilder = Metrics.Counter.newBuilder();
     counterBuilder.setValue(data.getValue());
     if (data.getExemplar() != null) {
@@ -151,25 +226,29 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
           ProtobufUtil.timestampFromMillis(data.getCreatedTimestampMillis()));
     }
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.setCounter(counterBuilder.build());
     setScrapeTimestamp(metricBuilder, data);
     return metricBuilder;
   }
 
   private Metrics.Metric.Builder convert(
-      GaugeSnapshot.GaugeDataPointSnapshot data, EscapingScheme scheme) {
+      GaugeSnapshot.GaugeDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Gauge.Builder gaugeBuilder = Metrics.Gauge.newBuilder();
     gaugeBuilder.setValue(data.getValue());
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.setGauge(gaugeBuilder);
     setScrapeTimestamp(metricBuilder, data);
     return metricBuilder;
   }
 
   private Metrics.Metric.Builder convert(
-      HistogramSnapshot.HistogramDataPointSnapshot data, EscapingScheme scheme) {
+      HistogramSnapshot.HistogramDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
     Metrics.Histogram.Builder histogramBuilder = Metrics.Histogram.newBuilder();
     if (data.hasNativeHistogramData()) {
@@ -212,7 +291,7 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
         lowerBound = upperBound;
       }
     }
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     setScrapeTimestamp(metricBuilder, data);
     if (data.hasCount()) {
       histogramBuilder.setSampleCount(data.getCount());
@@ -225,7 +304,9 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
   }
 
   private Metrics.Metric.Builder convert(
-      SummarySnapshot.SummaryDataPointSnapshot data, EscapingScheme scheme) {
+      SummarySnapshot.SummaryDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Summary.Builder summaryBuilder = Metrics.Summary.newBuilder();
     if (data.hasCount()) {
       summaryBuilder.setSampleCount(data.getCount());
@@ -242,28 +323,34 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
               .build());
     }
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.setSummary(summaryBuilder.build());
     setScrapeTimestamp(metricBuilder, data);
     return metricBuilder;
   }
 
   private Metrics.Metric.Builder convert(
-      InfoSnapshot.InfoDataPointSnapshot data, EscapingScheme scheme) {
+      InfoSnapshot.InfoDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
     Metrics.Gauge.Builder gaugeBuilder = Metrics.Gauge.newBuilder();
     gaugeBuilder.setValue(1);
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.setGauge(gaugeBuilder);
     setScrapeTimestamp(metricBuilder, data);
     return metricBuilder;
   }
 
   private Metrics.Metric.Builder convert(
-      StateSetSnapshot.StateSetDataPointSnapshot data, String name, int i, EscapingScheme scheme) {
+      StateSetSnapshot.StateSetDataPointSnapshot data,
+      String name,
+      int i,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
     Metrics.Gauge.Builder gaugeBuilder = Metrics.Gauge.newBuilder();
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.addLabel(
         Metrics.LabelPair.newBuilder().setName(name).setValue(data.getName(i)).build());
     if (data.isTrue(i)) {
@@ -277,11 +364,13 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
   }
 
   private Metrics.Metric.Builder convert(
-      UnknownSnapshot.UnknownDataPointSnapshot data, EscapingScheme scheme) {
+      UnknownSnapshot.UnknownDataPointSnapshot data,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      EscapingScheme scheme) {
     Metrics.Metric.Builder metricBuilder = Metrics.Metric.newBuilder();
     Metrics.Untyped.Builder untypedBuilder = Metrics.Untyped.newBuilder();
     untypedBuilder.setValue(data.getValue());
-    addLabels(metricBuilder, data.getLabels(), scheme);
+    addLabels(metricBuilder, family, data.getLabels(), scheme);
     metricBuilder.setUntyped(untypedBuilder);
     return metricBuilder;
   }
@@ -318,7 +407,7 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
       return;
     }
     builder.setName(
-        resolveMetricFamilyName(
+        ProtobufUtil.resolveMetricFamilyName(
             metadata, rawOriginalName, nameSuffix, scheme, normalizeLegacyGaugeName));
     if (metadata.getHelp() != null) {
       builder.setHelp(metadata.getHelp());
@@ -326,25 +415,6 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
     builder.setType(type);
   }
 
-  private String resolveMetricFamilyName(
-      MetricMetadata metadata,
-      String rawOriginalName,
-      @Nullable String nameSuffix,
-      EscapingScheme scheme,
-      boolean normalizeLegacyGaugeName) {
-    if (normalizeLegacyGaugeName) {
-      return SnapshotEscaper.getLegacyGaugeName(metadata, rawOriginalName, scheme);
-    }
-    if (nameSuffix == null) {
-      return SnapshotEscaper.getMetadataName(metadata, scheme);
-    }
-    String expositionBaseName = SnapshotEscaper.getExpositionBaseMetadataName(metadata, scheme);
-    if (expositionBaseName.endsWith(nameSuffix)) {
-      return expositionBaseName;
-    }
-    return SnapshotEscaper.getMetadataName(metadata, scheme) + nameSuffix;
-  }
-
   private long getNativeCount(HistogramSnapshot.HistogramDataPointSnapshot data) {
     if (data.hasCount()) {
       return data.getCount();
@@ -411,7 +481,26 @@ public class PrometheusProtobufWriterImpl implements ExpositionFormatWriter {
   }
 
   private void addLabels(
-      Metrics.Metric.Builder metricBuilder, Labels labels, EscapingScheme scheme) {
+      Metrics.Metric.Builder metricBuilder,
+      EncoderCache.Family<List<Metrics.LabelPair>> family,
+      Labels labels,
+      EscapingScheme scheme) {
+    if (family.isEnabled()) {
+      List<Metrics.LabelPair> labelPairs = family.get(labels, LABELS);
+      if (labelPairs == null) {
+        labelPairs = new ArrayList<>(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+          labelPairs.add(
+              Metrics.LabelPair.newBuilder()
+                  .setName(getSnapshotLabelName(labels, i, scheme))
+                  .setValue(labels.getValue(i))
+                  .build());
+        }
+        family.put(labels, LABELS, labelPairs);
+      }
+      metricBuilder.addAllLabel(labelPairs);
+      return;
+    }
     for (int i = 0; i < labels.size(); i++) {
       metricBuilder.addLabel(
           Metrics.LabelPair.newBuilder()
@@ -0,0 +1,176 @@
+package io.prometheus.metrics.expositionformats.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal protobuf wire format encoder writing to a growing byte array.
+ *
+ * <p>The {@code writeX(field, value)} methods encode the same bytes as the corresponding {@code
+ * com.google.protobuf.CodedOutputStream} methods. Nested messages are written with {@link
+ * #beginMessage(int)} and {@link #endMessage(int)}: One byte is reserved for the length, which is
+ * sufficient for most nested messages like labels, buckets, and exemplars. If the message turns out
+ * to be longer, the content is moved to make room for the length.
+ *
+ * <p>Not thread safe.
+ */
+final class ProtobufEncoder {
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+  private byte[] buffer;
+  private int pos;
+
+  ProtobufEncoder(byte[] buffer) {
+    this.buffer = buffer;
+  }
+
+  /** The buffer, which may have grown since it was passed to the constructor. */
+  byte[] buffer() {
+    return buffer;
+  }
+
+  /** Start a length-delimited message without tag, like {@code writeDelimitedTo()}. */
+  int beginDelimited() {
+    ensureCapacity(1);
+    pos++;
+    return pos;
+  }
+
+  /** Start a nested message. Returns the start position to be passed to {@link #endMessage}. */
+  int beginMessage(int field) {
+    writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+    return beginDelimited();
+  }
+
+  void endMessage(int start) {
+    int length = pos - start;
+    int lengthSize = varintSize(length);
+    if (lengthSize > 1) {
+      ensureCapacity(lengthSize - 1);
+      System.arraycopy(buffer, start, buffer, start + lengthSize - 1, length);
+      pos += lengthSize - 1;
+    }
+    int end = pos;
+    pos = start - 1;
+    writeVarint(length);
+    pos = end;
+  }
+
+  void writeDouble(int field, double value) {
+    writeTag(field, WIRETYPE_FIXED64);
+    ensureCapacity(8);
+    long bits = Double.doubleToRawLongBits(value);
+    for (int i = 0; i < 8; i++) {
+      buffer[pos++] = (byte) (bits >>> (8 * i));
+    }
+  }
+
+  void writeUInt64(int field, long value) {
+    writeTag(field, WIRETYPE_VARINT);
+    writeVarint(value);
+  }
+
+  void writeInt64(int field, long value) {
+    writeUInt64(field, value);
+  }
+
+  /** Negative values are sign-extended to 64 bits, like {@code CodedOutputStream.writeInt32()}. */
+  void writeInt32(int field, int value) {
+    writeUInt64(field, value);
+  }
+
+  void writeUInt32(int field, int value) {
+    writeUInt64(field, value & 0xFFFFFFFFL);
+  }
+
+  void writeSInt32(int field, int value) {
+    writeUInt32(field, (value << 1) ^ (value >> 31));
+  }
+
+  void writeSInt64(int field, long value) {
+    writeUInt64(field, (value << 1) ^ (value >> 63));
+  }
+
+  void writeEnum(int field, int value) {
+    writeInt32(field, value);
+  }
+
+  /**
+   * Unpaired surrogates are encoded as {@code '?'}, like {@code CodedOutputStream.writeString()}.
+   */
+  void writeString(int field, String value) {
+    writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) >= 0x80) {
+        byte[] utf8 = value.getBytes(UTF_8);
+        writeVarint(utf8.length);
+        writeRaw(utf8, 0, utf8.length);
+        return;
+      }
+    }
+    writeVarint(length);
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buffer[pos++] = (byte) value.charAt(i);
+    }
+  }
+
+  /** Write bytes that are already encoded, like fields that were cached. */
+  void writeRaw(byte[] bytes, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(bytes, off, buffer, pos, len);
+    pos += len;
+  }
+
+  /** The bytes written since {@code start}. */
+  byte[] toByteArray(int start) {
+    return Arrays.copyOfRange(buffer, start, pos);
+  }
+
+  int position() {
+    return pos;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, pos);
+  }
+
+  void reset() {
+    pos = 0;
+  }
+
+  private void writeTag(int field, int wireType) {
+    writeVarint((field << 3) | wireType);
+  }
+
+  private void writeVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte) value;
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      size++;
+      value >>>= 7;
+    }
+    return size;
+  }
+
+  private void ensureCapacity(int n) {
+    if (buffer.length - pos < n) {
+      buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, pos + n));
+    }
+  }
+}
@@ -3,6 +3,10 @@ package io.prometheus.metrics.expositionformats.internal;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.TextFormat;
 import com.google.protobuf.Timestamp;
+import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import io.prometheus.metrics.model.snapshots.SnapshotEscaper;
+import javax.annotation.Nullable;
 
 public class ProtobufUtil {
 
@@ -13,6 +17,25 @@ public class ProtobufUtil {
         .build();
   }
 
+  static String resolveMetricFamilyName(
+      MetricMetadata metadata,
+      String rawOriginalName,
+      @Nullable String nameSuffix,
+      EscapingScheme scheme,
+      boolean normalizeLegacyGaugeName) {
+    if (normalizeLegacyGaugeName) {
+      return SnapshotEscaper.getLegacyGaugeName(metadata, rawOriginalName, scheme);
+    }
+    if (nameSuffix == null) {
+      return SnapshotEscaper.getMetadataName(metadata, scheme);
+    }
+    String expositionBaseName = SnapshotEscaper.getExpositionBaseMetadataName(metadata, scheme);
+    if (expositionBaseName.endsWith(nameSuffix)) {
+      return expositionBaseName;
+    }
+    return SnapshotEscaper.getMetadataName(metadata, scheme) + nameSuffix;
+  }
+
   public static String shortDebugString(MessageOrBuilder protobufData) {
     return TextFormat.printer().emittingSingleLine(true).printToString(protobufData);
   }
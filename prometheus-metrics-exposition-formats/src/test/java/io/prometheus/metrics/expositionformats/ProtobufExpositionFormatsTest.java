@@ -7,10 +7,22 @@ import io.prometheus.metrics.config.EscapingScheme;
 import io.prometheus.metrics.expositionformats.generated.Metrics;
 import io.prometheus.metrics.expositionformats.internal.PrometheusProtobufWriterImpl;
 import io.prometheus.metrics.expositionformats.internal.ProtobufUtil;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Exemplar;
+import io.prometheus.metrics.model.snapshots.Exemplars;
 import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import io.prometheus.metrics.model.snapshots.NativeHistogramBuckets;
+import io.prometheus.metrics.model.snapshots.SummarySnapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 @SuppressWarnings("NonCanonicalType")
@@ -23,6 +35,87 @@ class ProtobufExpositionFormatsTest extends ExpositionFormatsTest {
         writer.convert(snapshot, EscapingScheme.UNDERSCORE_ESCAPING);
     String actual = ProtobufUtil.shortDebugString(protobufData);
     assertThat(actual).isEqualTo(expected);
+    assertStreamingMatchesGenerated(snapshot);
+  }
+
+  /**
+   * The streaming writer must produce the same bytes as the generated code, also when writing one
+   * metric family at a time. Writes three times, so that the last write uses the encoder cache.
+   */
+  private static void assertStreamingMatchesGenerated(MetricSnapshot... snapshots) {
+    MetricSnapshots metricSnapshots = MetricSnapshots.of(snapshots);
+    PrometheusProtobufWriterImpl streaming = new PrometheusProtobufWriterImpl(true);
+    PrometheusProtobufWriterImpl generated = new PrometheusProtobufWriterImpl(false);
+    List<MetricSnapshots> families = new ArrayList<>();
+    for (MetricSnapshot snapshot : metricSnapshots) {
+      families.add(MetricSnapshots.of(snapshot));
+    }
+    for (EscapingScheme scheme : EscapingScheme.values()) {
+      for (int i = 0; i < 3; i++) {
+        byte[] expected = write(generated, metricSnapshots, scheme);
+        assertThat(write(streaming, metricSnapshots, scheme)).isEqualTo(expected);
+        assertThat(writeIncrementally(streaming, families, scheme)).isEqualTo(expected);
+        assertThat(writeIncrementally(generated, families, scheme)).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  void testStreamingWriterEdgeCases() {
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longValue.append("value ").append(i).append(i % 10 == 0 ? " Björn 😀" : "");
+    }
+    Labels labels = Labels.of("path", longValue.toString(), "surrogate", "a\uD83Db", "empty", "");
+    NativeHistogramBuckets.Builder positive = NativeHistogramBuckets.builder();
+    NativeHistogramBuckets.Builder negative = NativeHistogramBuckets.builder();
+    int index = -200;
+    for (int i = 0; i < 500; i++) {
+      index += 1 + i % 5;
+      positive.bucket(index, i % 7 == 0 ? 0 : 1000L * i);
+      negative.bucket(-index, i);
+    }
+    Exemplar exemplar =
+        Exemplar.builder()
+            .value(-1.5)
+            .labels(Labels.of("trace_id", "abc", "span.id", "ä"))
+            .timestampMillis(-1234)
+            .build();
+    HistogramSnapshot nativeHistogram =
+        HistogramSnapshot.builder()
+            .name("latency_seconds")
+            .help(longValue.toString())
+            .dataPoint(
+                HistogramSnapshot.HistogramDataPointSnapshot.builder()
+                    .labels(labels)
+                    .sum(-0.0)
+                    .nativeSchema(-4)
+                    .nativeZeroThreshold(0)
+                    .nativeZeroCount(Long.MAX_VALUE)
+                    .nativeBucketsForPositiveValues(positive.build())
+                    .nativeBucketsForNegativeValues(negative.build())
+                    .exemplars(Exemplars.of(exemplar))
+                    .scrapeTimestampMillis(Long.MAX_VALUE)
+                    .build())
+            .build();
+    CounterSnapshot counter =
+        CounterSnapshot.builder()
+            .name("my.requests")
+            .dataPoint(
+                CounterDataPointSnapshot.builder()
+                    .labels(labels)
+                    .value(Double.NaN)
+                    .exemplar(exemplar)
+                    .createdTimestampMillis(0)
+                    .scrapeTimestampMillis(1)
+                    .build())
+            .build();
+    SummarySnapshot emptySummary =
+        SummarySnapshot.builder()
+            .name("empty_summary")
+            .dataPoint(SummarySnapshot.SummaryDataPointSnapshot.builder().build())
+            .build();
+    assertStreamingMatchesGenerated(nativeHistogram, counter, emptySummary);
   }
 
   @Test
@@ -50,4 +143,64 @@ class ProtobufExpositionFormatsTest extends ExpositionFormatsTest {
             writer.toDebugString(MetricSnapshots.of(histogram), EscapingScheme.UNDERSCORE_ESCAPING))
         .isEqualTo(TextFormat.printer().printToString(protobufData));
   }
+
+  @Test
+  void testEncoderCache() throws IOException {
+    Labels a = Labels.of("path", "/a");
+    Labels b = Labels.of("path", "/b");
+    CounterSnapshot counter =
+        CounterSnapshot.builder()
+            .name("requests")
+            .dataPoint(CounterDataPointSnapshot.builder().labels(a).value(1).build())
+            .dataPoint(CounterDataPointSnapshot.builder().labels(b).value(2).build())
+            .build();
+    CounterSnapshot withoutB =
+        new CounterSnapshot(
+            counter.getMetadata(),
+            Collections.singletonList(
+                CounterDataPointSnapshot.builder().labels(a).value(3).build()));
+
+    PrometheusProtobufWriterImpl writer = new PrometheusProtobufWriterImpl();
+    // The first write is not cached, the second write fills the cache, the third write uses it.
+    for (int i = 0; i < 3; i++) {
+      assertThat(write(writer, counter)).isEqualTo(encode(writer, counter));
+    }
+    assertThat(write(writer, withoutB)).isEqualTo(encode(writer, withoutB));
+  }
+
+  private static byte[] write(PrometheusProtobufWriterImpl writer, MetricSnapshot snapshot)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out, MetricSnapshots.of(snapshot), EscapingScheme.UNDERSCORE_ESCAPING);
+    return out.toByteArray();
+  }
+
+  private static byte[] write(
+      PrometheusProtobufWriterImpl writer, MetricSnapshots snapshots, EscapingScheme scheme) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      writer.write(out, snapshots, scheme);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] writeIncrementally(
+      PrometheusProtobufWriterImpl writer, List<MetricSnapshots> families, EscapingScheme scheme) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      writer.writeIncrementally(out, families.iterator(), scheme);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] encode(PrometheusProtobufWriterImpl writer, MetricSnapshot snapshot)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.convert(snapshot, EscapingScheme.UNDERSCORE_ESCAPING).writeDelimitedTo(out);
+    return out.toByteArray();
+  }
 }
@@ -0,0 +1,285 @@
+package io.prometheus.metrics.expositionformats;
+
+import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Cache for the parts of the exposition output that don't change from one scrape to the next, like
+ * the {@code # HELP} and {@code # TYPE} lines and the encoded {@code name{labels} } prefix of each
+ * line. With the cache, writing a data point that was written before only formats its values.
+ *
+ * <p>Entries are looked up by identity: Metric families are identified by their {@link
+ * MetricMetadata} instance and data points by their {@link Labels} instance. Metrics in {@code
+ * prometheus-metrics-core} re-use these instances for each scrape, so they are cached. Snapshots
+ * that are created from scratch for each scrape are not cached:
+ *
+ * <ul>
+ *   <li>A metric family is cached from the second time it is written. Families with a new {@link
+ *       MetricMetadata} instance for each scrape only cost a small map entry until the metadata is
+ *       garbage collected.
+ *   <li>If a family has data points, but none of them were written before, the family has new
+ *       {@link Labels} instances for each scrape, like most callback metrics. Caching is disabled
+ *       for that family.
+ * </ul>
+ *
+ * Data points that were not written in the last scrape of their family are removed from the cache,
+ * so data points that are removed from a metric are removed from the cache on the next scrape. The
+ * total number of cached data points is limited to {@code maxDataPoints}. If the limit is reached,
+ * new data points are written without caching.
+ *
+ * <p>The type of the cached values depends on the exposition format, for example text formats cache
+ * {@link String}s. Each value has a slot number, so that multiple values can be cached for the same
+ * metric family or data point, like the {@code _count} and {@code _sum} lines of a histogram.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * EncoderCache.Family<String> family = cache.family(snapshot.getMetadata(), scheme);
+ * for (DataPointSnapshot data : snapshot.getDataPoints()) {
+ *   String prefix = family.get(data.getLabels(), SLOT);
+ *   if (prefix == null) {
+ *     prefix = encode(data.getLabels());
+ *     family.put(data.getLabels(), SLOT, prefix);
+ *   }
+ *   // ...
+ * }
+ * family.close();
+ * }</pre>
+ *
+ * This class is thread safe, but each {@link Family} must only be used by a single thread.
+ */
+public final class EncoderCache<V> {
+
+  /** Default for {@code maxDataPoints}. */
+  public static final int DEFAULT_MAX_DATA_POINTS = 100_000;
+
+  private final int slots;
+  private final int maxDataPoints;
+  private final AtomicInteger size = new AtomicInteger();
+  private final ConcurrentHashMap<FamilyKey, Entries> families = new ConcurrentHashMap<>();
+  private final ReferenceQueue<MetricMetadata> collected = new ReferenceQueue<>();
+  private final Family<V> uncached = new Family<>(null, null, 0);
+
+  /**
+   * @param slots number of values per metric family and per data point.
+   * @param maxDataPoints maximum number of cached data points. {@code 0} disables the cache.
+   */
+  public EncoderCache(int slots, int maxDataPoints) {
+    if (slots <= 0) {
+      throw new IllegalArgumentException(slots + ": slots must be > 0");
+    }
+    if (maxDataPoints < 0) {
+      throw new IllegalArgumentException(maxDataPoints + ": maxDataPoints must be >= 0");
+    }
+    this.slots = slots;
+    this.maxDataPoints = maxDataPoints;
+  }
+
+  /**
+   * Start writing a metric family. Call {@link Family#close()} when all data points are written.
+   */
+  public Family<V> family(MetricMetadata metadata, EscapingScheme scheme) {
+    if (maxDataPoints == 0) {
+      return uncached;
+    }
+    expungeCollected();
+    Entries entries = families.get(new FamilyKey(metadata, scheme, null));
+    if (entries == null) {
+      families.putIfAbsent(new FamilyKey(metadata, scheme, collected), new Entries());
+      return uncached;
+    }
+    if (entries.disabled) {
+      return uncached;
+    }
+    return new Family<>(this, entries, slots);
+  }
+
+  /** Number of cached data points. */
+  public int size() {
+    return size.get();
+  }
+
+  private void expungeCollected() {
+    Reference<? extends MetricMetadata> ref;
+    while ((ref = collected.poll()) != null) {
+      Entries entries = families.remove(ref);
+      if (entries != null) {
+        synchronized (entries) {
+          size.addAndGet(-entries.dataPoints.size());
+          entries.dataPoints = new IdentityHashMap<>(0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cached values for writing one metric family. Values that are not in the cache return {@code
+   * null}, the caller should encode them and {@link #put(Labels, int, Object) put} them into the
+   * cache.
+   */
+  public static final class Family<V> {
+
+    @Nullable private final EncoderCache<V> cache;
+    @Nullable private final Entries entries;
+    private final IdentityHashMap<Labels, Object[]> previous;
+    private final IdentityHashMap<Labels, Object[]> current;
+    private final Object[] header;
+    private int hits;
+    private int added;
+    @Nullable private Labels lastLabels;
+    @Nullable private Object[] lastValues;
+
+    private Family(@Nullable EncoderCache<V> cache, @Nullable Entries entries, int slots) {
+      this.cache = cache;
+      this.entries = entries;
+      if (entries == null) {
+        previous = new IdentityHashMap<>(0);
+        current = previous;
+        header = new Object[0];
+      } else {
+        previous = entries.dataPoints;
+        current = new IdentityHashMap<>(previous.size());
+        header = entries.header != null ? entries.header : new Object[slots];
+      }
+    }
+
+    /**
+     * {@code false} if values will not be cached. Callers may use this to write directly to the
+     * output instead of encoding values for the cache.
+     */
+    public boolean isEnabled() {
+      return entries != null;
+    }
+
+    /** Value for the metric family, or {@code null} if not cached. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(int slot) {
+      return entries == null ? null : (V) header[slot];
+    }
+
+    /** Value for the data point with the given labels, or {@code null} if not cached. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(Labels labels, int slot) {
+      Object[] values = values(labels, false);
+      return values == null ? null : (V) values[slot];
+    }
+
+    /** Cache a value for the metric family. */
+    public void put(int slot, V value) {
+      if (entries != null) {
+        header[slot] = value;
+      }
+    }
+
+    /** Cache a value for the data point with the given labels. */
+    public void put(Labels labels, int slot, V value) {
+      Object[] values = values(labels, true);
+      if (values != null) {
+        values[slot] = value;
+      }
+    }
+
+    /**
+     * Finish writing the metric family. Data points that were not written are removed from the
+     * cache.
+     */
+    public void close() {
+      if (cache == null || entries == null) {
+        return;
+      }
+      int delta;
+      synchronized (entries) {
+        if (hits == 0 && !previous.isEmpty() && !current.isEmpty()) {
+          entries.disabled = true;
+          delta = -entries.dataPoints.size();
+          entries.dataPoints = new IdentityHashMap<>(0);
+        } else {
+          delta = current.size() - entries.dataPoints.size();
+          entries.dataPoints = current;
+          entries.header = header;
+        }
+      }
+      cache.size.addAndGet(delta);
+    }
+
+    @Nullable
+    @SuppressWarnings("ReferenceEquality")
+    private Object[] values(Labels labels, boolean create) {
+      if (entries == null || cache == null) {
+        return null;
+      }
+      // All lines of a data point are written one after the other.
+      if (labels == lastLabels) {
+        return lastValues;
+      }
+      Object[] values = current.get(labels);
+      if (values == null) {
+        values = previous.get(labels);
+        if (values != null) {
+          hits++;
+          current.put(labels, values);
+        } else if (create && cache.size.get() + added < cache.maxDataPoints) {
+          values = new Object[header.length];
+          current.put(labels, values);
+          added++;
+        } else {
+          return null;
+        }
+      }
+      lastLabels = labels;
+      lastValues = values;
+      return values;
+    }
+  }
+
+  private static final class Entries {
+    @Nullable volatile Object[] header;
+    volatile IdentityHashMap<Labels, Object[]> dataPoints = new IdentityHashMap<>(0);
+    volatile boolean disabled;
+  }
+
+  /** Weak reference to the {@link MetricMetadata}, compared by identity. */
+  private static final class FamilyKey extends WeakReference<MetricMetadata> {
+
+    private final EscapingScheme scheme;
+    private final int hash;
+
+    private FamilyKey(
+        MetricMetadata metadata,
+        EscapingScheme scheme,
+        @Nullable ReferenceQueue<MetricMetadata> queue) {
+      super(metadata, queue);
+      this.scheme = scheme;
+      this.hash = 31 * System.identityHashCode(metadata) + scheme.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    @SuppressWarnings("ReferenceEquality")
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof FamilyKey)) {
+        return false;
+      }
+      FamilyKey other = (FamilyKey) o;
+      MetricMetadata metadata = get();
+      return metadata != null && metadata == other.get() && scheme == other.scheme;
+    }
+  }
+}
@@ -2,10 +2,12 @@ package io.prometheus.metrics.expositionformats;
 
 import io.prometheus.metrics.annotations.StableApi;
 import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 import javax.annotation.Nullable;
 
 @StableApi
@@ -21,6 +23,27 @@ public interface ExpositionFormatWriter {
     write(out, metricSnapshots, EscapingScheme.DEFAULT);
   }
 
+  /**
+   * Writes metric families one at a time, like the ones returned by {@code
+   * PrometheusRegistry.scrapeIncrementally()}. Each element of {@code metricFamilies} contains the
+   * snapshots with the same Prometheus name, and the elements are sorted by name.
+   *
+   * <p>Writers that support this write each metric family before the next one is collected. The
+   * default implementation collects all metric families first, and then calls {@link
+   * #write(OutputStream, MetricSnapshots, EscapingScheme)}.
+   */
+  default void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme escapingScheme)
+      throws IOException {
+    MetricSnapshots.Builder builder = MetricSnapshots.builder();
+    while (metricFamilies.hasNext()) {
+      for (MetricSnapshot snapshot : metricFamilies.next()) {
+        builder.metricSnapshot(snapshot);
+      }
+    }
+    write(out, builder.build(), escapingScheme);
+  }
+
   /** Converts the metric snapshots to a debug string using the specified escaping scheme. */
   // toString with Charset is only available in Java 10+, but we want to support Java 8
   @SuppressWarnings("JdkObsolete")
@@ -31,12 +31,10 @@ import io.prometheus.metrics.model.snapshots.SnapshotEscaper;
 import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import javax.annotation.Nullable;
 
 /**
@@ -145,8 +143,29 @@ public class OpenMetrics2TextFormatWriter implements ExpositionFormatWriter {
   @Override
   public void write(OutputStream out, MetricSnapshots metricSnapshots, EscapingScheme scheme)
       throws IOException {
-    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-    MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+      writeMetricFamilies(writer, merged, scheme);
+      writer.write("# EOF\n");
+      writer.flush();
+    }
+  }
+
+  @Override
+  public void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme scheme)
+      throws IOException {
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      while (metricFamilies.hasNext()) {
+        writeMetricFamilies(writer, TextFormatUtil.mergeDuplicates(metricFamilies.next()), scheme);
+      }
+      writer.write("# EOF\n");
+      writer.flush();
+    }
+  }
+
+  private void writeMetricFamilies(Writer writer, MetricSnapshots merged, EscapingScheme scheme)
+      throws IOException {
     for (MetricSnapshot s : merged) {
       MetricSnapshot snapshot = SnapshotEscaper.escapeMetricSnapshot(s, scheme);
       if (!snapshot.getDataPoints().isEmpty()) {
@@ -167,8 +186,6 @@ public class OpenMetrics2TextFormatWriter implements ExpositionFormatWriter {
         }
       }
     }
-    writer.write("# EOF\n");
-    writer.flush();
   }
 
   private void writeCounter(Writer writer, CounterSnapshot snapshot, EscapingScheme scheme)
@@ -5,7 +5,9 @@ import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeEscape
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeLabels;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeLong;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeName;
+import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeNameAndLabels;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeOpenMetricsTimestamp;
+import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeUtf8;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getExpositionBaseMetadataName;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getMetadataName;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getSnapshotLabelName;
@@ -25,18 +27,15 @@ import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricMetadata;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
-import io.prometheus.metrics.model.snapshots.PrometheusNaming;
 import io.prometheus.metrics.model.snapshots.Quantile;
 import io.prometheus.metrics.model.snapshots.SnapshotEscaper;
 import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 import javax.annotation.Nullable;
 
@@ -50,6 +49,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
   public static class Builder {
     boolean createdTimestampsEnabled;
     boolean exemplarsOnAllMetricTypesEnabled;
+    int encoderCacheSize = EncoderCache.DEFAULT_MAX_DATA_POINTS;
 
     private Builder() {}
 
@@ -70,16 +70,41 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       return this;
     }
 
+    /**
+     * Maximum number of data points for which the encoded names and labels are cached between
+     * scrapes, see {@link EncoderCache}. Default is {@link EncoderCache#DEFAULT_MAX_DATA_POINTS}.
+     * {@code 0} disables the cache.
+     */
+    public Builder setEncoderCacheSize(int encoderCacheSize) {
+      if (encoderCacheSize < 0) {
+        throw new IllegalArgumentException(encoderCacheSize + ": encoderCacheSize must be >= 0");
+      }
+      this.encoderCacheSize = encoderCacheSize;
+      return this;
+    }
+
     public OpenMetricsTextFormatWriter build() {
       return new OpenMetricsTextFormatWriter(
-          createdTimestampsEnabled, exemplarsOnAllMetricTypesEnabled);
+          createdTimestampsEnabled, exemplarsOnAllMetricTypesEnabled, encoderCacheSize);
     }
   }
 
   public static final String CONTENT_TYPE =
       "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  // Slot in the encoder cache for the metric family
+  private static final int HEADER = 0;
+
+  // Slots in the encoder cache for each data point
+  private static final int VALUE = 0;
+  private static final int BUCKET = 1;
+  private static final int COUNT = 2;
+  private static final int SUM = 3;
+  private static final int CREATED = 4;
+
   private final boolean createdTimestampsEnabled;
   private final boolean exemplarsOnAllMetricTypesEnabled;
+  private final EncoderCache<byte[]> encoderCache;
 
   /**
    * @param createdTimestampsEnabled whether to include the _created timestamp in the output - This
@@ -87,8 +112,19 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
    */
   public OpenMetricsTextFormatWriter(
       boolean createdTimestampsEnabled, boolean exemplarsOnAllMetricTypesEnabled) {
+    this(
+        createdTimestampsEnabled,
+        exemplarsOnAllMetricTypesEnabled,
+        EncoderCache.DEFAULT_MAX_DATA_POINTS);
+  }
+
+  private OpenMetricsTextFormatWriter(
+      boolean createdTimestampsEnabled,
+      boolean exemplarsOnAllMetricTypesEnabled,
+      int encoderCacheSize) {
     this.createdTimestampsEnabled = createdTimestampsEnabled;
     this.exemplarsOnAllMetricTypesEnabled = exemplarsOnAllMetricTypesEnabled;
+    this.encoderCache = new EncoderCache<>(CREATED + 1, encoderCacheSize);
   }
 
   public static Builder builder() {
@@ -115,53 +151,82 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
   @Override
   public void write(OutputStream out, MetricSnapshots metricSnapshots, EscapingScheme scheme)
       throws IOException {
-    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-    MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+      writeMetricFamilies(writer, merged, scheme);
+      writer.write("# EOF\n");
+      writer.flush();
+    }
+  }
+
+  @Override
+  public void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme scheme)
+      throws IOException {
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      while (metricFamilies.hasNext()) {
+        writeMetricFamilies(writer, TextFormatUtil.mergeDuplicates(metricFamilies.next()), scheme);
+      }
+      writer.write("# EOF\n");
+      writer.flush();
+    }
+  }
+
+  private void writeMetricFamilies(Writer writer, MetricSnapshots merged, EscapingScheme scheme)
+      throws IOException {
     for (MetricSnapshot s : merged) {
       MetricSnapshot snapshot = SnapshotEscaper.escapeMetricSnapshot(s, scheme);
       if (!snapshot.getDataPoints().isEmpty()) {
+        EncoderCache.Family<byte[]> family = encoderCache.family(snapshot.getMetadata(), scheme);
         if (snapshot instanceof CounterSnapshot) {
-          writeCounter(writer, (CounterSnapshot) snapshot, scheme);
+          writeCounter(writer, (CounterSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof GaugeSnapshot) {
-          writeGauge(writer, (GaugeSnapshot) snapshot, scheme);
+          writeGauge(writer, (GaugeSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof HistogramSnapshot) {
-          writeHistogram(writer, (HistogramSnapshot) snapshot, scheme);
+          writeHistogram(writer, (HistogramSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof SummarySnapshot) {
-          writeSummary(writer, (SummarySnapshot) snapshot, scheme);
+          writeSummary(writer, (SummarySnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof InfoSnapshot) {
-          writeInfo(writer, (InfoSnapshot) snapshot, scheme);
+          writeInfo(writer, (InfoSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof StateSetSnapshot) {
-          writeStateSet(writer, (StateSetSnapshot) snapshot, scheme);
+          writeStateSet(writer, (StateSetSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof UnknownSnapshot) {
-          writeUnknown(writer, (UnknownSnapshot) snapshot, scheme);
+          writeUnknown(writer, (UnknownSnapshot) snapshot, family, scheme);
         }
+        family.close();
       }
     }
-    writer.write("# EOF\n");
-    writer.flush();
   }
 
-  private void writeCounter(Writer writer, CounterSnapshot snapshot, EscapingScheme scheme)
+  private void writeCounter(
+      Writer writer,
+      CounterSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
     String counterName = resolveExpositionName(metadata, "_total", scheme);
     String baseName = resolveBaseName(counterName, "_total");
-    writeMetadataWithName(writer, baseName, "counter", metadata);
+    writeMetadataWithName(writer, family, baseName, "counter", metadata);
     for (CounterSnapshot.CounterDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, counterName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, counterName, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getValue());
       writeScrapeTimestampAndExemplar(writer, data, data.getExemplar(), scheme);
-      writeCreated(writer, baseName, data, scheme);
+      writeCreated(writer, baseName, data, family, scheme);
     }
   }
 
-  private void writeGauge(Writer writer, GaugeSnapshot snapshot, EscapingScheme scheme)
+  private void writeGauge(
+      Writer writer,
+      GaugeSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, "gauge", metadata, scheme);
+    writeMetadata(writer, family, "gauge", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     for (GaugeSnapshot.GaugeDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, name, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, name, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getValue());
       if (exemplarsOnAllMetricTypesEnabled) {
         writeScrapeTimestampAndExemplar(writer, data, data.getExemplar(), scheme);
@@ -171,17 +236,21 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
     }
   }
 
-  void writeHistogram(Writer writer, HistogramSnapshot snapshot, EscapingScheme scheme)
+  private void writeHistogram(
+      Writer writer,
+      HistogramSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
     if (snapshot.isGaugeHistogram()) {
-      writeMetadata(writer, "gaugehistogram", metadata, scheme);
+      writeMetadata(writer, family, "gaugehistogram", metadata, scheme);
       writeClassicHistogramBuckets(
-          writer, metadata, "_gcount", "_gsum", snapshot.getDataPoints(), scheme);
+          writer, metadata, "_gcount", "_gsum", snapshot.getDataPoints(), family, scheme);
     } else {
-      writeMetadata(writer, "histogram", metadata, scheme);
+      writeMetadata(writer, family, "histogram", metadata, scheme);
       writeClassicHistogramBuckets(
-          writer, metadata, "_count", "_sum", snapshot.getDataPoints(), scheme);
+          writer, metadata, "_count", "_sum", snapshot.getDataPoints(), family, scheme);
     }
   }
 
@@ -191,6 +260,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       String countSuffix,
       String sumSuffix,
       List<HistogramSnapshot.HistogramDataPointSnapshot> dataList,
+      EncoderCache.Family<byte[]> family,
       EscapingScheme scheme)
       throws IOException {
     String name = getMetadataName(metadata, scheme);
@@ -204,7 +274,14 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       for (int i = 0; i < buckets.size(); i++) {
         cumulativeCount += buckets.getCount(i);
         writeNameAndLabels(
-            writer, bucketName, null, data.getLabels(), scheme, "le", buckets.getUpperBound(i));
+            writer,
+            family,
+            BUCKET,
+            bucketName,
+            data.getLabels(),
+            "le",
+            buckets.getUpperBound(i),
+            scheme);
         writeLong(writer, cumulativeCount);
         Exemplar exemplar;
         if (i == 0) {
@@ -216,9 +293,9 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       }
       // In OpenMetrics format, histogram _count and _sum are either both present or both absent.
       if (data.hasCount() && data.hasSum()) {
-        writeCountAndSum(writer, countName, sumName, data, exemplars, scheme);
+        writeCountAndSum(writer, countName, sumName, data, exemplars, family, scheme);
       }
-      writeCreated(writer, name, data, scheme);
+      writeCreated(writer, name, data, family, scheme);
     }
   }
 
@@ -234,6 +311,17 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
 
   void writeSummary(Writer writer, SummarySnapshot snapshot, EscapingScheme scheme)
       throws IOException {
+    EncoderCache.Family<byte[]> family = encoderCache.family(snapshot.getMetadata(), scheme);
+    writeSummary(writer, snapshot, family, scheme);
+    family.close();
+  }
+
+  private void writeSummary(
+      Writer writer,
+      SummarySnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
+      throws IOException {
     boolean metadataWritten = false;
     MetricMetadata metadata = snapshot.getMetadata();
     String name = getMetadataName(metadata, scheme);
@@ -244,7 +332,7 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         continue;
       }
       if (!metadataWritten) {
-        writeMetadata(writer, "summary", metadata, scheme);
+        writeMetadata(writer, family, "summary", metadata, scheme);
         metadataWritten = true;
       }
       Exemplars exemplars = data.getExemplars();
@@ -256,7 +344,14 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       int exemplarIndex = 1;
       for (Quantile quantile : data.getQuantiles()) {
         writeNameAndLabels(
-            writer, name, null, data.getLabels(), scheme, "quantile", quantile.getQuantile());
+            writer,
+            family,
+            VALUE,
+            name,
+            data.getLabels(),
+            "quantile",
+            quantile.getQuantile(),
+            scheme);
         writeDouble(writer, quantile.getValue());
         if (exemplars.size() > 0 && exemplarsOnAllMetricTypesEnabled) {
           exemplarIndex = (exemplarIndex + 1) % exemplars.size();
@@ -266,28 +361,36 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
         }
       }
       // Unlike histograms, summaries can have only a count or only a sum according to OpenMetrics.
-      writeCountAndSum(writer, countName, sumName, data, exemplars, scheme);
-      writeCreated(writer, name, data, scheme);
+      writeCountAndSum(writer, countName, sumName, data, exemplars, family, scheme);
+      writeCreated(writer, name, data, family, scheme);
     }
   }
 
-  private void writeInfo(Writer writer, InfoSnapshot snapshot, EscapingScheme scheme)
+  private void writeInfo(
+      Writer writer,
+      InfoSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
     String infoName = resolveExpositionName(metadata, "_info", scheme);
     String baseName = resolveBaseName(infoName, "_info");
-    writeMetadataWithName(writer, baseName, "info", metadata);
+    writeMetadataWithName(writer, family, baseName, "info", metadata);
     for (InfoSnapshot.InfoDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, infoName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, infoName, data.getLabels(), null, 0, scheme);
       writer.write("1");
       writeScrapeTimestampAndExemplar(writer, data, null, scheme);
     }
   }
 
-  private void writeStateSet(Writer writer, StateSetSnapshot snapshot, EscapingScheme scheme)
+  private void writeStateSet(
+      Writer writer,
+      StateSetSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, "stateset", metadata, scheme);
+    writeMetadata(writer, family, "stateset", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     for (StateSetSnapshot.StateSetDataPointSnapshot data : snapshot.getDataPoints()) {
       for (int i = 0; i < data.size(); i++) {
@@ -320,13 +423,17 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
     }
   }
 
-  private void writeUnknown(Writer writer, UnknownSnapshot snapshot, EscapingScheme scheme)
+  private void writeUnknown(
+      Writer writer,
+      UnknownSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, "unknown", metadata, scheme);
+    writeMetadata(writer, family, "unknown", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     for (UnknownSnapshot.UnknownDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, name, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, name, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getValue());
       if (exemplarsOnAllMetricTypesEnabled) {
         writeScrapeTimestampAndExemplar(writer, data, data.getExemplar(), scheme);
@@ -342,10 +449,11 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       String sumName,
       DistributionDataPointSnapshot data,
       Exemplars exemplars,
+      EncoderCache.Family<byte[]> family,
       EscapingScheme scheme)
       throws IOException {
     if (data.hasCount()) {
-      writeNameAndLabels(writer, countName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, COUNT, countName, data.getLabels(), null, 0, scheme);
       writeLong(writer, data.getCount());
       if (exemplarsOnAllMetricTypesEnabled) {
         writeScrapeTimestampAndExemplar(writer, data, exemplars.getLatest(), scheme);
@@ -354,17 +462,22 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
       }
     }
     if (data.hasSum()) {
-      writeNameAndLabels(writer, sumName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, SUM, sumName, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getSum());
       writeScrapeTimestampAndExemplar(writer, data, null, scheme);
     }
   }
 
   private void writeCreated(
-      Writer writer, String baseName, DataPointSnapshot data, EscapingScheme scheme)
+      Writer writer,
+      String baseName,
+      DataPointSnapshot data,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     if (createdTimestampsEnabled && data.hasCreatedTimestamp()) {
-      writeNameAndLabels(writer, baseName, "_created", data.getLabels(), scheme);
+      writeNameAndLabels(
+          writer, family, CREATED, baseName + "_created", data.getLabels(), null, 0, scheme);
       writeOpenMetricsTimestamp(writer, data.getCreatedTimestampMillis());
       if (data.hasScrapeTimestamp()) {
         writer.write(' ');
@@ -374,47 +487,6 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
     }
   }
 
-  private void writeNameAndLabels(
-      Writer writer,
-      String name,
-      @Nullable String suffix,
-      Labels labels,
-      EscapingScheme escapingScheme)
-      throws IOException {
-    writeNameAndLabels(writer, name, suffix, labels, escapingScheme, null, 0.0);
-  }
-
-  private void writeNameAndLabels(
-      Writer writer,
-      String name,
-      @Nullable String suffix,
-      Labels labels,
-      EscapingScheme escapingScheme,
-      @Nullable String additionalLabelName,
-      double additionalLabelValue)
-      throws IOException {
-    boolean metricInsideBraces = false;
-    // If the name does not pass the legacy validity check, we must put the
-    // metric name inside the braces.
-    if (!PrometheusNaming.isValidLegacyMetricName(name)) {
-      metricInsideBraces = true;
-      writer.write('{');
-    }
-    writeName(writer, suffix != null ? name + suffix : name, NameType.Metric);
-    if (!labels.isEmpty() || additionalLabelName != null) {
-      writeLabels(
-          writer,
-          labels,
-          additionalLabelName,
-          additionalLabelValue,
-          metricInsideBraces,
-          escapingScheme);
-    } else if (metricInsideBraces) {
-      writer.write('}');
-    }
-    writer.write(' ');
-  }
-
   void writeScrapeTimestampAndExemplar(
       Writer writer, DataPointSnapshot data, @Nullable Exemplar exemplar, EscapingScheme scheme)
       throws IOException {
@@ -454,9 +526,34 @@ public class OpenMetricsTextFormatWriter implements ExpositionFormatWriter {
   }
 
   private void writeMetadata(
-      Writer writer, String typeName, MetricMetadata metadata, EscapingScheme scheme)
+      Writer writer,
+      EncoderCache.Family<byte[]> family,
+      String typeName,
+      MetricMetadata metadata,
+      EscapingScheme scheme)
       throws IOException {
-    writeMetadataWithName(writer, getMetadataName(metadata, scheme), typeName, metadata);
+    writeMetadataWithName(writer, family, getMetadataName(metadata, scheme), typeName, metadata);
+  }
+
+  private void writeMetadataWithName(
+      Writer writer,
+      EncoderCache.Family<byte[]> family,
+      String name,
+      String typeName,
+      MetricMetadata metadata)
+      throws IOException {
+    if (!family.isEnabled()) {
+      writeMetadataWithName(writer, name, typeName, metadata);
+      return;
+    }
+    byte[] encoded = family.get(HEADER);
+    if (encoded == null) {
+      Utf8Writer utf8Writer = new Utf8Writer(128);
+      writeMetadataWithName(utf8Writer, name, typeName, metadata);
+      encoded = utf8Writer.toByteArray();
+      family.put(HEADER, encoded);
+    }
+    writeUtf8(writer, encoded);
   }
 
   private void writeMetadataWithName(
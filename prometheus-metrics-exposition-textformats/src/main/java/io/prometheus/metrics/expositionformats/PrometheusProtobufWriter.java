@@ -5,6 +5,7 @@ import io.prometheus.metrics.config.EscapingScheme;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 import javax.annotation.Nullable;
 
 /**
@@ -22,6 +23,17 @@ public class PrometheusProtobufWriter implements ExpositionFormatWriter {
       "application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; "
           + "encoding=delimited";
 
+  @Nullable private final ExpositionFormatWriter delegate;
+
+  public PrometheusProtobufWriter() {
+    this(DELEGATE);
+  }
+
+  // VisibleForTesting
+  PrometheusProtobufWriter(@Nullable ExpositionFormatWriter delegate) {
+    this.delegate = delegate;
+  }
+
   @Nullable
   private static ExpositionFormatWriter createProtobufWriter() {
     try {
@@ -53,7 +65,7 @@ public class PrometheusProtobufWriter implements ExpositionFormatWriter {
 
   @Override
   public boolean isAvailable() {
-    return DELEGATE != null;
+    return delegate != null;
   }
 
   @Override
@@ -68,10 +80,17 @@ public class PrometheusProtobufWriter implements ExpositionFormatWriter {
     getDelegate().write(out, metricSnapshots, escapingScheme);
   }
 
+  @Override
+  public void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme escapingScheme)
+      throws IOException {
+    getDelegate().writeIncrementally(out, metricFamilies, escapingScheme);
+  }
+
   private ExpositionFormatWriter getDelegate() {
-    if (DELEGATE == null) {
+    if (delegate == null) {
       throw new UnsupportedOperationException("Prometheus protobuf writer not available");
     }
-    return DELEGATE;
+    return delegate;
   }
 }
@@ -2,10 +2,11 @@ package io.prometheus.metrics.expositionformats;
 
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeDouble;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeEscapedString;
-import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeLabels;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeLong;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeName;
+import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeNameAndLabels;
 import static io.prometheus.metrics.expositionformats.TextFormatUtil.writePrometheusTimestamp;
+import static io.prometheus.metrics.expositionformats.TextFormatUtil.writeUtf8;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.escapeMetricSnapshot;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getExpositionBaseMetadataName;
 import static io.prometheus.metrics.model.snapshots.SnapshotEscaper.getLegacyGaugeName;
@@ -20,21 +21,17 @@ import io.prometheus.metrics.model.snapshots.DataPointSnapshot;
 import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
 import io.prometheus.metrics.model.snapshots.HistogramSnapshot;
 import io.prometheus.metrics.model.snapshots.InfoSnapshot;
-import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricMetadata;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
-import io.prometheus.metrics.model.snapshots.PrometheusNaming;
 import io.prometheus.metrics.model.snapshots.Quantile;
 import io.prometheus.metrics.model.snapshots.StateSetSnapshot;
 import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import javax.annotation.Nullable;
 
 /**
@@ -46,12 +43,25 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
 
   public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
 
+  // Slots in the encoder cache for the metric family
+  private static final int HEADER = 0;
+  private static final int GCOUNT_HEADER = 1;
+  private static final int GSUM_HEADER = 2;
+
+  // Slots in the encoder cache for each data point
+  private static final int VALUE = 0;
+  private static final int BUCKET = 1;
+  private static final int COUNT = 2;
+  private static final int SUM = 3;
+
   private final boolean writeCreatedTimestamps;
   private final boolean timestampsInMs;
+  private final EncoderCache<byte[]> encoderCache;
 
   public static class Builder {
     boolean includeCreatedTimestamps;
     boolean timestampsInMs = true;
+    int encoderCacheSize = EncoderCache.DEFAULT_MAX_DATA_POINTS;
 
     private Builder() {}
 
@@ -72,8 +82,22 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
       return this;
     }
 
+    /**
+     * Maximum number of data points for which the encoded names and labels are cached between
+     * scrapes, see {@link EncoderCache}. Default is {@link EncoderCache#DEFAULT_MAX_DATA_POINTS}.
+     * {@code 0} disables the cache.
+     */
+    public Builder setEncoderCacheSize(int encoderCacheSize) {
+      if (encoderCacheSize < 0) {
+        throw new IllegalArgumentException(encoderCacheSize + ": encoderCacheSize must be >= 0");
+      }
+      this.encoderCacheSize = encoderCacheSize;
+      return this;
+    }
+
     public PrometheusTextFormatWriter build() {
-      return new PrometheusTextFormatWriter(includeCreatedTimestamps, timestampsInMs);
+      return new PrometheusTextFormatWriter(
+          includeCreatedTimestamps, timestampsInMs, encoderCacheSize);
     }
   }
 
@@ -85,12 +109,14 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
    */
   @Deprecated
   public PrometheusTextFormatWriter(boolean writeCreatedTimestamps) {
-    this(writeCreatedTimestamps, false);
+    this(writeCreatedTimestamps, false, EncoderCache.DEFAULT_MAX_DATA_POINTS);
   }
 
-  private PrometheusTextFormatWriter(boolean writeCreatedTimestamps, boolean timestampsInMs) {
+  private PrometheusTextFormatWriter(
+      boolean writeCreatedTimestamps, boolean timestampsInMs, int encoderCacheSize) {
     this.writeCreatedTimestamps = writeCreatedTimestamps;
     this.timestampsInMs = timestampsInMs;
+    this.encoderCache = new EncoderCache<>(SUM + 1, encoderCacheSize);
   }
 
   public static PrometheusTextFormatWriter.Builder builder() {
@@ -121,43 +147,74 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
     // See https://prometheus.io/docs/instrumenting/exposition_formats/
     // "unknown", "gauge", "counter", "stateset", "info", "histogram", "gaugehistogram", and
     // "summary".
-    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-    MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      MetricSnapshots merged = TextFormatUtil.mergeDuplicates(metricSnapshots);
+      writeMetricFamilies(writer, merged, scheme);
+      if (writeCreatedTimestamps) {
+        for (MetricSnapshot s : merged) {
+          MetricSnapshot snapshot = escapeMetricSnapshot(s, scheme);
+          if (!snapshot.getDataPoints().isEmpty()) {
+            if (snapshot instanceof CounterSnapshot) {
+              writeCreated(writer, snapshot, scheme);
+            } else if (snapshot instanceof HistogramSnapshot) {
+              writeCreated(writer, snapshot, scheme);
+            } else if (snapshot instanceof SummarySnapshot) {
+              writeCreated(writer, snapshot, scheme);
+            }
+          }
+        }
+      }
+      writer.flush();
+    }
+  }
+
+  /**
+   * Metric families are written as they are collected. If {@link
+   * Builder#setIncludeCreatedTimestamps(boolean) created timestamps} are included, this falls back
+   * to collecting all metric families first, because the {@code _created} metrics are written after
+   * all other metric families.
+   */
+  @Override
+  public void writeIncrementally(
+      OutputStream out, Iterator<MetricSnapshots> metricFamilies, EscapingScheme scheme)
+      throws IOException {
+    if (writeCreatedTimestamps) {
+      ExpositionFormatWriter.super.writeIncrementally(out, metricFamilies, scheme);
+      return;
+    }
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      while (metricFamilies.hasNext()) {
+        writeMetricFamilies(writer, TextFormatUtil.mergeDuplicates(metricFamilies.next()), scheme);
+      }
+      writer.flush();
+    }
+  }
+
+  private void writeMetricFamilies(Writer writer, MetricSnapshots merged, EscapingScheme scheme)
+      throws IOException {
     for (MetricSnapshot s : merged) {
       MetricSnapshot snapshot = escapeMetricSnapshot(s, scheme);
       if (!snapshot.getDataPoints().isEmpty()) {
+        EncoderCache.Family<byte[]> family = encoderCache.family(snapshot.getMetadata(), scheme);
         if (snapshot instanceof CounterSnapshot) {
-          writeCounter(writer, (CounterSnapshot) snapshot, scheme);
+          writeCounter(writer, (CounterSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof GaugeSnapshot) {
-          writeGauge(writer, (GaugeSnapshot) snapshot, s.getMetadata().getOriginalName(), scheme);
+          writeGauge(
+              writer, (GaugeSnapshot) snapshot, s.getMetadata().getOriginalName(), family, scheme);
         } else if (snapshot instanceof HistogramSnapshot) {
-          writeHistogram(writer, (HistogramSnapshot) snapshot, scheme);
+          writeHistogram(writer, (HistogramSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof SummarySnapshot) {
-          writeSummary(writer, (SummarySnapshot) snapshot, scheme);
+          writeSummary(writer, (SummarySnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof InfoSnapshot) {
-          writeInfo(writer, (InfoSnapshot) snapshot, scheme);
+          writeInfo(writer, (InfoSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof StateSetSnapshot) {
-          writeStateSet(writer, (StateSetSnapshot) snapshot, scheme);
+          writeStateSet(writer, (StateSetSnapshot) snapshot, family, scheme);
         } else if (snapshot instanceof UnknownSnapshot) {
-          writeUnknown(writer, (UnknownSnapshot) snapshot, scheme);
-        }
-      }
-    }
-    if (writeCreatedTimestamps) {
-      for (MetricSnapshot s : merged) {
-        MetricSnapshot snapshot = escapeMetricSnapshot(s, scheme);
-        if (!snapshot.getDataPoints().isEmpty()) {
-          if (snapshot instanceof CounterSnapshot) {
-            writeCreated(writer, snapshot, scheme);
-          } else if (snapshot instanceof HistogramSnapshot) {
-            writeCreated(writer, snapshot, scheme);
-          } else if (snapshot instanceof SummarySnapshot) {
-            writeCreated(writer, snapshot, scheme);
-          }
+          writeUnknown(writer, (UnknownSnapshot) snapshot, family, scheme);
         }
+        family.close();
       }
     }
-    writer.flush();
   }
 
   public void writeCreated(Writer writer, MetricSnapshot snapshot, EscapingScheme scheme)
@@ -174,21 +231,25 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
           writeMetadataWithFullName(writer, baseName + "_created", "gauge", metadata);
           metadataWritten = true;
         }
-        writeNameAndLabels(writer, baseName, "_created", data.getLabels(), scheme);
+        writeNameAndLabels(writer, baseName + "_created", data.getLabels(), null, 0, scheme);
         writePrometheusTimestamp(writer, data.getCreatedTimestampMillis(), timestampsInMs);
         writeScrapeTimestampAndNewline(writer, data);
       }
     }
   }
 
-  private void writeCounter(Writer writer, CounterSnapshot snapshot, EscapingScheme scheme)
+  private void writeCounter(
+      Writer writer,
+      CounterSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     if (!snapshot.getDataPoints().isEmpty()) {
       MetricMetadata metadata = snapshot.getMetadata();
       String counterName = resolveExpositionName(metadata, "_total", scheme);
-      writeMetadataWithFullName(writer, counterName, "counter", metadata);
+      writeMetadataWithFullName(writer, family, HEADER, counterName, "counter", metadata);
       for (CounterSnapshot.CounterDataPointSnapshot data : snapshot.getDataPoints()) {
-        writeNameAndLabels(writer, counterName, null, data.getLabels(), scheme);
+        writeNameAndLabels(writer, family, VALUE, counterName, data.getLabels(), null, 0, scheme);
         writeDouble(writer, data.getValue());
         writeScrapeTimestampAndNewline(writer, data);
       }
@@ -196,22 +257,30 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
   }
 
   private void writeGauge(
-      Writer writer, GaugeSnapshot snapshot, String rawOriginalName, EscapingScheme scheme)
+      Writer writer,
+      GaugeSnapshot snapshot,
+      String rawOriginalName,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
     String gaugeName = getLegacyGaugeName(metadata, rawOriginalName, scheme);
-    writeMetadataWithFullName(writer, gaugeName, "gauge", metadata);
+    writeMetadataWithFullName(writer, family, HEADER, gaugeName, "gauge", metadata);
     for (GaugeSnapshot.GaugeDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, gaugeName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, gaugeName, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getValue());
       writeScrapeTimestampAndNewline(writer, data);
     }
   }
 
-  private void writeHistogram(Writer writer, HistogramSnapshot snapshot, EscapingScheme scheme)
+  private void writeHistogram(
+      Writer writer,
+      HistogramSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, null, "histogram", metadata, scheme);
+    writeMetadata(writer, family, HEADER, null, "histogram", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     String bucketName = name + "_bucket";
     String countName = name + "_count";
@@ -222,25 +291,32 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
       for (int i = 0; i < buckets.size(); i++) {
         cumulativeCount += buckets.getCount(i);
         writeNameAndLabels(
-            writer, bucketName, null, data.getLabels(), scheme, "le", buckets.getUpperBound(i));
+            writer,
+            family,
+            BUCKET,
+            bucketName,
+            data.getLabels(),
+            "le",
+            buckets.getUpperBound(i),
+            scheme);
         writeLong(writer, cumulativeCount);
         writeScrapeTimestampAndNewline(writer, data);
       }
       if (!snapshot.isGaugeHistogram()) {
         if (data.hasCount()) {
-          writeNameAndLabels(writer, countName, null, data.getLabels(), scheme);
+          writeNameAndLabels(writer, family, COUNT, countName, data.getLabels(), null, 0, scheme);
           writeLong(writer, data.getCount());
           writeScrapeTimestampAndNewline(writer, data);
         }
         if (data.hasSum()) {
-          writeNameAndLabels(writer, sumName, null, data.getLabels(), scheme);
+          writeNameAndLabels(writer, family, SUM, sumName, data.getLabels(), null, 0, scheme);
           writeDouble(writer, data.getSum());
           writeScrapeTimestampAndNewline(writer, data);
         }
       }
     }
     if (snapshot.isGaugeHistogram()) {
-      writeGaugeCountSum(writer, snapshot, metadata, scheme);
+      writeGaugeCountSum(writer, snapshot, metadata, family, scheme);
     }
   }
 
@@ -255,7 +331,11 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
   }
 
   private void writeGaugeCountSum(
-      Writer writer, HistogramSnapshot snapshot, MetricMetadata metadata, EscapingScheme scheme)
+      Writer writer,
+      HistogramSnapshot snapshot,
+      MetricMetadata metadata,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     // Prometheus text format does not support gaugehistogram's _gcount and _gsum.
     // So we append _gcount and _gsum as gauge metrics.
@@ -266,10 +346,11 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
     for (HistogramSnapshot.HistogramDataPointSnapshot data : snapshot.getDataPoints()) {
       if (data.hasCount()) {
         if (!metadataWritten) {
-          writeMetadata(writer, "_gcount", "gauge", metadata, scheme);
+          writeMetadata(writer, family, GCOUNT_HEADER, "_gcount", "gauge", metadata, scheme);
           metadataWritten = true;
         }
-        writeNameAndLabels(writer, gaugeCountName, null, data.getLabels(), scheme);
+        writeNameAndLabels(
+            writer, family, COUNT, gaugeCountName, data.getLabels(), null, 0, scheme);
         writeLong(writer, data.getCount());
         writeScrapeTimestampAndNewline(writer, data);
       }
@@ -278,17 +359,21 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
     for (HistogramSnapshot.HistogramDataPointSnapshot data : snapshot.getDataPoints()) {
       if (data.hasSum()) {
         if (!metadataWritten) {
-          writeMetadata(writer, "_gsum", "gauge", metadata, scheme);
+          writeMetadata(writer, family, GSUM_HEADER, "_gsum", "gauge", metadata, scheme);
           metadataWritten = true;
         }
-        writeNameAndLabels(writer, gaugeSumName, null, data.getLabels(), scheme);
+        writeNameAndLabels(writer, family, SUM, gaugeSumName, data.getLabels(), null, 0, scheme);
         writeDouble(writer, data.getSum());
         writeScrapeTimestampAndNewline(writer, data);
       }
     }
   }
 
-  private void writeSummary(Writer writer, SummarySnapshot snapshot, EscapingScheme scheme)
+  private void writeSummary(
+      Writer writer,
+      SummarySnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     boolean metadataWritten = false;
     MetricMetadata metadata = snapshot.getMetadata();
@@ -300,44 +385,59 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
         continue;
       }
       if (!metadataWritten) {
-        writeMetadata(writer, null, "summary", metadata, scheme);
+        writeMetadata(writer, family, HEADER, null, "summary", metadata, scheme);
         metadataWritten = true;
       }
       for (Quantile quantile : data.getQuantiles()) {
         writeNameAndLabels(
-            writer, name, null, data.getLabels(), scheme, "quantile", quantile.getQuantile());
+            writer,
+            family,
+            VALUE,
+            name,
+            data.getLabels(),
+            "quantile",
+            quantile.getQuantile(),
+            scheme);
         writeDouble(writer, quantile.getValue());
         writeScrapeTimestampAndNewline(writer, data);
       }
       if (data.hasCount()) {
-        writeNameAndLabels(writer, countName, null, data.getLabels(), scheme);
+        writeNameAndLabels(writer, family, COUNT, countName, data.getLabels(), null, 0, scheme);
         writeLong(writer, data.getCount());
         writeScrapeTimestampAndNewline(writer, data);
       }
       if (data.hasSum()) {
-        writeNameAndLabels(writer, sumName, null, data.getLabels(), scheme);
+        writeNameAndLabels(writer, family, SUM, sumName, data.getLabels(), null, 0, scheme);
         writeDouble(writer, data.getSum());
         writeScrapeTimestampAndNewline(writer, data);
       }
     }
   }
 
-  private void writeInfo(Writer writer, InfoSnapshot snapshot, EscapingScheme scheme)
+  private void writeInfo(
+      Writer writer,
+      InfoSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
     String infoName = resolveExpositionName(metadata, "_info", scheme);
-    writeMetadataWithFullName(writer, infoName, "gauge", metadata);
+    writeMetadataWithFullName(writer, family, HEADER, infoName, "gauge", metadata);
     for (InfoSnapshot.InfoDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, infoName, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, infoName, data.getLabels(), null, 0, scheme);
       writer.write("1");
       writeScrapeTimestampAndNewline(writer, data);
     }
   }
 
-  private void writeStateSet(Writer writer, StateSetSnapshot snapshot, EscapingScheme scheme)
+  private void writeStateSet(
+      Writer writer,
+      StateSetSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, null, "gauge", metadata, scheme);
+    writeMetadata(writer, family, HEADER, null, "gauge", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     for (StateSetSnapshot.StateSetDataPointSnapshot data : snapshot.getDataPoints()) {
       for (int i = 0; i < data.size(); i++) {
@@ -369,56 +469,26 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
     }
   }
 
-  private void writeUnknown(Writer writer, UnknownSnapshot snapshot, EscapingScheme scheme)
+  private void writeUnknown(
+      Writer writer,
+      UnknownSnapshot snapshot,
+      EncoderCache.Family<byte[]> family,
+      EscapingScheme scheme)
       throws IOException {
     MetricMetadata metadata = snapshot.getMetadata();
-    writeMetadata(writer, null, "untyped", metadata, scheme);
+    writeMetadata(writer, family, HEADER, null, "untyped", metadata, scheme);
     String name = getMetadataName(metadata, scheme);
     for (UnknownSnapshot.UnknownDataPointSnapshot data : snapshot.getDataPoints()) {
-      writeNameAndLabels(writer, name, null, data.getLabels(), scheme);
+      writeNameAndLabels(writer, family, VALUE, name, data.getLabels(), null, 0, scheme);
       writeDouble(writer, data.getValue());
       writeScrapeTimestampAndNewline(writer, data);
     }
   }
 
-  private void writeNameAndLabels(
-      Writer writer,
-      String name,
-      @Nullable String suffix,
-      Labels labels,
-      EscapingScheme escapingScheme)
-      throws IOException {
-    writeNameAndLabels(writer, name, suffix, labels, escapingScheme, null, 0.0);
-  }
-
-  private void writeNameAndLabels(
-      Writer writer,
-      String name,
-      @Nullable String suffix,
-      Labels labels,
-      EscapingScheme scheme,
-      @Nullable String additionalLabelName,
-      double additionalLabelValue)
-      throws IOException {
-    boolean metricInsideBraces = false;
-    // If the name does not pass the legacy validity check, we must put the
-    // metric name inside the braces.
-    if (!PrometheusNaming.isValidLegacyMetricName(name)) {
-      metricInsideBraces = true;
-      writer.write('{');
-    }
-    writeName(writer, suffix != null ? name + suffix : name, NameType.Metric);
-    if (!labels.isEmpty() || additionalLabelName != null) {
-      writeLabels(
-          writer, labels, additionalLabelName, additionalLabelValue, metricInsideBraces, scheme);
-    } else if (metricInsideBraces) {
-      writer.write('}');
-    }
-    writer.write(' ');
-  }
-
   private void writeMetadata(
       Writer writer,
+      EncoderCache.Family<byte[]> family,
+      int slot,
       @Nullable String suffix,
       String typeString,
       MetricMetadata metadata,
@@ -426,18 +496,29 @@ public class PrometheusTextFormatWriter implements ExpositionFormatWriter {
       throws IOException {
     String baseName = getMetadataName(metadata, scheme);
     String name = suffix != null ? baseName + suffix : baseName;
-    if (metadata.getHelp() != null && !metadata.getHelp().isEmpty()) {
-      writer.write("# HELP ");
-      writeName(writer, name, NameType.Metric);
-      writer.write(' ');
-      writeEscapedHelp(writer, metadata.getHelp());
-      writer.write('\n');
+    writeMetadataWithFullName(writer, family, slot, name, typeString, metadata);
+  }
+
+  private void writeMetadataWithFullName(
+      Writer writer,
+      EncoderCache.Family<byte[]> family,
+      int slot,
+      String fullName,
+      String typeString,
+      MetricMetadata metadata)
+      throws IOException {
+    if (!family.isEnabled()) {
+      writeMetadataWithFullName(writer, fullName, typeString, metadata);
+      return;
     }
-    writer.write("# TYPE ");
-    writeName(writer, name, NameType.Metric);
-    writer.write(' ');
-    writer.write(typeString);
-    writer.write('\n');
+    byte[] encoded = family.get(slot);
+    if (encoded == null) {
+      Utf8Writer utf8Writer = new Utf8Writer(128);
+      writeMetadataWithFullName(utf8Writer, fullName, typeString, metadata);
+      encoded = utf8Writer.toByteArray();
+      family.put(slot, encoded);
+    }
+    writeUtf8(writer, encoded);
   }
 
   private void writeMetadataWithFullName(
@@ -16,6 +16,7 @@ import io.prometheus.metrics.model.snapshots.SummarySnapshot;
 import io.prometheus.metrics.model.snapshots.UnknownSnapshot;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -67,6 +68,10 @@ public class TextFormatUtil {
   }
 
   static void writeLong(Writer writer, long value) throws IOException {
+    if (writer instanceof Utf8Writer) {
+      ((Utf8Writer) writer).writeLong(value);
+      return;
+    }
     if (value == Long.MIN_VALUE) {
       writer.write("-9223372036854775808");
       return;
@@ -86,6 +91,10 @@ public class TextFormatUtil {
   }
 
   static void writeDouble(Writer writer, double d) throws IOException {
+    if (writer instanceof Utf8Writer) {
+      ((Utf8Writer) writer).writeDouble(d);
+      return;
+    }
     if (d == Double.POSITIVE_INFINITY) {
       writer.write("+Inf");
     } else if (d == Double.NEGATIVE_INFINITY) {
@@ -204,6 +213,113 @@ public class TextFormatUtil {
     writer.write('}');
   }
 
+  /**
+   * Write {@code name{labels} } followed by the value. The {@code additionalLabelName} is optional,
+   * it is used for the {@code le} label of histogram buckets and the {@code quantile} label of
+   * summaries.
+   *
+   * <p>If the {@code family} is enabled, the UTF-8 encoded name and labels are taken from the
+   * cache, so that only the {@code additionalLabelValue} needs to be formatted.
+   */
+  static void writeNameAndLabels(
+      Writer writer,
+      EncoderCache.Family<byte[]> family,
+      int slot,
+      String name,
+      Labels labels,
+      @Nullable String additionalLabelName,
+      double additionalLabelValue,
+      EscapingScheme scheme)
+      throws IOException {
+    if (!family.isEnabled()) {
+      writeNameAndLabels(writer, name, labels, additionalLabelName, additionalLabelValue, scheme);
+      return;
+    }
+    byte[] prefix = family.get(labels, slot);
+    if (prefix == null) {
+      Utf8Writer encoded = new Utf8Writer(64);
+      writeNameAndLabelsPrefix(encoded, name, labels, additionalLabelName, scheme);
+      prefix = encoded.toByteArray();
+      family.put(labels, slot, prefix);
+    }
+    writeUtf8(writer, prefix);
+    if (additionalLabelName != null) {
+      writeDouble(writer, additionalLabelValue);
+      writer.write("\"} ");
+    }
+  }
+
+  static void writeNameAndLabels(
+      Writer writer,
+      String name,
+      Labels labels,
+      @Nullable String additionalLabelName,
+      double additionalLabelValue,
+      EscapingScheme scheme)
+      throws IOException {
+    writeNameAndLabelsPrefix(writer, name, labels, additionalLabelName, scheme);
+    if (additionalLabelName != null) {
+      writeDouble(writer, additionalLabelValue);
+      writer.write("\"} ");
+    }
+  }
+
+  /**
+   * Everything up to the value, or up to the value of the additional label if {@code
+   * additionalLabelName} is not {@code null}.
+   */
+  private static void writeNameAndLabelsPrefix(
+      Writer writer,
+      String name,
+      Labels labels,
+      @Nullable String additionalLabelName,
+      EscapingScheme scheme)
+      throws IOException {
+    boolean metricInsideBraces = false;
+    // If the name does not pass the legacy validity check, we must put the
+    // metric name inside the braces.
+    if (!PrometheusNaming.isValidLegacyMetricName(name)) {
+      metricInsideBraces = true;
+      writer.write('{');
+    }
+    writeName(writer, name, NameType.Metric);
+    if (!labels.isEmpty() || additionalLabelName != null) {
+      if (!metricInsideBraces) {
+        writer.write('{');
+      }
+      for (int i = 0; i < labels.size(); i++) {
+        if (i > 0 || metricInsideBraces) {
+          writer.write(",");
+        }
+        writeName(writer, SnapshotEscaper.getSnapshotLabelName(labels, i, scheme), NameType.Label);
+        writer.write("=\"");
+        writeEscapedString(writer, labels.getValue(i));
+        writer.write("\"");
+      }
+      if (additionalLabelName != null) {
+        if (!labels.isEmpty() || metricInsideBraces) {
+          writer.write(",");
+        }
+        writer.write(additionalLabelName);
+        writer.write("=\"");
+        return;
+      }
+      writer.write('}');
+    } else if (metricInsideBraces) {
+      writer.write('}');
+    }
+    writer.write(' ');
+  }
+
+  /** Write a cached value from the {@link EncoderCache}. */
+  static void writeUtf8(Writer writer, byte[] utf8) throws IOException {
+    if (writer instanceof Utf8Writer) {
+      ((Utf8Writer) writer).writeUtf8(utf8);
+    } else {
+      writer.write(new String(utf8, StandardCharsets.UTF_8));
+    }
+  }
+
   static void writeName(Writer writer, String name, NameType nameType) throws IOException {
     switch (nameType) {
       case Metric:
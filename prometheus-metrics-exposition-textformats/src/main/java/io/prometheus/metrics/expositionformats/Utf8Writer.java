@@ -0,0 +1,350 @@
+package io.prometheus.metrics.expositionformats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * {@link Writer} that encodes UTF-8 directly into a byte buffer.
+ *
+ * <p>This replaces {@code new BufferedWriter(new OutputStreamWriter(out, UTF_8))} in the text
+ * format writers: There is no intermediate {@code char[]} buffer and no {@link
+ * java.nio.charset.CharsetEncoder}, ASCII characters are copied to the buffer one byte per char,
+ * and {@link #writeLong(long)} and {@link #writeDouble(double)} format numbers without allocating a
+ * {@link String}.
+ *
+ * <p>The buffer is re-used by the next {@link Utf8Writer} after {@link #close()}. {@link #close()}
+ * does not flush and does not close the underlying {@link OutputStream}.
+ *
+ * <p>Not thread safe.
+ */
+final class Utf8Writer extends Writer {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final AtomicReference<byte[]> pooledBuffer = new AtomicReference<>();
+
+  private static final long[] LONG_POW10 = new long[19];
+  private static final double[] DOUBLE_POW10 = new double[LONG_POW10.length];
+
+  static {
+    LONG_POW10[0] = 1;
+    DOUBLE_POW10[0] = 1;
+    for (int i = 1; i < LONG_POW10.length; i++) {
+      LONG_POW10[i] = LONG_POW10[i - 1] * 10;
+      DOUBLE_POW10[i] = LONG_POW10[i];
+    }
+  }
+
+  // Maximum number of fraction digits for the fast path in writeDouble()
+  private static final int MAX_FRACTION_DIGITS = 7;
+
+  @Nullable private final OutputStream out;
+  private byte[] buffer;
+  private int pos;
+  private char highSurrogate; // 0 if there is no pending high surrogate
+  private boolean closed;
+
+  /** Write to {@code out}. Call {@link #flush()} when done. */
+  Utf8Writer(OutputStream out) {
+    this.out = out;
+    byte[] pooled = pooledBuffer.getAndSet(null);
+    this.buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+  }
+
+  /** Write to a growing buffer. Call {@link #toByteArray()} when done. */
+  Utf8Writer(int initialCapacity) {
+    this.out = null;
+    this.buffer = new byte[initialCapacity];
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    writeChar((char) c);
+  }
+
+  @Override
+  public void write(char[] chars, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      char c = chars[i];
+      if (c < 0x80 && highSurrogate == 0) {
+        ensureCapacity(1);
+        buffer[pos++] = (byte) c;
+      } else {
+        writeChar(c);
+      }
+    }
+  }
+
+  @Override
+  public void write(String s) throws IOException {
+    write(s, 0, s.length());
+  }
+
+  @Override
+  public void write(String s, int off, int len) throws IOException {
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      if (pos == buffer.length) {
+        ensureCapacity(1);
+      }
+      // ASCII fast path: copy as many chars as fit into the buffer.
+      int limit = Math.min(end, i + buffer.length - pos);
+      if (highSurrogate == 0) {
+        while (i < limit) {
+          char c = s.charAt(i);
+          if (c >= 0x80) {
+            break;
+          }
+          buffer[pos++] = (byte) c;
+          i++;
+        }
+      }
+      if (i < limit) {
+        writeChar(s.charAt(i++));
+      }
+    }
+  }
+
+  /** Write bytes that are already UTF-8 encoded. */
+  void writeUtf8(byte[] utf8) throws IOException {
+    flushHighSurrogate();
+    if (utf8.length > buffer.length - pos) {
+      if (out != null && utf8.length > buffer.length) {
+        flushBuffer();
+        out.write(utf8);
+        return;
+      }
+      ensureCapacity(utf8.length);
+    }
+    System.arraycopy(utf8, 0, buffer, pos, utf8.length);
+    pos += utf8.length;
+  }
+
+  /** Same as {@code write(Long.toString(value))}. */
+  void writeLong(long value) throws IOException {
+    flushHighSurrogate();
+    if (value == Long.MIN_VALUE) {
+      write("-9223372036854775808");
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[pos++] = '-';
+      value = -value;
+    }
+    writeDigits(value, numberOfDigits(value));
+  }
+
+  /**
+   * Same as {@code write(Double.toString(value))}, except that infinity is written as {@code +Inf}
+   * and {@code -Inf}.
+   */
+  void writeDouble(double value) throws IOException {
+    if (value == Double.POSITIVE_INFINITY) {
+      write("+Inf");
+    } else if (value == Double.NEGATIVE_INFINITY) {
+      write("-Inf");
+    } else if (!writeShortDouble(value)) {
+      write(Double.toString(value));
+    }
+  }
+
+  /**
+   * Fast path for {@link #writeDouble(double)}. Values in the range where {@link
+   * Double#toString(double)} uses plain notation are written with the smallest number of fraction
+   * digits that parses back to the same double, up to {@link #MAX_FRACTION_DIGITS}. Integer values
+   * in the range where {@link Double#toString(double)} uses scientific notation are written in
+   * scientific notation. This is the shortest representation, which is what {@link
+   * Double#toString(double)} returns.
+   *
+   * <p>Returns {@code false} if the value is not covered by the fast path, for example {@code
+   * 1.0E-5} or {@code 0.30000000000000004}.
+   */
+  private boolean writeShortDouble(double value) throws IOException {
+    flushHighSurrogate();
+    if (value == 0) {
+      write(Double.doubleToRawLongBits(value) < 0 ? "-0.0" : "0.0");
+      return true;
+    }
+    double abs = Math.abs(value);
+    if (abs >= 1e-3 && abs < 1e7) {
+      for (int fractionDigits = 0; fractionDigits <= MAX_FRACTION_DIGITS; fractionDigits++) {
+        double scaled = abs * DOUBLE_POW10[fractionDigits];
+        long candidate = Math.round(scaled);
+        // The decimal candidate / 10^fractionDigits parses back to abs if the division, which is
+        // exact up to the last bit, yields abs. Because of the rounding of scaled the candidate
+        // might be off by one.
+        long digits;
+        if (candidate / DOUBLE_POW10[fractionDigits] == abs) {
+          digits = candidate;
+        } else if ((candidate - 1) / DOUBLE_POW10[fractionDigits] == abs) {
+          digits = candidate - 1;
+        } else if ((candidate + 1) / DOUBLE_POW10[fractionDigits] == abs) {
+          digits = candidate + 1;
+        } else {
+          continue;
+        }
+        // If the distance between two doubles is not small compared to the last digit, there might
+        // be other decimals with the same length that parse to abs, and Double.toString() picks
+        // the one closest to the exact value. Leave that to Double.toString().
+        if (Math.ulp(abs) * DOUBLE_POW10[fractionDigits + 1] >= 1) {
+          return false;
+        }
+        ensureCapacity(2 + 2 * 19);
+        if (value < 0) {
+          buffer[pos++] = '-';
+        }
+        long integerPart = digits / LONG_POW10[fractionDigits];
+        writeDigits(integerPart, numberOfDigits(integerPart));
+        buffer[pos++] = '.';
+        if (fractionDigits == 0) {
+          buffer[pos++] = '0';
+        } else {
+          writeDigits(digits % LONG_POW10[fractionDigits], fractionDigits);
+        }
+        return true;
+      }
+      return false;
+    }
+    if (abs >= 1e7 && abs < 1e15 && abs == Math.rint(abs)) {
+      long digits = (long) abs;
+      int exponent = numberOfDigits(digits) - 1;
+      while (digits % 10 == 0) {
+        digits /= 10;
+      }
+      int n = numberOfDigits(digits);
+      ensureCapacity(2 + n + 4);
+      if (value < 0) {
+        buffer[pos++] = '-';
+      }
+      // d.dddEn
+      writeDigits(digits / LONG_POW10[n - 1], 1);
+      buffer[pos++] = '.';
+      if (n == 1) {
+        buffer[pos++] = '0';
+      } else {
+        writeDigits(digits % LONG_POW10[n - 1], n - 1);
+      }
+      buffer[pos++] = 'E';
+      writeDigits(exponent, numberOfDigits(exponent));
+      return true;
+    }
+    return false;
+  }
+
+  /** Writes the last {@code n} digits of the non-negative {@code value}, padded with zeros. */
+  private void writeDigits(long value, int n) {
+    for (int i = pos + n - 1; i >= pos; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    pos += n;
+  }
+
+  private static int numberOfDigits(long nonNegativeValue) {
+    int n = 1;
+    while (n < LONG_POW10.length && nonNegativeValue >= LONG_POW10[n]) {
+      n++;
+    }
+    return n;
+  }
+
+  private void writeChar(char c) throws IOException {
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        ensureCapacity(4);
+        buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      writeMalformed();
+    }
+    if (c < 0x80) {
+      ensureCapacity(1);
+      buffer[pos++] = (byte) c;
+    } else if (c < 0x800) {
+      ensureCapacity(2);
+      buffer[pos++] = (byte) (0xC0 | (c >> 6));
+      buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      writeMalformed();
+    } else {
+      ensureCapacity(3);
+      buffer[pos++] = (byte) (0xE0 | (c >> 12));
+      buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  /** Unpaired surrogates are replaced with {@code '?'}, like {@link java.io.OutputStreamWriter}. */
+  private void writeMalformed() throws IOException {
+    ensureCapacity(1);
+    buffer[pos++] = '?';
+  }
+
+  private void flushHighSurrogate() throws IOException {
+    if (highSurrogate != 0) {
+      highSurrogate = 0;
+      writeMalformed();
+    }
+  }
+
+  private void ensureCapacity(int n) throws IOException {
+    if (buffer.length - pos < n) {
+      if (closed) {
+        throw new IOException("Writer closed");
+      }
+      if (out == null) {
+        buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, pos + n));
+      } else {
+        flushBuffer();
+      }
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (out != null && pos > 0) {
+      out.write(buffer, 0, pos);
+      pos = 0;
+    }
+  }
+
+  /** The bytes written so far. Only for writers created with {@link #Utf8Writer(int)}. */
+  byte[] toByteArray() throws IOException {
+    flushHighSurrogate();
+    return Arrays.copyOf(buffer, pos);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushHighSurrogate();
+    flushBuffer();
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  /** Return the buffer to the pool. Does not flush and does not close the underlying stream. */
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      if (out != null && buffer.length == BUFFER_SIZE) {
+        pooledBuffer.set(buffer);
+      }
+      buffer = new byte[0];
+      pos = 0;
+    }
+  }
+}
@@ -3,9 +3,11 @@ package io.prometheus.metrics.expositionformats;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import io.prometheus.metrics.config.EscapingScheme;
 import io.prometheus.metrics.model.registry.Collector;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.GaugeSnapshot;
 import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
@@ -256,4 +258,37 @@ class DuplicateNamesExpositionTest {
 
     assertThat(output).isEqualTo(expected);
   }
+
+  @Test
+  void testWriteIncrementally_sameOutputAsWrite() throws IOException {
+    PrometheusRegistry registry = getPrometheusRegistry();
+    registry.register(
+        new Collector() {
+          @Override
+          public MetricSnapshot collect() {
+            return GaugeSnapshot.builder()
+                .name("active_sessions")
+                .dataPoint(GaugeSnapshot.GaugeDataPointSnapshot.builder().value(3).build())
+                .build();
+          }
+
+          @Override
+          public String getPrometheusName() {
+            return "active_sessions";
+          }
+        });
+    ExpositionFormatWriter[] writers = {
+      PrometheusTextFormatWriter.create(),
+      PrometheusTextFormatWriter.builder().setIncludeCreatedTimestamps(true).build(),
+      OpenMetricsTextFormatWriter.create(),
+      OpenMetrics2TextFormatWriter.create()
+    };
+    for (ExpositionFormatWriter writer : writers) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      writer.write(expected, registry.scrape(), EscapingScheme.ALLOW_UTF8);
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      writer.writeIncrementally(actual, registry.scrapeIncrementally(), EscapingScheme.ALLOW_UTF8);
+      assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8));
+    }
+  }
 }
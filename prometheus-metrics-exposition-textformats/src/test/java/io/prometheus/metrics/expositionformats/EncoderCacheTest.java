@@ -0,0 +1,129 @@
+package io.prometheus.metrics.expositionformats;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.Labels;
+import io.prometheus.metrics.model.snapshots.MetricMetadata;
+import org.junit.jupiter.api.Test;
+
+class EncoderCacheTest {
+
+  private final MetricMetadata metadata = new MetricMetadata("requests");
+  private final Labels a = Labels.of("path", "/a");
+  private final Labels b = Labels.of("path", "/b");
+
+  @Test
+  void testCachedFromSecondWrite() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 100);
+
+    EncoderCache.Family<String> family = write(cache, a, b);
+    assertThat(family.isEnabled()).isFalse();
+    assertThat(cache.size()).isZero();
+
+    family = write(cache, a, b);
+    assertThat(family.isEnabled()).isTrue();
+    assertThat(cache.size()).isEqualTo(2);
+
+    family = cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING);
+    assertThat(family.get(0)).isEqualTo("header");
+    assertThat(family.get(a, 0)).isEqualTo("/a 0");
+    assertThat(family.get(a, 1)).isEqualTo("/a 1");
+    assertThat(family.get(b, 0)).isEqualTo("/b 0");
+    family.close();
+  }
+
+  @Test
+  void testLabelsAreComparedByIdentity() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 100);
+    write(cache, a);
+    write(cache, a);
+
+    EncoderCache.Family<String> family = cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING);
+    assertThat(family.get(a, 0)).isEqualTo("/a 0");
+    assertThat(family.get(Labels.of("path", "/a"), 0)).isNull();
+    assertThat(
+            cache.family(new MetricMetadata("requests"), EscapingScheme.UNDERSCORE_ESCAPING).get(0))
+        .isNull();
+    assertThat(cache.family(metadata, EscapingScheme.ALLOW_UTF8).get(0)).isNull();
+  }
+
+  @Test
+  void testRemovedDataPointsAreEvicted() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 100);
+    write(cache, a, b);
+    write(cache, a, b);
+    assertThat(cache.size()).isEqualTo(2);
+
+    write(cache, a);
+    assertThat(cache.size()).isEqualTo(1);
+
+    EncoderCache.Family<String> family = cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING);
+    assertThat(family.get(a, 0)).isEqualTo("/a 0");
+    assertThat(family.get(b, 0)).isNull();
+  }
+
+  @Test
+  void testMaxDataPoints() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 1);
+    write(cache, a, b);
+    write(cache, a, b);
+    assertThat(cache.size()).isEqualTo(1);
+
+    EncoderCache.Family<String> family = cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING);
+    assertThat(family.get(a, 0)).isEqualTo("/a 0");
+    assertThat(family.get(b, 0)).isNull();
+  }
+
+  @Test
+  void testDisabledForNewLabelsOnEachWrite() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 100);
+    write(cache, Labels.of("path", "/a"));
+    write(cache, Labels.of("path", "/a"));
+    assertThat(cache.size()).isEqualTo(1);
+
+    write(cache, Labels.of("path", "/a"));
+    assertThat(cache.size()).isZero();
+    assertThat(cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING).isEnabled()).isFalse();
+  }
+
+  @Test
+  void testDisabled() {
+    EncoderCache<String> cache = new EncoderCache<>(2, 0);
+    write(cache, a);
+    EncoderCache.Family<String> family = write(cache, a);
+    assertThat(family.isEnabled()).isFalse();
+    assertThat(family.get(a, 0)).isNull();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  void testInvalidArguments() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new EncoderCache<String>(0, 100));
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new EncoderCache<String>(1, -1));
+  }
+
+  /** Write a metric family the way the exposition format writers do. */
+  private EncoderCache.Family<String> write(EncoderCache<String> cache, Labels... dataPoints) {
+    EncoderCache.Family<String> family = cache.family(metadata, EscapingScheme.UNDERSCORE_ESCAPING);
+    if (family.get(0) == null) {
+      family.put(0, "header");
+    }
+    for (Labels labels : dataPoints) {
+      for (int slot = 0; slot < 2; slot++) {
+        String value = labels.getValue(0) + " " + slot;
+        String cached = family.get(labels, slot);
+        if (cached == null) {
+          family.put(labels, slot, value);
+        } else {
+          assertThat(cached).isEqualTo(value);
+        }
+      }
+    }
+    family.close();
+    return family;
+  }
+}
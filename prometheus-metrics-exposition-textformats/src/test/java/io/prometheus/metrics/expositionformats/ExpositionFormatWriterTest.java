@@ -1,8 +1,13 @@
 package io.prometheus.metrics.expositionformats;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot;
+import io.prometheus.metrics.model.snapshots.CounterSnapshot.CounterDataPointSnapshot;
+import io.prometheus.metrics.model.snapshots.Labels;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -31,6 +36,57 @@ class ExpositionFormatWriterTest {
     assertThat(writer.toDebugString(new MetricSnapshots())).isEqualTo("# EOF\n");
   }
 
+  @Test
+  void encoderCacheDisabled() throws IOException {
+    MetricSnapshots snapshots =
+        MetricSnapshots.of(
+            CounterSnapshot.builder()
+                .name("requests")
+                .help("help")
+                .dataPoint(
+                    CounterDataPointSnapshot.builder()
+                        .labels(Labels.of("path", "/a"))
+                        .value(1.0)
+                        .build())
+                .dataPoint(
+                    CounterDataPointSnapshot.builder()
+                        .labels(Labels.of("path", "/b"))
+                        .value(2.0)
+                        .build())
+                .build());
+    assertSameOutput(
+        OpenMetricsTextFormatWriter.create(),
+        OpenMetricsTextFormatWriter.builder().setEncoderCacheSize(0).build(),
+        snapshots);
+    assertSameOutput(
+        PrometheusTextFormatWriter.create(),
+        PrometheusTextFormatWriter.builder().setEncoderCacheSize(0).build(),
+        snapshots);
+  }
+
+  private static void assertSameOutput(
+      ExpositionFormatWriter cached, ExpositionFormatWriter uncached, MetricSnapshots snapshots)
+      throws IOException {
+    // the cache is used from the second write on
+    for (int i = 0; i < 3; i++) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      cached.write(expected, snapshots, EscapingScheme.ALLOW_UTF8);
+      uncached.write(actual, snapshots, EscapingScheme.ALLOW_UTF8);
+      assertThat(actual.toString(UTF_8)).isEqualTo(expected.toString(UTF_8)).contains("/b");
+    }
+  }
+
+  @Test
+  void encoderCacheSizeMustNotBeNegative() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> OpenMetricsTextFormatWriter.builder().setEncoderCacheSize(-1))
+        .withMessage("-1: encoderCacheSize must be >= 0");
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> PrometheusTextFormatWriter.builder().setEncoderCacheSize(-1))
+        .withMessage("-1: encoderCacheSize must be >= 0");
+  }
+
   @Test
   void isAvailable() {
     assertThat(writer.isAvailable()).isTrue();
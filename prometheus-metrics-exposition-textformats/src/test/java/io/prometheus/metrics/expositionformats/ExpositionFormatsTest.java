@@ -3140,31 +3140,25 @@ class ExpositionFormatsTest {
 
   private void assertOpenMetricsText(
       String expected, MetricSnapshot snapshot, EscapingScheme escapingScheme) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
     OpenMetricsTextFormatWriter writer =
         OpenMetricsTextFormatWriter.builder().setCreatedTimestampsEnabled(true).build();
-    writer.write(out, MetricSnapshots.of(snapshot), escapingScheme);
-    assertThat(out).hasToString(expected);
+    assertWrite(expected, writer, snapshot, escapingScheme);
   }
 
   private void assertOpenMetricsTextWithExemplarsOnAllTimeSeries(
       String expected, MetricSnapshot snapshot) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
     OpenMetricsTextFormatWriter writer =
         OpenMetricsTextFormatWriter.builder()
             .setCreatedTimestampsEnabled(true)
             .setExemplarsOnAllMetricTypesEnabled(true)
             .build();
-    writer.write(out, MetricSnapshots.of(snapshot), EscapingScheme.UNDERSCORE_ESCAPING);
-    assertThat(out).hasToString(expected);
+    assertWrite(expected, writer, snapshot, EscapingScheme.UNDERSCORE_ESCAPING);
   }
 
   private void assertOpenMetricsTextWithoutCreated(String expected, MetricSnapshot snapshot)
       throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
     OpenMetricsTextFormatWriter writer = OpenMetricsTextFormatWriter.create();
-    writer.write(out, MetricSnapshots.of(snapshot), EscapingScheme.UNDERSCORE_ESCAPING);
-    assertThat(out).hasToString(expected);
+    assertWrite(expected, writer, snapshot, EscapingScheme.UNDERSCORE_ESCAPING);
   }
 
   private void assertPrometheusText(String expected, MetricSnapshot snapshot) throws IOException {
@@ -3173,10 +3167,11 @@ class ExpositionFormatsTest {
 
   private void assertPrometheusText(
       String expected, MetricSnapshot snapshot, EscapingScheme escapingScheme) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    getPrometheusWriter(PrometheusTextFormatWriter.builder().setIncludeCreatedTimestamps(true))
-        .write(out, MetricSnapshots.of(snapshot), escapingScheme);
-    assertThat(out).hasToString(expected);
+    assertWrite(
+        expected,
+        getPrometheusWriter(PrometheusTextFormatWriter.builder().setIncludeCreatedTimestamps(true)),
+        snapshot,
+        escapingScheme);
   }
 
   @SuppressWarnings("deprecation")
@@ -3187,10 +3182,28 @@ class ExpositionFormatsTest {
 
   private void assertPrometheusTextWithoutCreated(String expected, MetricSnapshot snapshot)
       throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    getPrometheusWriter(PrometheusTextFormatWriter.builder())
-        .write(out, MetricSnapshots.of(snapshot), EscapingScheme.UNDERSCORE_ESCAPING);
-    assertThat(out).hasToString(expected);
+    assertWrite(
+        expected,
+        getPrometheusWriter(PrometheusTextFormatWriter.builder()),
+        snapshot,
+        EscapingScheme.UNDERSCORE_ESCAPING);
+  }
+
+  /**
+   * Write the snapshot three times with the same writer: The first write is not cached, the second
+   * write fills the {@link EncoderCache}, and the third write is served from the cache.
+   */
+  private static void assertWrite(
+      String expected,
+      ExpositionFormatWriter writer,
+      MetricSnapshot snapshot,
+      EscapingScheme escapingScheme)
+      throws IOException {
+    for (int i = 0; i < 3; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writer.write(out, MetricSnapshots.of(snapshot), escapingScheme);
+      assertThat(out).hasToString(expected);
+    }
   }
 
   protected void assertPrometheusProtobuf(String expected, MetricSnapshot snapshot) {}
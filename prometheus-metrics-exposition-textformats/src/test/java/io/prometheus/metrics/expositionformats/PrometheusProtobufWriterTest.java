@@ -4,6 +4,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 
 import io.prometheus.metrics.config.EscapingScheme;
+import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
 import org.junit.jupiter.api.Test;
 
 class PrometheusProtobufWriterTest {
@@ -36,6 +40,36 @@ class PrometheusProtobufWriterTest {
         .isInstanceOf(UnsupportedOperationException.class);
   }
 
+  @Test
+  void writeIncrementally() {
+    assertThatCode(
+            () ->
+                writer.writeIncrementally(
+                    null, Collections.emptyIterator(), EscapingScheme.ALLOW_UTF8))
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void delegate() throws IOException {
+    // any writer will do to test the delegation
+    PrometheusProtobufWriter delegating =
+        new PrometheusProtobufWriter(OpenMetricsTextFormatWriter.create());
+    assertThat(delegating.isAvailable()).isTrue();
+    assertThat(delegating.toDebugString(new MetricSnapshots(), EscapingScheme.ALLOW_UTF8))
+        .isEqualTo("# EOF\n");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    delegating.write(out, new MetricSnapshots(), EscapingScheme.ALLOW_UTF8);
+    assertThat(out).hasToString("# EOF\n");
+
+    out.reset();
+    delegating.writeIncrementally(
+        out,
+        Collections.singletonList(new MetricSnapshots()).iterator(),
+        EscapingScheme.ALLOW_UTF8);
+    assertThat(out).hasToString("# EOF\n");
+  }
+
   @Test
   void toDebugString() {
     assertThatCode(() -> writer.toDebugString(null, EscapingScheme.ALLOW_UTF8))
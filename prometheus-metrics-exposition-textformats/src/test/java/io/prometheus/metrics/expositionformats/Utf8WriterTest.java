@@ -0,0 +1,148 @@
+package io.prometheus.metrics.expositionformats;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class Utf8WriterTest {
+
+  @Test
+  void testWriteString() throws IOException {
+    String[] strings = {"", "abc", "ä", "€", "日本語", "emoji 😀 and more", "mixed: aä€😀z"};
+    for (String s : strings) {
+      assertThat(write(s)).isEqualTo(s.getBytes(UTF_8));
+    }
+  }
+
+  @Test
+  void testWriteLargeString() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      sb.append("label_value_").append(i).append(i % 7 == 0 ? "ä" : "").append(' ');
+    }
+    String s = sb.toString();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      writer.write(s);
+      writer.flush();
+    }
+    assertThat(out.toByteArray()).isEqualTo(s.getBytes(UTF_8));
+  }
+
+  @Test
+  void testSurrogatePairInSeparateWrites() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Utf8Writer writer = new Utf8Writer(out)) {
+      writer.write('\uD83D');
+      writer.write('\uDE00');
+      writer.flush();
+    }
+    assertThat(out.toByteArray()).isEqualTo("😀".getBytes(UTF_8));
+  }
+
+  @Test
+  void testUnpairedSurrogates() throws IOException {
+    assertThat(new String(write("a\uD83Db"), UTF_8)).isEqualTo("a?b");
+    assertThat(new String(write("a\uDE00b"), UTF_8)).isEqualTo("a?b");
+    assertThat(new String(write("a\uD83D"), UTF_8)).isEqualTo("a?");
+  }
+
+  @Test
+  void testWriteLong() throws IOException {
+    long[] values = {0, 1, -1, 9, 10, 99, 100, 12345, -12345, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      assertThat(writeLong(value)).isEqualTo(Long.toString(value));
+    }
+    Random random = new Random(1);
+    for (int i = 0; i < 10_000; i++) {
+      long value = random.nextLong() >> random.nextInt(64);
+      assertThat(writeLong(value)).isEqualTo(Long.toString(value));
+    }
+  }
+
+  @Test
+  void testWriteDouble() throws IOException {
+    double[] values = {
+      0.0,
+      -0.0,
+      1.0,
+      -1.0,
+      0.1,
+      0.001,
+      0.0009999,
+      1.0E-5,
+      123.45,
+      -123.45,
+      0.30000000000000004,
+      9999999.0,
+      1.0E7,
+      1.2345678E7,
+      1.0E15,
+      1.0E23,
+      Double.MAX_VALUE,
+      Double.MIN_VALUE,
+      Double.NaN,
+      (double) Long.MAX_VALUE,
+    };
+    for (double value : values) {
+      assertThat(writeDouble(value)).isEqualTo(Double.toString(value));
+    }
+    assertThat(writeDouble(Double.POSITIVE_INFINITY)).isEqualTo("+Inf");
+    assertThat(writeDouble(Double.NEGATIVE_INFINITY)).isEqualTo("-Inf");
+  }
+
+  @Test
+  void testWriteDoubleRandom() throws IOException {
+    Random random = new Random(1);
+    for (int i = 0; i < 100_000; i++) {
+      double value;
+      switch (i % 4) {
+        case 0:
+          // typical metric values: few fraction digits
+          value = random.nextInt(100_000_000) / Math.pow(10, random.nextInt(9));
+          break;
+        case 1:
+          // counters, byte sizes, timestamps
+          value = (double) (random.nextLong() >>> random.nextInt(64));
+          break;
+        case 2:
+          value = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+          break;
+        default:
+          value = Double.longBitsToDouble(random.nextLong());
+      }
+      assertThat(writeDouble(value)).as("%s", value).isEqualTo(Double.toString(value));
+    }
+  }
+
+  @Test
+  void testWriteUtf8() throws IOException {
+    Utf8Writer writer = new Utf8Writer(1);
+    writer.write("a");
+    writer.writeUtf8("bä".getBytes(UTF_8));
+    writer.write('c');
+    assertThat(new String(writer.toByteArray(), UTF_8)).isEqualTo("abäc");
+  }
+
+  private static byte[] write(String s) throws IOException {
+    Utf8Writer writer = new Utf8Writer(4);
+    writer.write(s);
+    return writer.toByteArray();
+  }
+
+  private static String writeLong(long value) throws IOException {
+    Utf8Writer writer = new Utf8Writer(4);
+    writer.writeLong(value);
+    return new String(writer.toByteArray(), UTF_8);
+  }
+
+  private static String writeDouble(double value) throws IOException {
+    Utf8Writer writer = new Utf8Writer(4);
+    writer.writeDouble(value);
+    return new String(writer.toByteArray(), UTF_8);
+  }
+}
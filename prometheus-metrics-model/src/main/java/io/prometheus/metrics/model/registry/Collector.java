@@ -64,6 +64,17 @@ public interface Collector {
     }
   }
 
+  /**
+   * Like {@link #collect()}, but may omit data points that were not updated since {@code
+   * generation}, see {@link ScrapeGeneration}.
+   *
+   * <p>The default implementation returns all data points, because it doesn't know which data
+   * points changed. Override this if the collector tracks changes.
+   */
+  default MetricSnapshot collectChangedSince(long generation) {
+    return collect();
+  }
+
   /**
    * Returns a registration-time descriptor for this metric family.
    *
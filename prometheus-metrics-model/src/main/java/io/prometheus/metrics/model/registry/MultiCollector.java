@@ -57,6 +57,17 @@ public interface MultiCollector {
     return result.build();
   }
 
+  /**
+   * Like {@link #collect()}, but may omit data points that were not updated since {@code
+   * generation}, see {@link ScrapeGeneration}.
+   *
+   * <p>The default implementation returns all data points, because it doesn't know which data
+   * points changed. Override this if the collector tracks changes.
+   */
+  default MetricSnapshots collectChangedSince(long generation) {
+    return collect();
+  }
+
   /**
    * Returns registration-time descriptors for the metric families collected by this collector.
    *
@@ -1,6 +1,7 @@
 package io.prometheus.metrics.model.registry;
 
 import static java.util.Collections.emptySet;
+import static java.util.Comparator.comparing;
 
 import io.prometheus.metrics.annotations.StableApi;
 import io.prometheus.metrics.model.snapshots.MetricFamilyDescriptor;
@@ -8,13 +9,22 @@ import io.prometheus.metrics.model.snapshots.MetricMetadata;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
 import io.prometheus.metrics.model.snapshots.Unit;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
@@ -37,6 +47,9 @@ public class PrometheusRegistry {
    */
   private final ConcurrentHashMap<String, String> expositionNameOwners = new ConcurrentHashMap<>();
 
+  /** See {@link #getCollectorTimeouts()}. */
+  private final LongAdder collectorTimeouts = new LongAdder();
+
   /** Stores the registration details for a Collector at registration time. */
   private static class CollectorRegistration {
     final String prometheusName;
@@ -455,64 +468,378 @@ public class PrometheusRegistry {
     }
     List<MetricSnapshot> allSnapshots = new ArrayList<>();
     for (Collector collector : collectors) {
-      CollectorRegistration reg = collectorMetadata.get(collector);
-      String prometheusName =
-          reg != null ? reg.prometheusName : getDeprecatedPrometheusName(collector);
+      String prometheusName = getPrometheusName(collector);
       // prometheusName == null means the name is unknown, and we have to scrape to learn the name.
       // prometheusName != null means we can skip the scrape if the name is excluded.
-      // Also test the original name (e.g. "events_total" for a counter named "events").
-      String expositionName = reg != null ? reg.expositionBasePrometheusName : null;
-      if (prometheusName == null
-          || includedNames.test(prometheusName)
-          || (expositionName != null && includedNames.test(expositionName))) {
-        MetricSnapshot snapshot =
-            scrapeRequest == null
-                ? collector.collect(includedNames)
-                : collector.collect(includedNames, scrapeRequest);
+      if (prometheusName == null || isIncluded(collector, prometheusName, includedNames)) {
+        MetricSnapshot snapshot = collect(collector, includedNames, scrapeRequest);
         if (snapshot != null) {
           allSnapshots.add(snapshot);
         }
       }
     }
     for (MultiCollector collector : multiCollectors) {
-      List<MultiCollectorRegistration> registrations = multiCollectorMetadata.get(collector);
-      List<String> prometheusNames = getDeprecatedPrometheusNames(collector);
-      // empty prometheusNames means the names are unknown, and we have to scrape to learn the
-      // names.
-      // non-empty prometheusNames means we can exclude the collector if all names are excluded by
-      // the filter.
-      boolean excluded =
-          (registrations != null && !registrations.isEmpty()) || !prometheusNames.isEmpty();
-      if (registrations != null) {
-        for (MultiCollectorRegistration registration : registrations) {
-          if (includedNames.test(registration.prometheusName)) {
-            excluded = false;
-            break;
+      if (!isExcluded(collector, includedNames)) {
+        MetricSnapshots snapshots = collect(collector, includedNames, scrapeRequest);
+        for (MetricSnapshot snapshot : snapshots) {
+          if (snapshot != null) {
+            allSnapshots.add(snapshot);
+          }
+        }
+      }
+    }
+
+    MetricSnapshots.Builder result = MetricSnapshots.builder();
+    for (MetricSnapshot snapshot : allSnapshots) {
+      result.metricSnapshot(snapshot);
+    }
+    return result.build();
+  }
+
+  /**
+   * Like {@link #scrape(Predicate, PrometheusScrapeRequest)}, but collectors are called in parallel
+   * on {@code executor}. This is useful if some collectors are slow, for example because they query
+   * JMX or an external system, so that the scrape takes as long as the slowest collector rather
+   * than the sum of all collectors.
+   *
+   * <p>The result is the same as with {@link #scrape(Predicate, PrometheusScrapeRequest)}, except
+   * for collectors that did not return within {@code collectorTimeout}: These are cancelled, their
+   * metrics are omitted, and they are counted in {@link #getCollectorTimeouts()}. The timeout
+   * counts from the start of the scrape, so if there are more collectors than threads in the {@code
+   * executor}, time waiting in the queue counts as well. If a collector throws an exception, the
+   * exception is re-thrown.
+   *
+   * <p>The scrape handler of the exporters calls this method instead of {@link #scrape(Predicate,
+   * PrometheusScrapeRequest)} if parallel collection is enabled. Subclasses that override {@code
+   * scrape()} should override this method as well, for example to return {@code
+   * scrape(includedNames, scrapeRequest)}.
+   *
+   * @param includedNames only include metrics with these names, or {@code null} for all metrics.
+   * @param scrapeRequest passed to the collectors, may be {@code null}.
+   * @param executor for calling the collectors.
+   * @param collectorTimeout maximum time to wait for the collectors, or {@code null} for no
+   *     timeout.
+   */
+  public MetricSnapshots scrapeInParallel(
+      @Nullable Predicate<String> includedNames,
+      @Nullable PrometheusScrapeRequest scrapeRequest,
+      Executor executor,
+      @Nullable Duration collectorTimeout) {
+    List<FutureTask<MetricSnapshots>> tasks = new ArrayList<>();
+    for (Collector collector : collectors) {
+      String prometheusName = includedNames == null ? null : getPrometheusName(collector);
+      if (prometheusName == null || isIncluded(collector, prometheusName, includedNames)) {
+        tasks.add(
+            new FutureTask<>(
+                () -> {
+                  MetricSnapshot snapshot = collect(collector, includedNames, scrapeRequest);
+                  return snapshot == null ? new MetricSnapshots() : new MetricSnapshots(snapshot);
+                }));
+      }
+    }
+    for (MultiCollector collector : multiCollectors) {
+      if (!isExcluded(collector, includedNames)) {
+        tasks.add(new FutureTask<>(() -> collect(collector, includedNames, scrapeRequest)));
+      }
+    }
+    try {
+      for (FutureTask<MetricSnapshots> task : tasks) {
+        executor.execute(task);
+      }
+      Long deadline =
+          collectorTimeout == null ? null : System.nanoTime() + collectorTimeout.toNanos();
+      MetricSnapshots.Builder result = MetricSnapshots.builder();
+      for (FutureTask<MetricSnapshots> task : tasks) {
+        MetricSnapshots snapshots = await(task, deadline);
+        if (snapshots == null) {
+          collectorTimeouts.increment();
+        } else {
+          for (MetricSnapshot snapshot : snapshots) {
+            if (snapshot != null) {
+              result.metricSnapshot(snapshot);
+            }
+          }
+        }
+      }
+      return result.build();
+    } finally {
+      // no-op for tasks that are done
+      for (FutureTask<MetricSnapshots> task : tasks) {
+        task.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Number of collectors that were omitted from the result of {@link #scrapeInParallel(Predicate,
+   * PrometheusScrapeRequest, Executor, Duration)} because they did not return within the timeout.
+   * Use this to tell incomplete scrapes from complete ones, for example by exposing it as a
+   * counter:
+   *
+   * <pre>{@code
+   * CounterWithCallback.builder()
+   *     .name("prometheus_scrape_collector_timeouts_total")
+   *     .help("Collectors omitted from the scrape because they timed out")
+   *     .callback(callback -> callback.call(registry.getCollectorTimeouts()))
+   *     .register(registry);
+   * }</pre>
+   */
+  public long getCollectorTimeouts() {
+    return collectorTimeouts.sum();
+  }
+
+  /** Returns {@code null} if the deadline has passed before the task completed. */
+  @Nullable
+  private static MetricSnapshots await(FutureTask<MetricSnapshots> task, @Nullable Long deadline) {
+    try {
+      if (deadline == null) {
+        return task.get();
+      }
+      return task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for collectors.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /** See {@link #scrapeIncrementally(Predicate, PrometheusScrapeRequest)}. */
+  public Iterator<MetricSnapshots> scrapeIncrementally() {
+    return scrapeIncrementally(null, null);
+  }
+
+  /**
+   * Like {@link #scrape(Predicate, PrometheusScrapeRequest)}, but collectors are called one metric
+   * name at a time while iterating, so that exporters can write each metric family and release it
+   * before the next one is collected. This limits the memory used by a scrape to the largest metric
+   * family rather than the whole registry.
+   *
+   * <p>Each element contains the snapshots with the same Prometheus name, in the same order as
+   * {@link #scrape(Predicate, PrometheusScrapeRequest)} would return them. Names without snapshots
+   * are skipped.
+   *
+   * <p>Collectors are ordered by the name they were registered with. Collectors without a known
+   * name and {@link MultiCollector}s, which return all their snapshots at once, are collected when
+   * this method is called.
+   *
+   * <p>The scrape handler of the exporters calls this method instead of {@link #scrape(Predicate,
+   * PrometheusScrapeRequest)}. Subclasses that override {@code scrape()} should override this
+   * method as well, for example to return {@code Collections.singletonList(scrape(includedNames,
+   * scrapeRequest)).iterator()}.
+   *
+   * @param includedNames only include metrics with these names, or {@code null} for all metrics.
+   * @param scrapeRequest passed to the collectors, may be {@code null}.
+   */
+  public Iterator<MetricSnapshots> scrapeIncrementally(
+      @Nullable Predicate<String> includedNames, @Nullable PrometheusScrapeRequest scrapeRequest) {
+    List<PendingCollect> pending = new ArrayList<>();
+    for (Collector collector : collectors) {
+      String prometheusName = getPrometheusName(collector);
+      if (prometheusName == null) {
+        MetricSnapshot snapshot = collect(collector, includedNames, scrapeRequest);
+        if (snapshot != null) {
+          pending.add(new PendingCollect(snapshot));
+        }
+      } else if (isIncluded(collector, prometheusName, includedNames)) {
+        pending.add(new PendingCollect(prometheusName, collector));
+      }
+    }
+    for (MultiCollector collector : multiCollectors) {
+      if (!isExcluded(collector, includedNames)) {
+        for (MetricSnapshot snapshot : collect(collector, includedNames, scrapeRequest)) {
+          if (snapshot != null) {
+            pending.add(new PendingCollect(snapshot));
           }
         }
       }
-      for (String prometheusName : prometheusNames) {
-        if (includedNames.test(prometheusName)) {
+    }
+    pending.sort(comparing(p -> p.prometheusName));
+    return new IncrementalScrape(pending, includedNames, scrapeRequest);
+  }
+
+  @Nullable
+  private String getPrometheusName(Collector collector) {
+    CollectorRegistration reg = collectorMetadata.get(collector);
+    return reg != null ? reg.prometheusName : getDeprecatedPrometheusName(collector);
+  }
+
+  private boolean isIncluded(
+      Collector collector, String prometheusName, @Nullable Predicate<String> includedNames) {
+    if (includedNames == null || includedNames.test(prometheusName)) {
+      return true;
+    }
+    // Also test the original name (e.g. "events_total" for a counter named "events").
+    CollectorRegistration reg = collectorMetadata.get(collector);
+    String expositionName = reg != null ? reg.expositionBasePrometheusName : null;
+    return expositionName != null && includedNames.test(expositionName);
+  }
+
+  private boolean isExcluded(MultiCollector collector, @Nullable Predicate<String> includedNames) {
+    if (includedNames == null) {
+      return false;
+    }
+    List<MultiCollectorRegistration> registrations = multiCollectorMetadata.get(collector);
+    List<String> prometheusNames = getDeprecatedPrometheusNames(collector);
+    // empty prometheusNames means the names are unknown, and we have to scrape to learn the
+    // names.
+    // non-empty prometheusNames means we can exclude the collector if all names are excluded by
+    // the filter.
+    boolean excluded =
+        (registrations != null && !registrations.isEmpty()) || !prometheusNames.isEmpty();
+    if (registrations != null) {
+      for (MultiCollectorRegistration registration : registrations) {
+        if (includedNames.test(registration.prometheusName)) {
           excluded = false;
           break;
         }
       }
-      if (!excluded) {
-        MetricSnapshots snapshots =
-            scrapeRequest == null
-                ? collector.collect(includedNames)
-                : collector.collect(includedNames, scrapeRequest);
-        for (MetricSnapshot snapshot : snapshots) {
+    }
+    for (String prometheusName : prometheusNames) {
+      if (includedNames.test(prometheusName)) {
+        excluded = false;
+        break;
+      }
+    }
+    return excluded;
+  }
+
+  @Nullable
+  private static MetricSnapshot collect(
+      Collector collector,
+      @Nullable Predicate<String> includedNames,
+      @Nullable PrometheusScrapeRequest scrapeRequest) {
+    if (includedNames == null) {
+      return scrapeRequest == null ? collector.collect() : collector.collect(scrapeRequest);
+    }
+    return scrapeRequest == null
+        ? collector.collect(includedNames)
+        : collector.collect(includedNames, scrapeRequest);
+  }
+
+  private static MetricSnapshots collect(
+      MultiCollector collector,
+      @Nullable Predicate<String> includedNames,
+      @Nullable PrometheusScrapeRequest scrapeRequest) {
+    if (includedNames == null) {
+      return scrapeRequest == null ? collector.collect() : collector.collect(scrapeRequest);
+    }
+    return scrapeRequest == null
+        ? collector.collect(includedNames)
+        : collector.collect(includedNames, scrapeRequest);
+  }
+
+  /** A collector that will be called, or a snapshot that was already collected. */
+  private static class PendingCollect {
+    final String prometheusName;
+    @Nullable final Collector collector;
+    @Nullable final MetricSnapshot snapshot;
+
+    PendingCollect(String prometheusName, Collector collector) {
+      this.prometheusName = prometheusName;
+      this.collector = collector;
+      this.snapshot = null;
+    }
+
+    PendingCollect(MetricSnapshot snapshot) {
+      this.prometheusName = snapshot.getMetadata().getPrometheusName();
+      this.collector = null;
+      this.snapshot = snapshot;
+    }
+  }
+
+  /** Iterator returned by {@link #scrapeIncrementally(Predicate, PrometheusScrapeRequest)}. */
+  private static class IncrementalScrape implements Iterator<MetricSnapshots> {
+    private final List<PendingCollect> pending;
+    @Nullable private final Predicate<String> includedNames;
+    @Nullable private final PrometheusScrapeRequest scrapeRequest;
+    private int index;
+    @Nullable private MetricSnapshots next;
+
+    IncrementalScrape(
+        List<PendingCollect> pending,
+        @Nullable Predicate<String> includedNames,
+        @Nullable PrometheusScrapeRequest scrapeRequest) {
+      this.pending = pending;
+      this.includedNames = includedNames;
+      this.scrapeRequest = scrapeRequest;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        next = collectNext();
+      }
+      return next != null;
+    }
+
+    @Override
+    public MetricSnapshots next() {
+      MetricSnapshots result = hasNext() ? next : null;
+      if (result == null) {
+        throw new NoSuchElementException();
+      }
+      next = null;
+      return result;
+    }
+
+    @Nullable
+    private MetricSnapshots collectNext() {
+      while (index < pending.size()) {
+        String prometheusName = pending.get(index).prometheusName;
+        List<MetricSnapshot> snapshots = new ArrayList<>(1);
+        while (index < pending.size() && pending.get(index).prometheusName.equals(prometheusName)) {
+          PendingCollect p = pending.get(index);
+          MetricSnapshot snapshot =
+              p.collector != null ? collect(p.collector, includedNames, scrapeRequest) : p.snapshot;
           if (snapshot != null) {
-            allSnapshots.add(snapshot);
+            snapshots.add(snapshot);
           }
+          // release snapshots that were collected up front
+          pending.set(index++, null);
+        }
+        if (!snapshots.isEmpty()) {
+          return new MetricSnapshots(snapshots);
         }
       }
+      return null;
     }
+  }
 
+  /**
+   * Like {@link #scrape()}, but only data points that changed since {@code generation} are
+   * guaranteed to be included, see {@link ScrapeGeneration}. This is for exporters that send deltas
+   * and don't need to process the unchanged data points of large registries.
+   *
+   * <p>Only metrics with change tracking enabled omit unchanged data points, other collectors
+   * return all data points. Removed data points are not reported. Snapshots without data points are
+   * included, so that all metric families are known.
+   *
+   * <p>None of the exporters in this library call this. The scrape handler and the PushGateway must
+   * send complete metric families, and the OpenTelemetry exporter reports cumulative data points.
+   * This is an API for custom exporters that send deltas.
+   */
+  public MetricSnapshots scrapeChangedSince(long generation) {
     MetricSnapshots.Builder result = MetricSnapshots.builder();
-    for (MetricSnapshot snapshot : allSnapshots) {
-      result.metricSnapshot(snapshot);
+    for (Collector collector : collectors) {
+      MetricSnapshot snapshot = collector.collectChangedSince(generation);
+      if (snapshot != null) {
+        result.metricSnapshot(snapshot);
+      }
+    }
+    for (MultiCollector collector : multiCollectors) {
+      for (MetricSnapshot snapshot : collector.collectChangedSince(generation)) {
+        result.metricSnapshot(snapshot);
+      }
     }
     return result.build();
   }
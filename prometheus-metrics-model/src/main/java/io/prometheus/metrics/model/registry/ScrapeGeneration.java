@@ -0,0 +1,39 @@
+package io.prometheus.metrics.model.registry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global counter for incremental scrapes, see {@link PrometheusRegistry#scrapeChangedSince(long)}.
+ *
+ * <p>Metrics with change tracking remember the generation in which each data point was last
+ * updated. A consumer that wants only the data points that changed since its previous scrape starts
+ * each scrape with {@link #next()}, and passes the generation of its previous scrape to {@link
+ * PrometheusRegistry#scrapeChangedSince(long)}:
+ *
+ * <pre>{@code
+ * long generation = ScrapeGeneration.next();
+ * MetricSnapshots changed = registry.scrapeChangedSince(previousGeneration);
+ * previousGeneration = generation;
+ * }</pre>
+ *
+ * Multiple consumers can do this independently, each with its own {@code previousGeneration}.
+ */
+public final class ScrapeGeneration {
+
+  private static final AtomicLong generation = new AtomicLong();
+
+  private ScrapeGeneration() {}
+
+  /** The current generation. Data points record this when they are updated. */
+  public static long current() {
+    return generation.get();
+  }
+
+  /**
+   * Start a new generation, and return it. Updates that are not included in a scrape started after
+   * calling this are recorded with this generation or later.
+   */
+  public static long next() {
+    return generation.incrementAndGet();
+  }
+}
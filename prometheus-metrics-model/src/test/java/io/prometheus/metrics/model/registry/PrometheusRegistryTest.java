@@ -11,10 +11,18 @@ import io.prometheus.metrics.model.snapshots.MetricFamilyDescriptor;
 import io.prometheus.metrics.model.snapshots.MetricMetadata;
 import io.prometheus.metrics.model.snapshots.MetricSnapshot;
 import io.prometheus.metrics.model.snapshots.MetricSnapshots;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 
 @SuppressWarnings("deprecation")
@@ -624,6 +632,177 @@ class PrometheusRegistryTest {
     assertThat(snapshots.size()).isZero();
   }
 
+  @Test
+  void scrapeChangedSince_collectorsWithoutChangeTracking_returnAll() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counterA1);
+    registry.register(multiCollector);
+    long generation = ScrapeGeneration.next();
+    assertThat(ScrapeGeneration.current()).isGreaterThanOrEqualTo(generation);
+    assertThat(registry.scrapeChangedSince(generation).size()).isEqualTo(3);
+  }
+
+  @Test
+  void scrapeIncrementally_groupsByNameInScrapeOrder() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(gaugeA);
+    registry.register(noName);
+    registry.register(counterB);
+    registry.register(counterA1);
+    registry.register(counterA2);
+    List<List<String>> groups = new ArrayList<>();
+    List<String> flattened = new ArrayList<>();
+    Iterator<MetricSnapshots> iterator = registry.scrapeIncrementally();
+    while (iterator.hasNext()) {
+      List<String> group = new ArrayList<>();
+      for (MetricSnapshot snapshot : iterator.next()) {
+        group.add(snapshot.getMetadata().getPrometheusName());
+      }
+      groups.add(group);
+      flattened.addAll(group);
+    }
+    assertThat(groups)
+        .containsExactly(
+            asList("counter_a", "counter_a"),
+            asList("counter_b"),
+            asList("gauge_a"),
+            asList("no_name_gauge"));
+    List<String> expected = new ArrayList<>();
+    for (MetricSnapshot snapshot : registry.scrape()) {
+      expected.add(snapshot.getMetadata().getPrometheusName());
+    }
+    assertThat(flattened).isEqualTo(expected);
+    assertThatThrownBy(iterator::next).isInstanceOf(NoSuchElementException.class);
+  }
+
+  @Test
+  void scrapeIncrementally_collectsLazily() {
+    List<String> collected = new ArrayList<>();
+    PrometheusRegistry registry = new PrometheusRegistry();
+    for (String name : asList("b", "a")) {
+      registry.register(
+          new Collector() {
+            @Override
+            public MetricSnapshot collect() {
+              collected.add(name);
+              return CounterSnapshot.builder().name(name).build();
+            }
+
+            @Override
+            public String getPrometheusName() {
+              return name;
+            }
+          });
+    }
+    Iterator<MetricSnapshots> iterator = registry.scrapeIncrementally();
+    assertThat(collected).isEmpty();
+    assertThat(iterator.next().get(0).getMetadata().getName()).isEqualTo("a");
+    assertThat(collected).containsExactly("a");
+    assertThat(iterator.next().get(0).getMetadata().getName()).isEqualTo("b");
+    assertThat(collected).containsExactly("a", "b");
+    assertThat(iterator.hasNext()).isFalse();
+  }
+
+  @Test
+  void scrapeIncrementally_withFilterAndMultiCollector() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counterA1);
+    registry.register(multiCollector);
+    List<String> names = new ArrayList<>();
+    Iterator<MetricSnapshots> iterator =
+        registry.scrapeIncrementally(name -> !name.equals("gauge_a"), null);
+    while (iterator.hasNext()) {
+      MetricSnapshots snapshots = iterator.next();
+      assertThat(snapshots.size()).isEqualTo(1);
+      names.add(snapshots.get(0).getMetadata().getPrometheusName());
+    }
+    assertThat(names).containsExactly("counter_a", "counter_b");
+  }
+
+  @Test
+  void scrapeInParallel_sameResultAsScrape() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counterA1);
+    registry.register(counterA2);
+    registry.register(noName);
+    registry.register(multiCollector);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      assertThat(names(registry.scrapeInParallel(null, null, executor, null)))
+          .isEqualTo(names(registry.scrape()));
+      assertThat(registry.getCollectorTimeouts()).isZero();
+      assertThat(
+              names(
+                  registry.scrapeInParallel(name -> !name.equals("gauge_a"), null, executor, null)))
+          .containsExactly("counter_a", "counter_a", "counter_b", "no_name_gauge");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void scrapeInParallel_omitsCollectorsAfterTimeout() {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counterA1);
+    registry.register(
+        new Collector() {
+          @Override
+          public MetricSnapshot collect() {
+            try {
+              Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+            }
+            return GaugeSnapshot.builder().name("slow").build();
+          }
+
+          @Override
+          public String getPrometheusName() {
+            return "slow";
+          }
+        });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      MetricSnapshots snapshots =
+          registry.scrapeInParallel(null, null, executor, Duration.ofMillis(100));
+      assertThat(names(snapshots)).containsExactly("counter_a");
+      assertThat(registry.getCollectorTimeouts()).isOne();
+      assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void scrapeInParallel_rethrowsCollectorException() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.register(counterA1);
+    registry.register(
+        (Collector)
+            () -> {
+              throw new IllegalStateException("collector failed");
+            });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      assertThatThrownBy(() -> registry.scrapeInParallel(null, null, executor, null))
+          .isInstanceOf(IllegalStateException.class)
+          .hasMessage("collector failed");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<String> names(MetricSnapshots snapshots) {
+    List<String> result = new ArrayList<>();
+    for (MetricSnapshot snapshot : snapshots) {
+      result.add(snapshot.getMetadata().getPrometheusName());
+    }
+    return result;
+  }
+
   @Test
   void clearOk() {
     PrometheusRegistry registry = new PrometheusRegistry();